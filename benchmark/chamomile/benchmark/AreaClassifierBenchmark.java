@@ -0,0 +1,65 @@
+package chamomile.benchmark;
+
+import chamomile.io.AreaClassifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link AreaClassifier} per area, classifying one area at a time and in bulk.
+ *
+ * The areas are a random mix of podocytes and glomeruli, so the branches of the single area classification are hard
+ * to predict.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AreaClassifierBenchmark {
+    private static final int AREA_COUNT = 256;
+
+    private final AreaClassifier mClassifier = AreaClassifier.DEFAULT;
+    private final double[] mAreas = new double[AREA_COUNT];
+    private final byte[] mClasses = new byte[AREA_COUNT];
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < AREA_COUNT; i++) {
+            mAreas[i] = random.nextBoolean()
+                    ? 5.0 + random.nextDouble() * 145.0
+                    : 4000.0 + random.nextDouble() * 11000.0;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(AREA_COUNT)
+    public byte[] classifySingle() {
+        for (int i = 0; i < AREA_COUNT; i++) {
+            mClasses[i] = mClassifier.classify(mAreas[i]);
+        }
+        return mClasses;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(AREA_COUNT)
+    public byte[] classifyBulk() {
+        mClassifier.classify(mAreas, AREA_COUNT, mClasses);
+        return mClasses;
+    }
+}
@@ -0,0 +1,61 @@
+package chamomile.benchmark;
+
+import chamomile.structures.BiopsyResult;
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.PodocyteData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building a {@link BiopsyResult} out of already parsed measurements, including the
+ * {@link com.google.common.collect.ImmutableList} copies made by {@link GlomerulusData#setPodocytesData(List)} and
+ * {@link BiopsyResult#setGlomerulusData(List)}.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BiopsyResultBenchmark {
+
+    @Param({"100", "1000"})
+    public int glomerulusCount;
+
+    @Param({"5", "50"})
+    public int podocytesPerGlomerulus;
+
+    private List<GlomerulusData> mGlomeruli;
+    private List<PodocyteData> mPodocytes;
+
+    @Setup
+    public void setup() {
+        mGlomeruli = SyntheticData.glomeruli(glomerulusCount);
+        mPodocytes = SyntheticData.podocytes(podocytesPerGlomerulus);
+    }
+
+    @Benchmark
+    public BiopsyResult buildBiopsyResult() {
+        for (GlomerulusData glomerulus : mGlomeruli) {
+            glomerulus.setPodocytesData(mPodocytes);
+        }
+
+        BiopsyResult biopsyResult = new BiopsyResult("B1");
+        biopsyResult.setGlomerulusData(mGlomeruli);
+        return biopsyResult;
+    }
+}
@@ -0,0 +1,91 @@
+package chamomile.benchmark;
+
+import chamomile.io.BiopsyDataProcessor;
+import chamomile.io.ChunkedImageDataFileReader;
+import chamomile.io.ImageDataFileReader;
+import chamomile.io.LineImageDataFileReader;
+import chamomile.io.MappedImageDataFileReader;
+import chamomile.structures.BiopsyResult;
+import chamomile.test.SyntheticBiopsyGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing a single image data file through {@link BiopsyDataProcessor}, with every reader.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageDataFileBenchmark {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    @Param({"10", "100", "10000"})
+    public int glomeruliPerImage;
+
+    @Param({"20"})
+    public int podocytesPerGlomerulus;
+
+    @Param({"lines", "mapped", "chunked"})
+    public String reader;
+
+    private Path mDirectory;
+    private String mBiopsyId;
+    private File mBiopsyDirectory;
+    private ImageDataFileReader mReader;
+    private ExecutorService mExecutor;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        mDirectory = SyntheticData.createTempDirectory();
+        SyntheticBiopsyGenerator generator = SyntheticData.cohort(1, 1, glomeruliPerImage, podocytesPerGlomerulus);
+        generator.generate(mDirectory.toFile());
+        mBiopsyId = generator.getBiopsyId(0);
+        mBiopsyDirectory = mDirectory.resolve(mBiopsyId).toFile().getAbsoluteFile();
+        mExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        switch (reader) {
+            case "mapped":
+                mReader = new MappedImageDataFileReader();
+                break;
+            case "chunked":
+                mReader = new ChunkedImageDataFileReader(mExecutor, CHUNK_SIZE);
+                break;
+            default:
+                mReader = new LineImageDataFileReader();
+                break;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mExecutor.shutdownNow();
+        SyntheticData.deleteRecursively(mDirectory);
+    }
+
+    @Benchmark
+    public BiopsyResult parseImageDataFile() throws IOException {
+        return BiopsyDataProcessor.parseAllDataFilesForBiopsy(mBiopsyId, mBiopsyDirectory, mReader);
+    }
+}
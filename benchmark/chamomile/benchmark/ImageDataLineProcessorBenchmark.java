@@ -0,0 +1,63 @@
+package chamomile.benchmark;
+
+import chamomile.io.ImageDataLineProcessor;
+import chamomile.structures.GlomerulusData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ImageDataLineProcessor#processLine(String)} per line.
+ *
+ * Every invocation feeds a whole synthetic file to a new processor, and the score is normalized to lines.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageDataLineProcessorBenchmark {
+    private static final int LINES_PER_INVOCATION = 10000;
+
+    @Param({"5", "50"})
+    public int podocytesPerGlomerulus;
+
+    private String[] mLines;
+
+    @Setup
+    public void setup() {
+        final int glomeruliPerImage = (LINES_PER_INVOCATION - 1) / (podocytesPerGlomerulus + 1);
+        List<String> lines = SyntheticData.imageDataLines(glomeruliPerImage, podocytesPerGlomerulus);
+
+        // Pad with podocytes so that the line count matches the declared operations per invocation
+        mLines = new String[LINES_PER_INVOCATION];
+        for (int i = 0; i < LINES_PER_INVOCATION; i++) {
+            mLines[i] = i < lines.size() ? lines.get(i) : lines.get(2);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES_PER_INVOCATION)
+    public List<GlomerulusData> processLine() {
+        ImageDataLineProcessor processor = new ImageDataLineProcessor(1);
+        for (String line : mLines) {
+            processor.processLine(line);
+        }
+        return processor.getResult();
+    }
+}
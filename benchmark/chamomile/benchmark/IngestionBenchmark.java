@@ -0,0 +1,101 @@
+package chamomile.benchmark;
+
+import chamomile.io.BiopsyDataProcessor;
+import chamomile.structures.BiopsyResult;
+import chamomile.test.SyntheticBiopsyGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures end-to-end ingestion of a cohort directory, sequentially and through the parallel entry point.
+ *
+ * The parallelism is a parameter of the {@link Ingestion} state, so that only the parallel benchmark runs once per
+ * parallelism.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestionBenchmark {
+    private static final int BIOPSY_COUNT = 4;
+
+    @Param({"25"})
+    public int fileCount;
+
+    @Param({"10"})
+    public int glomeruliPerImage;
+
+    @Param({"20"})
+    public int podocytesPerGlomerulus;
+
+    private Path mCohortDirectory;
+    private String mFirstBiopsyId;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        mCohortDirectory = SyntheticData.createTempDirectory().toAbsolutePath();
+        SyntheticBiopsyGenerator generator = SyntheticData.cohort(BIOPSY_COUNT, fileCount, glomeruliPerImage,
+                podocytesPerGlomerulus);
+        generator.generate(mCohortDirectory.toFile());
+        mFirstBiopsyId = generator.getBiopsyId(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticData.deleteRecursively(mCohortDirectory);
+    }
+
+    @Benchmark
+    public List<BiopsyResult> parseAllBiopsies(Ingestion ingestion) throws IOException {
+        return BiopsyDataProcessor.parseAllBiopsies(mCohortDirectory.toFile(), ingestion.mExecutor);
+    }
+
+    @Benchmark
+    public BiopsyResult parseSingleBiopsySequentially() throws IOException {
+        File biopsyDirectory = mCohortDirectory.resolve(mFirstBiopsyId).toFile();
+        return BiopsyDataProcessor.parseAllDataFilesForBiopsy(mFirstBiopsyId, biopsyDirectory);
+    }
+
+    /**
+     * Executor of the parallel entry point.
+     */
+    @State(Scope.Benchmark)
+    public static class Ingestion {
+        @Param({"1", "4"})
+        public int parallelism;
+
+        private ExecutorService mExecutor;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            mExecutor = BiopsyDataProcessor.newIngestionExecutor(parallelism);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            mExecutor.shutdownNow();
+        }
+    }
+}
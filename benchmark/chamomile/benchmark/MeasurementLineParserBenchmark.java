@@ -0,0 +1,64 @@
+package chamomile.benchmark;
+
+import chamomile.io.ImageDataColumn;
+import chamomile.io.MeasurementLineParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link MeasurementLineParser#parse(CharSequence)} per line, converting either all columns or only the
+ * Area and Feret columns.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeasurementLineParserBenchmark {
+    private static final int LINES_PER_INVOCATION = 10000;
+
+    @Param({"all", "geometry"})
+    public String columns;
+
+    private String[] mLines;
+    private MeasurementLineParser mParser;
+
+    @Setup
+    public void setup() {
+        List<String> lines = SyntheticData.imageDataLines(LINES_PER_INVOCATION, 0);
+
+        // Skip the header
+        mLines = lines.subList(1, LINES_PER_INVOCATION + 1).toArray(new String[LINES_PER_INVOCATION]);
+        mParser = columns.equals("all")
+                ? new MeasurementLineParser()
+                : new MeasurementLineParser(EnumSet.of(ImageDataColumn.AREA, ImageDataColumn.FERET));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES_PER_INVOCATION)
+    public double parse() {
+        double sum = 0;
+        for (String line : mLines) {
+            mParser.parse(line);
+            sum += mParser.getArea();
+        }
+        return sum;
+    }
+}
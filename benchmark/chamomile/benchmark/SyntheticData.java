@@ -0,0 +1,103 @@
+package chamomile.benchmark;
+
+import chamomile.structures.GeometryInfo;
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.PodocyteData;
+import chamomile.test.SyntheticBiopsyGenerator;
+import chamomile.test.TestDataUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static chamomile.test.TestDataUtils.HEADER;
+import static chamomile.test.TestDataUtils.randomMeasurement;
+
+/**
+ * Generates synthetic image data for the benchmarks: cohorts on disk with {@link SyntheticBiopsyGenerator}, and image
+ * data lines with an exact number of glomeruli and podocytes with {@link TestDataUtils}.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+final class SyntheticData {
+    private static final long SEED = 42;
+
+    private SyntheticData() {
+        // Disallow instantiation
+    }
+
+    /**
+     * Generates the lines of an image data file, header included.
+     */
+    static List<String> imageDataLines(Random random, int glomeruliPerImage, int podocytesPerGlomerulus) {
+        List<String> lines = new ArrayList<>(1 + glomeruliPerImage * (podocytesPerGlomerulus + 1));
+        lines.add(HEADER);
+
+        int number = 1;
+        for (int i = 0; i < glomeruliPerImage; i++) {
+            lines.add(randomMeasurement(random, number++, 4000.0 + random.nextDouble() * 11000.0));
+            for (int j = 0; j < podocytesPerGlomerulus; j++) {
+                lines.add(randomMeasurement(random, number++, 5.0 + random.nextDouble() * 145.0));
+            }
+        }
+
+        return lines;
+    }
+
+    static List<String> imageDataLines(int glomeruliPerImage, int podocytesPerGlomerulus) {
+        return imageDataLines(new Random(SEED), glomeruliPerImage, podocytesPerGlomerulus);
+    }
+
+    /**
+     * Returns a generator of a cohort of biopsies with the same number of image data files, and the given glomeruli
+     * per image and podocytes per glomerulus on average.
+     */
+    static SyntheticBiopsyGenerator cohort(int biopsyCount, int fileCount, int glomeruliPerImage,
+                                           int podocytesPerGlomerulus) {
+        return new SyntheticBiopsyGenerator(SEED)
+                .withBiopsyCount(biopsyCount)
+                .withImagesPerBiopsy(fileCount)
+                .withGlomeruliPerImage(glomeruliPerImage)
+                .withPodocytesPerGlomerulus(podocytesPerGlomerulus);
+    }
+
+    /**
+     * Builds glomeruli without parsing, as the parser would produce them, with their podocytes not yet set.
+     */
+    static List<GlomerulusData> glomeruli(int count) {
+        Random random = new Random(SEED);
+        List<GlomerulusData> glomeruli = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            glomeruli.add(new GlomerulusData(
+                    new GeometryInfo(4000.0 + random.nextDouble() * 11000.0,
+                            1.0 + random.nextDouble() * 100.0), 1, i + 1));
+        }
+        return glomeruli;
+    }
+
+    static List<PodocyteData> podocytes(int count) {
+        Random random = new Random(SEED);
+        List<PodocyteData> podocytes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            podocytes.add(new PodocyteData(new GeometryInfo(
+                    5.0 + random.nextDouble() * 145.0, 1.0 + random.nextDouble() * 100.0)));
+        }
+        return podocytes;
+    }
+
+    static Path createTempDirectory() throws IOException {
+        return Files.createTempDirectory("chamomile-benchmark");
+    }
+
+    static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
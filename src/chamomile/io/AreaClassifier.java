@@ -0,0 +1,124 @@
+package chamomile.io;
+
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.PodocyteData;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Tells glomeruli apart from podocytes by the area of a measurement.
+ *
+ * A measurement whose area falls within the podocyte range is a podocyte, otherwise if it falls within the glomerulus
+ * range it is a glomerulus, otherwise it's illegal. The default ranges are the ones of {@link PodocyteData} and
+ * {@link GlomerulusData}.
+ *
+ * Areas can be classified one at a time or in bulk into an array of class codes. The bulk loop has no data dependent
+ * branches, and both always give the same class for the same area.
+ *
+ * Instances are immutable and thread safe.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class AreaClassifier {
+
+    /**
+     * Class code of an area out of both ranges.
+     */
+    public static final byte ILLEGAL = 0;
+
+    /**
+     * Class code of a podocyte area.
+     */
+    public static final byte PODOCYTE = 1;
+
+    /**
+     * Class code of a glomerulus area.
+     */
+    public static final byte GLOMERULUS = 2;
+
+    /**
+     * Classifier with the ranges of {@link PodocyteData} and {@link GlomerulusData}.
+     */
+    public static final AreaClassifier DEFAULT = new AreaClassifier(PodocyteData.MIN_PODOCYTE_AREA,
+            PodocyteData.MAX_PODOCYTE_AREA, GlomerulusData.MIN_GLOMERULOUS_AREA, GlomerulusData.MAX_GLOMERULOUS_AREA);
+
+    private final double mMinPodocyteArea;
+    private final double mMaxPodocyteArea;
+    private final double mMinGlomerulusArea;
+    private final double mMaxGlomerulusArea;
+
+    /**
+     * Creates a classifier. Both ranges are inclusive, and the podocyte range takes precedence if they overlap.
+     * @param minPodocyteArea minimum area of a podocyte.
+     * @param maxPodocyteArea maximum area of a podocyte.
+     * @param minGlomerulusArea minimum area of a glomerulus.
+     * @param maxGlomerulusArea maximum area of a glomerulus.
+     */
+    public AreaClassifier(double minPodocyteArea, double maxPodocyteArea, double minGlomerulusArea,
+                          double maxGlomerulusArea) {
+        Preconditions.checkArgument(minPodocyteArea <= maxPodocyteArea, "Empty podocyte area range");
+        Preconditions.checkArgument(minGlomerulusArea <= maxGlomerulusArea, "Empty glomerulus area range");
+        mMinPodocyteArea = minPodocyteArea;
+        mMaxPodocyteArea = maxPodocyteArea;
+        mMinGlomerulusArea = minGlomerulusArea;
+        mMaxGlomerulusArea = maxGlomerulusArea;
+    }
+
+    /**
+     * Classifies an area.
+     * @param area area of a measurement.
+     * @return {@link #PODOCYTE}, {@link #GLOMERULUS} or {@link #ILLEGAL}, which is also the class of {@code NaN}.
+     */
+    public byte classify(double area) {
+        final boolean podocyte = area >= mMinPodocyteArea & area <= mMaxPodocyteArea;
+        final boolean glomerulus = area >= mMinGlomerulusArea & area <= mMaxGlomerulusArea;
+        return podocyte ? PODOCYTE : glomerulus ? GLOMERULUS : ILLEGAL;
+    }
+
+    /**
+     * Classifies the first areas of an array.
+     * @param areas areas of the measurements.
+     * @param count number of areas to classify.
+     * @param classes receives the class of every area at the same index, see {@link #classify(double)}.
+     */
+    public void classify(double[] areas, int count, byte[] classes) {
+        Preconditions.checkPositionIndex(count, areas.length);
+        Preconditions.checkPositionIndex(count, classes.length);
+
+        final double minPodocyteArea = mMinPodocyteArea;
+        final double maxPodocyteArea = mMaxPodocyteArea;
+        final double minGlomerulusArea = mMinGlomerulusArea;
+        final double maxGlomerulusArea = mMaxGlomerulusArea;
+        for (int i = 0; i < count; i++) {
+            final double area = areas[i];
+            final boolean podocyte = area >= minPodocyteArea & area <= maxPodocyteArea;
+            final boolean glomerulus = area >= minGlomerulusArea & area <= maxGlomerulusArea;
+            classes[i] = podocyte ? PODOCYTE : glomerulus ? GLOMERULUS : ILLEGAL;
+        }
+    }
+
+    public double getMinPodocyteArea() {
+        return mMinPodocyteArea;
+    }
+
+    public double getMaxPodocyteArea() {
+        return mMaxPodocyteArea;
+    }
+
+    public double getMinGlomerulusArea() {
+        return mMinGlomerulusArea;
+    }
+
+    public double getMaxGlomerulusArea() {
+        return mMaxGlomerulusArea;
+    }
+
+    public String toString() {
+        return MoreObjects.toStringHelper(AreaClassifier.class)
+                .add("minPodocyteArea", mMinPodocyteArea)
+                .add("maxPodocyteArea", mMaxPodocyteArea)
+                .add("minGlomerulusArea", mMinGlomerulusArea)
+                .add("maxGlomerulusArea", mMaxGlomerulusArea)
+                .toString();
+    }
+}
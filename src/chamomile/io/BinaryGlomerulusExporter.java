@@ -0,0 +1,186 @@
+package chamomile.io;
+
+import chamomile.structures.GeometryInfo;
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.PodocyteData;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Exporter writing glomeruli and podocytes as compact length prefixed binary records, readable with a
+ * {@link java.io.DataInputStream}.
+ *
+ * The file starts with the {@link #MAGIC} int and the {@link #VERSION} short. Every record then starts with the int
+ * length of the rest of the record and its type byte, so readers can skip types they don't know. All values are
+ * big endian:
+ *
+ * <ul>
+ *     <li>{@link #BIOPSY_RECORD}: int biopsy index, UTF-8 biopsy id up to the end of the record. Biopsies are indexed
+ *     consecutively from 0.</li>
+ *     <li>{@link #GLOMERULUS_RECORD}: int biopsy index, int image id, int glomerulus number, double area,
+ *     double feret, int podocyte count.</li>
+ *     <li>{@link #PODOCYTE_RECORD}: int biopsy index, int image id, int glomerulus number, double area,
+ *     double feret.</li>
+ * </ul>
+ *
+ * The podocyte records of a glomerulus follow its glomerulus record. Records are encoded straight into a single
+ * reusable buffer, which is written out whenever it fills up, so no row is ever formatted or allocated.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class BinaryGlomerulusExporter implements GlomerulusExporter {
+
+    /**
+     * Magic number at the start of the exported files, "CHEX".
+     */
+    public static final int MAGIC = 0x43484558;
+
+    /**
+     * Version of the format written by this exporter ({@value}).
+     */
+    public static final short VERSION = 1;
+
+    /**
+     * Type of the records starting a biopsy.
+     */
+    public static final byte BIOPSY_RECORD = 1;
+
+    /**
+     * Type of the glomerulus records.
+     */
+    public static final byte GLOMERULUS_RECORD = 2;
+
+    /**
+     * Type of the podocyte records.
+     */
+    public static final byte PODOCYTE_RECORD = 3;
+
+    /**
+     * Default size of the output buffer in bytes ({@value}).
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Minimum size of the output buffer in bytes ({@value}), enough for any glomerulus or podocyte record.
+     */
+    public static final int MIN_BUFFER_SIZE = 1024;
+
+    private static final int RECORD_HEADER_SIZE = 4 + 1;
+    private static final int GLOMERULUS_RECORD_SIZE = RECORD_HEADER_SIZE + 4 + 4 + 4 + 8 + 8 + 4;
+    private static final int PODOCYTE_RECORD_SIZE = RECORD_HEADER_SIZE + 4 + 4 + 4 + 8 + 8;
+
+    private final OutputStream mOutputStream;
+    private final ByteBuffer mBuffer;
+    private int mBiopsyIndex = -1;
+    private long mGlomerulusCount;
+    private long mPodocyteCount;
+
+    /**
+     * Creates an exporter writing to a stream with the default buffer size, and writes the file header.
+     * @param outputStream stream receiving the records, closed by {@link #close()}.
+     */
+    public BinaryGlomerulusExporter(OutputStream outputStream) throws IOException {
+        this(outputStream, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates an exporter writing to a stream, and writes the file header.
+     * @param outputStream stream receiving the records, closed by {@link #close()}.
+     * @param bufferSize size of the output buffer in bytes, at least {@link #MIN_BUFFER_SIZE}.
+     */
+    public BinaryGlomerulusExporter(OutputStream outputStream, int bufferSize) throws IOException {
+        mOutputStream = Preconditions.checkNotNull(outputStream);
+        Preconditions.checkArgument(bufferSize >= MIN_BUFFER_SIZE);
+        mBuffer = ByteBuffer.allocate(bufferSize);
+        mBuffer.putInt(MAGIC).putShort(VERSION);
+    }
+
+    @Override
+    public void startBiopsy(String biopsyId) throws IOException {
+        final byte[] id = biopsyId.getBytes(StandardCharsets.UTF_8);
+        final int recordSize = RECORD_HEADER_SIZE + 4 + id.length;
+        Preconditions.checkArgument(recordSize <= mBuffer.capacity(), "Biopsy id too long: %s", biopsyId);
+        ensureRemaining(recordSize);
+        mBiopsyIndex++;
+        mBuffer.putInt(recordSize - 4).put(BIOPSY_RECORD).putInt(mBiopsyIndex).put(id);
+    }
+
+    @Override
+    public void accept(GlomerulusData glomerulusData) {
+        Preconditions.checkState(mBiopsyIndex >= 0, "No biopsy started");
+        try {
+            final GeometryInfo geometryInfo = glomerulusData.getGeometryInfo();
+            ensureRemaining(GLOMERULUS_RECORD_SIZE);
+            mBuffer.putInt(GLOMERULUS_RECORD_SIZE - 4).put(GLOMERULUS_RECORD)
+                    .putInt(mBiopsyIndex)
+                    .putInt(glomerulusData.getImageId())
+                    .putInt(glomerulusData.getNumber())
+                    .putDouble(geometryInfo.getArea())
+                    .putDouble(geometryInfo.getFeret())
+                    .putInt(glomerulusData.getPodocytesData().size());
+            for (PodocyteData podocyteData : glomerulusData.getPodocytesData()) {
+                ensureRemaining(PODOCYTE_RECORD_SIZE);
+                mBuffer.putInt(PODOCYTE_RECORD_SIZE - 4).put(PODOCYTE_RECORD)
+                        .putInt(mBiopsyIndex)
+                        .putInt(glomerulusData.getImageId())
+                        .putInt(glomerulusData.getNumber())
+                        .putDouble(podocyteData.getGeometryInfo().getArea())
+                        .putDouble(podocyteData.getGeometryInfo().getFeret());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        mGlomerulusCount++;
+        mPodocyteCount += glomerulusData.getPodocytesData().size();
+    }
+
+    @Override
+    public long getGlomerulusCount() {
+        return mGlomerulusCount;
+    }
+
+    @Override
+    public long getPodocyteCount() {
+        return mPodocyteCount;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+        mOutputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            mOutputStream.close();
+        }
+    }
+
+    public String toString() {
+        return MoreObjects.toStringHelper(BinaryGlomerulusExporter.class)
+                .add("biopsyCount", mBiopsyIndex + 1)
+                .add("glomerulusCount", mGlomerulusCount)
+                .add("podocyteCount", mPodocyteCount)
+                .toString();
+    }
+
+    private void ensureRemaining(int size) throws IOException {
+        if (mBuffer.remaining() < size) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        mOutputStream.write(mBuffer.array(), 0, mBuffer.position());
+        mBuffer.clear();
+    }
+}
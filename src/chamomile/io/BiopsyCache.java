@@ -0,0 +1,223 @@
+package chamomile.io;
+
+import chamomile.structures.BiopsyResult;
+import chamomile.structures.GlomerulusData;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of parsed biopsies, keyed by biopsy directory, for long running processes answering queries about
+ * arbitrary biopsies.
+ *
+ * The size of the cache is bounded by the number of measurements held, i.e. glomeruli plus podocytes, so a few huge
+ * biopsies weigh as much as many small ones. The least recently used biopsies are evicted first. The cache has a single
+ * segment, since Guava splits the maximum weight evenly across segments and would otherwise evict a huge biopsy well
+ * below the bound.
+ *
+ * Every entry keeps a fingerprint of the directory it was parsed from: the names, sizes and modification times of its
+ * files. A biopsy whose directory no longer matches its fingerprint is parsed again on access. Concurrent requests for
+ * a biopsy that isn't cached wait for a single parse.
+ *
+ * The biopsies are shared by all the callers, so they are handed out as unmodifiable views, see
+ * {@link BiopsyResult#unmodifiableView(BiopsyResult)}.
+ *
+ * Instances are thread safe.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class BiopsyCache {
+
+    /**
+     * Default maximum number of measurements held ({@value}), in the order of a gigabyte of heap.
+     */
+    public static final long DEFAULT_MAXIMUM_MEASUREMENTS = 10_000_000;
+
+    private final ImageDataFileReader mReader;
+    private final ExecutorService mExecutor;
+    private final IngestionMode mMode;
+    private final LoadingCache<File, CachedBiopsy> mCache;
+    private final AtomicLong mRefreshCount = new AtomicLong();
+
+    /**
+     * Creates a cache parsing the biopsies sequentially.
+     * @param reader reader used to parse each image file.
+     * @param mode how invalid files are dealt with.
+     * @param maximumMeasurements maximum number of glomeruli and podocytes held.
+     */
+    public BiopsyCache(ImageDataFileReader reader, IngestionMode mode, long maximumMeasurements) {
+        this(reader, null, mode, maximumMeasurements);
+    }
+
+    /**
+     * Creates a cache parsing the image data files of every biopsy concurrently.
+     * @param reader reader used to parse each image file.
+     * @param executor executor used to parse the image files, {@code null} to parse them sequentially.
+     * @param mode how invalid files are dealt with.
+     * @param maximumMeasurements maximum number of glomeruli and podocytes held.
+     */
+    public BiopsyCache(ImageDataFileReader reader, ExecutorService executor, IngestionMode mode,
+                       long maximumMeasurements) {
+        Preconditions.checkArgument(maximumMeasurements >= 0);
+        mReader = Preconditions.checkNotNull(reader);
+        mExecutor = executor;
+        mMode = Preconditions.checkNotNull(mode);
+        mCache = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(maximumMeasurements)
+                .weigher((File directory, CachedBiopsy cachedBiopsy) -> cachedBiopsy.mMeasurementCount)
+                .recordStats()
+                .build(new CacheLoader<File, CachedBiopsy>() {
+                    @Override
+                    public CachedBiopsy load(File directory) throws IOException {
+                        return parse(directory);
+                    }
+                });
+    }
+
+    /**
+     * Returns the parsed biopsy of a directory, parsing it if it isn't cached or if its files changed since it was
+     * parsed. The biopsy is named after the directory.
+     * @param directory an absolute path to the directory containing the image files.
+     * @return unmodifiable biopsy result with the glomeruli of all images sorted by image id.
+     */
+    public BiopsyResult get(File directory) throws IOException {
+        Preconditions.checkArgument(directory.isDirectory());
+        Preconditions.checkArgument(directory.isAbsolute());
+
+        CachedBiopsy cachedBiopsy = getCached(directory);
+        final HashCode fingerprint = fingerprint(directory);
+        if (!cachedBiopsy.mFingerprint.equals(fingerprint)) {
+            // Only the first thread noticing the change removes the entry, the others wait for its parse
+            if (mCache.asMap().remove(directory, cachedBiopsy)) {
+                mRefreshCount.incrementAndGet();
+            }
+            cachedBiopsy = getCached(directory);
+        }
+        return cachedBiopsy.mBiopsyResult;
+    }
+
+    /**
+     * Returns the parsed biopsy of a directory if it's cached, without checking whether its files changed.
+     * @param directory an absolute path to the directory containing the image files.
+     * @return the unmodifiable cached biopsy result, {@code null} if not cached.
+     */
+    public BiopsyResult getIfPresent(File directory) {
+        CachedBiopsy cachedBiopsy = mCache.getIfPresent(directory);
+        return cachedBiopsy == null ? null : cachedBiopsy.mBiopsyResult;
+    }
+
+    public void invalidate(File directory) {
+        mCache.invalidate(directory);
+    }
+
+    public void invalidateAll() {
+        mCache.invalidateAll();
+    }
+
+    /**
+     * Returns the number of biopsies cached.
+     * @return approximate number of entries.
+     */
+    public long size() {
+        return mCache.size();
+    }
+
+    /**
+     * Returns the hit, miss, load time and eviction statistics of the cache. Biopsies parsed again because their files
+     * changed count as misses.
+     * @return snapshot of the statistics.
+     */
+    public CacheStats getStats() {
+        return mCache.stats();
+    }
+
+    /**
+     * Returns the number of cached biopsies that were parsed again because their files changed.
+     * @return number of refreshes.
+     */
+    public long getRefreshCount() {
+        return mRefreshCount.get();
+    }
+
+    public String toString() {
+        return MoreObjects.toStringHelper(BiopsyCache.class)
+                .add("size", size())
+                .add("refreshCount", getRefreshCount())
+                .add("stats", getStats())
+                .toString();
+    }
+
+    private CachedBiopsy getCached(File directory) throws IOException {
+        try {
+            return mCache.get(directory);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private CachedBiopsy parse(File directory) throws IOException {
+        // Taken before parsing, so that changes made while parsing are noticed on the next access
+        final HashCode fingerprint = fingerprint(directory);
+        final BiopsyResult biopsyResult = mExecutor == null
+                ? BiopsyDataProcessor.parseAllDataFilesForBiopsy(directory.getName(), directory, mReader, mMode)
+                : BiopsyDataProcessor.parseAllDataFilesForBiopsy(directory.getName(), directory, mReader, mExecutor,
+                        mMode);
+
+        long measurementCount = 0;
+        for (GlomerulusData glomerulusData : biopsyResult.getGlomerulusData()) {
+            measurementCount += 1 + glomerulusData.getPodocytesData().size();
+        }
+        return new CachedBiopsy(BiopsyResult.unmodifiableView(biopsyResult), fingerprint,
+                (int) Math.min(measurementCount, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Hashes the names, sizes and modification times of the files of a directory.
+     */
+    private static HashCode fingerprint(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Unable to list " + directory);
+        }
+        Arrays.sort(files);
+
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (File file : files) {
+            hasher.putString(file.getName(), StandardCharsets.UTF_8)
+                    .putLong(file.length())
+                    .putLong(file.lastModified());
+        }
+        return hasher.hash();
+    }
+
+    private static final class CachedBiopsy {
+        private final BiopsyResult mBiopsyResult;
+        private final HashCode mFingerprint;
+        private final int mMeasurementCount;
+
+        private CachedBiopsy(BiopsyResult biopsyResult, HashCode fingerprint, int measurementCount) {
+            mBiopsyResult = biopsyResult;
+            mFingerprint = fingerprint;
+            mMeasurementCount = measurementCount;
+        }
+    }
+}
@@ -1,65 +1,736 @@
-package chamomile.io;
-
-import chamomile.structures.BiopsyResult;
-import chamomile.structures.GlomerulusData;
-import com.google.common.base.Preconditions;
-import com.google.common.io.Files;
-import com.google.common.primitives.Ints;
-
-import java.io.File;
-import java.io.IOException;
-import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.List;
-
-/**
- * Utility methods for processing biopsy data information
- *
- * @author Gomez-Avila, Rodrigo
- */
-public final class BiopsyDataProcessor {
-
-    private BiopsyDataProcessor() {
-        // Disallow instantiation
-    }
-
-    /**
-     * Processes all image data files inside a given directory.
-     * @param biopsyId id of the biopsy that the image files are related to.
-     * @param directory an absolute path to the directory containing the image files.
-     * @return
-     */
-    public static BiopsyResult parseAllDataFilesForBiopsy(String biopsyId, final File directory) throws IOException {
-        Preconditions.checkArgument(directory.isDirectory());
-        Preconditions.checkArgument(directory.isAbsolute());
-
-        final File[] imageDataFiles = directory.listFiles(
-                (File dir, String name) -> Files.getFileExtension(name).equals("xls"));
-
-        BiopsyResult biopsyResult = new BiopsyResult(biopsyId);
-
-        List<GlomerulusData> allGlomeruliData = new ArrayList<>();
-
-        for (File file : imageDataFiles) {
-            String filename = Files.getNameWithoutExtension(file.getName());
-            Integer imageId = Ints.tryParse(filename);
-
-            if (imageId == null) {
-                throw new RuntimeException("Found illegal image data file: " + file.getName());
-            }
-
-            List<GlomerulusData> glomeruliData = parseImageDataFile(file, imageId);
-            allGlomeruliData.addAll(glomeruliData);
-        }
-
-        biopsyResult.setGlomerulusData(allGlomeruliData);
-
-        return biopsyResult;
-    }
-
-    private static List<GlomerulusData> parseImageDataFile(final File file, int imageId) throws IOException {
-        Preconditions.checkNotNull(file);
-        Preconditions.checkArgument(imageId > 0);
-        return Files.readLines(file, Charset.defaultCharset(), new ImageDataLineProcessor(imageId));
-    }
-}
+package chamomile.io;
+
+import chamomile.statistics.GlomeruliStatistics;
+import chamomile.structures.BiopsyResult;
+import chamomile.structures.ColumnarBiopsyData;
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.IngestionError;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Utility methods for processing biopsy data information
+ *
+ * The statistics of every image are accumulated while its glomeruli are read, and the statistics of the images parsed
+ * concurrently are merged into the {@link BiopsyResult}, so no second pass over the parsed data is needed.
+ *
+ * By default the first invalid file aborts the ingestion. In {@link IngestionMode#LENIENT} mode invalid glomeruli and
+ * files, including files that can't be read or aren't named after an image id, are left out and reported in
+ * {@link BiopsyResult#getErrors()}, so a single pass always completes and only the failed files need to be fixed.
+ * Only invalid content and I/O failures are recovered from, any other exception is a bug and still aborts. Glomeruli
+ * keep the number of their position in the file, so a quarantined glomerulus leaves a gap in the numbering of its
+ * image and the numbers match the ones in the file's line order whether or not its neighbours were valid.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class BiopsyDataProcessor {
+
+    /**
+     * Order of the errors of a biopsy result, by file and line.
+     */
+    static final Comparator<IngestionError> ERROR_ORDER = Comparator.comparing(IngestionError::getFile)
+            .thenComparingInt(IngestionError::getLineNumber);
+
+    /**
+     * Maximum number of files parsed ahead of a sink when streaming a cohort ({@value}), enough to keep the workers
+     * of any reasonable executor busy.
+     */
+    static final int MAX_PENDING_FILES = 64;
+
+    private BiopsyDataProcessor() {
+        // Disallow instantiation
+    }
+
+    /**
+     * Processes all image data files inside a given directory.
+     * @param biopsyId id of the biopsy that the image files are related to.
+     * @param directory an absolute path to the directory containing the image files.
+     * @return biopsy result with the glomeruli of all images sorted by image id.
+     */
+    public static BiopsyResult parseAllDataFilesForBiopsy(String biopsyId, final File directory) throws IOException {
+        return parseAllDataFilesForBiopsy(biopsyId, directory, new LineImageDataFileReader());
+    }
+
+    /**
+     * Processes all image data files inside a given directory.
+     * @param biopsyId id of the biopsy that the image files are related to.
+     * @param directory an absolute path to the directory containing the image files.
+     * @param reader reader used to parse each image file.
+     * @return biopsy result with the glomeruli of all images sorted by image id.
+     */
+    public static BiopsyResult parseAllDataFilesForBiopsy(String biopsyId, final File directory,
+                                                          ImageDataFileReader reader) throws IOException {
+        return parseAllDataFilesForBiopsy(biopsyId, directory, reader, IngestionMode.STRICT);
+    }
+
+    /**
+     * Processes all image data files inside a given directory.
+     * @param biopsyId id of the biopsy that the image files are related to.
+     * @param directory an absolute path to the directory containing the image files.
+     * @param reader reader used to parse each image file.
+     * @param mode how invalid files are dealt with.
+     * @return biopsy result with the glomeruli of all images sorted by image id.
+     */
+    public static BiopsyResult parseAllDataFilesForBiopsy(String biopsyId, final File directory,
+                                                          ImageDataFileReader reader, IngestionMode mode)
+            throws IOException {
+        Preconditions.checkArgument(directory.isDirectory());
+        Preconditions.checkArgument(directory.isAbsolute());
+        Preconditions.checkNotNull(reader);
+        Preconditions.checkNotNull(mode);
+
+        List<IngestionError> listingErrors = new ArrayList<>();
+        List<ImageDataFile> imageDataFiles = listImageDataFiles(directory, reader, mode, listingErrors);
+        List<ParsedImage> parsedImages = new ArrayList<>(imageDataFiles.size());
+        Closeable prefetch = reader.prefetch(imageDataFiles);
+        try {
+            for (ImageDataFile imageDataFile : imageDataFiles) {
+                parsedImages.add(readImage(imageDataFile, reader, mode));
+            }
+        } finally {
+            prefetch.close();
+        }
+
+        return mergeBiopsyResult(biopsyId, parsedImages, listingErrors);
+    }
+
+    /**
+     * Processes all image data files inside a given directory, parsing the files concurrently.
+     *
+     * The result is exactly the same as the one of {@link #parseAllDataFilesForBiopsy(String, File)}. If parsing
+     * any file fails, the files that haven't been parsed yet are cancelled and the failure is rethrown.
+     *
+     * @param biopsyId id of the biopsy that the image files are related to.
+     * @param directory an absolute path to the directory containing the image files.
+     * @param executor executor used to parse the image files, see {@link #newIngestionExecutor(int)}.
+     * @return biopsy result with the glomeruli of all images sorted by image id.
+     */
+    public static BiopsyResult parseAllDataFilesForBiopsy(String biopsyId, final File directory,
+                                                          ExecutorService executor) throws IOException {
+        return parseAllDataFilesForBiopsy(biopsyId, directory, new LineImageDataFileReader(), executor);
+    }
+
+    /**
+     * Processes all image data files inside a given directory, parsing the files concurrently.
+     * @param biopsyId id of the biopsy that the image files are related to.
+     * @param directory an absolute path to the directory containing the image files.
+     * @param reader reader used to parse each image file.
+     * @param executor executor used to parse the image files, see {@link #newIngestionExecutor(int)}.
+     * @return biopsy result with the glomeruli of all images sorted by image id.
+     *
+     * @see #parseAllDataFilesForBiopsy(String, File, ExecutorService)
+     */
+    public static BiopsyResult parseAllDataFilesForBiopsy(String biopsyId, final File directory,
+                                                          ImageDataFileReader reader, ExecutorService executor)
+            throws IOException {
+        return parseAllDataFilesForBiopsy(biopsyId, directory, reader, executor, IngestionMode.STRICT);
+    }
+
+    /**
+     * Processes all image data files inside a given directory, parsing the files concurrently.
+     * @param biopsyId id of the biopsy that the image files are related to.
+     * @param directory an absolute path to the directory containing the image files.
+     * @param reader reader used to parse each image file.
+     * @param executor executor used to parse the image files, see {@link #newIngestionExecutor(int)}.
+     * @param mode how invalid files are dealt with.
+     * @return biopsy result with the glomeruli of all images sorted by image id.
+     *
+     * @see #parseAllDataFilesForBiopsy(String, File, ExecutorService)
+     */
+    public static BiopsyResult parseAllDataFilesForBiopsy(String biopsyId, final File directory,
+                                                          ImageDataFileReader reader, ExecutorService executor,
+                                                          IngestionMode mode) throws IOException {
+        Preconditions.checkArgument(directory.isDirectory());
+        Preconditions.checkArgument(directory.isAbsolute());
+        Preconditions.checkNotNull(reader);
+        Preconditions.checkNotNull(executor);
+        Preconditions.checkNotNull(mode);
+
+        List<IngestionError> listingErrors = new ArrayList<>();
+        List<ImageDataFile> imageDataFiles = listImageDataFiles(directory, reader, mode, listingErrors);
+        List<ParsedImage> parsedImages = parseImageDataFiles(imageDataFiles, reader, executor, mode);
+
+        return mergeBiopsyResult(biopsyId, parsedImages, listingErrors);
+    }
+
+    /**
+     * Processes all image data files inside a given directory into its columnar representation, parsing the files
+     * concurrently. The glomeruli of every file are added to the columns as soon as the files before it were added
+     * and are not retained, so the object model of the biopsy is never built and at most
+     * {@value #MAX_PENDING_FILES} parsed files are held in memory.
+     * @param biopsyId id of the biopsy that the image files are related to.
+     * @param directory an absolute path to the directory containing the image files.
+     * @param reader reader used to parse each image file.
+     * @param executor executor used to parse the image files, see {@link #newIngestionExecutor(int)}.
+     * @param mode how invalid files are dealt with.
+     * @return columnar data with the same glomeruli, podocytes and errors as
+     *         {@link #parseAllDataFilesForBiopsy(String, File, ImageDataFileReader, ExecutorService, IngestionMode)}.
+     */
+    public static ColumnarBiopsyData parseColumnarBiopsy(String biopsyId, final File directory,
+                                                         ImageDataFileReader reader, ExecutorService executor,
+                                                         IngestionMode mode) throws IOException {
+        Preconditions.checkArgument(directory.isDirectory());
+        Preconditions.checkArgument(directory.isAbsolute());
+        Preconditions.checkNotNull(reader);
+        Preconditions.checkNotNull(executor);
+        Preconditions.checkNotNull(mode);
+
+        List<IngestionError> errors = new ArrayList<>();
+        List<ImageDataFile> imageDataFiles = listImageDataFiles(directory, reader, mode, errors);
+        ColumnarBiopsyData.Builder builder = new ColumnarBiopsyData.Builder(biopsyId);
+        parseImageDataFiles(imageDataFiles, reader, executor, mode, MAX_PENDING_FILES,
+                (int index, ParsedImage parsedImage) -> {
+                    errors.addAll(parsedImage.mErrors);
+                    if (!parsedImage.mRejected) {
+                        for (GlomerulusData glomerulusData : parsedImage.mGlomeruliData) {
+                            builder.addGlomerulus(glomerulusData);
+                        }
+                    }
+                });
+        errors.sort(ERROR_ORDER);
+
+        return builder.setErrors(errors).build();
+    }
+
+    /**
+     * Processes all biopsies inside a given directory. Every sub directory is considered a biopsy named after the
+     * directory. The image data files of all biopsies are parsed concurrently.
+     *
+     * If parsing any file fails, the files that haven't been parsed yet are cancelled and the failure is rethrown.
+     *
+     * @param rootDirectory an absolute path to the directory containing one directory per biopsy.
+     * @param executor executor used to parse the image files, see {@link #newIngestionExecutor(int)}.
+     * @return biopsy results sorted by biopsy id.
+     */
+    public static List<BiopsyResult> parseAllBiopsies(final File rootDirectory, ExecutorService executor)
+            throws IOException {
+        return parseAllBiopsies(rootDirectory, new LineImageDataFileReader(), executor);
+    }
+
+    /**
+     * Processes all biopsies inside a given directory, parsing the image data files concurrently.
+     * @param rootDirectory an absolute path to the directory containing one directory per biopsy.
+     * @param reader reader used to parse each image file.
+     * @param executor executor used to parse the image files, see {@link #newIngestionExecutor(int)}.
+     * @return biopsy results sorted by biopsy id.
+     *
+     * @see #parseAllBiopsies(File, ExecutorService)
+     */
+    public static List<BiopsyResult> parseAllBiopsies(final File rootDirectory, ImageDataFileReader reader,
+                                                      ExecutorService executor) throws IOException {
+        return parseAllBiopsies(rootDirectory, reader, executor, IngestionMode.STRICT);
+    }
+
+    /**
+     * Processes all biopsies inside a given directory, parsing the image data files concurrently.
+     * @param rootDirectory an absolute path to the directory containing one directory per biopsy.
+     * @param reader reader used to parse each image file.
+     * @param executor executor used to parse the image files, see {@link #newIngestionExecutor(int)}.
+     * @param mode how invalid files are dealt with.
+     * @return biopsy results sorted by biopsy id.
+     *
+     * @see #parseAllBiopsies(File, ExecutorService)
+     */
+    public static List<BiopsyResult> parseAllBiopsies(final File rootDirectory, ImageDataFileReader reader,
+                                                      ExecutorService executor, IngestionMode mode)
+            throws IOException {
+        Preconditions.checkNotNull(reader);
+        Preconditions.checkNotNull(executor);
+        Preconditions.checkNotNull(mode);
+
+        List<BiopsyResult> biopsyResults = new ArrayList<>();
+        parseCohort(listCohort(rootDirectory, reader, mode), reader, executor, mode, Integer.MAX_VALUE, null, true,
+                (String biopsyId, List<ParsedImage> parsedImages, List<IngestionError> listingErrors) ->
+                        biopsyResults.add(mergeBiopsyResult(biopsyId, parsedImages, listingErrors)));
+        return biopsyResults;
+    }
+
+    /**
+     * Processes all biopsies inside a given directory, parsing the image data files concurrently, and pushes every
+     * glomerulus to a sink as well, so that e.g. an export is written in the same pass.
+     *
+     * The sink receives the biopsies in biopsy id order and the glomeruli of every biopsy in the same order as
+     * {@link BiopsyResult#getGlomerulusData()}. Glomeruli are pushed on the calling thread once the whole file they
+     * come from has been parsed, so the sink needn't be thread safe and in lenient mode a rejected file never reaches
+     * it. Invalid glomeruli are dealt with according to the mode, the sink is never asked to quarantine them. The
+     * sink is neither flushed nor closed.
+     *
+     * @param rootDirectory an absolute path to the directory containing one directory per biopsy.
+     * @param reader reader used to parse each image file.
+     * @param executor executor used to parse the image files, see {@link #newIngestionExecutor(int)}.
+     * @param mode how invalid files are dealt with.
+     * @param sink sink receiving the glomeruli of all biopsies.
+     * @return biopsy results sorted by biopsy id.
+     *
+     * @see #parseAllBiopsies(File, ExecutorService)
+     */
+    public static List<BiopsyResult> parseAllBiopsies(final File rootDirectory, ImageDataFileReader reader,
+                                                      ExecutorService executor, IngestionMode mode,
+                                                      CohortSink sink) throws IOException {
+        Preconditions.checkNotNull(reader);
+        Preconditions.checkNotNull(executor);
+        Preconditions.checkNotNull(mode);
+        Preconditions.checkNotNull(sink);
+
+        List<BiopsyResult> biopsyResults = new ArrayList<>();
+        parseCohort(listCohort(rootDirectory, reader, mode), reader, executor, mode, Integer.MAX_VALUE, sink, true,
+                (String biopsyId, List<ParsedImage> parsedImages, List<IngestionError> listingErrors) ->
+                        biopsyResults.add(mergeBiopsyResult(biopsyId, parsedImages, listingErrors)));
+        return biopsyResults;
+    }
+
+    /**
+     * Streams all biopsies inside a given directory to a sink without retaining them, parsing the image data files
+     * concurrently. The sink receives the same glomeruli in the same order as with
+     * {@link #parseAllBiopsies(File, ImageDataFileReader, ExecutorService, IngestionMode, CohortSink)}, but at most
+     * {@value #MAX_PENDING_FILES} parsed files are held in memory while the sink catches up, so memory usage doesn't
+     * grow with the size of the cohort.
+     * @param rootDirectory an absolute path to the directory containing one directory per biopsy.
+     * @param reader reader used to parse each image file.
+     * @param executor executor used to parse the image files, see {@link #newIngestionExecutor(int)}.
+     * @param mode how invalid files are dealt with.
+     * @param sink sink receiving the glomeruli of all biopsies.
+     * @return errors found in lenient mode, by biopsy id, file and line.
+     */
+    public static List<IngestionError> streamAllBiopsies(final File rootDirectory, ImageDataFileReader reader,
+                                                         ExecutorService executor, IngestionMode mode,
+                                                         CohortSink sink) throws IOException {
+        Preconditions.checkNotNull(reader);
+        Preconditions.checkNotNull(executor);
+        Preconditions.checkNotNull(mode);
+        Preconditions.checkNotNull(sink);
+
+        List<IngestionError> errors = new ArrayList<>();
+        parseCohort(listCohort(rootDirectory, reader, mode), reader, executor, mode, MAX_PENDING_FILES, sink, false,
+                (String biopsyId, List<ParsedImage> parsedImages, List<IngestionError> listingErrors) -> {
+                    List<IngestionError> biopsyErrors = new ArrayList<>(listingErrors);
+                    for (ParsedImage parsedImage : parsedImages) {
+                        biopsyErrors.addAll(parsedImage.mErrors);
+                    }
+                    biopsyErrors.sort(ERROR_ORDER);
+                    errors.addAll(biopsyErrors);
+                });
+        return errors;
+    }
+
+    /**
+     * Opens a biopsy without parsing it. Only the image data files of the directory are listed, the glomeruli of
+     * every image are parsed the first time they're accessed.
+     * @param biopsyId id of the biopsy that the image files are related to.
+     * @param directory an absolute path to the directory containing the image files.
+     * @param reader reader used to parse each image file.
+     * @param mode how invalid files are dealt with.
+     * @return lazy biopsy result over the image data files of the directory.
+     *
+     * @see LazyBiopsyResult
+     */
+    public static LazyBiopsyResult openBiopsy(String biopsyId, final File directory, ImageDataFileReader reader,
+                                              IngestionMode mode) {
+        Preconditions.checkArgument(directory.isDirectory());
+        Preconditions.checkArgument(directory.isAbsolute());
+        Preconditions.checkNotNull(reader);
+        Preconditions.checkNotNull(mode);
+
+        List<IngestionError> listingErrors = new ArrayList<>();
+        List<ImageDataFile> imageDataFiles = listImageDataFiles(directory, reader, mode, listingErrors);
+        return new LazyBiopsyResult(biopsyId, imageDataFiles, reader, mode, listingErrors);
+    }
+
+    /**
+     * Opens all biopsies inside a given directory without parsing them. Every sub directory is considered a biopsy
+     * named after the directory.
+     * @param rootDirectory an absolute path to the directory containing one directory per biopsy.
+     * @param reader reader used to parse each image file.
+     * @param mode how invalid files are dealt with.
+     * @return lazy biopsy results sorted by biopsy id.
+     *
+     * @see #openBiopsy(String, File, ImageDataFileReader, IngestionMode)
+     */
+    public static List<LazyBiopsyResult> openAllBiopsies(final File rootDirectory, ImageDataFileReader reader,
+                                                         IngestionMode mode) throws IOException {
+        Preconditions.checkArgument(rootDirectory.isDirectory());
+        Preconditions.checkArgument(rootDirectory.isAbsolute());
+
+        final long start = System.nanoTime();
+        File[] biopsyDirectories = rootDirectory.listFiles((File file) -> file.isDirectory());
+        if (biopsyDirectories == null) {
+            throw new IOException("Unable to list biopsies in " + rootDirectory);
+        }
+        Arrays.sort(biopsyDirectories);
+        reader.getMetrics().directoryListed(biopsyDirectories.length, System.nanoTime() - start);
+
+        List<LazyBiopsyResult> biopsyResults = new ArrayList<>(biopsyDirectories.length);
+        for (File biopsyDirectory : biopsyDirectories) {
+            biopsyResults.add(openBiopsy(biopsyDirectory.getName(), biopsyDirectory, reader, mode));
+        }
+        return biopsyResults;
+    }
+
+    /**
+     * Streams all image data files inside a given directory, in image id order, pushing every glomerulus to a sink
+     * as soon as it has been parsed. Unlike {@link #parseAllDataFilesForBiopsy(String, File)} the glomeruli are not
+     * retained, so memory usage doesn't grow with the size of the biopsy.
+     * @param directory an absolute path to the directory containing the image files.
+     * @param reader reader used to parse each image file.
+     * @param sink sink receiving the glomeruli of all images.
+     */
+    public static void streamAllDataFilesForBiopsy(final File directory, ImageDataFileReader reader,
+                                                   GlomerulusSink sink) throws IOException {
+        Preconditions.checkArgument(directory.isDirectory());
+        Preconditions.checkArgument(directory.isAbsolute());
+        Preconditions.checkNotNull(reader);
+        Preconditions.checkNotNull(sink);
+
+        List<ImageDataFile> imageDataFiles = listImageDataFiles(directory, reader, IngestionMode.STRICT, null);
+        Closeable prefetch = reader.prefetch(imageDataFiles);
+        try {
+            for (ImageDataFile imageDataFile : imageDataFiles) {
+                reader.read(imageDataFile, sink);
+            }
+        } finally {
+            prefetch.close();
+        }
+    }
+
+    /**
+     * Creates an executor suitable for concurrent ingestion.
+     *
+     * Any other {@link ExecutorService} can be used instead, e.g. a virtual thread per task executor on runtimes
+     * that support them. The caller is responsible for shutting the executor down.
+     *
+     * @param parallelism maximum number of files parsed at the same time.
+     * @return fork-join pool with the given parallelism.
+     */
+    public static ExecutorService newIngestionExecutor(int parallelism) {
+        Preconditions.checkArgument(parallelism > 0);
+        return new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Lists the image data files of a directory, reporting the time spent to the metrics of the reader.
+     * @param errors receives the files that aren't named after an image id in lenient mode.
+     */
+    private static List<ImageDataFile> listImageDataFiles(File directory, ImageDataFileReader reader,
+                                                          IngestionMode mode, List<IngestionError> errors) {
+        final long start = System.nanoTime();
+        List<ImageDataFile> imageDataFiles;
+        if (mode == IngestionMode.LENIENT) {
+            List<File> illegalFiles = new ArrayList<>();
+            imageDataFiles = ImageDataFile.listImageDataFiles(directory, illegalFiles);
+            for (File illegalFile : illegalFiles) {
+                errors.add(new IngestionError(illegalFile, 0, "File name is not an image id"));
+            }
+        } else {
+            imageDataFiles = ImageDataFile.listImageDataFiles(directory);
+        }
+        reader.getMetrics().directoryListed(imageDataFiles.size(), System.nanoTime() - start);
+        return imageDataFiles;
+    }
+
+    /**
+     * Lists the biopsy directories of a cohort and their image data files.
+     */
+    private static CohortListing listCohort(File rootDirectory, ImageDataFileReader reader, IngestionMode mode)
+            throws IOException {
+        Preconditions.checkArgument(rootDirectory.isDirectory());
+        Preconditions.checkArgument(rootDirectory.isAbsolute());
+
+        final long start = System.nanoTime();
+        File[] biopsyDirectories = rootDirectory.listFiles((File file) -> file.isDirectory());
+        if (biopsyDirectories == null) {
+            throw new IOException("Unable to list biopsies in " + rootDirectory);
+        }
+        Arrays.sort(biopsyDirectories);
+        reader.getMetrics().directoryListed(biopsyDirectories.length, System.nanoTime() - start);
+
+        // The files of all biopsies are parsed at once so that small biopsies don't leave workers idle
+        CohortListing listing = new CohortListing(biopsyDirectories);
+        for (int i = 0; i < biopsyDirectories.length; i++) {
+            List<IngestionError> listingErrors = new ArrayList<>();
+            listing.mImageDataFiles.addAll(listImageDataFiles(biopsyDirectories[i], reader, mode, listingErrors));
+            listing.mBiopsyEnds[i] = listing.mImageDataFiles.size();
+            listing.mListingErrors.add(listingErrors);
+        }
+        return listing;
+    }
+
+    /**
+     * Parses the files of a cohort concurrently, handing every biopsy over to a consumer in biopsy id order.
+     * @param maxPendingFiles maximum number of files parsed ahead of the first one not handed over yet.
+     * @param sink sink receiving the glomeruli of every file, in file order on the calling thread, or {@code null}.
+     * @param retainGlomeruli whether the consumer needs the glomeruli of the parsed images.
+     */
+    private static void parseCohort(CohortListing listing, ImageDataFileReader reader, ExecutorService executor,
+                                    IngestionMode mode, int maxPendingFiles, CohortSink sink, boolean retainGlomeruli,
+                                    BiopsyConsumer consumer) throws IOException {
+        CohortParse cohortParse = new CohortParse(listing, sink, retainGlomeruli, consumer);
+        parseImageDataFiles(listing.mImageDataFiles, reader, executor, mode, maxPendingFiles, cohortParse);
+        cohortParse.finish();
+    }
+
+    /**
+     * Parses the given files concurrently.
+     * @return the parsed images, in the same order as the files.
+     */
+    private static List<ParsedImage> parseImageDataFiles(List<ImageDataFile> imageDataFiles,
+                                                         ImageDataFileReader reader, ExecutorService executor,
+                                                         IngestionMode mode) throws IOException {
+        List<ParsedImage> parsedImages = new ArrayList<>(imageDataFiles.size());
+        parseImageDataFiles(imageDataFiles, reader, executor, mode, Integer.MAX_VALUE,
+                (int index, ParsedImage parsedImage) -> parsedImages.add(parsedImage));
+        return parsedImages;
+    }
+
+    /**
+     * Parses the given files concurrently, handing the parsed images over to a consumer in file order on the calling
+     * thread as soon as all the files before them were handed over. At most the given number of files are submitted
+     * ahead of the first one not handed over yet, so a slow consumer throttles parsing.
+     */
+    private static void parseImageDataFiles(List<ImageDataFile> imageDataFiles, ImageDataFileReader reader,
+                                            ExecutorService executor, IngestionMode mode, int maxPendingFiles,
+                                            ParsedImageConsumer consumer) throws IOException {
+        CompletionService<ParsedImage> completionService = new ExecutorCompletionService<>(executor);
+        final int fileCount = imageDataFiles.size();
+        List<Future<ParsedImage>> futures = new ArrayList<>(Math.min(fileCount, maxPendingFiles));
+
+        Closeable prefetch = reader.prefetch(imageDataFiles);
+        try {
+            int submitted = 0;
+            int consumed = 0;
+            while (consumed < fileCount) {
+                while (submitted < fileCount && submitted - consumed < maxPendingFiles) {
+                    final ImageDataFile imageDataFile = imageDataFiles.get(submitted++);
+                    futures.add(completionService.submit(() -> readImage(imageDataFile, reader, mode)));
+                }
+
+                // Wait in completion order so that the first failure is noticed as soon as it happens
+                completionService.take().get();
+                while (consumed < submitted && futures.get(consumed).isDone()) {
+                    ParsedImage parsedImage = futures.get(consumed).get();
+                    // Released as soon as it's handed over
+                    futures.set(consumed, null);
+                    consumer.accept(consumed++, parsedImage);
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing image data files");
+        } finally {
+            // No-op for the futures that already completed
+            for (Future<ParsedImage> future : futures) {
+                if (future != null) {
+                    future.cancel(true);
+                }
+            }
+            prefetch.close();
+        }
+    }
+
+    /**
+     * Reads a single file, accumulating the image statistics as the glomeruli are read. In lenient mode invalid
+     * glomeruli are quarantined, and if the file can't be read at all the image is rejected.
+     */
+    static ParsedImage readImage(ImageDataFile imageDataFile, ImageDataFileReader reader, IngestionMode mode)
+            throws IOException {
+        ParsedImage parsedImage = new ParsedImage(imageDataFile.getImageId());
+        GlomerulusSink sink = new GlomerulusSink() {
+            @Override
+            public void accept(GlomerulusData glomerulusData) {
+                parsedImage.mGlomeruliData.add(glomerulusData);
+                parsedImage.mStatistics.add(glomerulusData);
+            }
+
+            @Override
+            public void quarantine(ImageDataFormatException exception) {
+                if (mode != IngestionMode.LENIENT) {
+                    throw exception;
+                }
+                parsedImage.mErrors.add(new IngestionError(imageDataFile.getFile(), exception.getLineNumber(),
+                        exception.getMessage()));
+            }
+        };
+
+        if (mode != IngestionMode.LENIENT) {
+            reader.read(imageDataFile, sink);
+            return parsedImage;
+        }
+
+        try {
+            reader.read(imageDataFile, sink);
+            return parsedImage;
+        } catch (ImageDataFormatException e) {
+            return rejectImage(imageDataFile, parsedImage,
+                    new IngestionError(imageDataFile.getFile(), e.getLineNumber(), e.getMessage()));
+        } catch (IOException e) {
+            if (e instanceof InterruptedIOException || Thread.currentThread().isInterrupted()) {
+                throw e;
+            }
+            return rejectImage(imageDataFile, parsedImage,
+                    new IngestionError(imageDataFile.getFile(), 0, e.toString()));
+        }
+    }
+
+    /**
+     * Replaces an image that couldn't be read with an empty rejected one, keeping the errors found until then.
+     */
+    private static ParsedImage rejectImage(ImageDataFile imageDataFile, ParsedImage parsedImage, IngestionError error) {
+        ParsedImage rejectedImage = new ParsedImage(imageDataFile.getImageId());
+        rejectedImage.mRejected = true;
+        rejectedImage.mErrors.addAll(parsedImage.mErrors);
+        rejectedImage.mErrors.add(error);
+        return rejectedImage;
+    }
+
+    private static BiopsyResult mergeBiopsyResult(String biopsyId, List<ParsedImage> parsedImages,
+                                                  List<IngestionError> listingErrors) {
+        List<GlomerulusData> allGlomeruliData = new ArrayList<>();
+        Map<Integer, GlomeruliStatistics> imageStatistics = new TreeMap<>();
+        List<IngestionError> errors = new ArrayList<>(listingErrors);
+        for (ParsedImage parsedImage : parsedImages) {
+            errors.addAll(parsedImage.mErrors);
+            if (parsedImage.mRejected) {
+                continue;
+            }
+            allGlomeruliData.addAll(parsedImage.mGlomeruliData);
+            // Different files may have the same image id, e.g. "1.xls" and "01.xls"
+            imageStatistics.computeIfAbsent(parsedImage.mImageId, (Integer imageId) -> new GlomeruliStatistics())
+                    .merge(parsedImage.mStatistics);
+        }
+        errors.sort(ERROR_ORDER);
+
+        BiopsyResult biopsyResult = new BiopsyResult(biopsyId);
+        biopsyResult.setGlomerulusData(allGlomeruliData);
+        biopsyResult.setImageStatistics(imageStatistics);
+        biopsyResult.setErrors(errors);
+
+        return biopsyResult;
+    }
+
+    static final class ParsedImage {
+        final int mImageId;
+        final List<GlomerulusData> mGlomeruliData = new ArrayList<>();
+        final GlomeruliStatistics mStatistics = new GlomeruliStatistics();
+        final List<IngestionError> mErrors = new ArrayList<>();
+        boolean mRejected;
+
+        private ParsedImage(int imageId) {
+            mImageId = imageId;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ParsedImageConsumer {
+        void accept(int index, ParsedImage parsedImage) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface BiopsyConsumer {
+        void accept(String biopsyId, List<ParsedImage> parsedImages, List<IngestionError> listingErrors)
+                throws IOException;
+    }
+
+    /**
+     * Biopsy directories of a cohort, with the image data files of all of them in a single list.
+     */
+    private static final class CohortListing {
+        final File[] mBiopsyDirectories;
+        final List<ImageDataFile> mImageDataFiles = new ArrayList<>();
+        /**
+         * Index after the last file of every biopsy.
+         */
+        final int[] mBiopsyEnds;
+        final List<List<IngestionError>> mListingErrors;
+
+        private CohortListing(File[] biopsyDirectories) {
+            mBiopsyDirectories = biopsyDirectories;
+            mBiopsyEnds = new int[biopsyDirectories.length];
+            mListingErrors = new ArrayList<>(biopsyDirectories.length);
+        }
+    }
+
+    /**
+     * Groups the parsed images of a cohort, handed over in file order, into biopsies. Every biopsy is started on the
+     * sink before its first glomerulus, even if it has no files, and handed over to the consumer once the first file
+     * of a later biopsy arrives or the cohort is finished.
+     */
+    private static final class CohortParse implements ParsedImageConsumer {
+        private final CohortListing mListing;
+        private final CohortSink mSink;
+        private final boolean mRetainGlomeruli;
+        private final BiopsyConsumer mConsumer;
+        private int mBiopsyIndex = -1;
+        private List<ParsedImage> mParsedImages = new ArrayList<>();
+
+        private CohortParse(CohortListing listing, CohortSink sink, boolean retainGlomeruli,
+                            BiopsyConsumer consumer) {
+            mListing = listing;
+            mSink = sink;
+            mRetainGlomeruli = retainGlomeruli;
+            mConsumer = consumer;
+        }
+
+        @Override
+        public void accept(int index, ParsedImage parsedImage) throws IOException {
+            while (mBiopsyIndex < 0 || index >= mListing.mBiopsyEnds[mBiopsyIndex]) {
+                nextBiopsy();
+            }
+
+            if (mSink != null && !parsedImage.mRejected) {
+                try {
+                    for (GlomerulusData glomerulusData : parsedImage.mGlomeruliData) {
+                        mSink.accept(glomerulusData);
+                    }
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+            if (!mRetainGlomeruli) {
+                parsedImage.mGlomeruliData.clear();
+            }
+            mParsedImages.add(parsedImage);
+        }
+
+        /**
+         * Hands over the last biopsy with files and any empty biopsies after it.
+         */
+        void finish() throws IOException {
+            while (mBiopsyIndex < mListing.mBiopsyDirectories.length) {
+                nextBiopsy();
+            }
+        }
+
+        private void nextBiopsy() throws IOException {
+            if (mBiopsyIndex >= 0) {
+                mConsumer.accept(mListing.mBiopsyDirectories[mBiopsyIndex].getName(), mParsedImages,
+                        mListing.mListingErrors.get(mBiopsyIndex));
+                mParsedImages = new ArrayList<>();
+            }
+            mBiopsyIndex++;
+            if (mSink != null && mBiopsyIndex < mListing.mBiopsyDirectories.length) {
+                mSink.startBiopsy(mListing.mBiopsyDirectories[mBiopsyIndex].getName());
+            }
+        }
+    }
+}
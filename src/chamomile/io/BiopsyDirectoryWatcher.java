@@ -0,0 +1,313 @@
+package chamomile.io;
+
+import chamomile.statistics.GlomeruliStatistics;
+import chamomile.structures.BiopsyResult;
+import chamomile.structures.GlomerulusData;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a live {@link BiopsyResult} of a biopsy directory while image data files are added, modified or deleted.
+ *
+ * Only the files reported as changed by a {@link WatchService} are parsed again, and files whose size and
+ * modification time didn't change are skipped. All changes found in one batch of events are published together as a
+ * new immutable snapshot, so readers of {@link #getSnapshot()} never see a partially updated biopsy.
+ *
+ * The glomeruli and statistics of every file are kept apart, so publishing a snapshot doesn't copy any glomerulus: the
+ * snapshot refers to the lists of the files and merges their image statistics, and the glomeruli of the whole biopsy
+ * are only joined in a single list the first time a reader asks for them.
+ *
+ * Files that can't be parsed, e.g. because they are still being written, are left out of the snapshot and reported
+ * by {@link #getFailures()} until a later event parses them successfully.
+ *
+ * Events are processed either by calling {@link #processEvents(long, TimeUnit)} or by a background thread started
+ * with {@link #start()}, but not both.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class BiopsyDirectoryWatcher implements Closeable {
+    private final String mBiopsyId;
+    private final Path mDirectory;
+    private final ImageDataFileReader mReader;
+    private final WatchService mWatchService;
+    private final TreeMap<ImageDataFile, ParsedFile> mParsedFiles = new TreeMap<>();
+    private final Map<File, Exception> mFailures = new HashMap<>();
+    private volatile BiopsyResult mSnapshot;
+    private volatile ImmutableMap<File, Exception> mFailuresSnapshot;
+    private volatile boolean mClosed;
+    private Thread mThread;
+
+    /**
+     * Parses all image data files of a directory and starts watching it.
+     * @param biopsyId id of the biopsy that the image files are related to.
+     * @param directory an absolute path to the directory containing the image files.
+     * @param reader reader used to parse each image file.
+     */
+    public BiopsyDirectoryWatcher(String biopsyId, File directory, ImageDataFileReader reader) throws IOException {
+        Preconditions.checkArgument(directory.isDirectory());
+        Preconditions.checkArgument(directory.isAbsolute());
+        mBiopsyId = biopsyId;
+        mDirectory = directory.toPath();
+        mReader = Preconditions.checkNotNull(reader);
+
+        // Register before the initial scan so that no change is missed in between
+        mWatchService = FileSystems.getDefault().newWatchService();
+        mDirectory.register(mWatchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+
+        rescan();
+        publish();
+    }
+
+    /**
+     * Returns the latest consistent snapshot of the biopsy.
+     * @return biopsy result with the glomeruli of all successfully parsed images sorted by image id.
+     */
+    public BiopsyResult getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * Returns the files that couldn't be parsed as of the latest snapshot.
+     * @return failure of each image data file left out of the snapshot.
+     */
+    public ImmutableMap<File, Exception> getFailures() {
+        return mFailuresSnapshot;
+    }
+
+    /**
+     * Waits for changes in the directory and processes all of them.
+     * @param timeout maximum time to wait for the first change.
+     * @param unit unit of the timeout.
+     * @return {@code true} if a new snapshot was published.
+     */
+    public boolean processEvents(long timeout, TimeUnit unit) throws InterruptedException {
+        WatchKey key = mWatchService.poll(timeout, unit);
+        if (key == null) {
+            return false;
+        }
+
+        // Coalesce all pending events, the same file is usually reported several times while it's written
+        Set<Path> changedFiles = new LinkedHashSet<>();
+        boolean overflow = false;
+        do {
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    overflow = true;
+                } else {
+                    changedFiles.add(mDirectory.resolve((Path) event.context()));
+                }
+            }
+            key.reset();
+            key = mWatchService.poll();
+        } while (key != null);
+
+        boolean changed;
+        if (overflow) {
+            changed = rescan();
+        } else {
+            changed = false;
+            for (Path file : changedFiles) {
+                if (ImageDataFile.isImageDataFileName(file.getFileName().toString())) {
+                    changed |= update(file.toFile());
+                }
+            }
+        }
+
+        if (changed) {
+            publish();
+        }
+        return changed;
+    }
+
+    /**
+     * Starts processing events in a background daemon thread until the watcher is closed.
+     */
+    public synchronized void start() {
+        Preconditions.checkState(mThread == null, "Watcher already started");
+        mThread = new Thread(() -> {
+            try {
+                while (!mClosed) {
+                    processEvents(1, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // Closed
+            }
+        }, "BiopsyDirectoryWatcher-" + mBiopsyId);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mClosed = true;
+        mWatchService.close();
+        synchronized (this) {
+            if (mThread != null) {
+                mThread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Re-synchronizes the state with the whole directory content.
+     * @return {@code true} if anything changed.
+     */
+    private boolean rescan() {
+        boolean changed = false;
+
+        // Known files are included so that deleted ones are dropped
+        Set<File> files = new LinkedHashSet<>();
+        for (ImageDataFile imageDataFile : mParsedFiles.keySet()) {
+            files.add(imageDataFile.getFile());
+        }
+        files.addAll(mFailures.keySet());
+
+        File[] currentFiles = mDirectory.toFile().listFiles(
+                (File dir, String name) -> ImageDataFile.isImageDataFileName(name));
+        if (currentFiles != null) {
+            Collections.addAll(files, currentFiles);
+        }
+
+        for (File file : files) {
+            changed |= update(file);
+        }
+
+        return changed;
+    }
+
+    /**
+     * Brings the state of a single file up to date, parsing it if needed.
+     * @return {@code true} if anything changed.
+     */
+    private boolean update(File file) {
+        ImageDataFile imageDataFile;
+        try {
+            imageDataFile = ImageDataFile.forFile(file);
+        } catch (RuntimeException e) {
+            return !file.isFile() ? mFailures.remove(file) != null : mFailures.put(file, e) == null;
+        }
+
+        final ParsedFile previous = mParsedFiles.get(imageDataFile);
+        if (!file.isFile()) {
+            return mParsedFiles.remove(imageDataFile) != null | mFailures.remove(file) != null;
+        }
+
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            final long size = attributes.size();
+            final FileTime lastModified = attributes.lastModifiedTime();
+            if (previous != null && previous.mSize == size && previous.mLastModified.equals(lastModified)) {
+                return false;
+            }
+
+            BiopsyDataProcessor.ParsedImage parsedImage = BiopsyDataProcessor.readImage(imageDataFile, mReader,
+                    IngestionMode.STRICT);
+            mParsedFiles.put(imageDataFile, new ParsedFile(size, lastModified,
+                    ImmutableList.copyOf(parsedImage.mGlomeruliData), parsedImage.mStatistics));
+            mFailures.remove(file);
+        } catch (IOException | RuntimeException e) {
+            mParsedFiles.remove(imageDataFile);
+            mFailures.put(file, e);
+        }
+        return true;
+    }
+
+    private void publish() {
+        mFailuresSnapshot = ImmutableMap.copyOf(mFailures);
+        mSnapshot = BiopsyResult.unmodifiableView(new Snapshot(mBiopsyId, mParsedFiles));
+    }
+
+    private static final class ParsedFile {
+        private final long mSize;
+        private final FileTime mLastModified;
+        private final ImmutableList<GlomerulusData> mGlomeruliData;
+
+        /**
+         * Statistics accumulated while the file was parsed, never modified afterwards.
+         */
+        private final GlomeruliStatistics mStatistics;
+
+        private ParsedFile(long size, FileTime lastModified, ImmutableList<GlomerulusData> glomeruliData,
+                           GlomeruliStatistics statistics) {
+            mSize = size;
+            mLastModified = lastModified;
+            mGlomeruliData = glomeruliData;
+            mStatistics = statistics;
+        }
+    }
+
+    /**
+     * Biopsy made of the glomeruli of the files parsed at a point in time, joined on first access.
+     */
+    private static final class Snapshot extends BiopsyResult {
+        private final ImmutableList<ImmutableList<GlomerulusData>> mFileGlomeruliData;
+        private final int mGlomerulusCount;
+        private ImmutableList<GlomerulusData> mGlomerulusData;
+
+        private Snapshot(String biopsyId, Map<ImageDataFile, ParsedFile> parsedFiles) {
+            super(biopsyId);
+            ImmutableList.Builder<ImmutableList<GlomerulusData>> fileGlomeruliData = ImmutableList.builder();
+            Map<Integer, GlomeruliStatistics> imageStatistics = new TreeMap<>();
+            int glomerulusCount = 0;
+            for (Map.Entry<ImageDataFile, ParsedFile> entry : parsedFiles.entrySet()) {
+                final ParsedFile parsedFile = entry.getValue();
+                fileGlomeruliData.add(parsedFile.mGlomeruliData);
+                glomerulusCount += parsedFile.mGlomeruliData.size();
+                // Different files may have the same image id, e.g. "1.xls" and "01.xls"
+                imageStatistics.merge(entry.getKey().getImageId(), parsedFile.mStatistics,
+                        (GlomeruliStatistics statistics, GlomeruliStatistics other) -> {
+                            GlomeruliStatistics merged = GlomeruliStatistics.copyOf(statistics);
+                            merged.merge(other);
+                            return merged;
+                        });
+            }
+            mFileGlomeruliData = fileGlomeruliData.build();
+            mGlomerulusCount = glomerulusCount;
+            setImageStatistics(imageStatistics);
+        }
+
+        @Override
+        public synchronized ImmutableList<GlomerulusData> getGlomerulusData() {
+            if (mGlomerulusData == null) {
+                ImmutableList.Builder<GlomerulusData> glomerulusData = ImmutableList.builder();
+                for (ImmutableList<GlomerulusData> fileGlomerulusData : mFileGlomeruliData) {
+                    glomerulusData.addAll(fileGlomerulusData);
+                }
+                mGlomerulusData = glomerulusData.build();
+            }
+            return mGlomerulusData;
+        }
+
+        public String toString() {
+            return MoreObjects.toStringHelper(Snapshot.class)
+                    .add("id", getId())
+                    .add("fileCount", mFileGlomeruliData.size())
+                    .add("glomerulusCount", mGlomerulusCount)
+                    .toString();
+        }
+    }
+}
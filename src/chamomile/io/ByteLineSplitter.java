@@ -0,0 +1,112 @@
+package chamomile.io;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Splits ASCII bytes into lines and feeds them to a {@link ByteLineConsumer}, usually an
+ * {@link ImageDataLineProcessor}.
+ *
+ * Lines are terminated by "\n", "\r" or "\r\n", like {@link com.google.common.io.LineReader} does, and a trailing
+ * line without terminator is only processed once the end of the input is reached.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+final class ByteLineSplitter {
+
+    private ByteLineSplitter() {
+        // Disallow instantiation
+    }
+
+    /**
+     * Processes all complete lines in a range of a buffer. The position and limit of the buffer are left untouched.
+     * @param buffer buffer holding the lines.
+     * @param start index of the first byte to process.
+     * @param end index after the last byte to process.
+     * @param endOfInput whether no more bytes follow the range, so the trailing line is complete.
+     * @param consumer consumer the lines are fed to.
+     * @return number of bytes consumed. The bytes of an incomplete trailing line aren't consumed and must be given
+     *          again together with the bytes that follow them.
+     */
+    static int processLines(ByteBuffer buffer, int start, int end, boolean endOfInput,
+                            ByteLineConsumer consumer) {
+        int lineStart = start;
+        int position = start;
+
+        while (position < end) {
+            final byte b = buffer.get(position);
+            if (b == '\n') {
+                consumer.processLine(buffer, lineStart, position);
+                lineStart = ++position;
+            } else if (b == '\r') {
+                if (position + 1 < end) {
+                    consumer.processLine(buffer, lineStart, position);
+                    position += buffer.get(position + 1) == '\n' ? 2 : 1;
+                    lineStart = position;
+                } else if (endOfInput) {
+                    consumer.processLine(buffer, lineStart, position);
+                    lineStart = ++position;
+                } else {
+                    // Can't tell yet whether it's followed by '\n'
+                    break;
+                }
+            } else {
+                position++;
+            }
+        }
+
+        if (endOfInput && lineStart < end) {
+            consumer.processLine(buffer, lineStart, end);
+            lineStart = end;
+        }
+
+        return lineStart - start;
+    }
+
+    /**
+     * Processes all lines of a stream, reading it into a buffer whose complete lines are processed every time it's
+     * full.
+     * @param inputStream stream holding the lines, read until its end but not closed.
+     * @param bytes buffer the stream is read into, must be longer than the longest line.
+     * @param consumer consumer the lines are fed to.
+     * @return {@code false} if a line longer than the buffer was found, in which case not all lines were processed.
+     */
+    static boolean processLines(InputStream inputStream, byte[] bytes, ByteLineConsumer consumer) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int length = 0;
+        boolean endOfInput = false;
+
+        while (!endOfInput) {
+            length += ByteStreams.read(inputStream, bytes, length, bytes.length - length);
+            endOfInput = length < bytes.length;
+
+            final int consumed = processLines(buffer, 0, length, endOfInput, consumer);
+            if (consumed == 0 && length == bytes.length) {
+                return false;
+            }
+
+            // Keep the incomplete trailing line
+            System.arraycopy(bytes, consumed, bytes, 0, length - consumed);
+            length -= consumed;
+        }
+
+        return true;
+    }
+
+    /**
+     * Receives the lines found by {@link #processLines(ByteBuffer, int, int, boolean, ByteLineConsumer)}.
+     */
+    @FunctionalInterface
+    interface ByteLineConsumer {
+        /**
+         * Processes a line.
+         * @param buffer buffer holding the line.
+         * @param start index of the first byte of the line.
+         * @param end index after the last byte of the line, excluding the line terminator.
+         */
+        void processLine(ByteBuffer buffer, int start, int end);
+    }
+}
@@ -0,0 +1,19 @@
+package chamomile.io;
+
+/**
+ * How {@link CachingImageDataFileReader} checks a cache entry against its image data file.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public enum CacheValidation {
+    /**
+     * The path, size and modification time must match, so a hit never reads the image data file and a miss only
+     * parses it, without hashing. Edits that keep both the size and the modification time go unnoticed.
+     */
+    METADATA,
+
+    /**
+     * The content hash must match too. The file is only hashed once the path, size and modification time match.
+     */
+    CONTENT
+}
@@ -0,0 +1,382 @@
+package chamomile.io;
+
+import chamomile.statistics.RunningStatistics;
+import chamomile.structures.GeometryInfo;
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.PodocyteData;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Image data file reader that keeps the parsed glomeruli of every file in a persistent binary cache, so unchanged
+ * files don't need to be parsed again.
+ *
+ * There is one cache file per image data file and configuration of the delegate, i.e. its
+ * {@link ImageDataFileReader#getPodocyteAssignment() podocyte assignment} and
+ * {@link ImageDataFileReader#getAreaClassifier() area classifier}, since both change the glomeruli read from a file.
+ * An entry is only used if the path and configuration are the same, the size and modification time of the image data
+ * file are the same as when it was parsed and, with {@link CacheValidation#CONTENT}, its content hash too, otherwise
+ * the file is parsed again with the delegate reader and the entry is replaced. The content is only hashed with
+ * {@link CacheValidation#CONTENT}, once the cheaper checks passed or before parsing a file that missed the cache.
+ * Files are not announced to the delegate for {@link #prefetch(List) prefetching}, since the ones in the cache are
+ * never read by it.
+ *
+ * Entries are written to a temporary file that is atomically renamed once complete, so a crash never leaves a
+ * partially written entry behind. Writing is best effort: if an entry can't be written the glomeruli are still
+ * returned and the failure is only counted, see {@link #getWriteFailureCount()}.
+ *
+ * The {@link ImageDataFileCounters} of a cache hit count the bytes of the cache file, and of the image data file if
+ * its content was hashed, and a glomerulus and podocyte line for every record, without header line.
+ *
+ * Cache file layout (big endian):
+ *
+ * <pre>
+ * int     magic
+ * int     format version
+ * long    image data file size
+ * long    image data file modification time in milliseconds
+ * long    image data file content hash, 0 if written with {@link CacheValidation#METADATA}
+ * int     image id
+ * int     podocyte assignment ordinal
+ * double  minimum and maximum podocyte area, minimum and maximum glomerulus area of the area classifier
+ * int     path length, followed by the UTF-8 bytes of the absolute path
+ * int     glomerulus count, followed by for every glomerulus:
+ *         int number, double area, double feret, double feret x, double feret y, int podocyte count,
+ *         followed by double area, double feret, double feret x, double feret y for every podocyte
+ * </pre>
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class CachingImageDataFileReader implements ImageDataFileReader {
+
+    /**
+     * Magic number at the beginning of every cache file.
+     */
+    private static final int MAGIC = 0x43484d43;
+
+    /**
+     * Version of the cache file format ({@value}). Entries with a different version are ignored.
+     */
+    public static final int FORMAT_VERSION = 3;
+
+    /**
+     * Extension of the cache files ({@value}).
+     */
+    public static final String CACHE_FILE_EXTENSION = "cache";
+
+    /**
+     * Size in bytes of the fixed part of the header, up to and including the path length.
+     */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4 + 4 + 8 + 8 + 8 + 8 + 4;
+    private static final int GLOMERULUS_RECORD_SIZE = 4 + 8 + 8 + 8 + 8 + 4;
+    private static final int PODOCYTE_RECORD_SIZE = 8 + 8 + 8 + 8;
+
+    private static final HashFunction PATH_HASH = Hashing.murmur3_128();
+    private static final HashFunction CONTENT_HASH = Hashing.murmur3_128();
+
+    private final ImageDataFileReader mDelegate;
+    private final Path mCacheDirectory;
+    private final CacheValidation mValidation;
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mWriteFailureCount = new AtomicLong();
+
+    /**
+     * Creates a caching reader that validates entries with {@link CacheValidation#CONTENT}.
+     * @param delegate reader used to parse the files that are not in the cache.
+     * @param cacheDirectory directory where the cache files are kept, created if it doesn't exist.
+     */
+    public CachingImageDataFileReader(ImageDataFileReader delegate, File cacheDirectory) throws IOException {
+        this(delegate, cacheDirectory, CacheValidation.CONTENT);
+    }
+
+    /**
+     * Creates a caching reader.
+     * @param delegate reader used to parse the files that are not in the cache.
+     * @param cacheDirectory directory where the cache files are kept, created if it doesn't exist.
+     * @param validation how entries are checked against their image data file.
+     */
+    public CachingImageDataFileReader(ImageDataFileReader delegate, File cacheDirectory, CacheValidation validation)
+            throws IOException {
+        mDelegate = Preconditions.checkNotNull(delegate);
+        mValidation = Preconditions.checkNotNull(validation);
+        mCacheDirectory = Files.createDirectories(cacheDirectory.toPath());
+    }
+
+    @Override
+    public void read(ImageDataFile imageDataFile, GlomerulusSink sink) throws IOException {
+        read(imageDataFile, sink, new ImageDataFileCounters());
+    }
+
+    @Override
+    public void read(ImageDataFile imageDataFile, GlomerulusSink sink, ImageDataFileCounters counters)
+            throws IOException {
+        Preconditions.checkNotNull(imageDataFile);
+        Preconditions.checkNotNull(sink);
+
+        final Path path = imageDataFile.getFile().toPath().toAbsolutePath();
+        final long size = Files.size(path);
+        final long lastModified = Files.getLastModifiedTime(path).toMillis();
+        final Path cacheFile = getCacheFile(path);
+
+        List<GlomerulusData> cachedGlomeruli = readCacheFile(cacheFile, path, size, lastModified,
+                imageDataFile.getImageId(), counters);
+        if (cachedGlomeruli != null) {
+            mHitCount.incrementAndGet();
+            for (GlomerulusData glomerulusData : cachedGlomeruli) {
+                counters.addGlomerulus(glomerulusData.getPodocytesData().size());
+                sink.accept(glomerulusData);
+            }
+            return;
+        }
+
+        mMissCount.incrementAndGet();
+        // The content hash is computed before parsing so that a change during parsing invalidates the entry
+        final long contentHash = mValidation == CacheValidation.CONTENT ? hashContent(path, size, counters) : 0L;
+        List<GlomerulusData> glomeruliData = new ArrayList<>();
+        final boolean[] quarantined = {false};
+        mDelegate.read(imageDataFile, new GlomerulusSink() {
+            @Override
+            public void accept(GlomerulusData glomerulusData) {
+                glomeruliData.add(glomerulusData);
+                sink.accept(glomerulusData);
+            }
+
+            @Override
+            public void quarantine(ImageDataFormatException exception) {
+                sink.quarantine(exception);
+                quarantined[0] = true;
+            }
+        }, counters);
+
+        // Files with quarantined glomeruli are not cached, so that they are reported again the next time
+        if (quarantined[0]) {
+            return;
+        }
+        try {
+            writeCacheFile(cacheFile, path, size, lastModified, contentHash, imageDataFile.getImageId(), glomeruliData);
+        } catch (IOException e) {
+            // The glomeruli were already read, the file will just be parsed again next time
+            mWriteFailureCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of files that were read from the cache.
+     * @return long hit count
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * Returns the number of files that had to be parsed because they weren't cached or their entry was stale.
+     * @return long miss count
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Returns the number of cache entries that couldn't be written, e.g. because the cache directory is full or gone.
+     * @return long write failure count
+     */
+    public long getWriteFailureCount() {
+        return mWriteFailureCount.get();
+    }
+
+    @Override
+    public PodocyteAssignment getPodocyteAssignment() {
+        return mDelegate.getPodocyteAssignment();
+    }
+
+    @Override
+    public AreaClassifier getAreaClassifier() {
+        return mDelegate.getAreaClassifier();
+    }
+
+    private Path getCacheFile(Path path) {
+        final AreaClassifier classifier = mDelegate.getAreaClassifier();
+        final String key = PATH_HASH.newHasher()
+                .putString(path.toString(), StandardCharsets.UTF_8)
+                .putInt(mDelegate.getPodocyteAssignment().ordinal())
+                .putDouble(classifier.getMinPodocyteArea())
+                .putDouble(classifier.getMaxPodocyteArea())
+                .putDouble(classifier.getMinGlomerulusArea())
+                .putDouble(classifier.getMaxGlomerulusArea())
+                .hash()
+                .toString();
+        return mCacheDirectory.resolve(key + "." + CACHE_FILE_EXTENSION);
+    }
+
+    /**
+     * Hashes the content of an image data file, counting it as read.
+     * @param size size of the file.
+     */
+    private static long hashContent(Path path, long size, ImageDataFileCounters counters) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            return MoreFiles.asByteSource(path).hash(CONTENT_HASH).asLong();
+        } finally {
+            counters.addBytesRead(size);
+            counters.addIoNanos(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Reads a cache file. The content of the image data file is hashed last, only if everything else matches.
+     * @return the cached glomeruli, or {@code null} if there's no valid entry.
+     */
+    private List<GlomerulusData> readCacheFile(Path cacheFile, Path path, long size, long lastModified, int imageId,
+                                               ImageDataFileCounters counters) throws IOException {
+        final long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            counters.addBytesRead(channel.size());
+            counters.addIoNanos(System.nanoTime() - start);
+
+            if (buffer.getInt() != MAGIC
+                    || buffer.getInt() != FORMAT_VERSION
+                    || buffer.getLong() != size
+                    || buffer.getLong() != lastModified) {
+                return null;
+            }
+            final long contentHash = buffer.getLong();
+            if (buffer.getInt() != imageId) {
+                return null;
+            }
+            final AreaClassifier classifier = mDelegate.getAreaClassifier();
+            if (buffer.getInt() != mDelegate.getPodocyteAssignment().ordinal()
+                    || buffer.getDouble() != classifier.getMinPodocyteArea()
+                    || buffer.getDouble() != classifier.getMaxPodocyteArea()
+                    || buffer.getDouble() != classifier.getMinGlomerulusArea()
+                    || buffer.getDouble() != classifier.getMaxGlomerulusArea()) {
+                return null;
+            }
+
+            final int pathLength = buffer.getInt();
+            if (pathLength < 0 || pathLength > buffer.remaining()) {
+                return null;
+            }
+            byte[] pathBytes = new byte[pathLength];
+            buffer.get(pathBytes);
+            if (!path.toString().equals(new String(pathBytes, StandardCharsets.UTF_8))) {
+                return null;
+            }
+            if (mValidation == CacheValidation.CONTENT && hashContent(path, size, counters) != contentHash) {
+                return null;
+            }
+
+            final int glomerulusCount = buffer.getInt();
+            if (glomerulusCount < 0 || glomerulusCount > buffer.remaining() / GLOMERULUS_RECORD_SIZE) {
+                return null;
+            }
+            List<GlomerulusData> glomeruliData = new ArrayList<>(glomerulusCount);
+            for (int i = 0; i < glomerulusCount; i++) {
+                final int number = buffer.getInt();
+                GlomerulusData glomerulusData = new GlomerulusData(readGeometryInfo(buffer), imageId, number);
+
+                final int podocyteCount = buffer.getInt();
+                if (podocyteCount < 0 || podocyteCount > buffer.remaining() / PODOCYTE_RECORD_SIZE) {
+                    return null;
+                }
+                List<PodocyteData> podocytesData = new ArrayList<>(podocyteCount);
+                RunningStatistics areaStatistics = new RunningStatistics();
+                RunningStatistics feretStatistics = new RunningStatistics();
+                for (int j = 0; j < podocyteCount; j++) {
+                    GeometryInfo geometryInfo = readGeometryInfo(buffer);
+                    podocytesData.add(new PodocyteData(geometryInfo));
+                    areaStatistics.add(geometryInfo.getArea());
+                    feretStatistics.add(geometryInfo.getFeret());
+                }
+                glomerulusData.setPodocytesData(podocytesData, areaStatistics, feretStatistics);
+                glomeruliData.add(glomerulusData);
+            }
+
+            return buffer.hasRemaining() ? null : glomeruliData;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // Corrupted entry, it will be replaced
+            return null;
+        }
+    }
+
+    private static GeometryInfo readGeometryInfo(ByteBuffer buffer) {
+        return new GeometryInfo(buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+    }
+
+    private static void writeGeometryInfo(ByteBuffer buffer, GeometryInfo geometryInfo) {
+        buffer.putDouble(geometryInfo.getArea())
+                .putDouble(geometryInfo.getFeret())
+                .putDouble(geometryInfo.getFeretX())
+                .putDouble(geometryInfo.getFeretY());
+    }
+
+    private void writeCacheFile(Path cacheFile, Path path, long size, long lastModified, long contentHash,
+                                int imageId, List<GlomerulusData> glomeruliData) throws IOException {
+        final byte[] pathBytes = path.toString().getBytes(StandardCharsets.UTF_8);
+        final AreaClassifier classifier = mDelegate.getAreaClassifier();
+
+        int length = HEADER_SIZE + pathBytes.length + 4;
+        for (GlomerulusData glomerulusData : glomeruliData) {
+            length += GLOMERULUS_RECORD_SIZE + PODOCYTE_RECORD_SIZE * glomerulusData.getPodocytesData().size();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(MAGIC)
+                .putInt(FORMAT_VERSION)
+                .putLong(size)
+                .putLong(lastModified)
+                .putLong(contentHash)
+                .putInt(imageId)
+                .putInt(mDelegate.getPodocyteAssignment().ordinal())
+                .putDouble(classifier.getMinPodocyteArea())
+                .putDouble(classifier.getMaxPodocyteArea())
+                .putDouble(classifier.getMinGlomerulusArea())
+                .putDouble(classifier.getMaxGlomerulusArea())
+                .putInt(pathBytes.length)
+                .put(pathBytes)
+                .putInt(glomeruliData.size());
+        for (GlomerulusData glomerulusData : glomeruliData) {
+            buffer.putInt(glomerulusData.getNumber());
+            writeGeometryInfo(buffer, glomerulusData.getGeometryInfo());
+            buffer.putInt(glomerulusData.getPodocytesData().size());
+            for (PodocyteData podocyteData : glomerulusData.getPodocytesData()) {
+                writeGeometryInfo(buffer, podocyteData.getGeometryInfo());
+            }
+        }
+        buffer.flip();
+
+        Path temporaryFile = Files.createTempFile(mCacheDirectory, cacheFile.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            }
+            Files.move(temporaryFile, cacheFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+}
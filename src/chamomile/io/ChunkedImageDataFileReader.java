@@ -0,0 +1,406 @@
+package chamomile.io;
+
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.PodocyteData;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reads big image data files by splitting them at line boundaries into chunks that are parsed concurrently.
+ *
+ * Every chunk is parsed from its memory mapped bytes by its own {@link ImageDataLineProcessor}. A chunk may start
+ * with podocytes of the last glomerulus of the previous chunk, so the chunks are stitched together in file order
+ * before the glomeruli are pushed to the sink. Glomeruli are numbered and validated exactly as if the file had been
+ * parsed sequentially, and the failure reported for an invalid file is the one that a sequential parse would find
+ * first.
+ *
+ * Podocytes are always assigned in {@link PodocyteAssignment#FILE_ORDER}. The chunks don't fail on invalid glomeruli
+ * but keep them, and they are handed to {@link GlomerulusSink#quarantine(ImageDataFormatException)} in line order
+ * while stitching, so a lenient sink gets the same glomeruli, quarantines and line counts as with a sequential parse.
+ * Compressed files, files smaller than two chunks, and files that don't start with a header line terminated by "\n" or
+ * "\r\n", are parsed sequentially with a {@link MappedImageDataFileReader}.
+ *
+ * The executor must not be a bounded pool whose threads may all be blocked waiting for this reader, e.g. the one
+ * given to {@link BiopsyDataProcessor}, unless it's a {@link java.util.concurrent.ForkJoinPool}.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class ChunkedImageDataFileReader implements ImageDataFileReader {
+
+    /**
+     * Default size of a chunk ({@value} bytes).
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Maximum length of a header line for the file to be split, longer headers are parsed sequentially.
+     */
+    private static final int MAX_HEADER_LENGTH = 64 * 1024;
+
+    private final ExecutorService mExecutor;
+    private final int mChunkSize;
+    private final MappedImageDataFileReader mSequentialReader = new MappedImageDataFileReader();
+
+    public ChunkedImageDataFileReader(ExecutorService executor) {
+        this(executor, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a reader that splits files in chunks of about the given size.
+     * @param executor executor used to parse the chunks.
+     * @param chunkSize approximate size of a chunk in bytes, a chunk always ends at a line boundary.
+     */
+    public ChunkedImageDataFileReader(ExecutorService executor, int chunkSize) {
+        Preconditions.checkArgument(chunkSize > 0);
+        mExecutor = Preconditions.checkNotNull(executor);
+        mChunkSize = chunkSize;
+    }
+
+    @Override
+    public void read(ImageDataFile imageDataFile, GlomerulusSink sink) throws IOException {
+        read(imageDataFile, sink, new ImageDataFileCounters());
+    }
+
+    @Override
+    public void read(ImageDataFile imageDataFile, GlomerulusSink sink, ImageDataFileCounters counters)
+            throws IOException {
+        Preconditions.checkNotNull(imageDataFile);
+        Preconditions.checkNotNull(sink);
+
+        if (imageDataFile.isCompressed()) {
+            mSequentialReader.read(imageDataFile, sink, counters);
+            return;
+        }
+
+        final long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(imageDataFile.getFile().toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final long headerEnd = size >= 2L * mChunkSize ? findLineEnd(channel, 0, size) : -1;
+            final ImageDataSchema schema = headerEnd > 0 && headerEnd <= MAX_HEADER_LENGTH
+                    ? readSchema(channel, headerEnd) : null;
+            counters.addIoNanos(System.nanoTime() - start);
+            if (schema == null) {
+                mSequentialReader.read(imageDataFile, sink, counters);
+                return;
+            }
+            counters.addBytesRead(headerEnd);
+            counters.addHeaderLine();
+
+            List<Long> boundaries = new ArrayList<>();
+            boundaries.add(headerEnd);
+            long boundary = headerEnd;
+            while (boundary < size) {
+                boundary = boundary + mChunkSize < size ? findLineEnd(channel, boundary + mChunkSize, size) : size;
+                boundaries.add(boundary);
+            }
+
+            readChunks(channel, imageDataFile.getImageId(), schema, boundaries, sink, counters);
+        }
+    }
+
+    private void readChunks(FileChannel channel, int imageId, ImageDataSchema schema, List<Long> boundaries,
+                            GlomerulusSink sink, ImageDataFileCounters counters) throws IOException {
+        List<Future<ParsedChunk>> futures = new ArrayList<>(boundaries.size() - 1);
+        AtomicBoolean aborted = new AtomicBoolean();
+        try {
+            for (int i = 0; i + 1 < boundaries.size(); i++) {
+                final long start = boundaries.get(i);
+                final long end = boundaries.get(i + 1);
+                futures.add(mExecutor.submit(() -> parseChunk(channel, imageId, schema, start, end, aborted)));
+            }
+
+            Stitcher stitcher = new Stitcher(imageId, sink, counters);
+            // Lines are numbered from the header, which is line 1
+            int lineOffset = 1;
+            for (Future<ParsedChunk> future : futures) {
+                ParsedChunk parsedChunk = future.get();
+                counters.add(parsedChunk.mCounters);
+                // The fragment of a failed chunk holds the lines before the failure, which are checked first
+                stitcher.add(parsedChunk.mFragment, lineOffset);
+                if (parsedChunk.mFailure != null) {
+                    throw offsetLineNumber(parsedChunk.mFailure, lineOffset);
+                }
+                lineOffset += parsedChunk.mLineCount;
+            }
+            stitcher.finish();
+        } catch (ExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing image data file chunks");
+        } finally {
+            // The remaining chunks stop at their next line. They must be done before returning, since touching a
+            // mapping of a file that is truncated afterwards crashes the JVM.
+            aborted.set(true);
+            for (Future<ParsedChunk> future : futures) {
+                try {
+                    Uninterruptibles.getUninterruptibly(future);
+                } catch (ExecutionException | CancellationException e) {
+                    // Already reported or irrelevant
+                }
+            }
+        }
+    }
+
+    private static ParsedChunk parseChunk(FileChannel channel, int imageId, ImageDataSchema schema, long start,
+                                          long end, AtomicBoolean aborted) throws IOException {
+        if (aborted.get()) {
+            throw new CancellationException();
+        }
+        ImageDataFileCounters counters = new ImageDataFileCounters();
+        final long mapStart = System.nanoTime();
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        counters.addIoNanos(System.nanoTime() - mapStart);
+        ImageDataLineProcessor processor = new ImageDataLineProcessor(imageId, schema);
+
+        final int[] lineCount = {0};
+        RuntimeException failure = null;
+        try {
+            final int consumed = ByteLineSplitter.processLines(buffer, 0, buffer.limit(), true,
+                    (ByteBuffer lineBuffer, int lineStart, int lineEnd) -> {
+                        if (aborted.get()) {
+                            throw new CancellationException();
+                        }
+                        processor.processLine(lineBuffer, lineStart, lineEnd);
+                        lineCount[0]++;
+                    });
+            counters.addBytesRead(consumed);
+            processor.processBatchedLines();
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+
+        ImageDataFragment fragment = processor.getFragment();
+        counters.addLines(processor);
+        return new ParsedChunk(fragment, failure, lineCount[0], counters);
+    }
+
+    /**
+     * Turns the line number of a failure in a chunk into the line number in the file.
+     */
+    private static RuntimeException offsetLineNumber(RuntimeException failure, int lineOffset) {
+        if (failure instanceof ImageDataFormatException) {
+            return offsetLineNumber((ImageDataFormatException) failure, lineOffset);
+        }
+        return failure;
+    }
+
+    private static ImageDataFormatException offsetLineNumber(ImageDataFormatException exception, int lineOffset) {
+        if (exception.getLineNumber() > 0) {
+            return new ImageDataFormatException(exception.getMessage(), exception.getLineNumber() + lineOffset,
+                    exception.getCause());
+        }
+        return exception;
+    }
+
+    /**
+     * Finds the end of the line containing a position.
+     * @return position after the first '\n' at or after the given position, or the file size if there's none.
+     */
+    private static long findLineEnd(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (position < size) {
+            buffer.clear();
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Reads the schema from the first line of the file.
+     * @return the schema, or {@code null} if the first line is not a header or contains a bare '\r'.
+     */
+    private static ImageDataSchema readSchema(FileChannel channel, long headerEnd) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) headerEnd);
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+            // Keep reading
+        }
+
+        int length = buffer.position() - 1;
+        if (length > 0 && buffer.get(length - 1) == '\r') {
+            length--;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(i) == '\r') {
+                return null;
+            }
+        }
+
+        final String header = new String(buffer.array(), 0, length, StandardCharsets.ISO_8859_1);
+        return ImageDataSchema.isHeaderLine(header) ? ImageDataSchema.parseHeader(header) : null;
+    }
+
+    /**
+     * Joins the fragments of consecutive chunks, applying the same checks as a sequential
+     * {@link ImageDataLineProcessor} does at the chunk edges, and hands the quarantines of the fragments to the sink in
+     * line order.
+     */
+    private static final class Stitcher {
+        private final int mImageId;
+        private final GlomerulusSink mSink;
+        private final ImageDataFileCounters mCounters;
+
+        /**
+         * Number of glomeruli found in the previous fragments, quarantined ones included.
+         */
+        private int mGlomerulusCount;
+        private ImageDataFragment mOpenFragment;
+        private int mOpenFragmentLineOffset;
+        private int mOpenGlomerulusNumber;
+
+        /**
+         * Whether the last glomerulus found was quarantined, so that the leading podocytes of the next fragment are
+         * left out.
+         */
+        private boolean mQuarantined;
+
+        private Stitcher(int imageId, GlomerulusSink sink, ImageDataFileCounters counters) {
+            mImageId = imageId;
+            mSink = sink;
+            mCounters = counters;
+        }
+
+        /**
+         * Adds the fragment of the next chunk.
+         * @param lineOffset number of lines in the file before the chunk.
+         */
+        private void add(ImageDataFragment fragment, int lineOffset) {
+            final List<PodocyteData> leadingPodocytes = fragment.mLeadingPodocytes;
+            if (!leadingPodocytes.isEmpty()) {
+                if (mOpenFragment != null) {
+                    mOpenFragment.mOpenPodocytes.addAll(leadingPodocytes);
+                } else if (mQuarantined) {
+                    // Podocytes of a quarantined glomerulus
+                    mCounters.addRejectedLines(leadingPodocytes.size());
+                } else {
+                    mCounters.addRejectedLines(1);
+                    quarantine(new ImageDataFormatException(ImageDataLineProcessor.PODOCYTE_BEFORE_GLOMERULUS,
+                            lineOffset + 1));
+                    mCounters.addRejectedLines(leadingPodocytes.size() - 1);
+                }
+            }
+
+            // Quarantines before the first glomerulus of the fragment also quarantine the open glomerulus
+            final List<ImageDataFragment.Quarantine> quarantines = fragment.mQuarantines;
+            int next = 0;
+            while (next < quarantines.size() && quarantines.get(next).mLeading) {
+                if (mOpenFragment != null) {
+                    mCounters.addRejectedLines(1 + mOpenFragment.mOpenPodocytes.size());
+                    mOpenFragment = null;
+                }
+                quarantine(offsetLineNumber(quarantines.get(next++).mException, lineOffset));
+            }
+
+            if (!fragment.hasGlomeruli()) {
+                return;
+            }
+            if (mOpenFragment != null) {
+                commitOpenGlomerulus();
+            }
+            for (int i = 0; i < fragment.mGlomeruli.size(); i++) {
+                while (next < quarantines.size() && quarantines.get(next).mGlomeruliBefore <= i) {
+                    quarantine(offsetLineNumber(quarantines.get(next++).mException, lineOffset));
+                }
+                GlomerulusData glomerulusData = fragment.mGlomeruli.get(i);
+                GlomerulusData renumbered = new GlomerulusData(glomerulusData.getGeometryInfo(), mImageId,
+                        mGlomerulusCount + glomerulusData.getNumber());
+                renumbered.setPodocytesData(glomerulusData.getPodocytesData(),
+                        glomerulusData.getPodocyteAreaStatistics(), glomerulusData.getPodocyteFeretStatistics());
+                mSink.accept(renumbered);
+            }
+            while (next < quarantines.size()) {
+                quarantine(offsetLineNumber(quarantines.get(next++).mException, lineOffset));
+            }
+
+            if (fragment.mOpenGlomerulus != null) {
+                mOpenFragment = fragment;
+                mOpenFragmentLineOffset = lineOffset;
+                mOpenGlomerulusNumber = mGlomerulusCount + fragment.mOpenGlomerulus.getNumber();
+                mQuarantined = false;
+            } else {
+                mQuarantined = fragment.mQuarantined;
+            }
+            mGlomerulusCount += fragment.mGlomerulusCount;
+        }
+
+        private void finish() {
+            if (mGlomerulusCount == 0) {
+                throw new ImageDataFormatException(ImageDataLineProcessor.NO_GLOMERULUS, 0);
+            }
+            if (mOpenFragment != null) {
+                commitOpenGlomerulus();
+            }
+        }
+
+        private void commitOpenGlomerulus() {
+            final ImageDataFragment openFragment = mOpenFragment;
+            mOpenFragment = null;
+            if (openFragment.mOpenPodocytes.isEmpty()) {
+                mCounters.addRejectedLines(1);
+                quarantine(new ImageDataFormatException(ImageDataLineProcessor.GLOMERULUS_WITHOUT_PODOCYTES,
+                        mOpenFragmentLineOffset + openFragment.mOpenGlomerulusLine));
+                return;
+            }
+            GlomerulusData glomerulusData = new GlomerulusData(openFragment.mOpenGlomerulus.getGeometryInfo(),
+                    mImageId, mOpenGlomerulusNumber);
+            glomerulusData.setPodocytesData(openFragment.mOpenPodocytes);
+            // The open glomerulus was left out of the line counts of its chunk
+            mCounters.addGlomerulus(openFragment.mOpenPodocytes.size());
+            mSink.accept(glomerulusData);
+        }
+
+        /**
+         * Hands an invalid glomerulus or line to the sink, the glomerulus being stitched is left out if it returns.
+         */
+        private void quarantine(ImageDataFormatException exception) {
+            mQuarantined = true;
+            mSink.quarantine(exception);
+        }
+    }
+
+    private static final class ParsedChunk {
+        private final ImageDataFragment mFragment;
+        private final RuntimeException mFailure;
+
+        /**
+         * Number of lines of the chunk, only meaningful if there's no failure.
+         */
+        private final int mLineCount;
+        private final ImageDataFileCounters mCounters;
+
+        private ParsedChunk(ImageDataFragment fragment, RuntimeException failure, int lineCount,
+                            ImageDataFileCounters counters) {
+            mFragment = fragment;
+            mFailure = failure;
+            mLineCount = lineCount;
+            mCounters = counters;
+        }
+    }
+}
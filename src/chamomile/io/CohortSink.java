@@ -0,0 +1,19 @@
+package chamomile.io;
+
+import java.io.IOException;
+
+/**
+ * Sink receiving the glomeruli of a whole cohort, one biopsy after the other, see
+ * {@link BiopsyDataProcessor#streamAllBiopsies(java.io.File, ImageDataFileReader, java.util.concurrent.ExecutorService,
+ * IngestionMode, CohortSink)}.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public interface CohortSink extends GlomerulusSink {
+
+    /**
+     * Starts a new biopsy. The glomeruli accepted from now on belong to this biopsy.
+     * @param biopsyId id of the biopsy.
+     */
+    void startBiopsy(String biopsyId) throws IOException;
+}
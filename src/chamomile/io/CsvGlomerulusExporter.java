@@ -0,0 +1,150 @@
+package chamomile.io;
+
+import chamomile.structures.GeometryInfo;
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.PodocyteData;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Exporter writing glomeruli and podocytes as UTF-8 comma separated values, one row per structure:
+ *
+ * <pre>
+ * structure,biopsy_id,image_id,glomerulus_number,area,feret
+ * glomerulus,B1,1,1,7500.5,120.25
+ * podocyte,B1,1,1,50.0,9.5
+ * </pre>
+ *
+ * Rows are built into a single reusable {@link StringBuilder} and copied into a buffered writer. The biopsy id is
+ * escaped once per biopsy, not once per row.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class CsvGlomerulusExporter implements GlomerulusExporter {
+
+    /**
+     * Header row of the exported files.
+     */
+    public static final String HEADER = "structure,biopsy_id,image_id,glomerulus_number,area,feret";
+
+    /**
+     * Default size of the output buffer in chars ({@value}).
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final Writer mWriter;
+    private final StringBuilder mRow = new StringBuilder(128);
+    private char[] mRowChars = new char[128];
+    private String mBiopsyField;
+    private long mGlomerulusCount;
+    private long mPodocyteCount;
+
+    /**
+     * Creates an exporter writing to a stream with the default buffer size, and writes the header row.
+     * @param outputStream stream receiving the rows, closed by {@link #close()}.
+     */
+    public CsvGlomerulusExporter(OutputStream outputStream) throws IOException {
+        this(outputStream, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates an exporter writing to a stream, and writes the header row.
+     * @param outputStream stream receiving the rows, closed by {@link #close()}.
+     * @param bufferSize size of the output buffer in chars.
+     */
+    public CsvGlomerulusExporter(OutputStream outputStream, int bufferSize) throws IOException {
+        Preconditions.checkNotNull(outputStream);
+        Preconditions.checkArgument(bufferSize > 0);
+        mWriter = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), bufferSize);
+        mWriter.write(HEADER);
+        mWriter.write('\n');
+    }
+
+    @Override
+    public void startBiopsy(String biopsyId) {
+        mBiopsyField = escape(Preconditions.checkNotNull(biopsyId));
+    }
+
+    @Override
+    public void accept(GlomerulusData glomerulusData) {
+        Preconditions.checkState(mBiopsyField != null, "No biopsy started");
+        try {
+            writeRow("glomerulus", glomerulusData.getImageId(), glomerulusData.getNumber(),
+                    glomerulusData.getGeometryInfo());
+            for (PodocyteData podocyteData : glomerulusData.getPodocytesData()) {
+                writeRow("podocyte", glomerulusData.getImageId(), glomerulusData.getNumber(),
+                        podocyteData.getGeometryInfo());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        mGlomerulusCount++;
+        mPodocyteCount += glomerulusData.getPodocytesData().size();
+    }
+
+    @Override
+    public long getGlomerulusCount() {
+        return mGlomerulusCount;
+    }
+
+    @Override
+    public long getPodocyteCount() {
+        return mPodocyteCount;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mWriter.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWriter.close();
+    }
+
+    public String toString() {
+        return MoreObjects.toStringHelper(CsvGlomerulusExporter.class)
+                .add("glomerulusCount", mGlomerulusCount)
+                .add("podocyteCount", mPodocyteCount)
+                .toString();
+    }
+
+    private void writeRow(String structure, int imageId, int glomerulusNumber, GeometryInfo geometryInfo)
+            throws IOException {
+        mRow.setLength(0);
+        mRow.append(structure).append(',')
+                .append(mBiopsyField).append(',')
+                .append(imageId).append(',')
+                .append(glomerulusNumber).append(',')
+                .append(geometryInfo.getArea()).append(',')
+                .append(geometryInfo.getFeret()).append('\n');
+        // Copy the row out rather than appending the builder, which would create a string per row
+        final int length = mRow.length();
+        if (length > mRowChars.length) {
+            mRowChars = new char[Math.max(length, 2 * mRowChars.length)];
+        }
+        mRow.getChars(0, length, mRowChars, 0);
+        mWriter.write(mRowChars, 0, length);
+    }
+
+    /**
+     * Quotes a field if it holds a separator, a quote or a line break, doubling its quotes.
+     */
+    private static String escape(String field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return '"' + field.replace("\"", "\"\"") + '"';
+            }
+        }
+        return field;
+    }
+}
@@ -0,0 +1,34 @@
+package chamomile.io;
+
+import java.io.Closeable;
+import java.io.Flushable;
+
+/**
+ * Sink that writes every glomerulus it receives, followed by its podocytes, as rows of an output file. A cohort is
+ * exported while it's parsed by handing the exporter to
+ * {@link BiopsyDataProcessor#parseAllBiopsies(java.io.File, ImageDataFileReader, java.util.concurrent.ExecutorService,
+ * IngestionMode, CohortSink)} or {@code streamAllBiopsies}.
+ *
+ * Every row carries the biopsy id, image id, glomerulus number, area and feret of the structure. Podocyte rows carry
+ * the number of their glomerulus. Rows are written through a buffer of fixed size as the glomeruli are pushed, so
+ * memory usage doesn't depend on the size of the cohort.
+ *
+ * Since {@link #accept(chamomile.structures.GlomerulusData)} can't throw checked exceptions, write failures are
+ * rethrown as {@link java.io.UncheckedIOException}. Exporters are not thread safe.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public interface GlomerulusExporter extends CohortSink, Flushable, Closeable {
+
+    /**
+     * Returns the number of glomerulus rows written so far.
+     * @return glomerulus row count.
+     */
+    long getGlomerulusCount();
+
+    /**
+     * Returns the number of podocyte rows written so far.
+     * @return podocyte row count.
+     */
+    long getPodocyteCount();
+}
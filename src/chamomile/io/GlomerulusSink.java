@@ -0,0 +1,37 @@
+package chamomile.io;
+
+import chamomile.structures.GlomerulusData;
+
+/**
+ * Receives glomeruli as soon as they have been completely parsed, i.e. when their run of podocytes is closed by the
+ * next glomerulus or by the end of the file.
+ *
+ * Glomeruli are pushed synchronously on the parsing thread, so parsing doesn't go on until the sink returns. A slow
+ * consumer therefore throttles the parser and at most one glomerulus per file being parsed is held in memory. Sinks
+ * that hand glomeruli over to another thread should do it through a bounded queue to keep that guarantee.
+ *
+ * Sinks that wrap another sink must forward {@link #quarantine(ImageDataFormatException)} to it.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+@FunctionalInterface
+public interface GlomerulusSink {
+
+    /**
+     * Accepts a completely parsed glomerulus.
+     * @param glomerulusData glomerulus with its podocytes data set.
+     */
+    void accept(GlomerulusData glomerulusData);
+
+    /**
+     * Decides what to do with an invalid glomerulus. A strict sink rethrows the exception, aborting the parse of the
+     * file. A lenient sink records it and returns, in which case the glomerulus being parsed is left out, together
+     * with all its podocytes, and parsing goes on with the next glomerulus.
+     * @param exception why the glomerulus is not valid.
+     *
+     * @throws ImageDataFormatException by default
+     */
+    default void quarantine(ImageDataFormatException exception) {
+        throw exception;
+    }
+}
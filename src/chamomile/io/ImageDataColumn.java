@@ -0,0 +1,43 @@
+package chamomile.io;
+
+/**
+ * Measurement columns that can be found in an image data file.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public enum ImageDataColumn {
+    AREA("Area"),
+    FERET("Feret"),
+    FERET_X("FeretX"),
+    FERET_Y("FeretY"),
+    FERET_ANGLE("FeretAngle"),
+    MIN_FERET("MinFeret");
+
+    private final String mHeaderName;
+
+    ImageDataColumn(String headerName) {
+        mHeaderName = headerName;
+    }
+
+    /**
+     * Returns the name of the column in the header line.
+     * @return header name, e.g. "Area".
+     */
+    public String getHeaderName() {
+        return mHeaderName;
+    }
+
+    /**
+     * Finds the column with the given header name.
+     * @param headerName name found in the header line, case sensitive.
+     * @return the column, or {@code null} if it's not a known column.
+     */
+    public static ImageDataColumn forHeaderName(String headerName) {
+        for (ImageDataColumn column : values()) {
+            if (column.mHeaderName.equals(headerName)) {
+                return column;
+            }
+        }
+        return null;
+    }
+}
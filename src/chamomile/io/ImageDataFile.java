@@ -0,0 +1,248 @@
+package chamomile.io;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Files;
+import com.google.common.primitives.Ints;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An image data file of a biopsy together with the id of the image it describes.
+ *
+ * Image data files are named after the image they belong to, e.g. {@code 12.xls} holds the data of image 12. They may
+ * be gzip compressed, e.g. {@code 12.xls.gz}, in which case they're decompressed on the fly while they are read, see
+ * {@link #asByteSource()}.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class ImageDataFile implements Comparable<ImageDataFile> {
+
+    /**
+     * Extension of the image data files ({@value}).
+     */
+    public static final String EXTENSION = "xls";
+
+    /**
+     * Extension of gzip compressed image data files, after {@link #EXTENSION} ({@value}).
+     */
+    public static final String COMPRESSED_EXTENSION = "gz";
+
+    /**
+     * Size of the buffer holding the compressed bytes of a file while it's decompressed ({@value} bytes).
+     */
+    private static final int DECOMPRESSION_BUFFER_SIZE = 256 * 1024;
+
+    private final File mFile;
+    private final int mImageId;
+
+    public ImageDataFile(File file, int imageId) {
+        Preconditions.checkArgument(imageId > 0);
+        mFile = Preconditions.checkNotNull(file);
+        mImageId = imageId;
+    }
+
+    /**
+     * Lists all image data files inside a given directory.
+     * @param directory directory containing the image data files.
+     * @return image data files sorted by image id.
+     *
+     * @throws RuntimeException if an image data file isn't named after an image id
+     */
+    public static List<ImageDataFile> listImageDataFiles(final File directory) {
+        List<File> illegalFiles = new ArrayList<>();
+        List<ImageDataFile> imageDataFiles = listImageDataFiles(directory, illegalFiles);
+        if (!illegalFiles.isEmpty()) {
+            throw illegalImageDataFile(illegalFiles.get(0));
+        }
+
+        return imageDataFiles;
+    }
+
+    /**
+     * Lists all image data files inside a given directory, leaving out the ones that aren't named after an image id.
+     * @param directory directory containing the image data files.
+     * @param illegalFiles receives the image data files left out.
+     * @return image data files sorted by image id.
+     */
+    public static List<ImageDataFile> listImageDataFiles(final File directory, List<File> illegalFiles) {
+        Preconditions.checkArgument(directory.isDirectory());
+        Preconditions.checkNotNull(illegalFiles);
+
+        final File[] files = directory.listFiles((File dir, String name) -> isImageDataFileName(name));
+        if (files == null) {
+            return Collections.emptyList();
+        }
+
+        List<ImageDataFile> imageDataFiles = new ArrayList<>(files.length);
+        for (File file : files) {
+            ImageDataFile imageDataFile = tryForFile(file);
+            if (imageDataFile != null) {
+                imageDataFiles.add(imageDataFile);
+            } else {
+                illegalFiles.add(file);
+            }
+        }
+        Collections.sort(imageDataFiles);
+
+        return imageDataFiles;
+    }
+
+    /**
+     * Creates the image data file for a given file, deriving the image id from the file name.
+     * @param file image data file.
+     * @return image data file
+     *
+     * @throws RuntimeException if the file isn't named after an image id
+     */
+    public static ImageDataFile forFile(File file) {
+        ImageDataFile imageDataFile = tryForFile(file);
+
+        if (imageDataFile == null) {
+            throw illegalImageDataFile(file);
+        }
+
+        return imageDataFile;
+    }
+
+    /**
+     * Creates the image data file for a given file, deriving the image id from the file name.
+     * @param file image data file.
+     * @return image data file, or {@code null} if the file isn't named after an image id.
+     */
+    public static ImageDataFile tryForFile(File file) {
+        Integer imageId = Ints.tryParse(Files.getNameWithoutExtension(getUncompressedName(file.getName())));
+
+        if (imageId == null || imageId <= 0) {
+            return null;
+        }
+
+        return new ImageDataFile(file, imageId);
+    }
+
+    private static RuntimeException illegalImageDataFile(File file) {
+        return new RuntimeException("Found illegal image data file: " + file.getName());
+    }
+
+    /**
+     * Returns whether the given file name has the extension of an image data file.
+     * @param name file name
+     * @return {@code true} if it is an image data file name
+     */
+    public static boolean isImageDataFileName(String name) {
+        return Files.getFileExtension(getUncompressedName(name)).equals(EXTENSION);
+    }
+
+    private static boolean isCompressedFileName(String name) {
+        return Files.getFileExtension(name).equals(COMPRESSED_EXTENSION);
+    }
+
+    private static String getUncompressedName(String name) {
+        return isCompressedFileName(name) ? Files.getNameWithoutExtension(name) : name;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public int getImageId() {
+        return mImageId;
+    }
+
+    /**
+     * Returns whether the file is gzip compressed, i.e. whether its bytes on disk differ from its content.
+     * @return {@code true} if the file name ends with {@link #COMPRESSED_EXTENSION}
+     */
+    public boolean isCompressed() {
+        return isCompressedFileName(mFile.getName());
+    }
+
+    /**
+     * Returns the content of the file, decompressing it while it's read if it's compressed. Nothing is written to
+     * disk, and the decompression runs on the thread reading the stream.
+     * @return byte source of the uncompressed content.
+     */
+    public ByteSource asByteSource() {
+        if (!isCompressed()) {
+            return Files.asByteSource(mFile);
+        }
+
+        return new ByteSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                InputStream inputStream = new FileInputStream(mFile);
+                try {
+                    return new GZIPInputStream(inputStream, DECOMPRESSION_BUFFER_SIZE);
+                } catch (IOException | RuntimeException e) {
+                    inputStream.close();
+                    throw e;
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the content of the file like {@link #asByteSource()}, counting the bytes read from disk and the time
+     * spent opening the file and reading its content, decompression included.
+     * @param counters counters of the read the content is opened for.
+     * @return byte source of the uncompressed content.
+     */
+    ByteSource asByteSource(ImageDataFileCounters counters) {
+        return new ByteSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                final long start = System.nanoTime();
+                InputStream inputStream = counters.countBytes(new FileInputStream(mFile));
+                try {
+                    if (isCompressed()) {
+                        inputStream = new GZIPInputStream(inputStream, DECOMPRESSION_BUFFER_SIZE);
+                    }
+                    return counters.timeReads(inputStream);
+                } catch (IOException | RuntimeException e) {
+                    inputStream.close();
+                    throw e;
+                } finally {
+                    counters.addIoNanos(System.nanoTime() - start);
+                }
+            }
+        };
+    }
+
+    @Override
+    public int compareTo(ImageDataFile other) {
+        return ComparisonChain.start()
+                .compare(mImageId, other.mImageId)
+                .compare(mFile.getName(), other.mFile.getName())
+                .result();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ImageDataFile)) {
+            return false;
+        }
+        return mImageId == ((ImageDataFile) other).mImageId && mFile.equals(((ImageDataFile) other).mFile);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(mFile, mImageId);
+    }
+
+    public String toString() {
+        return MoreObjects.toStringHelper(ImageDataFile.class)
+                .add("file", mFile)
+                .add("imageId", mImageId)
+                .toString();
+    }
+}
@@ -0,0 +1,183 @@
+package chamomile.io;
+
+import com.google.common.base.MoreObjects;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counters of a single read of an image data file, filled in by the reader while it reads the file, see
+ * {@link ImageDataFileReader#read(ImageDataFile, GlomerulusSink, ImageDataFileCounters)}.
+ *
+ * Lines are counted by the {@link ImageDataLineProcessor} as they are processed. A quarantined glomerulus counts as
+ * rejected lines together with its podocytes, and so does the line that made a file fail. Bytes are the bytes the
+ * reader consumed, e.g. the compressed bytes of a compressed file or the cache file of a cache hit. The I/O time is the
+ * time the reading thread spent opening files and waiting for their bytes, decompression included.
+ *
+ * Instances are not thread safe.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class ImageDataFileCounters {
+    private long mBytesRead;
+    private long mIoNanos;
+    private int mHeaderLines;
+    private int mGlomerulusLines;
+    private int mPodocyteLines;
+    private int mRejectedLines;
+
+    /**
+     * Returns the number of bytes consumed by the reader.
+     * @return long bytes read
+     */
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    /**
+     * Returns the time spent opening the file and waiting for its bytes, in nanoseconds.
+     * @return long I/O time
+     */
+    public long getIoNanos() {
+        return mIoNanos;
+    }
+
+    public int getHeaderLines() {
+        return mHeaderLines;
+    }
+
+    public int getGlomerulusLines() {
+        return mGlomerulusLines;
+    }
+
+    public int getPodocyteLines() {
+        return mPodocyteLines;
+    }
+
+    public int getRejectedLines() {
+        return mRejectedLines;
+    }
+
+    void addBytesRead(long bytes) {
+        mBytesRead += bytes;
+    }
+
+    void addIoNanos(long nanos) {
+        mIoNanos += nanos;
+    }
+
+    /**
+     * Adds the lines processed by a line processor so far.
+     */
+    void addLines(ImageDataLineProcessor processor) {
+        mHeaderLines += processor.getHeaderLines();
+        mGlomerulusLines += processor.getGlomerulusLines();
+        mPodocyteLines += processor.getPodocyteLines();
+        mRejectedLines += processor.getRejectedLines();
+    }
+
+    /**
+     * Adds a header line parsed outside of a line processor.
+     */
+    void addHeaderLine() {
+        mHeaderLines++;
+    }
+
+    /**
+     * Adds the lines of a glomerulus committed outside of a line processor.
+     */
+    void addGlomerulus(int podocyteCount) {
+        mGlomerulusLines++;
+        mPodocyteLines += podocyteCount;
+    }
+
+    /**
+     * Adds lines left out outside of a line processor.
+     */
+    void addRejectedLines(int lineCount) {
+        mRejectedLines += lineCount;
+    }
+
+    /**
+     * Adds all the counts of another instance, e.g. of a chunk of the file.
+     */
+    void add(ImageDataFileCounters other) {
+        mBytesRead += other.mBytesRead;
+        mIoNanos += other.mIoNanos;
+        mHeaderLines += other.mHeaderLines;
+        mGlomerulusLines += other.mGlomerulusLines;
+        mPodocyteLines += other.mPodocyteLines;
+        mRejectedLines += other.mRejectedLines;
+    }
+
+    /**
+     * Wraps a stream of the bytes of a file on disk, adding every byte read from it to the bytes read.
+     */
+    InputStream countBytes(InputStream inputStream) {
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read() throws IOException {
+                final int b = super.read();
+                if (b >= 0) {
+                    mBytesRead++;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                final int read = super.read(b, off, len);
+                if (read > 0) {
+                    mBytesRead += read;
+                }
+                return read;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                final long skipped = super.skip(n);
+                mBytesRead += skipped;
+                return skipped;
+            }
+        };
+    }
+
+    /**
+     * Wraps the stream a file is parsed from, adding the time spent in every read to the I/O time.
+     */
+    InputStream timeReads(InputStream inputStream) {
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read() throws IOException {
+                final long start = System.nanoTime();
+                try {
+                    return super.read();
+                } finally {
+                    mIoNanos += System.nanoTime() - start;
+                }
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                final long start = System.nanoTime();
+                try {
+                    return super.read(b, off, len);
+                } finally {
+                    mIoNanos += System.nanoTime() - start;
+                }
+            }
+        };
+    }
+
+    public String toString() {
+        return MoreObjects.toStringHelper(ImageDataFileCounters.class)
+                .add("bytesRead", mBytesRead)
+                .add("ioNanos", mIoNanos)
+                .add("headerLines", mHeaderLines)
+                .add("glomerulusLines", mGlomerulusLines)
+                .add("podocyteLines", mPodocyteLines)
+                .add("rejectedLines", mRejectedLines)
+                .toString();
+    }
+}
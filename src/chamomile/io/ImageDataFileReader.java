@@ -0,0 +1,95 @@
+package chamomile.io;
+
+import chamomile.structures.GlomerulusData;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Strategy used by {@link BiopsyDataProcessor} to read and parse a single image data file.
+ *
+ * Implementations must be thread safe, since the same reader is used to parse several files concurrently.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public interface ImageDataFileReader {
+
+    /**
+     * Reads and parses an image data file, pushing every glomerulus to a sink as soon as it is complete.
+     * @param imageDataFile file to be read.
+     * @param sink sink receiving the glomeruli found in the file, in the same order as in the file.
+     *
+     * @throws IOException if the file can't be read
+     * @throws RuntimeException if the file content is not valid, see {@link ImageDataLineProcessor}
+     */
+    void read(ImageDataFile imageDataFile, GlomerulusSink sink) throws IOException;
+
+    /**
+     * Reads and parses an image data file like {@link #read(ImageDataFile, GlomerulusSink)}, counting the lines,
+     * bytes and I/O time of the read. Readers that don't override this method leave the counters untouched.
+     * @param imageDataFile file to be read.
+     * @param sink sink receiving the glomeruli found in the file, in the same order as in the file.
+     * @param counters counters of this read, updated even if the read fails.
+     *
+     * @throws IOException if the file can't be read
+     * @throws RuntimeException if the file content is not valid, see {@link ImageDataLineProcessor}
+     */
+    default void read(ImageDataFile imageDataFile, GlomerulusSink sink, ImageDataFileCounters counters)
+            throws IOException {
+        read(imageDataFile, sink);
+    }
+
+    /**
+     * Reads and parses an image data file.
+     * @param imageDataFile file to be read.
+     * @return the glomeruli found in the file, in the same order as in the file.
+     *
+     * @throws IOException if the file can't be read
+     * @throws RuntimeException if the file content is not valid, see {@link ImageDataLineProcessor}
+     */
+    default List<GlomerulusData> read(ImageDataFile imageDataFile) throws IOException {
+        List<GlomerulusData> glomeruliData = new ArrayList<>();
+        read(imageDataFile, glomeruliData::add);
+        return glomeruliData;
+    }
+
+    /**
+     * Returns how this reader assigns podocytes to glomeruli, which decides the glomeruli it reads from a file together
+     * with {@link #getAreaClassifier()}.
+     * @return {@link PodocyteAssignment#FILE_ORDER} unless the reader is configured otherwise.
+     */
+    default PodocyteAssignment getPodocyteAssignment() {
+        return PodocyteAssignment.FILE_ORDER;
+    }
+
+    /**
+     * Returns the classifier this reader tells glomeruli apart from podocytes with.
+     * @return {@link AreaClassifier#DEFAULT} unless the reader is configured otherwise.
+     */
+    default AreaClassifier getAreaClassifier() {
+        return AreaClassifier.DEFAULT;
+    }
+
+    /**
+     * Returns the metrics sink that ingestion through this reader reports to.
+     * @return {@link IngestionMetrics#NOOP} unless the reader is instrumented, see
+     * {@link InstrumentedImageDataFileReader}.
+     */
+    default IngestionMetrics getMetrics() {
+        return IngestionMetrics.NOOP;
+    }
+
+    /**
+     * Announces image data files that are about to be read, most likely in the given order, so that the reader may
+     * start loading them ahead of time. Reading them without announcing them first is always allowed.
+     * @param imageDataFiles files about to be read.
+     * @return handle to close once the files were read, releasing whatever is still held for the files that weren't.
+     */
+    default Closeable prefetch(List<ImageDataFile> imageDataFiles) {
+        return () -> {
+            // Nothing is prefetched
+        };
+    }
+}
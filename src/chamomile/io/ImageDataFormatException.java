@@ -0,0 +1,41 @@
+package chamomile.io;
+
+/**
+ * Thrown when the content of an image data file is not valid, see {@link ImageDataLineProcessor}.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public class ImageDataFormatException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int mLineNumber;
+
+    /**
+     * Creates an exception.
+     * @param message reason why the content is not valid.
+     * @param lineNumber number of the offending line, starting from 1, or 0 if no single line is at fault.
+     */
+    public ImageDataFormatException(String message, int lineNumber) {
+        super(message);
+        mLineNumber = lineNumber;
+    }
+
+    /**
+     * Creates an exception.
+     * @param message reason why the content is not valid.
+     * @param lineNumber number of the offending line, starting from 1, or 0 if no single line is at fault.
+     * @param cause exception thrown while parsing the line.
+     */
+    public ImageDataFormatException(String message, int lineNumber, Throwable cause) {
+        super(message, cause);
+        mLineNumber = lineNumber;
+    }
+
+    /**
+     * Returns the number of the offending line.
+     * @return line number starting from 1, or 0 if no single line is at fault.
+     */
+    public int getLineNumber() {
+        return mLineNumber;
+    }
+}
@@ -0,0 +1,93 @@
+package chamomile.io;
+
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.PodocyteData;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * State left by an {@link ImageDataLineProcessor} after processing a fragment of an image data file.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+final class ImageDataFragment {
+
+    /**
+     * Podocytes found before the first glomerulus of the fragment, possibly empty.
+     */
+    final List<PodocyteData> mLeadingPodocytes;
+
+    /**
+     * Complete glomeruli of the fragment, numbered from 1.
+     */
+    final List<GlomerulusData> mGlomeruli;
+
+    /**
+     * Last glomerulus of the fragment, {@code null} if the fragment has no glomerulus. Its podocytes are still
+     * mutable since more may follow in the next fragment.
+     */
+    final GlomerulusData mOpenGlomerulus;
+
+    /**
+     * Number of the line of the open glomerulus within the fragment, starting from 1.
+     */
+    final int mOpenGlomerulusLine;
+    final List<PodocyteData> mOpenPodocytes;
+
+    /**
+     * Number of glomeruli found in the fragment, quarantined ones included.
+     */
+    final int mGlomerulusCount;
+
+    /**
+     * Invalid glomeruli and lines of the fragment, in line order, with line numbers within the fragment.
+     */
+    final List<Quarantine> mQuarantines;
+
+    /**
+     * Whether the fragment ends with a quarantined glomerulus, whose podocytes may continue in the next fragment.
+     */
+    final boolean mQuarantined;
+
+    ImageDataFragment(List<PodocyteData> leadingPodocytes, List<GlomerulusData> glomeruli,
+                      GlomerulusData openGlomerulus, int openGlomerulusLine, List<PodocyteData> openPodocytes,
+                      int glomerulusCount, List<Quarantine> quarantines, boolean quarantined) {
+        mLeadingPodocytes = leadingPodocytes != null ? leadingPodocytes : Collections.emptyList();
+        mGlomeruli = glomeruli;
+        mOpenGlomerulus = openGlomerulus;
+        mOpenGlomerulusLine = openGlomerulusLine;
+        mOpenPodocytes = openPodocytes;
+        mGlomerulusCount = glomerulusCount;
+        mQuarantines = quarantines;
+        mQuarantined = quarantined;
+    }
+
+    boolean hasGlomeruli() {
+        return mGlomerulusCount > 0;
+    }
+
+    /**
+     * Quarantine found while processing a fragment.
+     */
+    static final class Quarantine {
+
+        /**
+         * Number of complete glomeruli of the fragment found before the quarantine.
+         */
+        final int mGlomeruliBefore;
+
+        /**
+         * Whether the quarantine came before the first glomerulus of the fragment, so it applies to the glomerulus left
+         * open by the previous fragments.
+         */
+        final boolean mLeading;
+        final ImageDataFormatException mException;
+
+        Quarantine(int glomeruliBefore, boolean leading, ImageDataFormatException exception) {
+            mGlomeruliBefore = glomeruliBefore;
+            mLeading = leading;
+            mException = exception;
+        }
+    }
+}
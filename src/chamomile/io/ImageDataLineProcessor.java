@@ -1,156 +1,601 @@
-package chamomile.io;
-
-import chamomile.structures.GeometryInfo;
-import chamomile.structures.GlomerulusData;
-import chamomile.structures.PodocyteData;
-import com.google.common.base.Preconditions;
-import com.google.common.io.LineProcessor;
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Scanner;
-
-/**
- * Line processor for image data file.
- *
- * Image data file follow this convention below:
- *
- * Header
- * Glomerulus Data
- * Podocyte Data
- * ...
- *
- * Example:
- *
- * Area	Feret	FeretX	FeretY	FeretAngle	MinFeret
- * 1	8914.940	128.412	226.768	248.444	117.031	85.135
- * 2	23.243	8.696	214.429	267.119	57.529	3.673
- * 3	15.236	5.834	249.444	354.158	149.036	3.773
- * 4	24.689	6.939	259.782	270.454	35.218	5.182
- * 5	23.132	6.670	262.450	255.781	126.870	4.669
- * 6	8734.557	112.589	274.456	424.522	157.537	103.920
- * 7	55.939	10.677	304.469	422.522	141.340	7.607
- * 8	50.378	9.949	276.456	445.865	39.560	7.071
- * 9	17.682	6.552	288.795	456.537	75.256	3.941
- *
- * Glomerulus data is tell apart from podocyte data by the size of the area. If the area size falls between
- * {@link PodocyteData#MIN_PODOCYTE_AREA} and {@link PodocyteData#MAX_PODOCYTE_AREA} it's assumed that the data is of a
- * podocyte. If the area size falls between {@link GlomerulusData#MIN_GLOMERULOUS_AREA} and
- * {@link GlomerulusData#MAX_GLOMERULOUS_AREA} it's assumed that the data is of a glomerulus. If the data doesn't fall
- * between any of those the data is considered invalid.
- *
- * @author Gomez-Avila, Rodrigo
- */
-public final class ImageDataLineProcessor implements LineProcessor<List<GlomerulusData>> {
-    private final int mImageId;
-    private boolean mValidHeader;
-    private GlomerulusData mCurrentGlomerulus;
-    private List<PodocyteData> mPodocytesFound;
-    private List<GlomerulusData> mGlomeruliFound;
-    private final boolean mRequireOnePodocytePerGlomerulus = true;
-
-    public ImageDataLineProcessor(int imageId) {
-        Preconditions.checkArgument(imageId > 0);
-        mImageId = imageId;
-        mValidHeader = false;
-        mCurrentGlomerulus = null;
-        mPodocytesFound = null;
-        mGlomeruliFound = new ArrayList<>();
-    }
-
-    /**
-     * Returns the processed glomerulus data.
-     * @return glomerulus data
-     *
-     * @throws RuntimeException if a valid header wasn't found in line 1
-     * @throws RuntimeException if no glomerulus information was found
-     */
-    public List<GlomerulusData> getResult() {
-        if (!mValidHeader) {
-            throw new RuntimeException("Header wasn't found");
-        }
-
-        if (mCurrentGlomerulus == null) {
-            throw new RuntimeException("No glomerulus found");
-        }
-
-        // Commit the very last glomerulus
-        if (mRequireOnePodocytePerGlomerulus && mPodocytesFound.isEmpty()) {
-            throw new RuntimeException("Found glomerulus without any podocyte data");
-        }
-        mCurrentGlomerulus.setPodocytesData(mPodocytesFound);
-        mGlomeruliFound.add(mCurrentGlomerulus);
-
-        return mGlomeruliFound;
-    }
-
-    /**
-     * Processes the line.
-     * @param line must be either a header line or a line with valid measurement info.
-     * @return {@code true}
-     */
-    public boolean processLine(String line) {
-        if (isHeaderLine(line)) {
-            if (!mValidHeader) {
-                mValidHeader = true;
-            } else {
-                throw new RuntimeException("Double header found!");
-            }
-        } else {
-            ParseMeasurementLineResult parseResult = processMeasurementLine(line);
-
-            final double area = parseResult.geometryInfo.getArea();
-            if (area >= PodocyteData.MIN_PODOCYTE_AREA && area <= PodocyteData.MAX_PODOCYTE_AREA) {
-                if (mPodocytesFound == null) {
-                    throw new RuntimeException("Podocyte information found before glomerulus information");
-                }
-                mPodocytesFound.add(new PodocyteData(parseResult.geometryInfo));
-            } else if (area >= GlomerulusData.MIN_GLOMERULOUS_AREA && area <= GlomerulusData.MAX_GLOMERULOUS_AREA) {
-                if (mCurrentGlomerulus != null) {
-                    if (mRequireOnePodocytePerGlomerulus && mPodocytesFound.isEmpty()) {
-                        throw new RuntimeException("Found glomerulus without any podocyte data");
-                    }
-                    mCurrentGlomerulus.setPodocytesData(mPodocytesFound);
-                    mGlomeruliFound.add(mCurrentGlomerulus);
-                }
-                mCurrentGlomerulus = new GlomerulusData(parseResult.geometryInfo, mImageId, mGlomeruliFound.size() + 1);
-                mPodocytesFound = new ArrayList<>();
-            } else {
-                throw new RuntimeException(
-                        String.format("Illegal measurement found: area = %f, imageId = %d", area, mImageId));
-            }
-        }
-
-        return true;
-    }
-
-    private static class ParseMeasurementLineResult {
-        public final int number;
-        public final GeometryInfo geometryInfo;
-
-        private ParseMeasurementLineResult(int number, GeometryInfo geometryInfo) {
-            this.number = number;
-            this.geometryInfo = Preconditions.checkNotNull(geometryInfo);
-        }
-    }
-
-    private static ParseMeasurementLineResult processMeasurementLine(String line) {
-        Scanner scanner = new Scanner(line);
-
-        int number = scanner.nextInt();
-        double area = scanner.nextDouble();
-        double feret = scanner.nextDouble();
-
-        // Verify that the last four number are present even if don't use them to make
-        // sure the format was valid
-        for (int i=0; i < 4; i++) {
-            scanner.nextDouble();
-        }
-
-        return new ParseMeasurementLineResult(number, new GeometryInfo(area, feret));
-    }
-
-    private static boolean isHeaderLine(String line) {
-        return line.contains("Area");
-    }
+package chamomile.io;
+
+import chamomile.statistics.GlomeruliStatistics;
+import chamomile.statistics.RunningStatistics;
+import chamomile.structures.GeometryInfo;
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.GlomerulusSpatialIndex;
+import chamomile.structures.PodocyteData;
+import com.google.common.base.Preconditions;
+import com.google.common.io.LineProcessor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Line processor for image data file.
+ *
+ * Image data file follow this convention below:
+ *
+ * Header
+ * Glomerulus Data
+ * Podocyte Data
+ * ...
+ *
+ * Example:
+ *
+ * Area	Feret	FeretX	FeretY	FeretAngle	MinFeret
+ * 1	8914.940	128.412	226.768	248.444	117.031	85.135
+ * 2	23.243	8.696	214.429	267.119	57.529	3.673
+ * 3	15.236	5.834	249.444	354.158	149.036	3.773
+ * 4	24.689	6.939	259.782	270.454	35.218	5.182
+ * 5	23.132	6.670	262.450	255.781	126.870	4.669
+ * 6	8734.557	112.589	274.456	424.522	157.537	103.920
+ * 7	55.939	10.677	304.469	422.522	141.340	7.607
+ * 8	50.378	9.949	276.456	445.865	39.560	7.071
+ * 9	17.682	6.552	288.795	456.537	75.256	3.941
+ *
+ * The header is the line whose first non whitespace character is a letter. It's parsed into an {@link ImageDataSchema},
+ * so columns may come in any order and extra columns are allowed. Only the Area and Feret columns are converted, the
+ * other fields are just validated.
+ *
+ * Glomerulus data is tell apart from podocyte data by the size of the area. If the area size falls between
+ * {@link PodocyteData#MIN_PODOCYTE_AREA} and {@link PodocyteData#MAX_PODOCYTE_AREA} it's assumed that the data is of a
+ * podocyte. If the area size falls between {@link GlomerulusData#MIN_GLOMERULOUS_AREA} and
+ * {@link GlomerulusData#MAX_GLOMERULOUS_AREA} it's assumed that the data is of a glomerulus. If the data doesn't fall
+ * between any of those the data is considered invalid. Other ranges can be given through an {@link AreaClassifier}.
+ *
+ * Lines given as bytes are parsed into a batch of primitive measurements that is classified in bulk by the
+ * {@link AreaClassifier} once full, before the rows are grouped into glomeruli. The batch is also processed before any
+ * header or malformed line and at the end of the input, so the result and the order of the failures are the same as
+ * when every line is processed on its own, only glomeruli may reach the sink up to {@value #BATCH_SIZE} lines later.
+ *
+ * By default a podocyte belongs to the glomerulus found right before it. With
+ * {@link PodocyteAssignment#NEAREST_GLOMERULUS} it belongs instead to the glomerulus nearest to it in the image, so the
+ * podocytes of the whole image are kept until {@link #getResult()} assigns them through a
+ * {@link GlomerulusSpatialIndex}. Only in that mode are the FeretX and FeretY columns converted and kept on the
+ * {@link GeometryInfo}, and a line whose position isn't finite is invalid. Otherwise they're just validated and the
+ * structures have no position.
+ *
+ * By default all glomeruli are collected and returned by {@link #getResult()}. When a {@link GlomerulusSink} is given,
+ * every glomerulus is pushed to it as soon as its podocytes are known and nothing is retained.
+ *
+ * When the glomeruli are collected, the statistics of the whole image are accumulated as they're committed, see
+ * {@link #getStatistics()}. With a {@link GlomerulusSink} that's up to the sink, so glomeruli aren't accumulated twice.
+ * The area and feret moments of the podocytes of every glomerulus are accumulated as its podocyte lines arrive and
+ * handed over with the podocytes, see {@link GlomerulusData#getPodocyteAreaStatistics()}.
+ *
+ * Invalid lines are reported as an {@link ImageDataFormatException} with the number of the offending line. Invalid
+ * glomeruli, i.e. a malformed or out of range line (a non positive or infinite area or feret included), a podocyte
+ * before any glomerulus or a glomerulus without podocytes, are handed to
+ * {@link GlomerulusSink#quarantine(ImageDataFormatException)}, which by default throws. When the sink returns instead,
+ * the glomerulus is left out together with all its podocytes and parsing goes on, and its number is skipped so the
+ * following glomeruli keep their numbers. A missing or invalid header and a file without glomeruli always throw.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class ImageDataLineProcessor implements LineProcessor<List<GlomerulusData>> {
+    /**
+     * Columns needed to build the geometry of a structure.
+     */
+    private static final EnumSet<ImageDataColumn> REQUIRED_COLUMNS =
+            EnumSet.of(ImageDataColumn.AREA, ImageDataColumn.FERET);
+
+    /**
+     * Columns needed to build the geometry of a structure together with its position in the image.
+     */
+    private static final EnumSet<ImageDataColumn> POSITIONED_COLUMNS =
+            EnumSet.of(ImageDataColumn.AREA, ImageDataColumn.FERET, ImageDataColumn.FERET_X, ImageDataColumn.FERET_Y);
+
+    /**
+     * Number of measurements parsed from byte lines before they are classified and grouped ({@value}).
+     */
+    static final int BATCH_SIZE = 256;
+
+    static final String PODOCYTE_BEFORE_GLOMERULUS = "Podocyte information found before glomerulus information";
+    static final String GLOMERULUS_WITHOUT_PODOCYTES = "Found glomerulus without any podocyte data";
+    static final String NO_GLOMERULUS = "No glomerulus found";
+
+    private final int mImageId;
+    private boolean mValidHeader;
+    private GlomerulusData mCurrentGlomerulus;
+    private List<PodocyteData> mPodocytesFound;
+    private RunningStatistics mPodocyteAreaStatistics;
+    private RunningStatistics mPodocyteFeretStatistics;
+    private final GlomeruliStatistics mStatistics;
+    private final List<GlomerulusData> mGlomeruliFound;
+    private final GlomerulusSink mSink;
+    private int mGlomerulusCount;
+    private final boolean mRequireOnePodocytePerGlomerulus = true;
+    private final MeasurementLineParser mParser;
+    private final boolean mFragment;
+    private List<PodocyteData> mLeadingPodocytes;
+    private final PodocyteAssignment mAssignment;
+    private final List<GlomerulusData> mUnassignedGlomeruli = new ArrayList<>();
+    private final List<PodocyteData> mUnassignedPodocytes = new ArrayList<>();
+    private final List<Integer> mUnassignedGlomerulusLines = new ArrayList<>();
+    private int mLineNumber;
+    private int mCurrentGlomerulusLine;
+    private boolean mQuarantined;
+    private final AreaClassifier mClassifier;
+    private double[] mBatchAreas;
+    private double[] mBatchFerets;
+    private double[] mBatchFeretXs;
+    private double[] mBatchFeretYs;
+    private int[] mBatchLines;
+    private byte[] mBatchClasses;
+    private int mBatchSize;
+    private int mHeaderLines;
+    private int mGlomerulusLines;
+    private int mPodocyteLines;
+    private int mRejectedLines;
+    private final List<ImageDataFragment.Quarantine> mQuarantines;
+
+    public ImageDataLineProcessor(int imageId) {
+        Preconditions.checkArgument(imageId > 0);
+        mImageId = imageId;
+        mValidHeader = false;
+        mCurrentGlomerulus = null;
+        mPodocytesFound = null;
+        mGlomeruliFound = new ArrayList<>();
+        mQuarantines = null;
+        mStatistics = new GlomeruliStatistics();
+        mSink = (GlomerulusData glomerulusData) -> {
+            mGlomeruliFound.add(glomerulusData);
+            mStatistics.add(glomerulusData);
+        };
+        mGlomerulusCount = 0;
+        mFragment = false;
+        mAssignment = PodocyteAssignment.FILE_ORDER;
+        mClassifier = AreaClassifier.DEFAULT;
+        mParser = newParser(mAssignment);
+    }
+
+    /**
+     * Creates a line processor that pushes every glomerulus to a sink instead of collecting them.
+     * @param imageId id of the image being processed.
+     * @param sink sink receiving the glomeruli in file order.
+     */
+    public ImageDataLineProcessor(int imageId, GlomerulusSink sink) {
+        this(imageId, sink, PodocyteAssignment.FILE_ORDER);
+    }
+
+    /**
+     * Creates a line processor that pushes every glomerulus to a sink instead of collecting them.
+     * @param imageId id of the image being processed.
+     * @param sink sink receiving the glomeruli in file order.
+     * @param assignment how podocytes are assigned to glomeruli.
+     */
+    public ImageDataLineProcessor(int imageId, GlomerulusSink sink, PodocyteAssignment assignment) {
+        this(imageId, sink, assignment, AreaClassifier.DEFAULT);
+    }
+
+    /**
+     * Creates a line processor that pushes every glomerulus to a sink instead of collecting them.
+     * @param imageId id of the image being processed.
+     * @param sink sink receiving the glomeruli in file order.
+     * @param assignment how podocytes are assigned to glomeruli.
+     * @param classifier classifier telling glomeruli apart from podocytes.
+     */
+    public ImageDataLineProcessor(int imageId, GlomerulusSink sink, PodocyteAssignment assignment,
+                                  AreaClassifier classifier) {
+        Preconditions.checkArgument(imageId > 0);
+        mImageId = imageId;
+        mValidHeader = false;
+        mCurrentGlomerulus = null;
+        mPodocytesFound = null;
+        mGlomeruliFound = new ArrayList<>();
+        mQuarantines = null;
+        mStatistics = null;
+        mSink = Preconditions.checkNotNull(sink);
+        mGlomerulusCount = 0;
+        mFragment = false;
+        mAssignment = Preconditions.checkNotNull(assignment);
+        mClassifier = Preconditions.checkNotNull(classifier);
+        mParser = newParser(assignment);
+    }
+
+    /**
+     * Creates a line processor for a fragment of a file that starts after the header, see {@link #getFragment()}.
+     * @param imageId id of the image being processed.
+     * @param schema schema parsed from the header of the file.
+     */
+    ImageDataLineProcessor(int imageId, ImageDataSchema schema) {
+        Preconditions.checkArgument(imageId > 0);
+        mImageId = imageId;
+        mValidHeader = true;
+        mCurrentGlomerulus = null;
+        mPodocytesFound = null;
+        mGlomeruliFound = new ArrayList<>();
+        mQuarantines = new ArrayList<>();
+        mStatistics = null;
+        // Quarantines are kept to be replayed in file order once the fragments are joined
+        mSink = new GlomerulusSink() {
+            @Override
+            public void accept(GlomerulusData glomerulusData) {
+                mGlomeruliFound.add(glomerulusData);
+            }
+
+            @Override
+            public void quarantine(ImageDataFormatException exception) {
+                mQuarantines.add(new ImageDataFragment.Quarantine(mGlomeruliFound.size(), mGlomerulusCount == 0,
+                        exception));
+            }
+        };
+        mGlomerulusCount = 0;
+        mFragment = true;
+        mAssignment = PodocyteAssignment.FILE_ORDER;
+        mClassifier = AreaClassifier.DEFAULT;
+        mParser = newParser(mAssignment);
+        mParser.setSchema(schema);
+    }
+
+    /**
+     * Creates the parser of a processor. The positions are only converted when podocytes are assigned by position,
+     * since nothing else needs them.
+     */
+    private static MeasurementLineParser newParser(PodocyteAssignment assignment) {
+        return new MeasurementLineParser(assignment == PodocyteAssignment.NEAREST_GLOMERULUS
+                ? POSITIONED_COLUMNS : REQUIRED_COLUMNS);
+    }
+
+    /**
+     * Returns the processed glomerulus data, committing the very last glomerulus.
+     * @return glomerulus data, always empty if a {@link GlomerulusSink} was given.
+     *
+     * @throws ImageDataFormatException if a valid header wasn't found in line 1
+     * @throws ImageDataFormatException if no glomerulus information was found
+     */
+    public List<GlomerulusData> getResult() {
+        processBatch();
+        if (!mValidHeader) {
+            throw new ImageDataFormatException("Header wasn't found", 1);
+        }
+
+        if (mAssignment == PodocyteAssignment.NEAREST_GLOMERULUS) {
+            assignPodocytesByPosition();
+            return mGlomeruliFound;
+        }
+
+        if (mGlomerulusCount == 0) {
+            throw new ImageDataFormatException(NO_GLOMERULUS, 0);
+        }
+
+        // Commit the very last glomerulus, unless it was quarantined
+        if (mCurrentGlomerulus != null) {
+            commitCurrentGlomerulus();
+        }
+
+        return mGlomeruliFound;
+    }
+
+    /**
+     * Returns the state of a fragment processor once all its lines were processed. Unlike in a whole file, a fragment
+     * may start with podocytes that belong to a glomerulus of a previous fragment, and its last glomerulus is left
+     * open since more podocytes may follow in the next fragment. Glomeruli are numbered from 1 within the fragment.
+     * Invalid glomeruli and lines don't throw but are kept in the fragment, since whether they fail the file is up to
+     * the sink of the whole file.
+     * @return fragment state
+     */
+    ImageDataFragment getFragment() {
+        Preconditions.checkState(mFragment, "Not a fragment processor");
+        processBatch();
+        if (mCurrentGlomerulus == null) {
+            return new ImageDataFragment(mLeadingPodocytes, mGlomeruliFound, null, 0, null, mGlomerulusCount,
+                    mQuarantines, mQuarantined);
+        }
+        return new ImageDataFragment(mLeadingPodocytes, mGlomeruliFound, mCurrentGlomerulus, mCurrentGlomerulusLine,
+                mPodocytesFound, mGlomerulusCount, mQuarantines, false);
+    }
+
+    /**
+     * Classifies and groups the measurements batched from byte lines, see {@link #processLine(ByteBuffer, int, int)}.
+     */
+    void processBatchedLines() {
+        processBatch();
+    }
+
+    /**
+     * Returns the statistics of all the glomeruli committed so far, complete once {@link #getResult()} was called.
+     * @return image statistics
+     *
+     * @throws IllegalStateException if a {@link GlomerulusSink} was given, since glomeruli are left to the sink
+     */
+    public GlomeruliStatistics getStatistics() {
+        Preconditions.checkState(mStatistics != null, "Statistics are only accumulated when glomeruli are collected");
+        return mStatistics;
+    }
+
+    /**
+     * Returns the number of valid header lines processed so far.
+     * @return int header lines
+     */
+    public int getHeaderLines() {
+        return mHeaderLines;
+    }
+
+    /**
+     * Returns the number of lines of the glomeruli committed so far.
+     * @return int glomerulus lines
+     */
+    public int getGlomerulusLines() {
+        return mGlomerulusLines;
+    }
+
+    /**
+     * Returns the number of lines of the podocytes of the glomeruli committed so far.
+     * @return int podocyte lines
+     */
+    public int getPodocyteLines() {
+        return mPodocyteLines;
+    }
+
+    /**
+     * Returns the number of lines left out so far: invalid lines and the lines of quarantined glomeruli with their
+     * podocytes, including the line that made the file fail if it did.
+     * @return int rejected lines
+     */
+    public int getRejectedLines() {
+        return mRejectedLines;
+    }
+
+    /**
+     * Processes the line.
+     * @param line must be either a header line or a line with valid measurement info.
+     * @return {@code true}
+     */
+    public boolean processLine(String line) {
+        mLineNumber++;
+        if (ImageDataSchema.isHeaderLine(line)) {
+            processHeader(line);
+        } else {
+            try {
+                mParser.parse(line);
+            } catch (RuntimeException e) {
+                quarantineLine(new ImageDataFormatException(e.getMessage(), mLineNumber, e));
+                return true;
+            }
+            final double area = mParser.getArea();
+            processMeasurement(mLineNumber, area, mParser.getFeret(), mParser.getFeretX(), mParser.getFeretY(),
+                    mClassifier.classify(area));
+        }
+
+        return true;
+    }
+
+    /**
+     * Processes a line stored as ASCII bytes, without decoding it to a {@link String}.
+     * @param buffer buffer holding the line.
+     * @param start index of the first byte of the line.
+     * @param end index after the last byte of the line, excluding the line terminator.
+     * @return {@code true}
+     */
+    boolean processLine(ByteBuffer buffer, int start, int end) {
+        mLineNumber++;
+        if (isHeaderLine(buffer, start, end)) {
+            processBatch();
+            byte[] header = new byte[end - start];
+            for (int i = start; i < end; i++) {
+                header[i - start] = buffer.get(i);
+            }
+            processHeader(new String(header, StandardCharsets.ISO_8859_1));
+        } else {
+            try {
+                mParser.parse(buffer, start, end);
+            } catch (RuntimeException e) {
+                processBatch();
+                quarantineLine(new ImageDataFormatException(e.getMessage(), mLineNumber, e));
+                return true;
+            }
+            addToBatch();
+        }
+
+        return true;
+    }
+
+    private void processHeader(String line) {
+        if (!mValidHeader) {
+            try {
+                mParser.setSchema(ImageDataSchema.parseHeader(line));
+            } catch (RuntimeException e) {
+                mRejectedLines++;
+                throw new ImageDataFormatException(e.getMessage(), mLineNumber, e);
+            }
+            mValidHeader = true;
+            mHeaderLines++;
+        } else {
+            quarantineLine(new ImageDataFormatException("Double header found!", mLineNumber));
+        }
+    }
+
+    private void addToBatch() {
+        if (mBatchAreas == null) {
+            mBatchAreas = new double[BATCH_SIZE];
+            mBatchFerets = new double[BATCH_SIZE];
+            mBatchFeretXs = new double[BATCH_SIZE];
+            mBatchFeretYs = new double[BATCH_SIZE];
+            mBatchLines = new int[BATCH_SIZE];
+            mBatchClasses = new byte[BATCH_SIZE];
+        }
+
+        mBatchAreas[mBatchSize] = mParser.getArea();
+        mBatchFerets[mBatchSize] = mParser.getFeret();
+        mBatchFeretXs[mBatchSize] = mParser.getFeretX();
+        mBatchFeretYs[mBatchSize] = mParser.getFeretY();
+        mBatchLines[mBatchSize] = mLineNumber;
+        if (++mBatchSize == BATCH_SIZE) {
+            processBatch();
+        }
+    }
+
+    /**
+     * Classifies the batched measurements in bulk and groups them in line order.
+     */
+    private void processBatch() {
+        final int batchSize = mBatchSize;
+        if (batchSize == 0) {
+            return;
+        }
+
+        // Emptied first, since grouping may throw
+        mBatchSize = 0;
+        mClassifier.classify(mBatchAreas, batchSize, mBatchClasses);
+        for (int i = 0; i < batchSize; i++) {
+            processMeasurement(mBatchLines[i], mBatchAreas[i], mBatchFerets[i], mBatchFeretXs[i], mBatchFeretYs[i],
+                    mBatchClasses[i]);
+        }
+    }
+
+    private void processMeasurement(int lineNumber, double area, double feret, double feretX, double feretY,
+                                    byte areaClass) {
+        // Checked before building the geometry, which would throw an IllegalArgumentException
+        if (!isPositiveAndFinite(area) || !isPositiveAndFinite(feret)) {
+            quarantineLine(new ImageDataFormatException(String.format(
+                    "Illegal measurement found: area = %f, feret = %f, imageId = %d", area, feret, mImageId),
+                    lineNumber));
+            return;
+        }
+        // A structure without a finite position can't be assigned by distance
+        if (mAssignment == PodocyteAssignment.NEAREST_GLOMERULUS
+                && (!Double.isFinite(feretX) || !Double.isFinite(feretY))) {
+            quarantineLine(new ImageDataFormatException(String.format(
+                    "Illegal position found: feretX = %f, feretY = %f, imageId = %d", feretX, feretY, mImageId),
+                    lineNumber));
+            return;
+        }
+        final GeometryInfo geometryInfo = new GeometryInfo(area, feret, feretX, feretY);
+
+        if (areaClass == AreaClassifier.PODOCYTE) {
+            if (mAssignment == PodocyteAssignment.NEAREST_GLOMERULUS) {
+                mUnassignedPodocytes.add(new PodocyteData(geometryInfo));
+                return;
+            }
+            if (mPodocytesFound == null) {
+                if (mQuarantined) {
+                    // Podocyte of a quarantined glomerulus
+                    mRejectedLines++;
+                    return;
+                }
+                if (!mFragment) {
+                    quarantineLine(new ImageDataFormatException(PODOCYTE_BEFORE_GLOMERULUS, lineNumber));
+                    return;
+                }
+                // Leading podocytes of a fragment, they belong to the last glomerulus of the previous one
+                mPodocytesFound = mLeadingPodocytes = new ArrayList<>();
+                newPodocyteStatistics();
+            }
+            mPodocytesFound.add(new PodocyteData(geometryInfo));
+            mPodocyteAreaStatistics.add(area);
+            mPodocyteFeretStatistics.add(feret);
+        } else if (areaClass == AreaClassifier.GLOMERULUS) {
+            if (mAssignment == PodocyteAssignment.NEAREST_GLOMERULUS) {
+                mUnassignedGlomeruli.add(new GlomerulusData(geometryInfo, mImageId, ++mGlomerulusCount));
+                mUnassignedGlomerulusLines.add(lineNumber);
+                return;
+            }
+            if (mCurrentGlomerulus != null) {
+                commitCurrentGlomerulus();
+            }
+            mCurrentGlomerulus = new GlomerulusData(geometryInfo, mImageId, ++mGlomerulusCount);
+            mCurrentGlomerulusLine = lineNumber;
+            mQuarantined = false;
+            mPodocytesFound = new ArrayList<>();
+            newPodocyteStatistics();
+        } else {
+            quarantineLine(new ImageDataFormatException(
+                    String.format("Illegal measurement found: area = %f, imageId = %d", area, mImageId), lineNumber));
+        }
+    }
+
+    private void commitCurrentGlomerulus() {
+        if (mRequireOnePodocytePerGlomerulus && mPodocytesFound.isEmpty()) {
+            quarantine(new ImageDataFormatException(GLOMERULUS_WITHOUT_PODOCYTES, mCurrentGlomerulusLine));
+            return;
+        }
+        mCurrentGlomerulus.setPodocytesData(mPodocytesFound, mPodocyteAreaStatistics, mPodocyteFeretStatistics);
+        mGlomerulusLines++;
+        mPodocyteLines += mPodocytesFound.size();
+        mSink.accept(mCurrentGlomerulus);
+    }
+
+    private void newPodocyteStatistics() {
+        mPodocyteAreaStatistics = new RunningStatistics();
+        mPodocyteFeretStatistics = new RunningStatistics();
+    }
+
+    /**
+     * Hands an invalid glomerulus to the sink. If the sink doesn't throw, the glomerulus being parsed is left out and
+     * its remaining podocytes are skipped until the next glomerulus.
+     */
+    private void quarantine(ImageDataFormatException exception) {
+        if (mCurrentGlomerulus != null) {
+            mRejectedLines += 1 + mPodocytesFound.size();
+        }
+        mSink.quarantine(exception);
+        mCurrentGlomerulus = null;
+        mPodocytesFound = null;
+        mQuarantined = true;
+    }
+
+    /**
+     * Quarantines the glomerulus being parsed because of an invalid line, which is left out as well.
+     */
+    private void quarantineLine(ImageDataFormatException exception) {
+        mRejectedLines++;
+        quarantine(exception);
+    }
+
+    private void assignPodocytesByPosition() {
+        if (mUnassignedGlomeruli.isEmpty()) {
+            throw new ImageDataFormatException(NO_GLOMERULUS, 0);
+        }
+
+        final int glomerulusCount = mUnassignedGlomeruli.size();
+        List<List<PodocyteData>> podocytesPerGlomerulus = new ArrayList<>(glomerulusCount);
+        RunningStatistics[] areaStatistics = new RunningStatistics[glomerulusCount];
+        RunningStatistics[] feretStatistics = new RunningStatistics[glomerulusCount];
+        for (int i = 0; i < glomerulusCount; i++) {
+            podocytesPerGlomerulus.add(new ArrayList<>());
+            areaStatistics[i] = new RunningStatistics();
+            feretStatistics[i] = new RunningStatistics();
+        }
+
+        GlomerulusSpatialIndex spatialIndex = new GlomerulusSpatialIndex(mUnassignedGlomeruli);
+        for (PodocyteData podocyteData : mUnassignedPodocytes) {
+            final GeometryInfo geometryInfo = podocyteData.getGeometryInfo();
+            final int index = spatialIndex.findNearestIndex(geometryInfo.getFeretX(), geometryInfo.getFeretY());
+            podocytesPerGlomerulus.get(index).add(podocyteData);
+            areaStatistics[index].add(geometryInfo.getArea());
+            feretStatistics[index].add(geometryInfo.getFeret());
+        }
+
+        for (int i = 0; i < glomerulusCount; i++) {
+            mCurrentGlomerulus = mUnassignedGlomeruli.get(i);
+            mCurrentGlomerulusLine = mUnassignedGlomerulusLines.get(i);
+            mPodocytesFound = podocytesPerGlomerulus.get(i);
+            mPodocyteAreaStatistics = areaStatistics[i];
+            mPodocyteFeretStatistics = feretStatistics[i];
+            commitCurrentGlomerulus();
+        }
+        mUnassignedGlomeruli.clear();
+        mUnassignedPodocytes.clear();
+        mUnassignedGlomerulusLines.clear();
+    }
+
+    private static boolean isPositiveAndFinite(double value) {
+        return value > 0.0 && value < Double.POSITIVE_INFINITY;
+    }
+
+    private static boolean isHeaderLine(ByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            final char c = (char) (buffer.get(i) & 0xFF);
+            if (!Character.isWhitespace(c)) {
+                return Character.isLetter(c);
+            }
+        }
+        return false;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,124 @@
+package chamomile.io;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Arrays;
+
+/**
+ * Column layout of an image data file, parsed from its header line.
+ *
+ * The header holds one name per measurement column, e.g.
+ *
+ * Area	Feret	FeretX	FeretY	FeretAngle	MinFeret
+ *
+ * while every measurement line starts with an extra index field that has no name in the header. Columns may come in
+ * any order, and columns that are not an {@link ImageDataColumn} are allowed and ignored.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class ImageDataSchema {
+
+    private static final Splitter HEADER_SPLITTER = Splitter.on(CharMatcher.whitespace()).omitEmptyStrings();
+
+    /**
+     * Schema of the image data files exported by default.
+     */
+    public static final ImageDataSchema DEFAULT = parseHeader("Area\tFeret\tFeretX\tFeretY\tFeretAngle\tMinFeret");
+
+    private final ImmutableList<String> mColumnNames;
+    private final int[] mPositions;
+
+    private ImageDataSchema(ImmutableList<String> columnNames, int[] positions) {
+        mColumnNames = columnNames;
+        mPositions = positions;
+    }
+
+    /**
+     * Parses a header line.
+     * @param header header line with whitespace separated column names.
+     * @return schema of the file.
+     *
+     * @throws RuntimeException if the header has no columns or a known column is repeated
+     */
+    public static ImageDataSchema parseHeader(CharSequence header) {
+        Preconditions.checkNotNull(header);
+        ImmutableList<String> columnNames = ImmutableList.copyOf(HEADER_SPLITTER.split(header));
+        if (columnNames.isEmpty()) {
+            throw new RuntimeException("Empty header");
+        }
+
+        int[] positions = new int[ImageDataColumn.values().length];
+        Arrays.fill(positions, -1);
+        for (int i = 0; i < columnNames.size(); i++) {
+            ImageDataColumn column = ImageDataColumn.forHeaderName(columnNames.get(i));
+            if (column != null) {
+                if (positions[column.ordinal()] != -1) {
+                    throw new RuntimeException("Duplicated column in header: " + column.getHeaderName());
+                }
+                // Field 0 of every measurement line is the index
+                positions[column.ordinal()] = i + 1;
+            }
+        }
+
+        return new ImageDataSchema(columnNames, positions);
+    }
+
+    /**
+     * Returns whether a line is a header line, i.e. its first non whitespace character is a letter.
+     * @param line line of an image data file.
+     * @return {@code true} for a header line.
+     */
+    public static boolean isHeaderLine(CharSequence line) {
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return Character.isLetter(c);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of fields of a measurement line, including the index field.
+     * @return int field count.
+     */
+    public int getFieldCount() {
+        return mColumnNames.size() + 1;
+    }
+
+    /**
+     * Returns the names of all columns in the header, in file order.
+     * @return column names.
+     */
+    public ImmutableList<String> getColumnNames() {
+        return mColumnNames;
+    }
+
+    /**
+     * Returns whether the file has a column.
+     * @param column column to look for.
+     * @return {@code true} if the header contains the column.
+     */
+    public boolean hasColumn(ImageDataColumn column) {
+        return mPositions[column.ordinal()] != -1;
+    }
+
+    /**
+     * Returns the field of a column in a measurement line.
+     * @param column column to look for.
+     * @return index of the field, counting the index field as 0, or -1 if the file doesn't have the column.
+     */
+    public int getFieldIndex(ImageDataColumn column) {
+        return mPositions[column.ordinal()];
+    }
+
+    public String toString() {
+        return MoreObjects.toStringHelper(ImageDataSchema.class)
+                .add("columns", mColumnNames)
+                .toString();
+    }
+}
@@ -0,0 +1,55 @@
+package chamomile.io;
+
+/**
+ * Sink for the metrics of the ingestion pipeline, see {@link InstrumentedImageDataFileReader}.
+ *
+ * Metrics are reported once per file and once per directory, never per line, so an implementation only needs to be
+ * cheap relative to parsing a whole file. Implementations must be thread safe, since files are parsed concurrently.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public interface IngestionMetrics {
+
+    /**
+     * Metrics sink that discards everything.
+     */
+    IngestionMetrics NOOP = new IngestionMetrics() {
+        @Override
+        public void directoryListed(int fileCount, long nanos) {
+            // Discarded
+        }
+
+        @Override
+        public void fileParsed(ImageDataFileCounters counters, long nanos) {
+            // Discarded
+        }
+
+        @Override
+        public void fileRejected(ImageDataFileCounters counters, long nanos) {
+            // Discarded
+        }
+    };
+
+    /**
+     * Reports the listing of a directory, i.e. of the biopsy directories of a cohort or of the image data files of a
+     * biopsy directory.
+     * @param fileCount number of biopsy directories or image data files found.
+     * @param nanos time spent listing the directory, in nanoseconds.
+     */
+    void directoryListed(int fileCount, long nanos);
+
+    /**
+     * Reports a successfully parsed image data file.
+     * @param counters lines, bytes and I/O time counted while the file was read. The lines of a quarantined
+     *                 glomerulus, see {@link GlomerulusSink#quarantine}, are counted as rejected lines only.
+     * @param nanos time spent reading and parsing the file, in nanoseconds, I/O time included.
+     */
+    void fileParsed(ImageDataFileCounters counters, long nanos);
+
+    /**
+     * Reports an image data file that couldn't be read or parsed.
+     * @param counters lines, bytes and I/O time counted until the file was rejected.
+     * @param nanos time spent until the file was rejected, in nanoseconds, I/O time included.
+     */
+    void fileRejected(ImageDataFileCounters counters, long nanos);
+}
@@ -0,0 +1,19 @@
+package chamomile.io;
+
+/**
+ * How {@link BiopsyDataProcessor} deals with invalid image data files.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public enum IngestionMode {
+    /**
+     * The first invalid file aborts the whole ingestion.
+     */
+    STRICT,
+
+    /**
+     * Invalid glomeruli and files are left out of the result and reported in {@link
+     * chamomile.structures.BiopsyResult#getErrors()}, and the ingestion goes on.
+     */
+    LENIENT
+}
@@ -0,0 +1,189 @@
+package chamomile.io;
+
+import chamomile.statistics.QuantileSketch;
+import com.google.common.base.MoreObjects;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ingestion metrics sink that accumulates counters and a histogram of the per file time, exposed through JMX as an
+ * {@link IngestionStatisticsMXBean}.
+ *
+ * Counters are {@link LongAdder}s so that concurrent parsers don't contend on them. Lines and bytes are the ones
+ * counted by the readers, see {@link ImageDataFileCounters}, including the lines of rejected files as far as they were
+ * read. Listing time, I/O time and parse time are kept apart: the parse time of a file is its time minus its I/O time.
+ * Lines per second are measured over the total time spent on files by all threads, I/O included.
+ *
+ * Instances are thread safe.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class IngestionStatistics implements IngestionMetrics, IngestionStatisticsMXBean {
+
+    /**
+     * Object name used by {@link #registerMBean()} ({@value}).
+     */
+    public static final String DEFAULT_OBJECT_NAME = "chamomile:type=IngestionStatistics";
+
+    private final LongAdder mDirectoriesListed = new LongAdder();
+    private final LongAdder mListingNanos = new LongAdder();
+    private final LongAdder mFilesParsed = new LongAdder();
+    private final LongAdder mFilesRejected = new LongAdder();
+    private final LongAdder mBytesRead = new LongAdder();
+    private final LongAdder mHeaderLines = new LongAdder();
+    private final LongAdder mGlomerulusLines = new LongAdder();
+    private final LongAdder mPodocyteLines = new LongAdder();
+    private final LongAdder mRejectedLines = new LongAdder();
+    private final LongAdder mIoNanos = new LongAdder();
+    private final LongAdder mParseNanos = new LongAdder();
+    private final QuantileSketch mFileParseTimes = new QuantileSketch();
+
+    @Override
+    public void directoryListed(int fileCount, long nanos) {
+        mDirectoriesListed.increment();
+        mListingNanos.add(nanos);
+    }
+
+    @Override
+    public void fileParsed(ImageDataFileCounters counters, long nanos) {
+        mFilesParsed.increment();
+        add(counters, nanos);
+    }
+
+    @Override
+    public void fileRejected(ImageDataFileCounters counters, long nanos) {
+        mFilesRejected.increment();
+        add(counters, nanos);
+    }
+
+    /**
+     * Registers these statistics in the platform MBean server under {@link #DEFAULT_OBJECT_NAME}.
+     * @return the name the statistics were registered with.
+     *
+     * @throws JMException if the name is already registered
+     */
+    public ObjectName registerMBean() throws JMException {
+        ObjectName objectName = new ObjectName(DEFAULT_OBJECT_NAME);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    @Override
+    public long getDirectoriesListed() {
+        return mDirectoriesListed.sum();
+    }
+
+    @Override
+    public long getListingTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mListingNanos.sum());
+    }
+
+    @Override
+    public long getFilesParsed() {
+        return mFilesParsed.sum();
+    }
+
+    @Override
+    public long getFilesRejected() {
+        return mFilesRejected.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return mBytesRead.sum();
+    }
+
+    @Override
+    public long getLinesParsed() {
+        return getHeaderLines() + getGlomerulusLines() + getPodocyteLines() + getRejectedLines();
+    }
+
+    @Override
+    public long getHeaderLines() {
+        return mHeaderLines.sum();
+    }
+
+    @Override
+    public long getGlomerulusLines() {
+        return mGlomerulusLines.sum();
+    }
+
+    @Override
+    public long getPodocyteLines() {
+        return mPodocyteLines.sum();
+    }
+
+    @Override
+    public long getRejectedLines() {
+        return mRejectedLines.sum();
+    }
+
+    @Override
+    public long getIoTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mIoNanos.sum());
+    }
+
+    @Override
+    public long getParseTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mParseNanos.sum());
+    }
+
+    @Override
+    public double getLinesPerSecond() {
+        final long fileNanos = mIoNanos.sum() + mParseNanos.sum();
+        return fileNanos == 0 ? 0 : getLinesParsed() * 1e9 / fileNanos;
+    }
+
+    @Override
+    public double getMedianFileParseTimeMillis() {
+        return getFileParseTimeMillis(0.5);
+    }
+
+    @Override
+    public double getP99FileParseTimeMillis() {
+        return getFileParseTimeMillis(0.99);
+    }
+
+    @Override
+    public double getMaxFileParseTimeMillis() {
+        return getFileParseTimeMillis(1);
+    }
+
+    private void add(ImageDataFileCounters counters, long nanos) {
+        mBytesRead.add(counters.getBytesRead());
+        mHeaderLines.add(counters.getHeaderLines());
+        mGlomerulusLines.add(counters.getGlomerulusLines());
+        mPodocyteLines.add(counters.getPodocyteLines());
+        mRejectedLines.add(counters.getRejectedLines());
+        final long ioNanos = Math.min(counters.getIoNanos(), nanos);
+        mIoNanos.add(ioNanos);
+        mParseNanos.add(nanos - ioNanos);
+        synchronized (mFileParseTimes) {
+            mFileParseTimes.add(Math.max(nanos, 1));
+        }
+    }
+
+    private double getFileParseTimeMillis(double quantile) {
+        synchronized (mFileParseTimes) {
+            return mFileParseTimes.getQuantile(quantile) / 1e6;
+        }
+    }
+
+    public String toString() {
+        return MoreObjects.toStringHelper(IngestionStatistics.class)
+                .add("filesParsed", getFilesParsed())
+                .add("filesRejected", getFilesRejected())
+                .add("bytesRead", getBytesRead())
+                .add("linesParsed", getLinesParsed())
+                .add("listingTimeMillis", getListingTimeMillis())
+                .add("ioTimeMillis", getIoTimeMillis())
+                .add("parseTimeMillis", getParseTimeMillis())
+                .add("linesPerSecond", getLinesPerSecond())
+                .add("medianFileParseTimeMillis", getMedianFileParseTimeMillis())
+                .toString();
+    }
+}
@@ -0,0 +1,41 @@
+package chamomile.io;
+
+/**
+ * Management interface of {@link IngestionStatistics}.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public interface IngestionStatisticsMXBean {
+
+    long getDirectoriesListed();
+
+    long getListingTimeMillis();
+
+    long getFilesParsed();
+
+    long getFilesRejected();
+
+    long getBytesRead();
+
+    long getLinesParsed();
+
+    long getHeaderLines();
+
+    long getGlomerulusLines();
+
+    long getPodocyteLines();
+
+    long getRejectedLines();
+
+    long getIoTimeMillis();
+
+    long getParseTimeMillis();
+
+    double getLinesPerSecond();
+
+    double getMedianFileParseTimeMillis();
+
+    double getP99FileParseTimeMillis();
+
+    double getMaxFileParseTimeMillis();
+}
@@ -0,0 +1,81 @@
+package chamomile.io;
+
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Image data file reader that reports the size, line counts, I/O time and parse time of every file read by a delegate
+ * reader to an {@link IngestionMetrics} sink.
+ *
+ * The counts are measured by the delegate while it reads, see
+ * {@link ImageDataFileReader#read(ImageDataFile, GlomerulusSink, ImageDataFileCounters)}, so a delegate that doesn't
+ * count only reports its time. {@link BiopsyDataProcessor} also reports the time spent listing directories to the
+ * metrics of this reader, see {@link #getMetrics()}. To measure cache hits as well, this reader has to wrap a
+ * {@link CachingImageDataFileReader} rather than be wrapped by it.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class InstrumentedImageDataFileReader implements ImageDataFileReader {
+    private final ImageDataFileReader mDelegate;
+    private final IngestionMetrics mMetrics;
+
+    /**
+     * Creates an instrumented reader.
+     * @param delegate reader used to parse the files.
+     * @param metrics sink receiving the metrics of every file.
+     */
+    public InstrumentedImageDataFileReader(ImageDataFileReader delegate, IngestionMetrics metrics) {
+        mDelegate = Preconditions.checkNotNull(delegate);
+        mMetrics = Preconditions.checkNotNull(metrics);
+    }
+
+    @Override
+    public void read(ImageDataFile imageDataFile, GlomerulusSink sink) throws IOException {
+        read(imageDataFile, sink, new ImageDataFileCounters());
+    }
+
+    @Override
+    public void read(ImageDataFile imageDataFile, GlomerulusSink sink, ImageDataFileCounters counters)
+            throws IOException {
+        Preconditions.checkNotNull(imageDataFile);
+        Preconditions.checkNotNull(sink);
+        Preconditions.checkNotNull(counters);
+
+        final long start = System.nanoTime();
+        boolean parsed = false;
+        try {
+            mDelegate.read(imageDataFile, sink, counters);
+            parsed = true;
+        } finally {
+            final long nanos = System.nanoTime() - start;
+            if (parsed) {
+                mMetrics.fileParsed(counters, nanos);
+            } else {
+                mMetrics.fileRejected(counters, nanos);
+            }
+        }
+    }
+
+    @Override
+    public Closeable prefetch(List<ImageDataFile> imageDataFiles) {
+        return mDelegate.prefetch(imageDataFiles);
+    }
+
+    @Override
+    public PodocyteAssignment getPodocyteAssignment() {
+        return mDelegate.getPodocyteAssignment();
+    }
+
+    @Override
+    public AreaClassifier getAreaClassifier() {
+        return mDelegate.getAreaClassifier();
+    }
+
+    @Override
+    public IngestionMetrics getMetrics() {
+        return mMetrics;
+    }
+}
@@ -0,0 +1,221 @@
+package chamomile.io;
+
+import chamomile.statistics.GlomeruliStatistics;
+import chamomile.structures.BiopsyResult;
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.IngestionError;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Biopsy result that parses the image data files of the biopsy on demand, so opening a biopsy only costs listing its
+ * directory. Created by {@link BiopsyDataProcessor#openBiopsy(String, java.io.File, ImageDataFileReader,
+ * IngestionMode)}.
+ *
+ * The glomeruli of an image are parsed the first time they're accessed, either through
+ * {@link #getGlomerulusData(int)} or through any of the methods covering the whole biopsy, which parse every image
+ * not parsed yet. Each file is parsed at most once, even if accessed from several threads at the same time, and
+ * threads accessing different images don't wait for each other. A file that fails to parse in strict mode is parsed
+ * again on the next access.
+ *
+ * Since the methods inherited from {@link BiopsyResult} don't throw checked exceptions, I/O failures are rethrown as
+ * {@link UncheckedIOException}. The result can't be modified.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class LazyBiopsyResult extends BiopsyResult {
+    private final ImmutableList<LazyImage> mImages;
+    private final ImmutableSortedSet<Integer> mImageIds;
+    private final ImmutableList<IngestionError> mListingErrors;
+    private final ImageDataFileReader mReader;
+    private final IngestionMode mMode;
+    private ImmutableList<GlomerulusData> mGlomerulusData;
+    private ImmutableSortedMap<Integer, GlomeruliStatistics> mImageStatistics;
+
+    LazyBiopsyResult(String id, List<ImageDataFile> imageDataFiles, ImageDataFileReader reader, IngestionMode mode,
+                     List<IngestionError> listingErrors) {
+        super(id);
+        ImmutableList.Builder<LazyImage> images = ImmutableList.builder();
+        ImmutableSortedSet.Builder<Integer> imageIds = ImmutableSortedSet.naturalOrder();
+        for (ImageDataFile imageDataFile : imageDataFiles) {
+            images.add(new LazyImage(imageDataFile));
+            imageIds.add(imageDataFile.getImageId());
+        }
+        mImages = images.build();
+        mImageIds = imageIds.build();
+        mListingErrors = ImmutableList.copyOf(listingErrors);
+        mReader = Preconditions.checkNotNull(reader);
+        mMode = Preconditions.checkNotNull(mode);
+    }
+
+    /**
+     * Returns the image data files of the biopsy.
+     * @return image data files sorted by image id.
+     */
+    public ImmutableList<ImageDataFile> getImageDataFiles() {
+        ImmutableList.Builder<ImageDataFile> imageDataFiles = ImmutableList.builder();
+        for (LazyImage image : mImages) {
+            imageDataFiles.add(image.mImageDataFile);
+        }
+        return imageDataFiles.build();
+    }
+
+    public ImmutableSortedSet<Integer> getImageIds() {
+        return mImageIds;
+    }
+
+    /**
+     * Returns the glomeruli of a single image, parsing its files if they haven't been parsed yet.
+     * @param imageId id of the image.
+     * @return a {@code non-null} list of glomerulus data, empty if the biopsy has no such image.
+     */
+    public ImmutableList<GlomerulusData> getGlomerulusData(int imageId) {
+        ImmutableList.Builder<GlomerulusData> glomerulusData = ImmutableList.builder();
+        for (LazyImage image : mImages) {
+            if (image.mImageDataFile.getImageId() == imageId) {
+                glomerulusData.addAll(image.get().mGlomeruliData);
+            }
+        }
+        return glomerulusData.build();
+    }
+
+    /**
+     * Returns the number of image data files parsed so far.
+     * @return number of parsed files, at most the number of image data files.
+     */
+    public int getParsedFileCount() {
+        int parsedFileCount = 0;
+        for (LazyImage image : mImages) {
+            if (image.isParsed()) {
+                parsedFileCount++;
+            }
+        }
+        return parsedFileCount;
+    }
+
+    /**
+     * Returns the data of all glomeruli found in the biopsy, sorted by image id. Parses every image not parsed yet.
+     * @return a {@code non-null} list of glomerulus data.
+     */
+    @Override
+    public synchronized ImmutableList<GlomerulusData> getGlomerulusData() {
+        if (mGlomerulusData == null) {
+            ImmutableList.Builder<GlomerulusData> glomerulusData = ImmutableList.builder();
+            for (LazyImage image : mImages) {
+                glomerulusData.addAll(image.get().mGlomeruliData);
+            }
+            mGlomerulusData = glomerulusData.build();
+        }
+        return mGlomerulusData;
+    }
+
+    /**
+     * Merges the statistics of every image. Parses every image not parsed yet.
+     * @return image statistics by image id.
+     */
+    @Override
+    protected synchronized ImmutableSortedMap<Integer, GlomeruliStatistics> imageStatistics() {
+        if (mImageStatistics == null) {
+            Map<Integer, GlomeruliStatistics> imageStatistics = new TreeMap<>();
+            for (LazyImage image : mImages) {
+                BiopsyDataProcessor.ParsedImage parsedImage = image.get();
+                if (!parsedImage.mRejected) {
+                    imageStatistics.computeIfAbsent(parsedImage.mImageId,
+                            (Integer imageId) -> new GlomeruliStatistics()).merge(parsedImage.mStatistics);
+                }
+            }
+            mImageStatistics = ImmutableSortedMap.copyOf(imageStatistics);
+        }
+        return mImageStatistics;
+    }
+
+    /**
+     * Returns the diagnostics of the files and glomeruli left out of this result because they were not valid. Only
+     * covers the files parsed so far, see {@link #getParsedFileCount()}.
+     * @return a {@code non-null} list of errors, sorted by file.
+     */
+    @Override
+    public ImmutableList<IngestionError> getErrors() {
+        List<IngestionError> errors = new ArrayList<>(mListingErrors);
+        for (LazyImage image : mImages) {
+            BiopsyDataProcessor.ParsedImage parsedImage = image.mParsedImage;
+            if (parsedImage != null) {
+                errors.addAll(parsedImage.mErrors);
+            }
+        }
+        errors.sort(BiopsyDataProcessor.ERROR_ORDER);
+        return ImmutableList.copyOf(errors);
+    }
+
+    @Override
+    public boolean hasErrors() {
+        return !getErrors().isEmpty();
+    }
+
+    @Override
+    public void setGlomerulusData(List<GlomerulusData> glomerulusData) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setImageStatistics(Map<Integer, GlomeruliStatistics> imageStatistics) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setErrors(List<IngestionError> errors) {
+        throw new UnsupportedOperationException();
+    }
+
+    public String toString() {
+        return MoreObjects.toStringHelper(LazyBiopsyResult.class)
+                .add("id", getId())
+                .add("fileCount", mImages.size())
+                .add("parsedFileCount", getParsedFileCount())
+                .toString();
+    }
+
+    /**
+     * Image data file parsed on first access.
+     */
+    private final class LazyImage {
+        private final ImageDataFile mImageDataFile;
+        private volatile BiopsyDataProcessor.ParsedImage mParsedImage;
+
+        private LazyImage(ImageDataFile imageDataFile) {
+            mImageDataFile = imageDataFile;
+        }
+
+        private boolean isParsed() {
+            return mParsedImage != null;
+        }
+
+        private BiopsyDataProcessor.ParsedImage get() {
+            BiopsyDataProcessor.ParsedImage parsedImage = mParsedImage;
+            if (parsedImage == null) {
+                synchronized (this) {
+                    parsedImage = mParsedImage;
+                    if (parsedImage == null) {
+                        try {
+                            parsedImage = BiopsyDataProcessor.readImage(mImageDataFile, mReader, mMode);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        mParsedImage = parsedImage;
+                    }
+                }
+            }
+            return parsedImage;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package chamomile.io;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Reads image data files line by line, decoding them with the default charset. Compressed files are decompressed
+ * while they're read.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class LineImageDataFileReader implements ImageDataFileReader {
+    private final PodocyteAssignment mAssignment;
+
+    public LineImageDataFileReader() {
+        this(PodocyteAssignment.FILE_ORDER);
+    }
+
+    /**
+     * Creates a reader.
+     * @param assignment how podocytes are assigned to glomeruli.
+     */
+    public LineImageDataFileReader(PodocyteAssignment assignment) {
+        mAssignment = Preconditions.checkNotNull(assignment);
+    }
+
+    @Override
+    public void read(ImageDataFile imageDataFile, GlomerulusSink sink) throws IOException {
+        read(imageDataFile, sink, new ImageDataFileCounters());
+    }
+
+    @Override
+    public void read(ImageDataFile imageDataFile, GlomerulusSink sink, ImageDataFileCounters counters)
+            throws IOException {
+        Preconditions.checkNotNull(imageDataFile);
+        ImageDataLineProcessor processor = new ImageDataLineProcessor(imageDataFile.getImageId(), sink, mAssignment);
+        try {
+            imageDataFile.asByteSource(counters).asCharSource(Charset.defaultCharset()).readLines(processor);
+        } finally {
+            counters.addLines(processor);
+        }
+    }
+
+    @Override
+    public PodocyteAssignment getPodocyteAssignment() {
+        return mAssignment;
+    }
+}
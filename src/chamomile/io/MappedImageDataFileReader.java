@@ -0,0 +1,131 @@
+package chamomile.io;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads image data files by memory mapping them and parsing the measurements straight from the ASCII bytes, without
+ * creating a {@link String} per line.
+ *
+ * Lines are split the same way {@link LineImageDataFileReader} splits them and go through the same
+ * {@link ImageDataLineProcessor} state machine, so both readers accept and reject exactly the same files.
+ *
+ * Compressed files can't be mapped, so they're decompressed into a reusable buffer of at most
+ * {@value #MAX_STREAM_BUFFER_SIZE} bytes whose lines are parsed the same way.
+ *
+ * Page faults on a mapping are not told apart from parsing, so only opening and mapping a file count as I/O time in
+ * its {@link ImageDataFileCounters}.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class MappedImageDataFileReader implements ImageDataFileReader {
+
+    /**
+     * Default maximum size of a single mapping ({@value} bytes). Bigger files are mapped in several windows.
+     */
+    public static final int DEFAULT_MAX_MAPPING_SIZE = Integer.MAX_VALUE;
+
+    /**
+     * Maximum size of the buffer compressed files are decompressed into ({@value} bytes).
+     */
+    private static final int MAX_STREAM_BUFFER_SIZE = 1024 * 1024;
+
+    private final int mMaxMappingSize;
+    private final PodocyteAssignment mAssignment;
+
+    public MappedImageDataFileReader() {
+        this(DEFAULT_MAX_MAPPING_SIZE);
+    }
+
+    /**
+     * Creates a reader that maps files in windows of at most the given size.
+     * @param maxMappingSize maximum size of a mapping in bytes, must be longer than the longest line.
+     */
+    public MappedImageDataFileReader(int maxMappingSize) {
+        this(maxMappingSize, PodocyteAssignment.FILE_ORDER);
+    }
+
+    /**
+     * Creates a reader that maps files in windows of at most the given size.
+     * @param maxMappingSize maximum size of a mapping in bytes, must be longer than the longest line.
+     * @param assignment how podocytes are assigned to glomeruli.
+     */
+    public MappedImageDataFileReader(int maxMappingSize, PodocyteAssignment assignment) {
+        Preconditions.checkArgument(maxMappingSize > 0);
+        mMaxMappingSize = maxMappingSize;
+        mAssignment = Preconditions.checkNotNull(assignment);
+    }
+
+    @Override
+    public void read(ImageDataFile imageDataFile, GlomerulusSink sink) throws IOException {
+        read(imageDataFile, sink, new ImageDataFileCounters());
+    }
+
+    @Override
+    public void read(ImageDataFile imageDataFile, GlomerulusSink sink, ImageDataFileCounters counters)
+            throws IOException {
+        Preconditions.checkNotNull(imageDataFile);
+        ImageDataLineProcessor processor = new ImageDataLineProcessor(imageDataFile.getImageId(), sink,
+                mAssignment);
+
+        try {
+            if (imageDataFile.isCompressed()) {
+                readStream(imageDataFile, processor, counters);
+            } else {
+                readMapped(imageDataFile, processor, counters);
+            }
+
+            processor.getResult();
+        } finally {
+            counters.addLines(processor);
+        }
+    }
+
+    @Override
+    public PodocyteAssignment getPodocyteAssignment() {
+        return mAssignment;
+    }
+
+    private void readMapped(ImageDataFile imageDataFile, ImageDataLineProcessor processor,
+                            ImageDataFileCounters counters) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(imageDataFile.getFile().toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            long position = 0;
+
+            while (position < size) {
+                final int length = (int) Math.min(size - position, mMaxMappingSize);
+                final boolean endOfInput = position + length == size;
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                counters.addIoNanos(System.nanoTime() - start);
+
+                final int consumed = ByteLineSplitter.processLines(buffer, 0, length, endOfInput,
+                        processor::processLine);
+                if (consumed == 0) {
+                    throw new IOException(String.format("Line longer than %d bytes found in %s",
+                            mMaxMappingSize, imageDataFile.getFile()));
+                }
+                position += consumed;
+                counters.addBytesRead(consumed);
+                start = System.nanoTime();
+            }
+        }
+    }
+
+    private void readStream(ImageDataFile imageDataFile, ImageDataLineProcessor processor,
+                            ImageDataFileCounters counters) throws IOException {
+        final int bufferSize = Math.min(mMaxMappingSize, MAX_STREAM_BUFFER_SIZE);
+
+        try (InputStream inputStream = imageDataFile.asByteSource(counters).openStream()) {
+            if (!ByteLineSplitter.processLines(inputStream, new byte[bufferSize], processor::processLine)) {
+                throw new IOException(String.format("Line longer than %d bytes found in %s",
+                        bufferSize, imageDataFile.getFile()));
+            }
+        }
+    }
+}
@@ -0,0 +1,440 @@
+package chamomile.io;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Parser for a single measurement line of an image data file.
+ *
+ * A measurement line is made of whitespace separated numeric fields: an integer index followed by one field per
+ * column of the {@link ImageDataSchema} of the file, by default Area, Feret, FeretX, FeretY, FeretAngle and MinFeret.
+ * Numbers are always read with '.' as decimal separator regardless of the default locale, and may carry a sign and an
+ * exponent.
+ *
+ * Only the columns required by the caller, and the optional columns found in the schema, are converted to doubles.
+ * The fields of any other column are only checked to be well formed numbers, and the values of columns that were not
+ * converted are {@code NaN}.
+ *
+ * Lines can be given either as characters or as a range of ASCII bytes. The parser keeps the values of the last
+ * parsed line in its own fields, so a valid line is parsed without creating any object. Numbers with more significant
+ * digits than a double can hold exactly fall back to {@link Double#parseDouble(String)}, which guarantees the same
+ * correctly rounded value that {@link java.util.Scanner} produces.
+ *
+ * Instances are not thread safe.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class MeasurementLineParser {
+
+    /**
+     * Number of fields in a valid measurement line of the {@link ImageDataSchema#DEFAULT} schema ({@value}).
+     */
+    public static final int FIELD_COUNT = 7;
+
+    /**
+     * Marks a field that is validated but not converted.
+     */
+    private static final int SKIPPED_FIELD = -1;
+
+    /**
+     * Maximum number of significant digits that can be converted exactly with a single floating point operation.
+     */
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    /**
+     * Exact powers of ten that can be represented as a double.
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private CharSequence mLine;
+    private ByteBuffer mBytes;
+    private int mLineStart;
+    private int mPosition;
+    private int mEnd;
+
+    private final Set<ImageDataColumn> mRequiredColumns;
+    private final Set<ImageDataColumn> mOptionalColumns;
+    private ImageDataSchema mSchema;
+    private int[] mFieldColumns;
+
+    private int mNumber;
+    private final double[] mValues = new double[ImageDataColumn.values().length];
+
+    /**
+     * Creates a parser for the {@link ImageDataSchema#DEFAULT} schema that converts all columns.
+     */
+    public MeasurementLineParser() {
+        this(EnumSet.allOf(ImageDataColumn.class));
+    }
+
+    /**
+     * Creates a parser for the {@link ImageDataSchema#DEFAULT} schema.
+     * @param requiredColumns columns whose values are needed, the other ones are only validated.
+     */
+    public MeasurementLineParser(Set<ImageDataColumn> requiredColumns) {
+        this(requiredColumns, EnumSet.noneOf(ImageDataColumn.class));
+    }
+
+    /**
+     * Creates a parser for the {@link ImageDataSchema#DEFAULT} schema.
+     * @param requiredColumns columns whose values are needed, the other ones are only validated.
+     * @param optionalColumns columns whose values are used if the schema has them.
+     */
+    public MeasurementLineParser(Set<ImageDataColumn> requiredColumns, Set<ImageDataColumn> optionalColumns) {
+        Preconditions.checkNotNull(requiredColumns);
+        Preconditions.checkNotNull(optionalColumns);
+        mRequiredColumns = EnumSet.noneOf(ImageDataColumn.class);
+        mRequiredColumns.addAll(requiredColumns);
+        mOptionalColumns = EnumSet.noneOf(ImageDataColumn.class);
+        mOptionalColumns.addAll(optionalColumns);
+        setSchema(ImageDataSchema.DEFAULT);
+    }
+
+    /**
+     * Sets the schema of the lines parsed from now on, usually parsed from the header of the file.
+     * @param schema column layout of the lines.
+     *
+     * @throws RuntimeException if the schema lacks any of the required columns
+     */
+    public void setSchema(ImageDataSchema schema) {
+        Preconditions.checkNotNull(schema);
+        int[] fieldColumns = new int[schema.getFieldCount()];
+        Arrays.fill(fieldColumns, SKIPPED_FIELD);
+        for (ImageDataColumn column : mRequiredColumns) {
+            if (!schema.hasColumn(column)) {
+                throw new RuntimeException("Missing column in header: " + column.getHeaderName());
+            }
+            fieldColumns[schema.getFieldIndex(column)] = column.ordinal();
+        }
+        for (ImageDataColumn column : mOptionalColumns) {
+            if (schema.hasColumn(column)) {
+                fieldColumns[schema.getFieldIndex(column)] = column.ordinal();
+            }
+        }
+
+        mSchema = schema;
+        mFieldColumns = fieldColumns;
+        Arrays.fill(mValues, Double.NaN);
+    }
+
+    public ImageDataSchema getSchema() {
+        return mSchema;
+    }
+
+    /**
+     * Parses a measurement line.
+     * @param line a line with exactly one numeric field per column of the schema plus the index.
+     *
+     * @throws RuntimeException if the line is not a valid measurement line
+     */
+    public void parse(CharSequence line) {
+        Preconditions.checkNotNull(line);
+        mLine = line;
+        try {
+            parseFields(0, line.length());
+        } finally {
+            mLine = null;
+        }
+    }
+
+    /**
+     * Parses a measurement line stored as ASCII bytes. The position and limit of the buffer are left untouched.
+     * @param buffer buffer holding the line.
+     * @param start index of the first byte of the line.
+     * @param end index after the last byte of the line.
+     *
+     * @throws RuntimeException if the line is not a valid measurement line
+     */
+    public void parse(ByteBuffer buffer, int start, int end) {
+        Preconditions.checkNotNull(buffer);
+        Preconditions.checkPositionIndexes(start, end, buffer.limit());
+        mBytes = buffer;
+        try {
+            parseFields(start, end);
+        } finally {
+            mBytes = null;
+        }
+    }
+
+    private void parseFields(int start, int end) {
+        mLineStart = start;
+        mPosition = start;
+        mEnd = end;
+
+        mNumber = nextInt();
+        for (int field = 1; field < mFieldColumns.length; field++) {
+            final int column = mFieldColumns[field];
+            if (column == SKIPPED_FIELD) {
+                skipDouble();
+            } else {
+                mValues[column] = nextDouble();
+            }
+        }
+
+        if (skipWhitespace() != mEnd) {
+            throw malformedLine();
+        }
+    }
+
+    /**
+     * Returns the index of the last parsed line.
+     * @return int index of the measurement.
+     */
+    public int getNumber() {
+        return mNumber;
+    }
+
+    /**
+     * Returns the value of a column of the last parsed line.
+     * @param column column to get.
+     * @return double value, {@code NaN} if the column is not converted.
+     */
+    public double getValue(ImageDataColumn column) {
+        return mValues[column.ordinal()];
+    }
+
+    public double getArea() {
+        return mValues[ImageDataColumn.AREA.ordinal()];
+    }
+
+    public double getFeret() {
+        return mValues[ImageDataColumn.FERET.ordinal()];
+    }
+
+    public double getFeretX() {
+        return mValues[ImageDataColumn.FERET_X.ordinal()];
+    }
+
+    public double getFeretY() {
+        return mValues[ImageDataColumn.FERET_Y.ordinal()];
+    }
+
+    public double getFeretAngle() {
+        return mValues[ImageDataColumn.FERET_ANGLE.ordinal()];
+    }
+
+    public double getMinFeret() {
+        return mValues[ImageDataColumn.MIN_FERET.ordinal()];
+    }
+
+    private int nextInt() {
+        final int start = skipWhitespace();
+        int position = start;
+        boolean negative = false;
+
+        if (position < mEnd && isSign(charAt(position))) {
+            negative = charAt(position) == '-';
+            position++;
+        }
+
+        final int firstDigit = position;
+        long value = 0;
+        while (position < mEnd && isDigit(charAt(position))) {
+            value = value * 10 + (charAt(position) - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw malformedLine();
+            }
+            position++;
+        }
+
+        if (position == firstDigit || !isFieldEnd(position)) {
+            throw malformedLine();
+        }
+
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw malformedLine();
+        }
+
+        mPosition = position;
+        return (int) value;
+    }
+
+    private double nextDouble() {
+        final int start = skipWhitespace();
+        int position = start;
+        boolean negative = false;
+
+        if (position < mEnd && isSign(charAt(position))) {
+            negative = charAt(position) == '-';
+            position++;
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        int digits = 0;
+
+        // Integer part
+        while (position < mEnd && isDigit(charAt(position))) {
+            final int digit = charAt(position) - '0';
+            if (significantDigits > 0 || digit != 0) {
+                if (significantDigits < 18) {
+                    mantissa = mantissa * 10 + digit;
+                } else {
+                    exponent++;
+                }
+                significantDigits++;
+            }
+            digits++;
+            position++;
+        }
+
+        // Fraction part
+        if (position < mEnd && charAt(position) == '.') {
+            position++;
+            while (position < mEnd && isDigit(charAt(position))) {
+                final int digit = charAt(position) - '0';
+                if (significantDigits > 0 || digit != 0) {
+                    if (significantDigits < 18) {
+                        mantissa = mantissa * 10 + digit;
+                        exponent--;
+                    }
+                    significantDigits++;
+                } else {
+                    exponent--;
+                }
+                digits++;
+                position++;
+            }
+        }
+
+        if (digits == 0) {
+            throw malformedLine();
+        }
+
+        // Exponent part
+        if (position < mEnd && (charAt(position) == 'e' || charAt(position) == 'E')) {
+            position++;
+            boolean negativeExponent = false;
+            if (position < mEnd && isSign(charAt(position))) {
+                negativeExponent = charAt(position) == '-';
+                position++;
+            }
+            final int firstExponentDigit = position;
+            int explicitExponent = 0;
+            while (position < mEnd && isDigit(charAt(position))) {
+                if (explicitExponent < 100000) {
+                    explicitExponent = explicitExponent * 10 + (charAt(position) - '0');
+                }
+                position++;
+            }
+            if (position == firstExponentDigit) {
+                throw malformedLine();
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        if (!isFieldEnd(position)) {
+            throw malformedLine();
+        }
+        mPosition = position;
+
+        if (mantissa == 0) {
+            return negative ? -0.0 : 0.0;
+        }
+
+        if (significantDigits <= MAX_EXACT_DIGITS && exponent >= -22 && exponent <= 22) {
+            // Both the mantissa and the power of ten are exact, so a single operation gives the correctly
+            // rounded result.
+            final double value = exponent < 0
+                    ? mantissa / POWERS_OF_TEN[-exponent]
+                    : mantissa * POWERS_OF_TEN[exponent];
+            return negative ? -value : value;
+        }
+
+        return Double.parseDouble(substring(start, position));
+    }
+
+    /**
+     * Checks that the next field is a well formed number without converting it.
+     */
+    private void skipDouble() {
+        int position = skipWhitespace();
+        if (position < mEnd && isSign(charAt(position))) {
+            position++;
+        }
+
+        int digits = 0;
+        while (position < mEnd && isDigit(charAt(position))) {
+            digits++;
+            position++;
+        }
+        if (position < mEnd && charAt(position) == '.') {
+            position++;
+            while (position < mEnd && isDigit(charAt(position))) {
+                digits++;
+                position++;
+            }
+        }
+        if (digits == 0) {
+            throw malformedLine();
+        }
+
+        if (position < mEnd && (charAt(position) == 'e' || charAt(position) == 'E')) {
+            position++;
+            if (position < mEnd && isSign(charAt(position))) {
+                position++;
+            }
+            final int firstExponentDigit = position;
+            while (position < mEnd && isDigit(charAt(position))) {
+                position++;
+            }
+            if (position == firstExponentDigit) {
+                throw malformedLine();
+            }
+        }
+
+        if (!isFieldEnd(position)) {
+            throw malformedLine();
+        }
+        mPosition = position;
+    }
+
+    private int skipWhitespace() {
+        while (mPosition < mEnd && Character.isWhitespace(charAt(mPosition))) {
+            mPosition++;
+        }
+        return mPosition;
+    }
+
+    private boolean isFieldEnd(int position) {
+        return position == mEnd || Character.isWhitespace(charAt(position));
+    }
+
+    private char charAt(int index) {
+        return mLine != null ? mLine.charAt(index) : (char) (mBytes.get(index) & 0xFF);
+    }
+
+    private String substring(int start, int end) {
+        if (mLine != null) {
+            return mLine.subSequence(start, end).toString();
+        }
+
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = mBytes.get(i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isSign(char c) {
+        return c == '-' || c == '+';
+    }
+
+    private RuntimeException malformedLine() {
+        return new RuntimeException("Malformed measurement line: " + substring(mLineStart, mEnd));
+    }
+}
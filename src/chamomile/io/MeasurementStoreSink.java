@@ -0,0 +1,62 @@
+package chamomile.io;
+
+import chamomile.structures.GeometryInfo;
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.OffHeapMeasurementStore;
+import chamomile.structures.PodocyteData;
+import com.google.common.base.Preconditions;
+
+/**
+ * Sink that writes the glomeruli of a cohort straight into an {@link OffHeapMeasurementStore} as they're parsed, so a
+ * store is filled without ever holding the parsed objects of the cohort, e.g.
+ *
+ * <pre>
+ * MeasurementStoreSink sink = new MeasurementStoreSink();
+ * BiopsyDataProcessor.streamAllBiopsies(rootDirectory, reader, executor, IngestionMode.LENIENT, sink);
+ * OffHeapMeasurementStore store = sink.build();
+ * </pre>
+ *
+ * Sinks are not thread safe.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class MeasurementStoreSink implements CohortSink {
+    private final OffHeapMeasurementStore.Builder mBuilder;
+
+    public MeasurementStoreSink() {
+        this(new OffHeapMeasurementStore.Builder());
+    }
+
+    /**
+     * Creates a sink adding to the given builder.
+     * @param builder builder receiving the biopsies, glomeruli and podocytes.
+     */
+    public MeasurementStoreSink(OffHeapMeasurementStore.Builder builder) {
+        mBuilder = Preconditions.checkNotNull(builder);
+    }
+
+    @Override
+    public void startBiopsy(String biopsyId) {
+        mBuilder.addBiopsy(biopsyId);
+    }
+
+    @Override
+    public void accept(GlomerulusData glomerulusData) {
+        GeometryInfo geometryInfo = glomerulusData.getGeometryInfo();
+        mBuilder.addGlomerulus(glomerulusData.getImageId(), glomerulusData.getNumber(), geometryInfo.getArea(),
+                geometryInfo.getFeret(), geometryInfo.getFeretX(), geometryInfo.getFeretY());
+        for (PodocyteData podocyteData : glomerulusData.getPodocytesData()) {
+            geometryInfo = podocyteData.getGeometryInfo();
+            mBuilder.addPodocyte(geometryInfo.getArea(), geometryInfo.getFeret(), geometryInfo.getFeretX(),
+                    geometryInfo.getFeretY());
+        }
+    }
+
+    /**
+     * Builds the store with everything received so far. The sink can't be used afterwards.
+     * @return store with the biopsies, glomeruli and podocytes in the order they were received.
+     */
+    public OffHeapMeasurementStore build() {
+        return mBuilder.build();
+    }
+}
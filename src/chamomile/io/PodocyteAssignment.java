@@ -0,0 +1,22 @@
+package chamomile.io;
+
+/**
+ * Ways of deciding which glomerulus a podocyte belongs to.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public enum PodocyteAssignment {
+
+    /**
+     * A podocyte belongs to the glomerulus found right before it in the image data file. The FeretX and FeretY columns
+     * are not converted, so the structures have no position.
+     */
+    FILE_ORDER,
+
+    /**
+     * A podocyte belongs to the glomerulus nearest to it in the image, see
+     * {@link chamomile.structures.GlomerulusSpatialIndex}. Requires the FeretX and FeretY columns, which are kept on
+     * the structures.
+     */
+    NEAREST_GLOMERULUS
+}
@@ -0,0 +1,336 @@
+package chamomile.io;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Image data file reader that loads the {@link #prefetch(List) announced} files ahead of time on its own I/O threads,
+ * so reading the next files overlaps with parsing the current ones.
+ *
+ * Files are loaded in the announced order into a pool of reusable buffers. The number of buffers is the read-ahead
+ * depth, so at most {@code readAheadDepth * bufferSize} bytes are held, and the I/O threads wait for a buffer to be
+ * released once they're all taken. A loaded file is parsed from its buffer, compressed files being decompressed on the
+ * parsing thread, and the buffer is released right after.
+ *
+ * A file whose load hasn't started when it's read, a file that wasn't announced and a file bigger than a buffer are
+ * read directly by the parsing thread with a {@link MappedImageDataFileReader}. Parsing threads therefore only wait for
+ * loads that are already running, which always complete. Both ways assign podocytes to glomeruli the same way, see
+ * {@link PodocyteAssignment}.
+ *
+ * In the {@link ImageDataFileCounters} of a file that was loaded ahead, only the time the parsing thread waited for the
+ * load counts as I/O time, since the rest of the load overlapped with parsing other files.
+ *
+ * The reader must be closed to stop its I/O threads.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class ReadAheadImageDataFileReader implements ImageDataFileReader, Closeable {
+
+    /**
+     * Default number of I/O threads ({@value}).
+     */
+    public static final int DEFAULT_IO_THREADS = 4;
+
+    /**
+     * Default number of files loaded ahead ({@value}).
+     */
+    public static final int DEFAULT_READ_AHEAD_DEPTH = 8;
+
+    /**
+     * Default size of a buffer ({@value} bytes), bigger files are not loaded ahead.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Size of the buffer compressed files are decompressed into while they're parsed ({@value} bytes).
+     */
+    private static final int DECOMPRESSION_BUFFER_SIZE = 256 * 1024;
+
+    private static final int PENDING = 0;
+    private static final int LOADING = 1;
+    private static final int CLAIMED = 2;
+
+    private final int mReadAheadDepth;
+    private final int mBufferSize;
+    private final ExecutorService mIoExecutor;
+    private final BlockingQueue<byte[]> mFreeBuffers;
+    private final AtomicInteger mAllocatedBufferCount = new AtomicInteger();
+    private final ConcurrentMap<ImageDataFile, Prefetch> mPrefetches = new ConcurrentHashMap<>();
+    private final PodocyteAssignment mAssignment;
+    private final MappedImageDataFileReader mDirectReader;
+
+    public ReadAheadImageDataFileReader() {
+        this(DEFAULT_IO_THREADS, DEFAULT_READ_AHEAD_DEPTH, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a reader.
+     * @param ioThreads number of threads loading files.
+     * @param readAheadDepth maximum number of files loaded and not parsed yet.
+     * @param bufferSize size of a buffer in bytes, files bigger than this are not loaded ahead.
+     */
+    public ReadAheadImageDataFileReader(int ioThreads, int readAheadDepth, int bufferSize) {
+        this(ioThreads, readAheadDepth, bufferSize, PodocyteAssignment.FILE_ORDER);
+    }
+
+    /**
+     * Creates a reader.
+     * @param ioThreads number of threads loading files.
+     * @param readAheadDepth maximum number of files loaded and not parsed yet.
+     * @param bufferSize size of a buffer in bytes, files bigger than this are not loaded ahead.
+     * @param assignment how podocytes are assigned to glomeruli.
+     */
+    public ReadAheadImageDataFileReader(int ioThreads, int readAheadDepth, int bufferSize,
+                                        PodocyteAssignment assignment) {
+        Preconditions.checkArgument(ioThreads > 0);
+        Preconditions.checkArgument(readAheadDepth > 0);
+        Preconditions.checkArgument(bufferSize > 0);
+        mReadAheadDepth = readAheadDepth;
+        mBufferSize = bufferSize;
+        mAssignment = Preconditions.checkNotNull(assignment);
+        mDirectReader = new MappedImageDataFileReader(MappedImageDataFileReader.DEFAULT_MAX_MAPPING_SIZE, assignment);
+        mFreeBuffers = new ArrayBlockingQueue<>(readAheadDepth);
+        mIoExecutor = Executors.newFixedThreadPool(ioThreads, new ThreadFactoryBuilder()
+                .setNameFormat("image-data-read-ahead-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    @Override
+    public Closeable prefetch(List<ImageDataFile> imageDataFiles) {
+        Preconditions.checkNotNull(imageDataFiles);
+
+        List<Prefetch> prefetches = new ArrayList<>(imageDataFiles.size());
+        for (ImageDataFile imageDataFile : imageDataFiles) {
+            final long length = imageDataFile.getFile().length();
+            if (length == 0 || length > mBufferSize) {
+                continue;
+            }
+            Prefetch prefetch = new Prefetch(imageDataFile);
+            if (mPrefetches.putIfAbsent(imageDataFile, prefetch) != null) {
+                continue;
+            }
+            try {
+                mIoExecutor.execute(() -> load(prefetch));
+                prefetches.add(prefetch);
+            } catch (RejectedExecutionException e) {
+                // Closed, the files will be read directly
+                mPrefetches.remove(imageDataFile, prefetch);
+                break;
+            }
+        }
+
+        return () -> {
+            // Only this prefetch is removed, the file may have been read and announced again since
+            for (Prefetch prefetch : prefetches) {
+                if (mPrefetches.remove(prefetch.mImageDataFile, prefetch)) {
+                    discard(prefetch);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void read(ImageDataFile imageDataFile, GlomerulusSink sink) throws IOException {
+        read(imageDataFile, sink, new ImageDataFileCounters());
+    }
+
+    @Override
+    public void read(ImageDataFile imageDataFile, GlomerulusSink sink, ImageDataFileCounters counters)
+            throws IOException {
+        Preconditions.checkNotNull(imageDataFile);
+        Preconditions.checkNotNull(sink);
+
+        // Whoever removes the prefetch owns its buffer
+        Prefetch prefetch = mPrefetches.remove(imageDataFile);
+        if (prefetch == null || prefetch.mState.compareAndSet(PENDING, CLAIMED)) {
+            mDirectReader.read(imageDataFile, sink, counters);
+            return;
+        }
+
+        final LoadedFile loadedFile;
+        final long start = System.nanoTime();
+        try {
+            loadedFile = prefetch.mLoadedFile.get();
+        } catch (InterruptedException e) {
+            discard(prefetch);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading " + imageDataFile.getFile());
+        } catch (ExecutionException e) {
+            // The load failed, the direct read reports the failure if it persists
+            mDirectReader.read(imageDataFile, sink, counters);
+            return;
+        } finally {
+            // Only the time the parsing thread waits for the load is I/O time of the read
+            counters.addIoNanos(System.nanoTime() - start);
+        }
+
+        try {
+            if (loadedFile.mLength < 0) {
+                // The file grew after it was announced
+                mDirectReader.read(imageDataFile, sink, counters);
+            } else {
+                parse(imageDataFile, loadedFile, sink, counters);
+            }
+        } finally {
+            releaseBuffer(loadedFile.mBytes);
+        }
+    }
+
+    /**
+     * Stops the I/O threads. Files being loaded are abandoned.
+     */
+    @Override
+    public void close() {
+        mIoExecutor.shutdownNow();
+    }
+
+    @Override
+    public PodocyteAssignment getPodocyteAssignment() {
+        return mAssignment;
+    }
+
+    public int getReadAheadDepth() {
+        return mReadAheadDepth;
+    }
+
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    private void load(Prefetch prefetch) {
+        if (prefetch.mState.get() != PENDING) {
+            return;
+        }
+
+        final byte[] bytes;
+        try {
+            bytes = takeBuffer();
+        } catch (InterruptedException e) {
+            prefetch.mLoadedFile.completeExceptionally(e);
+            return;
+        }
+        if (!prefetch.mState.compareAndSet(PENDING, LOADING)) {
+            releaseBuffer(bytes);
+            return;
+        }
+
+        try (InputStream inputStream = new FileInputStream(prefetch.mImageDataFile.getFile())) {
+            int length = ByteStreams.read(inputStream, bytes, 0, bytes.length);
+            if (length == bytes.length && inputStream.read() >= 0) {
+                length = -1;
+            }
+            prefetch.mLoadedFile.complete(new LoadedFile(bytes, length));
+        } catch (IOException | RuntimeException e) {
+            releaseBuffer(bytes);
+            prefetch.mLoadedFile.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Releases whatever is held for a prefetch that won't be read.
+     */
+    private void discard(Prefetch prefetch) {
+        if (!prefetch.mState.compareAndSet(PENDING, CLAIMED)) {
+            prefetch.mLoadedFile.thenAccept((LoadedFile loadedFile) -> releaseBuffer(loadedFile.mBytes));
+        }
+    }
+
+    private void parse(ImageDataFile imageDataFile, LoadedFile loadedFile, GlomerulusSink sink,
+                       ImageDataFileCounters counters) throws IOException {
+        ImageDataLineProcessor processor = new ImageDataLineProcessor(imageDataFile.getImageId(), sink, mAssignment);
+        counters.addBytesRead(loadedFile.mLength);
+        try {
+            parse(imageDataFile, loadedFile, processor);
+        } finally {
+            counters.addLines(processor);
+        }
+    }
+
+    private static void parse(ImageDataFile imageDataFile, LoadedFile loadedFile, ImageDataLineProcessor processor)
+            throws IOException {
+        if (imageDataFile.isCompressed()) {
+            try (InputStream inputStream = new GZIPInputStream(
+                    new ByteArrayInputStream(loadedFile.mBytes, 0, loadedFile.mLength), DECOMPRESSION_BUFFER_SIZE)) {
+                if (!ByteLineSplitter.processLines(inputStream, new byte[DECOMPRESSION_BUFFER_SIZE],
+                        processor::processLine)) {
+                    throw new IOException(String.format("Line longer than %d bytes found in %s",
+                            DECOMPRESSION_BUFFER_SIZE, imageDataFile.getFile()));
+                }
+            }
+        } else {
+            ByteLineSplitter.processLines(ByteBuffer.wrap(loadedFile.mBytes), 0, loadedFile.mLength, true,
+                    processor::processLine);
+        }
+
+        processor.getResult();
+    }
+
+    private byte[] takeBuffer() throws InterruptedException {
+        byte[] bytes = mFreeBuffers.poll();
+        if (bytes != null) {
+            return bytes;
+        }
+
+        // Allocate buffers lazily, up to the read-ahead depth
+        while (true) {
+            final int allocatedBufferCount = mAllocatedBufferCount.get();
+            if (allocatedBufferCount >= mReadAheadDepth) {
+                return mFreeBuffers.take();
+            }
+            if (mAllocatedBufferCount.compareAndSet(allocatedBufferCount, allocatedBufferCount + 1)) {
+                return new byte[mBufferSize];
+            }
+        }
+    }
+
+    private void releaseBuffer(byte[] bytes) {
+        mFreeBuffers.offer(bytes);
+    }
+
+    private static final class Prefetch {
+        private final ImageDataFile mImageDataFile;
+        private final AtomicInteger mState = new AtomicInteger(PENDING);
+        private final CompletableFuture<LoadedFile> mLoadedFile = new CompletableFuture<>();
+
+        private Prefetch(ImageDataFile imageDataFile) {
+            mImageDataFile = imageDataFile;
+        }
+    }
+
+    private static final class LoadedFile {
+        private final byte[] mBytes;
+
+        /**
+         * Number of bytes of the file, -1 if it didn't fit in the buffer.
+         */
+        private final int mLength;
+
+        private LoadedFile(byte[] bytes, int length) {
+            mBytes = bytes;
+            mLength = length;
+        }
+    }
+}
@@ -1,24 +1,62 @@
-package chamomile.main;
-
-
-import chamomile.io.BiopsyDataProcessor;
-import chamomile.structures.BiopsyResult;
-
-import java.io.File;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-
-public class Main {
-    public static void main(String[] args) throws IOException {
-        File rootDir = new File("C:\\Users\\rodga\\Desktop\\Biopsias");
-
-        List<BiopsyResult> allBiopsyResults = new ArrayList<>();
-
-        for (File dir : rootDir.listFiles((File file) -> file.isDirectory())) {
-            allBiopsyResults.add(BiopsyDataProcessor.parseAllDataFilesForBiopsy(dir.getName(), dir));
-        }
-
-        System.out.println(allBiopsyResults.toString());
-    }
-}
+package chamomile.main;
+
+
+import chamomile.io.BiopsyDataProcessor;
+import chamomile.io.CsvGlomerulusExporter;
+import chamomile.io.GlomerulusExporter;
+import chamomile.io.IngestionMode;
+import chamomile.io.IngestionStatistics;
+import chamomile.io.InstrumentedImageDataFileReader;
+import chamomile.io.LineImageDataFileReader;
+import chamomile.statistics.Aggregator;
+import chamomile.statistics.CohortQuery;
+import chamomile.statistics.RunningStatistics;
+import chamomile.structures.BiopsyResult;
+import chamomile.structures.IngestionError;
+
+import javax.management.JMException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+
+public class Main {
+    /**
+     * Parses a cohort, printing the results, and exports its measurements in the same pass.
+     * @param args root directory of the cohort and the CSV file to export to, "measurements.csv" in the working
+     *             directory by default.
+     */
+    public static void main(String[] args) throws IOException, JMException {
+        File rootDir = new File(args.length > 0 ? args[0] : "C:\\Users\\rodga\\Desktop\\Biopsias").getAbsoluteFile();
+        File exportFile = new File(args.length > 1 ? args[1] : "measurements.csv");
+
+        IngestionStatistics ingestionStatistics = new IngestionStatistics();
+        ingestionStatistics.registerMBean();
+
+        ExecutorService executor = BiopsyDataProcessor.newIngestionExecutor(Runtime.getRuntime().availableProcessors());
+        try (GlomerulusExporter exporter = new CsvGlomerulusExporter(new FileOutputStream(exportFile))) {
+            List<BiopsyResult> allBiopsyResults = BiopsyDataProcessor.parseAllBiopsies(rootDir,
+                    new InstrumentedImageDataFileReader(new LineImageDataFileReader(), ingestionStatistics), executor,
+                    IngestionMode.LENIENT, exporter);
+            System.out.println(allBiopsyResults.toString());
+            for (BiopsyResult biopsyResult : allBiopsyResults) {
+                for (IngestionError error : biopsyResult.getErrors()) {
+                    System.err.println(error.toString());
+                }
+            }
+            System.out.println(ingestionStatistics.toString());
+            System.out.println(exporter.toString());
+
+            Map<String, RunningStatistics> podocyteDensities = CohortQuery.of(allBiopsyResults)
+                    .aggregate(CohortQuery.BY_BIOPSY, Aggregator.podocyteDensity());
+            for (Map.Entry<String, RunningStatistics> entry : new TreeMap<>(podocyteDensities).entrySet()) {
+                System.out.println(entry.getKey() + " podocyte density: " + entry.getValue());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
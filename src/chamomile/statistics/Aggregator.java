@@ -0,0 +1,127 @@
+package chamomile.statistics;
+
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.PodocyteData;
+import com.google.common.base.Preconditions;
+
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Mergeable aggregate over glomeruli, used by {@link CohortQuery}.
+ *
+ * Every thread accumulates its share of the glomeruli into its own accumulator, and the accumulators are merged once
+ * the threads are done, so accumulators don't need to be thread safe.
+ *
+ * @param <A> type of the accumulator, which is also the result.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public interface Aggregator<A> {
+
+    /**
+     * Creates an empty accumulator.
+     * @return a new accumulator.
+     */
+    A create();
+
+    /**
+     * Adds a glomerulus to an accumulator.
+     * @param accumulator accumulator created by {@link #create()}.
+     * @param glomerulusData glomerulus with its podocytes data set.
+     */
+    void add(A accumulator, GlomerulusData glomerulusData);
+
+    /**
+     * Adds all the glomeruli accumulated by another accumulator.
+     * @param accumulator accumulator receiving the glomeruli.
+     * @param other accumulator to be merged, left untouched.
+     */
+    void merge(A accumulator, A other);
+
+    /**
+     * Creates an aggregator from its functions.
+     * @param create creates an empty accumulator.
+     * @param add adds a glomerulus to an accumulator.
+     * @param merge merges the second accumulator into the first one.
+     * @param <A> type of the accumulator.
+     * @return aggregator
+     */
+    static <A> Aggregator<A> of(Supplier<A> create, BiConsumer<A, GlomerulusData> add, BiConsumer<A, A> merge) {
+        Preconditions.checkNotNull(create);
+        Preconditions.checkNotNull(add);
+        Preconditions.checkNotNull(merge);
+        return new Aggregator<A>() {
+            @Override
+            public A create() {
+                return create.get();
+            }
+
+            @Override
+            public void add(A accumulator, GlomerulusData glomerulusData) {
+                add.accept(accumulator, glomerulusData);
+            }
+
+            @Override
+            public void merge(A accumulator, A other) {
+                merge.accept(accumulator, other);
+            }
+        };
+    }
+
+    /**
+     * Aggregates the glomeruli, their podocytes and the number of podocytes per glomerulus.
+     * @return aggregator
+     */
+    static Aggregator<GlomeruliStatistics> glomeruli() {
+        return of(GlomeruliStatistics::new, GlomeruliStatistics::add, GlomeruliStatistics::merge);
+    }
+
+    /**
+     * Aggregates the area and feret of the glomeruli.
+     * @return aggregator
+     */
+    static Aggregator<MorphometryStatistics> glomerulusMorphometry() {
+        return of(MorphometryStatistics::new,
+                (MorphometryStatistics statistics, GlomerulusData glomerulusData) -> statistics.add(
+                        glomerulusData.getGeometryInfo().getArea(), glomerulusData.getGeometryInfo().getFeret()),
+                MorphometryStatistics::merge);
+    }
+
+    /**
+     * Aggregates the area and feret of the podocytes of the glomeruli.
+     * @return aggregator
+     */
+    static Aggregator<MorphometryStatistics> podocyteMorphometry() {
+        return of(MorphometryStatistics::new,
+                (MorphometryStatistics statistics, GlomerulusData glomerulusData) -> {
+                    for (PodocyteData podocyteData : glomerulusData.getPodocytesData()) {
+                        statistics.add(podocyteData.getGeometryInfo().getArea(),
+                                podocyteData.getGeometryInfo().getFeret());
+                    }
+                },
+                MorphometryStatistics::merge);
+    }
+
+    /**
+     * Aggregates the number of podocytes per glomerulus.
+     * @return aggregator
+     */
+    static Aggregator<RunningStatistics> podocytesPerGlomerulus() {
+        return of(RunningStatistics::new,
+                (RunningStatistics statistics, GlomerulusData glomerulusData) -> statistics.add(
+                        glomerulusData.getPodocytesData().size()),
+                RunningStatistics::merge);
+    }
+
+    /**
+     * Aggregates the podocyte density of the glomeruli, i.e. their number of podocytes per µm² of glomerulus area.
+     * @return aggregator
+     */
+    static Aggregator<RunningStatistics> podocyteDensity() {
+        return of(RunningStatistics::new,
+                (RunningStatistics statistics, GlomerulusData glomerulusData) -> statistics.add(
+                        glomerulusData.getPodocytesData().size() / glomerulusData.getGeometryInfo().getArea()),
+                RunningStatistics::merge);
+    }
+}
@@ -0,0 +1,311 @@
+package chamomile.statistics;
+
+import chamomile.structures.BiopsyResult;
+import chamomile.structures.GlomerulusData;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.ImmutableList;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Filter, group by and aggregate queries over the glomeruli of a cohort of parsed biopsies, run in parallel.
+ *
+ * Queries are immutable: {@link #filter(Predicate)} and the other intermediate methods return a new query. The
+ * terminal {@code aggregate} methods split the glomeruli of the cohort with a {@link CohortSpliterator} into fork-join
+ * tasks. Every task accumulates its glomeruli into its own accumulators, which are merged as the tasks complete, so no
+ * intermediate collection of glomeruli is ever built. E.g. the podocyte density of the glomeruli within an area band,
+ * by biopsy:
+ *
+ * <pre>
+ * Map&lt;String, RunningStatistics&gt; densities = CohortQuery.of(biopsyResults)
+ *         .filter(CohortQuery.areaBetween(5000.0, 10000.0))
+ *         .aggregate(CohortQuery.BY_BIOPSY, Aggregator.podocyteDensity());
+ * </pre>
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class CohortQuery {
+
+    /**
+     * Key of the groups of a query.
+     * @param <K> type of the key.
+     */
+    @FunctionalInterface
+    public interface GroupBy<K> {
+        K keyOf(BiopsyResult biopsyResult, GlomerulusData glomerulusData);
+    }
+
+    /**
+     * Groups the glomeruli by biopsy id.
+     */
+    public static final GroupBy<String> BY_BIOPSY =
+            (BiopsyResult biopsyResult, GlomerulusData glomerulusData) -> biopsyResult.getId();
+
+    /**
+     * Groups the glomeruli by biopsy and image.
+     */
+    public static final GroupBy<ImageKey> BY_IMAGE =
+            (BiopsyResult biopsyResult, GlomerulusData glomerulusData) -> new ImageKey(biopsyResult.getId(),
+                    glomerulusData.getImageId());
+
+    /**
+     * Minimum number of glomeruli processed by a single task ({@value}).
+     */
+    private static final int MIN_TASK_SIZE = 1024;
+
+    /**
+     * Number of tasks per thread, so that threads finishing early can steal work from the others.
+     */
+    private static final int TASKS_PER_THREAD = 8;
+
+    private final ImmutableList<BiopsyResult> mBiopsyResults;
+    private final Predicate<? super GlomerulusData> mGlomerulusFilter;
+    private final ForkJoinPool mPool;
+
+    private CohortQuery(ImmutableList<BiopsyResult> biopsyResults, Predicate<? super GlomerulusData> glomerulusFilter,
+                        ForkJoinPool pool) {
+        mBiopsyResults = biopsyResults;
+        mGlomerulusFilter = glomerulusFilter;
+        mPool = pool;
+    }
+
+    /**
+     * Creates a query over all the glomeruli of a cohort, run in the common fork-join pool.
+     * @param biopsyResults biopsy results with their glomerulus data set.
+     * @return query
+     */
+    public static CohortQuery of(List<? extends BiopsyResult> biopsyResults) {
+        return new CohortQuery(ImmutableList.copyOf(biopsyResults), null, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Returns a predicate matching the glomeruli with an area within a band.
+     * @param minArea minimum area, inclusive.
+     * @param maxArea maximum area, inclusive.
+     * @return predicate
+     */
+    public static Predicate<GlomerulusData> areaBetween(double minArea, double maxArea) {
+        Preconditions.checkArgument(minArea <= maxArea);
+        return (GlomerulusData glomerulusData) -> glomerulusData.getGeometryInfo().getArea() >= minArea
+                && glomerulusData.getGeometryInfo().getArea() <= maxArea;
+    }
+
+    /**
+     * Returns a predicate matching the glomeruli with a feret diameter within a band.
+     * @param minFeret minimum feret diameter, inclusive.
+     * @param maxFeret maximum feret diameter, inclusive.
+     * @return predicate
+     */
+    public static Predicate<GlomerulusData> feretBetween(double minFeret, double maxFeret) {
+        Preconditions.checkArgument(minFeret <= maxFeret);
+        return (GlomerulusData glomerulusData) -> glomerulusData.getGeometryInfo().getFeret() >= minFeret
+                && glomerulusData.getGeometryInfo().getFeret() <= maxFeret;
+    }
+
+    /**
+     * Restricts the query to the glomeruli matching a predicate, besides any previous filter.
+     * @param predicate glomerulus filter, called concurrently.
+     * @return a new query
+     */
+    public CohortQuery filter(Predicate<? super GlomerulusData> predicate) {
+        Preconditions.checkNotNull(predicate);
+        return new CohortQuery(mBiopsyResults, and(mGlomerulusFilter, predicate), mPool);
+    }
+
+    /**
+     * Restricts the query to the biopsies matching a predicate, besides any previous filter.
+     * @param predicate biopsy filter, called once per biopsy right away.
+     * @return a new query
+     */
+    public CohortQuery filterBiopsies(Predicate<? super BiopsyResult> predicate) {
+        Preconditions.checkNotNull(predicate);
+        ImmutableList.Builder<BiopsyResult> biopsyResults = ImmutableList.builder();
+        for (BiopsyResult biopsyResult : mBiopsyResults) {
+            if (predicate.test(biopsyResult)) {
+                biopsyResults.add(biopsyResult);
+            }
+        }
+        return new CohortQuery(biopsyResults.build(), mGlomerulusFilter, mPool);
+    }
+
+    /**
+     * Runs the query in a given pool instead of the common one.
+     * @param pool fork-join pool, e.g. with a limited parallelism.
+     * @return a new query
+     */
+    public CohortQuery withPool(ForkJoinPool pool) {
+        return new CohortQuery(mBiopsyResults, mGlomerulusFilter, Preconditions.checkNotNull(pool));
+    }
+
+    /**
+     * Aggregates all the glomeruli of the query.
+     * @param aggregator aggregate to compute.
+     * @param <A> type of the aggregate.
+     * @return aggregate of the matching glomeruli, empty if none matches.
+     */
+    public <A> A aggregate(Aggregator<A> aggregator) {
+        Preconditions.checkNotNull(aggregator);
+        return mPool.invoke(new AggregateTask<>(newSpliterator(), taskSize(), (CohortSpliterator spliterator) -> {
+            A accumulator = aggregator.create();
+            spliterator.forEachRemaining((BiopsyResult biopsyResult, GlomerulusData glomerulusData) -> {
+                if (mGlomerulusFilter == null || mGlomerulusFilter.test(glomerulusData)) {
+                    aggregator.add(accumulator, glomerulusData);
+                }
+            });
+            return accumulator;
+        }, (A accumulator, A other) -> {
+            aggregator.merge(accumulator, other);
+            return accumulator;
+        }));
+    }
+
+    /**
+     * Aggregates the glomeruli of the query by group.
+     * @param groupBy key of the group of every glomerulus.
+     * @param aggregator aggregate to compute for every group.
+     * @param <K> type of the key.
+     * @param <A> type of the aggregate.
+     * @return aggregate of every group with at least a matching glomerulus, in no particular order.
+     */
+    public <K, A> Map<K, A> aggregate(GroupBy<K> groupBy, Aggregator<A> aggregator) {
+        Preconditions.checkNotNull(groupBy);
+        Preconditions.checkNotNull(aggregator);
+        return mPool.invoke(new AggregateTask<>(newSpliterator(), taskSize(), (CohortSpliterator spliterator) -> {
+            Map<K, A> accumulators = new HashMap<>();
+            spliterator.forEachRemaining((BiopsyResult biopsyResult, GlomerulusData glomerulusData) -> {
+                if (mGlomerulusFilter == null || mGlomerulusFilter.test(glomerulusData)) {
+                    aggregator.add(accumulators.computeIfAbsent(groupBy.keyOf(biopsyResult, glomerulusData),
+                            (K key) -> aggregator.create()), glomerulusData);
+                }
+            });
+            return accumulators;
+        }, (Map<K, A> accumulators, Map<K, A> others) -> {
+            for (Map.Entry<K, A> entry : others.entrySet()) {
+                accumulators.merge(entry.getKey(), entry.getValue(), (A accumulator, A other) -> {
+                    aggregator.merge(accumulator, other);
+                    return accumulator;
+                });
+            }
+            return accumulators;
+        }));
+    }
+
+    public String toString() {
+        return MoreObjects.toStringHelper(CohortQuery.class)
+                .add("biopsyCount", mBiopsyResults.size())
+                .add("filtered", mGlomerulusFilter != null)
+                .add("parallelism", mPool.getParallelism())
+                .toString();
+    }
+
+    private CohortSpliterator newSpliterator() {
+        return new CohortSpliterator(mBiopsyResults);
+    }
+
+    private long taskSize() {
+        long glomerulusCount = 0;
+        for (BiopsyResult biopsyResult : mBiopsyResults) {
+            glomerulusCount += biopsyResult.getGlomerulusData().size();
+        }
+        return Math.max(MIN_TASK_SIZE, glomerulusCount / ((long) mPool.getParallelism() * TASKS_PER_THREAD));
+    }
+
+    private static <T> Predicate<? super T> and(Predicate<? super T> first, Predicate<? super T> second) {
+        return first == null ? second : (T t) -> first.test(t) && second.test(t);
+    }
+
+    /**
+     * Splits a spliterator until it's small enough, accumulates every part and merges the results.
+     */
+    private static final class AggregateTask<R> extends RecursiveTask<R> {
+        private static final long serialVersionUID = 1L;
+
+        private final CohortSpliterator mSpliterator;
+        private final long mTaskSize;
+        private final Function<CohortSpliterator, R> mAccumulate;
+        private final BinaryOperator<R> mMerge;
+
+        private AggregateTask(CohortSpliterator spliterator, long taskSize,
+                              Function<CohortSpliterator, R> accumulate,
+                              BinaryOperator<R> merge) {
+            mSpliterator = spliterator;
+            mTaskSize = taskSize;
+            mAccumulate = accumulate;
+            mMerge = merge;
+        }
+
+        @Override
+        protected R compute() {
+            CohortSpliterator prefix;
+            if (mSpliterator.estimateSize() <= mTaskSize || (prefix = mSpliterator.trySplit()) == null) {
+                return mAccumulate.apply(mSpliterator);
+            }
+
+            AggregateTask<R> prefixTask = new AggregateTask<>(prefix, mTaskSize, mAccumulate, mMerge);
+            prefixTask.fork();
+            R suffixResult = compute();
+            // The prefix goes first, so that order dependent aggregates see the glomeruli in cohort order
+            return mMerge.apply(prefixTask.join(), suffixResult);
+        }
+    }
+
+    /**
+     * Key of an image of a cohort.
+     */
+    public static final class ImageKey implements Comparable<ImageKey> {
+        private final String mBiopsyId;
+        private final int mImageId;
+
+        public ImageKey(String biopsyId, int imageId) {
+            mBiopsyId = Preconditions.checkNotNull(biopsyId);
+            mImageId = imageId;
+        }
+
+        public String getBiopsyId() {
+            return mBiopsyId;
+        }
+
+        public int getImageId() {
+            return mImageId;
+        }
+
+        @Override
+        public int compareTo(ImageKey other) {
+            return ComparisonChain.start()
+                    .compare(mBiopsyId, other.mBiopsyId)
+                    .compare(mImageId, other.mImageId)
+                    .result();
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof ImageKey)) {
+                return false;
+            }
+            ImageKey other = (ImageKey) object;
+            return mImageId == other.mImageId && mBiopsyId.equals(other.mBiopsyId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mBiopsyId, mImageId);
+        }
+
+        public String toString() {
+            return mBiopsyId + "/" + mImageId;
+        }
+    }
+}
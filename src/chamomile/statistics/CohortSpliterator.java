@@ -0,0 +1,146 @@
+package chamomile.statistics;
+
+import chamomile.structures.BiopsyResult;
+import chamomile.structures.GlomerulusData;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over the glomeruli of a cohort of biopsies, in biopsy order.
+ *
+ * The glomeruli of the cohort are numbered consecutively and every spliterator covers a range of those numbers, so
+ * splitting halves the range regardless of how the glomeruli are spread across biopsies, and never copies anything.
+ * A range may start and end in the middle of a biopsy.
+ *
+ * Besides the {@link Spliterator} methods, {@link #forEachRemaining(GlomerulusConsumer)} also passes the biopsy of
+ * every glomerulus.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class CohortSpliterator implements Spliterator<GlomerulusData> {
+
+    /**
+     * Consumer of the glomeruli of a cohort along with their biopsy.
+     */
+    @FunctionalInterface
+    public interface GlomerulusConsumer {
+        void accept(BiopsyResult biopsyResult, GlomerulusData glomerulusData);
+    }
+
+    private final ImmutableList<BiopsyResult> mBiopsyResults;
+
+    /**
+     * Number of glomeruli before every biopsy, with the total count at the end.
+     */
+    private final long[] mOffsets;
+
+    private long mIndex;
+    private final long mFence;
+
+    /**
+     * Creates a spliterator over all the glomeruli of a cohort.
+     * @param biopsyResults biopsy results with their glomerulus data set.
+     */
+    public CohortSpliterator(List<? extends BiopsyResult> biopsyResults) {
+        mBiopsyResults = ImmutableList.copyOf(biopsyResults);
+        mOffsets = new long[mBiopsyResults.size() + 1];
+        for (int i = 0; i < mBiopsyResults.size(); i++) {
+            List<GlomerulusData> glomerulusData = Preconditions.checkNotNull(
+                    mBiopsyResults.get(i).getGlomerulusData());
+            mOffsets[i + 1] = mOffsets[i] + glomerulusData.size();
+        }
+        mIndex = 0;
+        mFence = mOffsets[mBiopsyResults.size()];
+    }
+
+    private CohortSpliterator(ImmutableList<BiopsyResult> biopsyResults, long[] offsets, long index, long fence) {
+        mBiopsyResults = biopsyResults;
+        mOffsets = offsets;
+        mIndex = index;
+        mFence = fence;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super GlomerulusData> action) {
+        Preconditions.checkNotNull(action);
+        if (mIndex >= mFence) {
+            return false;
+        }
+
+        final int biopsyIndex = biopsyIndexOf(mIndex);
+        action.accept(mBiopsyResults.get(biopsyIndex).getGlomerulusData().get((int) (mIndex - mOffsets[biopsyIndex])));
+        mIndex++;
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super GlomerulusData> action) {
+        Preconditions.checkNotNull(action);
+        forEachRemaining((BiopsyResult biopsyResult, GlomerulusData glomerulusData) -> action.accept(glomerulusData));
+    }
+
+    /**
+     * Performs an action for every remaining glomerulus, with its biopsy.
+     * @param action action receiving every glomerulus.
+     */
+    public void forEachRemaining(GlomerulusConsumer action) {
+        Preconditions.checkNotNull(action);
+        if (mIndex >= mFence) {
+            return;
+        }
+
+        // Walk the biopsies of the range, indexing their glomerulus lists directly
+        for (int biopsyIndex = biopsyIndexOf(mIndex); mIndex < mFence; biopsyIndex++) {
+            final BiopsyResult biopsyResult = mBiopsyResults.get(biopsyIndex);
+            final List<GlomerulusData> glomerulusData = biopsyResult.getGlomerulusData();
+            final int from = (int) (mIndex - mOffsets[biopsyIndex]);
+            final int to = (int) (Math.min(mFence, mOffsets[biopsyIndex + 1]) - mOffsets[biopsyIndex]);
+            for (int i = from; i < to; i++) {
+                action.accept(biopsyResult, glomerulusData.get(i));
+            }
+            mIndex = mOffsets[biopsyIndex] + to;
+        }
+    }
+
+    @Override
+    public CohortSpliterator trySplit() {
+        final long middle = (mIndex + mFence) >>> 1;
+        if (middle <= mIndex) {
+            return null;
+        }
+
+        CohortSpliterator prefix = new CohortSpliterator(mBiopsyResults, mOffsets, mIndex, middle);
+        mIndex = middle;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return mFence - mIndex;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+
+    /**
+     * Finds the biopsy holding a glomerulus, skipping biopsies without glomeruli.
+     */
+    private int biopsyIndexOf(long index) {
+        int biopsyIndex = Arrays.binarySearch(mOffsets, index);
+        if (biopsyIndex < 0) {
+            return -biopsyIndex - 2;
+        }
+        // Several biopsies may start at the same glomerulus if some are empty, the last one holds it
+        while (mOffsets[biopsyIndex + 1] == index) {
+            biopsyIndex++;
+        }
+        return biopsyIndex;
+    }
+}
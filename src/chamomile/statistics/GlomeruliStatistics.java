@@ -0,0 +1,93 @@
+package chamomile.statistics;
+
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.PodocyteData;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Summary morphometrics of a set of glomeruli, e.g. those of an image or of a whole biopsy: the distribution of the
+ * glomeruli themselves, of all their podocytes and of the number of podocytes per glomerulus.
+ *
+ * Glomeruli don't retain statistics of their own podocytes, so the podocyte sketches are only kept here, at image or
+ * biopsy level. Partial statistics, e.g. of images parsed by different threads, combine with
+ * {@link #merge(GlomeruliStatistics)}.
+ *
+ * Instances are not thread safe.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class GlomeruliStatistics {
+    private final MorphometryStatistics mGlomerulusStatistics = new MorphometryStatistics();
+    private final MorphometryStatistics mPodocyteStatistics = new MorphometryStatistics();
+    private final RunningStatistics mPodocytesPerGlomerulus = new RunningStatistics();
+
+    /**
+     * Adds a glomerulus.
+     * @param glomerulusData glomerulus with its podocytes data set.
+     */
+    public void add(GlomerulusData glomerulusData) {
+        Preconditions.checkNotNull(glomerulusData);
+        mGlomerulusStatistics.add(glomerulusData.getGeometryInfo().getArea(),
+                glomerulusData.getGeometryInfo().getFeret());
+        for (PodocyteData podocyteData : glomerulusData.getPodocytesData()) {
+            mPodocyteStatistics.add(podocyteData.getGeometryInfo().getArea(),
+                    podocyteData.getGeometryInfo().getFeret());
+        }
+        mPodocytesPerGlomerulus.add(glomerulusData.getPodocytesData().size());
+    }
+
+    /**
+     * Returns a copy of the given statistics, which can be modified without affecting them.
+     * @param statistics statistics to be copied.
+     * @return a new instance with the same glomeruli.
+     */
+    public static GlomeruliStatistics copyOf(GlomeruliStatistics statistics) {
+        GlomeruliStatistics copy = new GlomeruliStatistics();
+        copy.merge(statistics);
+        return copy;
+    }
+
+    /**
+     * Adds all the glomeruli accumulated by another instance.
+     * @param other statistics to be merged into this one, left untouched.
+     */
+    public void merge(GlomeruliStatistics other) {
+        Preconditions.checkNotNull(other);
+        mGlomerulusStatistics.merge(other.mGlomerulusStatistics);
+        mPodocyteStatistics.merge(other.mPodocyteStatistics);
+        mPodocytesPerGlomerulus.merge(other.mPodocytesPerGlomerulus);
+    }
+
+    /**
+     * Returns the area and feret distribution of the glomeruli.
+     * @return glomerulus statistics
+     */
+    public MorphometryStatistics getGlomerulusStatistics() {
+        return mGlomerulusStatistics;
+    }
+
+    /**
+     * Returns the area and feret distribution of all the podocytes of the glomeruli.
+     * @return podocyte statistics
+     */
+    public MorphometryStatistics getPodocyteStatistics() {
+        return mPodocyteStatistics;
+    }
+
+    /**
+     * Returns the distribution of the number of podocytes per glomerulus.
+     * @return podocyte count statistics
+     */
+    public RunningStatistics getPodocytesPerGlomerulus() {
+        return mPodocytesPerGlomerulus;
+    }
+
+    public String toString() {
+        return MoreObjects.toStringHelper(GlomeruliStatistics.class)
+                .add("glomeruli", mGlomerulusStatistics)
+                .add("podocytes", mPodocyteStatistics)
+                .add("podocytesPerGlomerulus", mPodocytesPerGlomerulus)
+                .toString();
+    }
+}
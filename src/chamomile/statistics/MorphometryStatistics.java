@@ -0,0 +1,85 @@
+package chamomile.statistics;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Summary morphometrics of a population of anatomic structures: moments and quantiles of their area and feret
+ * diameter, accumulated in a single pass.
+ *
+ * Instances are not thread safe.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class MorphometryStatistics {
+    private final RunningStatistics mAreaStatistics = new RunningStatistics();
+    private final RunningStatistics mFeretStatistics = new RunningStatistics();
+    private final QuantileSketch mAreaSketch = new QuantileSketch();
+    private final QuantileSketch mFeretSketch = new QuantileSketch();
+
+    /**
+     * Adds the measurements of a structure.
+     * @param area area > 0
+     * @param feret feret > 0
+     */
+    public void add(double area, double feret) {
+        mAreaStatistics.add(area);
+        mFeretStatistics.add(feret);
+        mAreaSketch.add(area);
+        mFeretSketch.add(feret);
+    }
+
+    /**
+     * Adds all the structures accumulated by another instance.
+     * @param other statistics to be merged into this one, left untouched.
+     */
+    public void merge(MorphometryStatistics other) {
+        Preconditions.checkNotNull(other);
+        mAreaStatistics.merge(other.mAreaStatistics);
+        mFeretStatistics.merge(other.mFeretStatistics);
+        mAreaSketch.merge(other.mAreaSketch);
+        mFeretSketch.merge(other.mFeretSketch);
+    }
+
+    /**
+     * Returns the number of structures.
+     * @return long structure count.
+     */
+    public long getCount() {
+        return mAreaStatistics.getCount();
+    }
+
+    public RunningStatistics getAreaStatistics() {
+        return mAreaStatistics;
+    }
+
+    public RunningStatistics getFeretStatistics() {
+        return mFeretStatistics;
+    }
+
+    /**
+     * Estimates a quantile of the area, within {@link QuantileSketch#DEFAULT_RELATIVE_ACCURACY}.
+     * @param quantile quantile between 0 and 1.
+     * @return double estimated quantile, {@code NaN} if there are no structures.
+     */
+    public double getAreaQuantile(double quantile) {
+        return mAreaSketch.getQuantile(quantile);
+    }
+
+    /**
+     * Estimates a quantile of the feret diameter, within {@link QuantileSketch#DEFAULT_RELATIVE_ACCURACY}.
+     * @param quantile quantile between 0 and 1.
+     * @return double estimated quantile, {@code NaN} if there are no structures.
+     */
+    public double getFeretQuantile(double quantile) {
+        return mFeretSketch.getQuantile(quantile);
+    }
+
+    public String toString() {
+        return MoreObjects.toStringHelper(MorphometryStatistics.class)
+                .add("count", getCount())
+                .add("area", mAreaStatistics)
+                .add("feret", mFeretStatistics)
+                .toString();
+    }
+}
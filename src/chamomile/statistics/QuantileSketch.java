@@ -0,0 +1,145 @@
+package chamomile.statistics;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable sketch that estimates quantiles of a stream of positive values with a bounded relative error.
+ *
+ * Values are counted in logarithmic buckets, bucket {@code i} holding the values in
+ * {@code (gamma^(i-1), gamma^i]} with {@code gamma = (1 + accuracy) / (1 - accuracy)}. Any quantile is therefore
+ * estimated within the relative accuracy of the true value, and sketches with the same accuracy merge exactly.
+ *
+ * Only non-empty buckets are stored, sorted by index, so a sketch of a handful of values stays small while the size
+ * of a sketch of any number of values is bounded by the dynamic range of the values.
+ *
+ * Instances are not thread safe.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class QuantileSketch {
+
+    /**
+     * Default relative accuracy of the estimated quantiles ({@value}).
+     */
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final double mRelativeAccuracy;
+    private final double mGamma;
+    private final double mLogGamma;
+    private int[] mBucketIndexes = new int[INITIAL_CAPACITY];
+    private long[] mBucketCounts = new long[INITIAL_CAPACITY];
+    private int mBucketCount;
+    private long mCount;
+    private double mMin = Double.POSITIVE_INFINITY;
+    private double mMax = Double.NEGATIVE_INFINITY;
+
+    public QuantileSketch() {
+        this(DEFAULT_RELATIVE_ACCURACY);
+    }
+
+    /**
+     * Creates an empty sketch.
+     * @param relativeAccuracy relative accuracy of the estimated quantiles, between 0 and 1 exclusive.
+     */
+    public QuantileSketch(double relativeAccuracy) {
+        Preconditions.checkArgument(relativeAccuracy > 0 && relativeAccuracy < 1);
+        mRelativeAccuracy = relativeAccuracy;
+        mGamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        mLogGamma = Math.log(mGamma);
+    }
+
+    /**
+     * Adds a value.
+     * @param value value > 0
+     */
+    public void add(double value) {
+        Preconditions.checkArgument(value > 0 && value < Double.POSITIVE_INFINITY, "Value must be positive");
+        addToBucket((int) Math.ceil(Math.log(value) / mLogGamma), 1);
+        mCount++;
+        mMin = Math.min(mMin, value);
+        mMax = Math.max(mMax, value);
+    }
+
+    /**
+     * Adds all the values counted by another sketch.
+     * @param other sketch with the same relative accuracy, left untouched.
+     */
+    public void merge(QuantileSketch other) {
+        Preconditions.checkNotNull(other);
+        Preconditions.checkArgument(other.mRelativeAccuracy == mRelativeAccuracy,
+                "Sketches with different accuracy can't be merged");
+
+        for (int i = 0; i < other.mBucketCount; i++) {
+            addToBucket(other.mBucketIndexes[i], other.mBucketCounts[i]);
+        }
+        mCount += other.mCount;
+        mMin = Math.min(mMin, other.mMin);
+        mMax = Math.max(mMax, other.mMax);
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public double getRelativeAccuracy() {
+        return mRelativeAccuracy;
+    }
+
+    /**
+     * Estimates a quantile of the values.
+     * @param quantile quantile between 0 and 1, e.g. 0.5 for the median.
+     * @return double estimated quantile, {@code NaN} if there are no values.
+     */
+    public double getQuantile(double quantile) {
+        Preconditions.checkArgument(quantile >= 0 && quantile <= 1);
+        if (mCount == 0) {
+            return Double.NaN;
+        }
+
+        final long rank = (long) (quantile * (mCount - 1));
+        long cumulativeCount = 0;
+        int i = 0;
+        while (i < mBucketCount - 1) {
+            cumulativeCount += mBucketCounts[i];
+            if (cumulativeCount > rank) {
+                break;
+            }
+            i++;
+        }
+
+        final double estimate = 2 * Math.pow(mGamma, mBucketIndexes[i]) / (mGamma + 1);
+        return Math.max(mMin, Math.min(mMax, estimate));
+    }
+
+    private void addToBucket(int bucketIndex, long count) {
+        int position = Arrays.binarySearch(mBucketIndexes, 0, mBucketCount, bucketIndex);
+        if (position >= 0) {
+            mBucketCounts[position] += count;
+            return;
+        }
+
+        position = -position - 1;
+        if (mBucketCount == mBucketIndexes.length) {
+            mBucketIndexes = Arrays.copyOf(mBucketIndexes, mBucketCount * 2);
+            mBucketCounts = Arrays.copyOf(mBucketCounts, mBucketCount * 2);
+        }
+        System.arraycopy(mBucketIndexes, position, mBucketIndexes, position + 1, mBucketCount - position);
+        System.arraycopy(mBucketCounts, position, mBucketCounts, position + 1, mBucketCount - position);
+        mBucketIndexes[position] = bucketIndex;
+        mBucketCounts[position] = count;
+        mBucketCount++;
+    }
+
+    public String toString() {
+        return MoreObjects.toStringHelper(QuantileSketch.class)
+                .add("count", mCount)
+                .add("relativeAccuracy", mRelativeAccuracy)
+                .add("median", getQuantile(0.5))
+                .toString();
+    }
+}
@@ -0,0 +1,117 @@
+package chamomile.statistics;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Count, mean, variance, minimum and maximum of a stream of values, computed in a single pass with Welford's
+ * algorithm.
+ *
+ * Statistics accumulated separately, e.g. by different threads, can be combined with {@link #merge(RunningStatistics)}
+ * and give the same result as if all the values had been added to a single instance, up to rounding.
+ *
+ * Instances are not thread safe.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class RunningStatistics {
+    private long mCount;
+    private double mMean;
+    private double mSumOfSquaredDeviations;
+    private double mMin = Double.POSITIVE_INFINITY;
+    private double mMax = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Adds a value.
+     * @param value value to be added.
+     */
+    public void add(double value) {
+        mCount++;
+        final double delta = value - mMean;
+        mMean += delta / mCount;
+        mSumOfSquaredDeviations += delta * (value - mMean);
+        mMin = Math.min(mMin, value);
+        mMax = Math.max(mMax, value);
+    }
+
+    /**
+     * Adds all the values accumulated by another instance.
+     * @param other statistics to be merged into this one, left untouched.
+     */
+    public void merge(RunningStatistics other) {
+        Preconditions.checkNotNull(other);
+        if (other.mCount == 0) {
+            return;
+        }
+        if (mCount == 0) {
+            mCount = other.mCount;
+            mMean = other.mMean;
+            mSumOfSquaredDeviations = other.mSumOfSquaredDeviations;
+            mMin = other.mMin;
+            mMax = other.mMax;
+            return;
+        }
+
+        final long count = mCount + other.mCount;
+        final double delta = other.mMean - mMean;
+        mMean += delta * other.mCount / count;
+        mSumOfSquaredDeviations += other.mSumOfSquaredDeviations + delta * delta * mCount * other.mCount / count;
+        mCount = count;
+        mMin = Math.min(mMin, other.mMin);
+        mMax = Math.max(mMax, other.mMax);
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the mean of the values.
+     * @return double mean, {@code NaN} if there are no values.
+     */
+    public double getMean() {
+        return mCount > 0 ? mMean : Double.NaN;
+    }
+
+    /**
+     * Returns the sample variance of the values.
+     * @return double sample variance, {@code NaN} if there are less than two values.
+     */
+    public double getVariance() {
+        return mCount > 1 ? mSumOfSquaredDeviations / (mCount - 1) : Double.NaN;
+    }
+
+    /**
+     * Returns the sample standard deviation of the values.
+     * @return double standard deviation, {@code NaN} if there are less than two values.
+     */
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * Returns the smallest value.
+     * @return double minimum, {@code NaN} if there are no values.
+     */
+    public double getMin() {
+        return mCount > 0 ? mMin : Double.NaN;
+    }
+
+    /**
+     * Returns the largest value.
+     * @return double maximum, {@code NaN} if there are no values.
+     */
+    public double getMax() {
+        return mCount > 0 ? mMax : Double.NaN;
+    }
+
+    public String toString() {
+        return MoreObjects.toStringHelper(RunningStatistics.class)
+                .add("count", mCount)
+                .add("mean", getMean())
+                .add("standardDeviation", getStandardDeviation())
+                .add("min", getMin())
+                .add("max", getMax())
+                .toString();
+    }
+}
@@ -1,33 +1,196 @@
-package chamomile.structures;
-
-import com.google.common.base.MoreObjects;
-import com.google.common.collect.ImmutableList;
-
-import java.util.List;
-
-/**
- * Represents all glomerulus and podocyte data for a given biopsy.
- */
-public class BiopsyResult {
-    private final String mId;
-    private ImmutableList<GlomerulusData> mGlomerulusData;
-
-    public BiopsyResult(String id) {
-        mId = id;
-    }
-
-    public String getId() {
-        return mId;
-    }
-
-    public void setGlomerulusData(List<GlomerulusData> glomerulusData) {
-        mGlomerulusData = ImmutableList.copyOf(glomerulusData);
-    }
-
-    public String toString() {
-        return MoreObjects.toStringHelper(GeometryInfo.class)
-                .add("id", mId)
-                .add("glomerulusCount", mGlomerulusData.size())
-                .toString();
-    }
-}
+package chamomile.structures;
+
+import chamomile.statistics.GlomeruliStatistics;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Represents all glomerulus and podocyte data for a given biopsy.
+ */
+public class BiopsyResult {
+    private final String mId;
+    private ImmutableList<GlomerulusData> mGlomerulusData;
+    private ImmutableSortedMap<Integer, GlomeruliStatistics> mImageStatistics;
+    private GlomeruliStatistics mStatistics;
+    private ImmutableList<IngestionError> mErrors = ImmutableList.of();
+
+    public BiopsyResult(String id) {
+        mId = id;
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    /**
+     * Returns the data of all glomeruli found in the biopsy, sorted by image id.
+     * @return a {@code non-null} list of glomerulus data.
+     */
+    public ImmutableList<GlomerulusData> getGlomerulusData() {
+        return mGlomerulusData;
+    }
+
+    public synchronized void setGlomerulusData(List<GlomerulusData> glomerulusData) {
+        mGlomerulusData = ImmutableList.copyOf(glomerulusData);
+        mImageStatistics = null;
+        mStatistics = null;
+    }
+
+    /**
+     * Sets the statistics of every image, accumulated while the glomeruli were parsed. If they're not set they're
+     * computed from the glomerulus data on first access.
+     * @param imageStatistics statistics of the glomeruli of every image, by image id.
+     */
+    public synchronized void setImageStatistics(Map<Integer, GlomeruliStatistics> imageStatistics) {
+        mImageStatistics = ImmutableSortedMap.copyOf(imageStatistics);
+        mStatistics = null;
+    }
+
+    /**
+     * Returns the statistics of the glomeruli of every image. They are copies, modifying them doesn't affect this
+     * result.
+     * @return image statistics by image id.
+     */
+    public ImmutableSortedMap<Integer, GlomeruliStatistics> getImageStatistics() {
+        ImmutableSortedMap.Builder<Integer, GlomeruliStatistics> copies = ImmutableSortedMap.naturalOrder();
+        for (Map.Entry<Integer, GlomeruliStatistics> entry : imageStatistics().entrySet()) {
+            copies.put(entry.getKey(), GlomeruliStatistics.copyOf(entry.getValue()));
+        }
+        return copies.build();
+    }
+
+    /**
+     * Returns the statistics of all the glomeruli of the biopsy, merged from the statistics of every image. It's a
+     * copy, modifying it doesn't affect this result.
+     * @return biopsy statistics
+     */
+    public synchronized GlomeruliStatistics getStatistics() {
+        if (mStatistics == null) {
+            GlomeruliStatistics statistics = new GlomeruliStatistics();
+            for (GlomeruliStatistics imageStatistics : imageStatistics().values()) {
+                statistics.merge(imageStatistics);
+            }
+            mStatistics = statistics;
+        }
+        return GlomeruliStatistics.copyOf(mStatistics);
+    }
+
+    /**
+     * Returns the statistics of the glomeruli of every image held by this result, computed from the glomerulus data
+     * on first access if they weren't set.
+     * @return image statistics by image id, not to be handed out.
+     */
+    protected synchronized ImmutableSortedMap<Integer, GlomeruliStatistics> imageStatistics() {
+        if (mImageStatistics == null) {
+            Map<Integer, GlomeruliStatistics> imageStatistics = new TreeMap<>();
+            for (GlomerulusData glomerulusData : mGlomerulusData) {
+                imageStatistics.computeIfAbsent(glomerulusData.getImageId(),
+                        (Integer imageId) -> new GlomeruliStatistics()).add(glomerulusData);
+            }
+            mImageStatistics = ImmutableSortedMap.copyOf(imageStatistics);
+        }
+        return mImageStatistics;
+    }
+
+    /**
+     * Returns the diagnostics of the files and glomeruli left out of this result because they were not valid. Always
+     * empty unless the biopsy was ingested in lenient mode.
+     * @return a {@code non-null} list of errors, sorted by file.
+     */
+    public ImmutableList<IngestionError> getErrors() {
+        return mErrors;
+    }
+
+    public void setErrors(List<IngestionError> errors) {
+        mErrors = ImmutableList.copyOf(errors);
+    }
+
+    public boolean hasErrors() {
+        return !mErrors.isEmpty();
+    }
+
+    /**
+     * Returns an unmodifiable view of a biopsy result, whose setters throw {@link UnsupportedOperationException}, to
+     * share a result with callers that must not change it.
+     * @param biopsyResult biopsy result to be viewed.
+     * @return unmodifiable view, or the given result if it's already one.
+     */
+    public static BiopsyResult unmodifiableView(BiopsyResult biopsyResult) {
+        Preconditions.checkNotNull(biopsyResult);
+        return biopsyResult instanceof UnmodifiableBiopsyResult
+                ? biopsyResult : new UnmodifiableBiopsyResult(biopsyResult);
+    }
+
+    /**
+     * Returns the columnar representation of this biopsy result.
+     * @return columnar data holding the same measurements.
+     *
+     * @see ColumnarBiopsyData
+     */
+    public ColumnarBiopsyData toColumnar() {
+        return ColumnarBiopsyData.of(this);
+    }
+
+    public String toString() {
+        return MoreObjects.toStringHelper(GeometryInfo.class)
+                .add("id", mId)
+                .add("glomerulusCount", mGlomerulusData.size())
+                .add("errorCount", mErrors.size())
+                .toString();
+    }
+
+    private static final class UnmodifiableBiopsyResult extends BiopsyResult {
+        private final BiopsyResult mDelegate;
+
+        private UnmodifiableBiopsyResult(BiopsyResult delegate) {
+            super(delegate.getId());
+            mDelegate = delegate;
+        }
+
+        @Override
+        public ImmutableList<GlomerulusData> getGlomerulusData() {
+            return mDelegate.getGlomerulusData();
+        }
+
+        @Override
+        public void setGlomerulusData(List<GlomerulusData> glomerulusData) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setImageStatistics(Map<Integer, GlomeruliStatistics> imageStatistics) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected ImmutableSortedMap<Integer, GlomeruliStatistics> imageStatistics() {
+            return mDelegate.imageStatistics();
+        }
+
+        @Override
+        public ImmutableList<IngestionError> getErrors() {
+            return mDelegate.getErrors();
+        }
+
+        @Override
+        public void setErrors(List<IngestionError> errors) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean hasErrors() {
+            return mDelegate.hasErrors();
+        }
+
+        @Override
+        public String toString() {
+            return mDelegate.toString();
+        }
+    }
+}
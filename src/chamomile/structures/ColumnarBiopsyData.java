@@ -0,0 +1,437 @@
+package chamomile.structures;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Column oriented representation of all glomerulus and podocyte data of a biopsy.
+ *
+ * Measurements are kept in primitive arrays instead of one {@link GlomerulusData}, {@link PodocyteData} and
+ * {@link GeometryInfo} object per measurement. The podocytes of glomerulus {@code i} are stored at indexes
+ * {@code getFirstPodocyteIndex(i)} to {@code getFirstPodocyteIndex(i + 1) - 1} of the podocyte columns.
+ *
+ * Instances are immutable and are created either from a {@link BiopsyResult} or with a {@link Builder}, which can be
+ * fed while the files are parsed so that the object model of the biopsy is never built, see
+ * {@code chamomile.io.BiopsyDataProcessor#parseColumnarBiopsy}.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class ColumnarBiopsyData {
+    private final String mId;
+    private final int mGlomerulusCount;
+    private final int[] mImageIds;
+    private final int[] mGlomerulusNumbers;
+    private final double[] mGlomerulusAreas;
+    private final double[] mGlomerulusFerets;
+    private final double[] mGlomerulusFeretXs;
+    private final double[] mGlomerulusFeretYs;
+    private final int[] mPodocyteOffsets;
+    private final double[] mPodocyteAreas;
+    private final double[] mPodocyteFerets;
+    private final double[] mPodocyteFeretXs;
+    private final double[] mPodocyteFeretYs;
+    private final ImmutableList<IngestionError> mErrors;
+
+    private ColumnarBiopsyData(Builder builder) {
+        final int glomerulusCount = builder.mGlomerulusCount;
+        final int podocyteCount = builder.mPodocyteCount;
+
+        mId = builder.mId;
+        mGlomerulusCount = glomerulusCount;
+        mImageIds = Arrays.copyOf(builder.mImageIds, glomerulusCount);
+        mGlomerulusNumbers = Arrays.copyOf(builder.mGlomerulusNumbers, glomerulusCount);
+        mGlomerulusAreas = Arrays.copyOf(builder.mGlomerulusAreas, glomerulusCount);
+        mGlomerulusFerets = Arrays.copyOf(builder.mGlomerulusFerets, glomerulusCount);
+        mGlomerulusFeretXs = Arrays.copyOf(builder.mGlomerulusFeretXs, glomerulusCount);
+        mGlomerulusFeretYs = Arrays.copyOf(builder.mGlomerulusFeretYs, glomerulusCount);
+        mPodocyteOffsets = Arrays.copyOf(builder.mPodocyteOffsets, glomerulusCount + 1);
+        mPodocyteOffsets[glomerulusCount] = podocyteCount;
+        mPodocyteAreas = Arrays.copyOf(builder.mPodocyteAreas, podocyteCount);
+        mPodocyteFerets = Arrays.copyOf(builder.mPodocyteFerets, podocyteCount);
+        mPodocyteFeretXs = Arrays.copyOf(builder.mPodocyteFeretXs, podocyteCount);
+        mPodocyteFeretYs = Arrays.copyOf(builder.mPodocyteFeretYs, podocyteCount);
+        mErrors = builder.mErrors;
+    }
+
+    /**
+     * Creates the columnar representation of a biopsy result.
+     * @param biopsyResult biopsy result with its glomerulus data set.
+     * @return columnar data with the same glomeruli and podocytes, in the same order.
+     */
+    public static ColumnarBiopsyData of(BiopsyResult biopsyResult) {
+        Preconditions.checkNotNull(biopsyResult);
+        List<GlomerulusData> glomerulusData = Preconditions.checkNotNull(biopsyResult.getGlomerulusData());
+
+        Builder builder = new Builder(biopsyResult.getId());
+        for (GlomerulusData glomerulus : glomerulusData) {
+            builder.addGlomerulus(glomerulus);
+        }
+        builder.setErrors(biopsyResult.getErrors());
+
+        return builder.build();
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    public int getGlomerulusCount() {
+        return mGlomerulusCount;
+    }
+
+    /**
+     * Returns the number of podocytes of all glomeruli.
+     * @return int total podocyte count.
+     */
+    public int getTotalPodocyteCount() {
+        return mPodocyteOffsets[mGlomerulusCount];
+    }
+
+    public int getImageId(int glomerulusIndex) {
+        Preconditions.checkElementIndex(glomerulusIndex, mGlomerulusCount);
+        return mImageIds[glomerulusIndex];
+    }
+
+    public int getGlomerulusNumber(int glomerulusIndex) {
+        Preconditions.checkElementIndex(glomerulusIndex, mGlomerulusCount);
+        return mGlomerulusNumbers[glomerulusIndex];
+    }
+
+    public double getGlomerulusArea(int glomerulusIndex) {
+        Preconditions.checkElementIndex(glomerulusIndex, mGlomerulusCount);
+        return mGlomerulusAreas[glomerulusIndex];
+    }
+
+    public double getGlomerulusFeret(int glomerulusIndex) {
+        Preconditions.checkElementIndex(glomerulusIndex, mGlomerulusCount);
+        return mGlomerulusFerets[glomerulusIndex];
+    }
+
+    public double getGlomerulusFeretX(int glomerulusIndex) {
+        Preconditions.checkElementIndex(glomerulusIndex, mGlomerulusCount);
+        return mGlomerulusFeretXs[glomerulusIndex];
+    }
+
+    public double getGlomerulusFeretY(int glomerulusIndex) {
+        Preconditions.checkElementIndex(glomerulusIndex, mGlomerulusCount);
+        return mGlomerulusFeretYs[glomerulusIndex];
+    }
+
+    /**
+     * Returns the index in the podocyte columns of the first podocyte of a glomerulus.
+     * @param glomerulusIndex index of the glomerulus, or {@link #getGlomerulusCount()} to get the end of the last
+     *                        glomerulus.
+     * @return int podocyte index.
+     */
+    public int getFirstPodocyteIndex(int glomerulusIndex) {
+        Preconditions.checkPositionIndex(glomerulusIndex, mGlomerulusCount);
+        return mPodocyteOffsets[glomerulusIndex];
+    }
+
+    public int getPodocyteCount(int glomerulusIndex) {
+        Preconditions.checkElementIndex(glomerulusIndex, mGlomerulusCount);
+        return mPodocyteOffsets[glomerulusIndex + 1] - mPodocyteOffsets[glomerulusIndex];
+    }
+
+    public double getPodocyteArea(int podocyteIndex) {
+        Preconditions.checkElementIndex(podocyteIndex, getTotalPodocyteCount());
+        return mPodocyteAreas[podocyteIndex];
+    }
+
+    public double getPodocyteFeret(int podocyteIndex) {
+        Preconditions.checkElementIndex(podocyteIndex, getTotalPodocyteCount());
+        return mPodocyteFerets[podocyteIndex];
+    }
+
+    public double getPodocyteFeretX(int podocyteIndex) {
+        Preconditions.checkElementIndex(podocyteIndex, getTotalPodocyteCount());
+        return mPodocyteFeretXs[podocyteIndex];
+    }
+
+    public double getPodocyteFeretY(int podocyteIndex) {
+        Preconditions.checkElementIndex(podocyteIndex, getTotalPodocyteCount());
+        return mPodocyteFeretYs[podocyteIndex];
+    }
+
+    /**
+     * Returns a view of a glomerulus backed by the columns.
+     * @param glomerulusIndex index of the glomerulus.
+     * @return glomerulus view
+     */
+    public GlomerulusView getGlomerulus(int glomerulusIndex) {
+        Preconditions.checkElementIndex(glomerulusIndex, mGlomerulusCount);
+        return new GlomerulusView(glomerulusIndex);
+    }
+
+    /**
+     * Returns the diagnostics of the files and glomeruli left out because they were not valid, see
+     * {@link BiopsyResult#getErrors()}.
+     * @return a {@code non-null} list of errors, sorted by file.
+     */
+    public ImmutableList<IngestionError> getErrors() {
+        return mErrors;
+    }
+
+    public boolean hasErrors() {
+        return !mErrors.isEmpty();
+    }
+
+    /**
+     * Returns a list view of the glomeruli. Every call to {@link List#get(int)} materializes a new
+     * {@link GlomerulusData}, which is not retained, so the list can be handed to code written against the object
+     * model without keeping the whole object graph in memory.
+     * @return an unmodifiable list of glomerulus data.
+     */
+    public List<GlomerulusData> asGlomerulusDataList() {
+        return new GlomerulusDataList();
+    }
+
+    public String toString() {
+        return MoreObjects.toStringHelper(ColumnarBiopsyData.class)
+                .add("id", mId)
+                .add("glomerulusCount", mGlomerulusCount)
+                .add("podocyteCount", getTotalPodocyteCount())
+                .add("errorCount", mErrors.size())
+                .toString();
+    }
+
+    /**
+     * Flyweight view of a glomerulus, offering the same getters as {@link GlomerulusData}.
+     */
+    public final class GlomerulusView {
+        private final int mIndex;
+
+        private GlomerulusView(int index) {
+            mIndex = index;
+        }
+
+        public int getImageId() {
+            return mImageIds[mIndex];
+        }
+
+        public int getNumber() {
+            return mGlomerulusNumbers[mIndex];
+        }
+
+        public double getArea() {
+            return mGlomerulusAreas[mIndex];
+        }
+
+        public double getFeret() {
+            return mGlomerulusFerets[mIndex];
+        }
+
+        public double getFeretX() {
+            return mGlomerulusFeretXs[mIndex];
+        }
+
+        public double getFeretY() {
+            return mGlomerulusFeretYs[mIndex];
+        }
+
+        /**
+         * Returns the geometric info of the glomerulus. A new object is created on every call, prefer
+         * {@link #getArea()} and {@link #getFeret()} on hot paths.
+         * @return geometric info
+         */
+        public GeometryInfo getGeometryInfo() {
+            return new GeometryInfo(getArea(), getFeret(), getFeretX(), getFeretY());
+        }
+
+        public int getPodocyteCount() {
+            return mPodocyteOffsets[mIndex + 1] - mPodocyteOffsets[mIndex];
+        }
+
+        /**
+         * Returns a view of one of the podocytes of the glomerulus.
+         * @param podocyteIndex index of the podocyte inside this glomerulus.
+         * @return podocyte view
+         */
+        public PodocyteView getPodocyte(int podocyteIndex) {
+            Preconditions.checkElementIndex(podocyteIndex, getPodocyteCount());
+            return new PodocyteView(mPodocyteOffsets[mIndex] + podocyteIndex);
+        }
+
+        /**
+         * Materializes this glomerulus as a {@link GlomerulusData}.
+         * @return a new glomerulus data object with its podocytes.
+         */
+        public GlomerulusData toGlomerulusData() {
+            final int podocyteCount = getPodocyteCount();
+            List<PodocyteData> podocytesData = new ArrayList<>(podocyteCount);
+            for (int i = 0; i < podocyteCount; i++) {
+                podocytesData.add(getPodocyte(i).toPodocyteData());
+            }
+
+            GlomerulusData glomerulusData = new GlomerulusData(getGeometryInfo(), getImageId(), getNumber());
+            glomerulusData.setPodocytesData(podocytesData);
+            return glomerulusData;
+        }
+    }
+
+    /**
+     * Flyweight view of a podocyte, offering the same getters as {@link PodocyteData}.
+     */
+    public final class PodocyteView {
+        private final int mIndex;
+
+        private PodocyteView(int index) {
+            mIndex = index;
+        }
+
+        public double getArea() {
+            return mPodocyteAreas[mIndex];
+        }
+
+        public double getFeret() {
+            return mPodocyteFerets[mIndex];
+        }
+
+        public double getFeretX() {
+            return mPodocyteFeretXs[mIndex];
+        }
+
+        public double getFeretY() {
+            return mPodocyteFeretYs[mIndex];
+        }
+
+        /**
+         * Returns the geometric info of the podocyte. A new object is created on every call, prefer
+         * {@link #getArea()} and {@link #getFeret()} on hot paths.
+         * @return geometric info
+         */
+        public GeometryInfo getGeometryInfo() {
+            return new GeometryInfo(getArea(), getFeret(), getFeretX(), getFeretY());
+        }
+
+        public PodocyteData toPodocyteData() {
+            return new PodocyteData(getGeometryInfo());
+        }
+    }
+
+    private final class GlomerulusDataList extends AbstractList<GlomerulusData> implements RandomAccess {
+        @Override
+        public GlomerulusData get(int index) {
+            return getGlomerulus(index).toGlomerulusData();
+        }
+
+        @Override
+        public int size() {
+            return mGlomerulusCount;
+        }
+    }
+
+    /**
+     * Appends glomeruli and their podocytes to growing columns.
+     *
+     * Podocytes added with {@link #addPodocyte(double, double, double, double)} belong to the last glomerulus added.
+     * The feret coordinates of structures added without them are {@code NaN}.
+     */
+    public static final class Builder {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private final String mId;
+        private int mGlomerulusCount;
+        private int mPodocyteCount;
+        private int[] mImageIds = new int[INITIAL_CAPACITY];
+        private int[] mGlomerulusNumbers = new int[INITIAL_CAPACITY];
+        private double[] mGlomerulusAreas = new double[INITIAL_CAPACITY];
+        private double[] mGlomerulusFerets = new double[INITIAL_CAPACITY];
+        private double[] mGlomerulusFeretXs = new double[INITIAL_CAPACITY];
+        private double[] mGlomerulusFeretYs = new double[INITIAL_CAPACITY];
+        private int[] mPodocyteOffsets = new int[INITIAL_CAPACITY + 1];
+        private double[] mPodocyteAreas = new double[INITIAL_CAPACITY];
+        private double[] mPodocyteFerets = new double[INITIAL_CAPACITY];
+        private double[] mPodocyteFeretXs = new double[INITIAL_CAPACITY];
+        private double[] mPodocyteFeretYs = new double[INITIAL_CAPACITY];
+        private ImmutableList<IngestionError> mErrors = ImmutableList.of();
+
+        public Builder(String id) {
+            mId = id;
+        }
+
+        /**
+         * Adds a glomerulus followed by all its podocytes. The glomerulus isn't retained.
+         * @param glomerulusData glomerulus with its podocytes data set.
+         * @return this builder
+         */
+        public Builder addGlomerulus(GlomerulusData glomerulusData) {
+            GeometryInfo geometryInfo = glomerulusData.getGeometryInfo();
+            addGlomerulus(glomerulusData.getImageId(), glomerulusData.getNumber(), geometryInfo.getArea(),
+                    geometryInfo.getFeret(), geometryInfo.getFeretX(), geometryInfo.getFeretY());
+            for (PodocyteData podocyte : glomerulusData.getPodocytesData()) {
+                geometryInfo = podocyte.getGeometryInfo();
+                addPodocyte(geometryInfo.getArea(), geometryInfo.getFeret(), geometryInfo.getFeretX(),
+                        geometryInfo.getFeretY());
+            }
+            return this;
+        }
+
+        public Builder addGlomerulus(int imageId, int number, double area, double feret) {
+            return addGlomerulus(imageId, number, area, feret, Double.NaN, Double.NaN);
+        }
+
+        public Builder addGlomerulus(int imageId, int number, double area, double feret, double feretX,
+                                     double feretY) {
+            if (mGlomerulusCount == mImageIds.length) {
+                final int capacity = mImageIds.length * 2;
+                mImageIds = Arrays.copyOf(mImageIds, capacity);
+                mGlomerulusNumbers = Arrays.copyOf(mGlomerulusNumbers, capacity);
+                mGlomerulusAreas = Arrays.copyOf(mGlomerulusAreas, capacity);
+                mGlomerulusFerets = Arrays.copyOf(mGlomerulusFerets, capacity);
+                mGlomerulusFeretXs = Arrays.copyOf(mGlomerulusFeretXs, capacity);
+                mGlomerulusFeretYs = Arrays.copyOf(mGlomerulusFeretYs, capacity);
+                mPodocyteOffsets = Arrays.copyOf(mPodocyteOffsets, capacity + 1);
+            }
+
+            mImageIds[mGlomerulusCount] = imageId;
+            mGlomerulusNumbers[mGlomerulusCount] = number;
+            mGlomerulusAreas[mGlomerulusCount] = area;
+            mGlomerulusFerets[mGlomerulusCount] = feret;
+            mGlomerulusFeretXs[mGlomerulusCount] = feretX;
+            mGlomerulusFeretYs[mGlomerulusCount] = feretY;
+            mPodocyteOffsets[mGlomerulusCount] = mPodocyteCount;
+            mGlomerulusCount++;
+            return this;
+        }
+
+        public Builder addPodocyte(double area, double feret) {
+            return addPodocyte(area, feret, Double.NaN, Double.NaN);
+        }
+
+        public Builder addPodocyte(double area, double feret, double feretX, double feretY) {
+            Preconditions.checkState(mGlomerulusCount > 0, "Podocyte added before any glomerulus");
+
+            if (mPodocyteCount == mPodocyteAreas.length) {
+                final int capacity = mPodocyteAreas.length * 2;
+                mPodocyteAreas = Arrays.copyOf(mPodocyteAreas, capacity);
+                mPodocyteFerets = Arrays.copyOf(mPodocyteFerets, capacity);
+                mPodocyteFeretXs = Arrays.copyOf(mPodocyteFeretXs, capacity);
+                mPodocyteFeretYs = Arrays.copyOf(mPodocyteFeretYs, capacity);
+            }
+
+            mPodocyteAreas[mPodocyteCount] = area;
+            mPodocyteFerets[mPodocyteCount] = feret;
+            mPodocyteFeretXs[mPodocyteCount] = feretX;
+            mPodocyteFeretYs[mPodocyteCount] = feretY;
+            mPodocyteCount++;
+            return this;
+        }
+
+        public Builder setErrors(List<IngestionError> errors) {
+            mErrors = ImmutableList.copyOf(errors);
+            return this;
+        }
+
+        public ColumnarBiopsyData build() {
+            return new ColumnarBiopsyData(this);
+        }
+    }
+}
@@ -1,49 +1,90 @@
-package chamomile.structures;
-
-import com.google.common.base.MoreObjects;
-import com.google.common.base.Preconditions;
-
-/**
- * Represents geometric info of an anatomic structure.
- *
- * @author Gomez-Avila, Rodrigo
- */
-public final class GeometryInfo {
-    private final double mArea;
-    private final double mFeret;
-
-    /**
-     * Creates a new geometric info.
-     * @param area area > 0
-     * @param feret feret > 0
-     */
-    public GeometryInfo(double area, double feret) {
-        Preconditions.checkArgument(area > 0, "Area must be greater than zero");
-        Preconditions.checkArgument(feret > 0, "Feret must be greater than zero");
-        mArea = area;
-        mFeret = feret;
-    }
-
-    /**
-     * Returns the area of the anatomic structure.
-     * @return int area of the anatomic structure.
-     */
-    public double getArea() {
-        return mArea;
-    }
-
-    /**
-     * REturns the feret diameter of the anatomic structure.
-     * @return int feret diameter of the anatomic structure.
-     */
-    public double getFeret() {
-        return mFeret;
-    }
-
-    public String toString() {
-        return MoreObjects.toStringHelper(GeometryInfo.class)
-                .add("area", mArea)
-                .add("feret", mFeret)
-                .toString();
-    }
-}
+package chamomile.structures;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Represents geometric info of an anatomic structure.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class GeometryInfo {
+    private final double mArea;
+    private final double mFeret;
+    private final double mFeretX;
+    private final double mFeretY;
+
+    /**
+     * Creates a new geometric info without position.
+     * @param area area > 0
+     * @param feret feret > 0
+     */
+    public GeometryInfo(double area, double feret) {
+        this(area, feret, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * Creates a new geometric info.
+     * @param area area > 0
+     * @param feret feret > 0
+     * @param feretX x coordinate of the starting point of the feret diameter, {@code NaN} if unknown.
+     * @param feretY y coordinate of the starting point of the feret diameter, {@code NaN} if unknown.
+     */
+    public GeometryInfo(double area, double feret, double feretX, double feretY) {
+        Preconditions.checkArgument(area > 0, "Area must be greater than zero");
+        Preconditions.checkArgument(feret > 0, "Feret must be greater than zero");
+        mArea = area;
+        mFeret = feret;
+        mFeretX = feretX;
+        mFeretY = feretY;
+    }
+
+    /**
+     * Returns the area of the anatomic structure.
+     * @return int area of the anatomic structure.
+     */
+    public double getArea() {
+        return mArea;
+    }
+
+    /**
+     * REturns the feret diameter of the anatomic structure.
+     * @return int feret diameter of the anatomic structure.
+     */
+    public double getFeret() {
+        return mFeret;
+    }
+
+    /**
+     * Returns the x coordinate of the starting point of the feret diameter, which locates the structure in the image.
+     * @return double x coordinate, {@code NaN} if unknown.
+     */
+    public double getFeretX() {
+        return mFeretX;
+    }
+
+    /**
+     * Returns the y coordinate of the starting point of the feret diameter, which locates the structure in the image.
+     * @return double y coordinate, {@code NaN} if unknown.
+     */
+    public double getFeretY() {
+        return mFeretY;
+    }
+
+    /**
+     * Returns whether the position of the structure is known.
+     * @return {@code true} if both feret coordinates are known.
+     */
+    public boolean hasPosition() {
+        return !Double.isNaN(mFeretX) && !Double.isNaN(mFeretY);
+    }
+
+    public String toString() {
+        return MoreObjects.toStringHelper(GeometryInfo.class)
+                .add("area", mArea)
+                .add("feret", mFeret)
+                .add("feretX", mFeretX)
+                .add("feretY", mFeretY)
+                .toString();
+    }
+}
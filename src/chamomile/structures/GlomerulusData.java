@@ -1,81 +1,154 @@
-package chamomile.structures;
-
-import com.google.common.base.MoreObjects;
-import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
-
-import java.util.List;
-
-/**
- * Represents data for a single glomerulus.
- *
- * @author Gomez-Avila, Rodrigo
- */
-public final class GlomerulusData extends AnatomicStructure {
-    private ImmutableList<PodocyteData> mPodocytesData;
-    private final int mImageId;
-    private final int mNumber;
-
-    /**
-     * Minimum valid area of a glomerulus in µm (@value).
-     */
-    public static final double MIN_GLOMERULOUS_AREA = 4000.0;
-
-    /**
-     * Maximum valid area of a glomerulus in µm (@value).
-     */
-    public static final double MAX_GLOMERULOUS_AREA = 15000.0;
-
-    /**
-     * Create a data object for a renal glomerulus.
-     * @param geometryInfo
-     * @param imageId
-     * @param number
-     */
-    public GlomerulusData(GeometryInfo geometryInfo, int imageId, int number) {
-        super(geometryInfo);
-        mImageId = imageId;
-        mNumber = number;
-    }
-
-    /**
-     * Returns the podocytes data for this glomerulus.
-     * @return a {@code non-null} list of podocytes information.
-     */
-    public ImmutableList<PodocyteData> getPodocytesData() {
-        return mPodocytesData;
-    }
-
-    /**
-     * Sets the podoctyes data for this glomerulus.
-     * @param podocytesData
-     */
-    public void setPodocytesData(List<PodocyteData> podocytesData) {
-        Preconditions.checkNotNull(podocytesData);
-        mPodocytesData = ImmutableList.copyOf(podocytesData);
-    }
-
-    /**
-     * Returns the id of the image where this glomerulus was found.
-     * @return int image id
-     */
-    public int getImageId() {
-        return mImageId;
-    }
-
-    /**
-     * Returns the arbitrary number that was assigned to the glomerulus for counting purposes.
-     * @return int glomerulus number.
-     */
-    public int getNumber() {
-        return mNumber;
-    }
-
-    public String toString() {
-        return MoreObjects.toStringHelper(GlomerulusData.class)
-                .add("area", getGeometryInfo().getArea())
-                .add("feret", getGeometryInfo().getFeret())
-                .add("podocytesCount", mPodocytesData.size())
-                .toString();
-    }
-}
+package chamomile.structures;
+
+import chamomile.statistics.MorphometryStatistics;
+import chamomile.statistics.RunningStatistics;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Represents data for a single glomerulus.
+ *
+ * The area and feret moments of its podocytes are kept together with them, so they're available without walking the
+ * podocytes again. Quantiles need a sketch, which would cost far more than the moments for every glomerulus, so they
+ * are only computed on request, see {@link #getPodocyteStatistics()}.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class GlomerulusData extends AnatomicStructure {
+    private ImmutableList<PodocyteData> mPodocytesData;
+    private final int mImageId;
+    private final int mNumber;
+    private RunningStatistics mPodocyteAreaStatistics;
+    private RunningStatistics mPodocyteFeretStatistics;
+
+    /**
+     * Minimum valid area of a glomerulus in µm (@value).
+     */
+    public static final double MIN_GLOMERULOUS_AREA = 4000.0;
+
+    /**
+     * Maximum valid area of a glomerulus in µm (@value).
+     */
+    public static final double MAX_GLOMERULOUS_AREA = 15000.0;
+
+    /**
+     * Create a data object for a renal glomerulus.
+     * @param geometryInfo
+     * @param imageId
+     * @param number
+     */
+    public GlomerulusData(GeometryInfo geometryInfo, int imageId, int number) {
+        super(geometryInfo);
+        mImageId = imageId;
+        mNumber = number;
+    }
+
+    /**
+     * Returns the podocytes data for this glomerulus.
+     * @return a {@code non-null} list of podocytes information.
+     */
+    public ImmutableList<PodocyteData> getPodocytesData() {
+        return mPodocytesData;
+    }
+
+    /**
+     * Sets the podoctyes data for this glomerulus, computing their area and feret moments.
+     * @param podocytesData podocytes found in this glomerulus, copied.
+     */
+    public void setPodocytesData(List<PodocyteData> podocytesData) {
+        Preconditions.checkNotNull(podocytesData);
+        RunningStatistics areaStatistics = new RunningStatistics();
+        RunningStatistics feretStatistics = new RunningStatistics();
+        for (PodocyteData podocyteData : podocytesData) {
+            areaStatistics.add(podocyteData.getGeometryInfo().getArea());
+            feretStatistics.add(podocyteData.getGeometryInfo().getFeret());
+        }
+        setPodocytesData(podocytesData, areaStatistics, feretStatistics);
+    }
+
+    /**
+     * Sets the podoctyes data for this glomerulus together with their area and feret moments, e.g. accumulated as the
+     * podocytes were read.
+     * @param podocytesData podocytes found in this glomerulus, copied.
+     * @param areaStatistics statistics of the podocyte areas, retained.
+     * @param feretStatistics statistics of the podocyte ferets, retained.
+     */
+    public void setPodocytesData(List<PodocyteData> podocytesData, RunningStatistics areaStatistics,
+                                 RunningStatistics feretStatistics) {
+        Preconditions.checkNotNull(podocytesData);
+        Preconditions.checkArgument(areaStatistics.getCount() == podocytesData.size());
+        Preconditions.checkArgument(feretStatistics.getCount() == podocytesData.size());
+        mPodocytesData = ImmutableList.copyOf(podocytesData);
+        mPodocyteAreaStatistics = areaStatistics;
+        mPodocyteFeretStatistics = feretStatistics;
+    }
+
+    /**
+     * Returns the statistics of the areas of the podocytes of this glomerulus.
+     * @return a copy owned by the caller, {@code null} if the podocytes data wasn't set.
+     */
+    public RunningStatistics getPodocyteAreaStatistics() {
+        return copyOf(mPodocyteAreaStatistics);
+    }
+
+    /**
+     * Returns the statistics of the ferets of the podocytes of this glomerulus.
+     * @return a copy owned by the caller, {@code null} if the podocytes data wasn't set.
+     */
+    public RunningStatistics getPodocyteFeretStatistics() {
+        return copyOf(mPodocyteFeretStatistics);
+    }
+
+    /**
+     * Computes the area and feret statistics of the podocytes of this glomerulus, quantiles included. Only the
+     * moments are retained, see {@link #getPodocyteAreaStatistics()}, so each call walks the podocytes again and
+     * returns a new instance owned by the caller.
+     * @return podocyte statistics, {@code null} if the podocytes data wasn't set.
+     */
+    public MorphometryStatistics getPodocyteStatistics() {
+        if (mPodocytesData == null) {
+            return null;
+        }
+        MorphometryStatistics podocyteStatistics = new MorphometryStatistics();
+        for (PodocyteData podocyteData : mPodocytesData) {
+            podocyteStatistics.add(podocyteData.getGeometryInfo().getArea(), podocyteData.getGeometryInfo().getFeret());
+        }
+        return podocyteStatistics;
+    }
+
+    private static RunningStatistics copyOf(RunningStatistics statistics) {
+        if (statistics == null) {
+            return null;
+        }
+        RunningStatistics copy = new RunningStatistics();
+        copy.merge(statistics);
+        return copy;
+    }
+
+    /**
+     * Returns the id of the image where this glomerulus was found.
+     * @return int image id
+     */
+    public int getImageId() {
+        return mImageId;
+    }
+
+    /**
+     * Returns the arbitrary number that was assigned to the glomerulus for counting purposes.
+     * @return int glomerulus number.
+     */
+    public int getNumber() {
+        return mNumber;
+    }
+
+    public String toString() {
+        return MoreObjects.toStringHelper(GlomerulusData.class)
+                .add("area", getGeometryInfo().getArea())
+                .add("feret", getGeometryInfo().getFeret())
+                .add("podocytesCount", mPodocytesData.size())
+                .toString();
+    }
+}
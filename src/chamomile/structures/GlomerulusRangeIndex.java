@@ -0,0 +1,477 @@
+package chamomile.structures;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+
+/**
+ * Secondary index over the area, feret diameter and podocyte count of the glomeruli of a cohort, answering range and
+ * top-k queries without scanning the biopsies.
+ *
+ * The index is a list of immutable segments, each holding its glomeruli sorted by every attribute in primitive
+ * arrays. Adding a biopsy appends a segment, and segments of similar size are merged linearly, so there are at most
+ * O(log n) segments and every glomerulus is merged O(log n) times. A range query binary searches every segment for
+ * every constrained attribute and only scans the glomeruli of the most selective one, and a top-k query merges the
+ * tails of the segments.
+ *
+ * Queries return references to the glomeruli: biopsy id, image id and glomerulus number. Biopsies can be added while
+ * the index is being queried, queries see the biopsies added before they started.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class GlomerulusRangeIndex {
+
+    /**
+     * Indexed attribute of a glomerulus.
+     */
+    public enum Attribute {
+        AREA,
+        FERET,
+        PODOCYTE_COUNT;
+
+        private double valueOf(GlomerulusData glomerulusData) {
+            switch (this) {
+                case AREA:
+                    return glomerulusData.getGeometryInfo().getArea();
+                case FERET:
+                    return glomerulusData.getGeometryInfo().getFeret();
+                default:
+                    return glomerulusData.getPodocytesData().size();
+            }
+        }
+    }
+
+    private static final Attribute[] ATTRIBUTES = Attribute.values();
+
+    private static final int INITIAL_BIOPSY_CAPACITY = 16;
+
+    private volatile State mState = new State(new String[INITIAL_BIOPSY_CAPACITY], 0, ImmutableList.of());
+
+    /**
+     * Creates an index over the glomeruli of some biopsies.
+     * @param biopsyResults biopsy results with their glomerulus data set.
+     * @return index
+     */
+    public static GlomerulusRangeIndex of(List<? extends BiopsyResult> biopsyResults) {
+        GlomerulusRangeIndex index = new GlomerulusRangeIndex();
+        for (BiopsyResult biopsyResult : biopsyResults) {
+            index.add(biopsyResult);
+        }
+        return index;
+    }
+
+    /**
+     * Adds the glomeruli of a biopsy to the index.
+     * @param biopsyResult biopsy result with its glomerulus data set.
+     */
+    public synchronized void add(BiopsyResult biopsyResult) {
+        List<GlomerulusData> glomerulusData = Preconditions.checkNotNull(biopsyResult.getGlomerulusData());
+        final State state = mState;
+
+        List<Segment> segments = new ArrayList<>(state.mSegments);
+        Segment segment = Segment.of(state.mBiopsyCount, glomerulusData);
+        // Merge while the last segment isn't at least twice as big, like a binary counter
+        while (!segments.isEmpty() && segments.get(segments.size() - 1).mSize <= 2 * segment.mSize) {
+            segment = Segment.merge(segments.remove(segments.size() - 1), segment);
+        }
+        if (segment.mSize > 0) {
+            segments.add(segment);
+        }
+
+        // Published states never read past their count, so the id can be appended in place unless the array is full
+        String[] biopsyIds = state.mBiopsyIds;
+        if (state.mBiopsyCount == biopsyIds.length) {
+            biopsyIds = Arrays.copyOf(biopsyIds, 2 * biopsyIds.length);
+        }
+        biopsyIds[state.mBiopsyCount] = biopsyResult.getId();
+        mState = new State(biopsyIds, state.mBiopsyCount + 1, ImmutableList.copyOf(segments));
+    }
+
+    /**
+     * Returns the number of glomeruli indexed.
+     * @return int glomerulus count.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : mState.mSegments) {
+            size += segment.mSize;
+        }
+        return size;
+    }
+
+    public int getBiopsyCount() {
+        return mState.mBiopsyCount;
+    }
+
+    /**
+     * Counts the glomeruli with an attribute within a range, in logarithmic time.
+     * @param attribute attribute of the range.
+     * @param min minimum value, inclusive.
+     * @param max maximum value, inclusive.
+     * @return number of glomeruli in the range.
+     */
+    public int count(Attribute attribute, double min, double max) {
+        Preconditions.checkNotNull(attribute);
+        Preconditions.checkArgument(min <= max);
+        int count = 0;
+        for (Segment segment : mState.mSegments) {
+            final double[] sortedValues = segment.mSortedValues[attribute.ordinal()];
+            count += upperBound(sortedValues, max) - lowerBound(sortedValues, min);
+        }
+        return count;
+    }
+
+    /**
+     * Finds the glomeruli with an attribute within a range.
+     * @param attribute attribute of the range.
+     * @param min minimum value, inclusive.
+     * @param max maximum value, inclusive.
+     * @return references to the matching glomeruli, in no particular order.
+     */
+    public List<GlomerulusRef> find(Attribute attribute, double min, double max) {
+        return find(new Query().range(attribute, min, max));
+    }
+
+    /**
+     * Finds the glomeruli matching all the ranges of a query.
+     * @param query ranges of the attributes.
+     * @return references to the matching glomeruli, in no particular order.
+     */
+    public List<GlomerulusRef> find(Query query) {
+        Preconditions.checkNotNull(query);
+        final State state = mState;
+
+        List<GlomerulusRef> refs = new ArrayList<>();
+        for (Segment segment : state.mSegments) {
+            // Scan the attribute with the fewest glomeruli in range, and check the other ranges on those
+            int scannedAttribute = 0;
+            int from = 0;
+            int to = segment.mSize;
+            for (Attribute attribute : ATTRIBUTES) {
+                final int i = attribute.ordinal();
+                if (!query.mConstrained[i]) {
+                    continue;
+                }
+                final int attributeFrom = lowerBound(segment.mSortedValues[i], query.mMins[i]);
+                final int attributeTo = upperBound(segment.mSortedValues[i], query.mMaxs[i]);
+                if (attributeTo - attributeFrom < to - from) {
+                    scannedAttribute = i;
+                    from = attributeFrom;
+                    to = attributeTo;
+                }
+            }
+
+            final int[] order = segment.mOrders[scannedAttribute];
+            for (int i = from; i < to; i++) {
+                final int entry = order[i];
+                if (query.matches(segment, entry)) {
+                    refs.add(segment.refOf(state, entry));
+                }
+            }
+        }
+        return refs;
+    }
+
+    /**
+     * Finds the glomeruli with the largest values of an attribute.
+     * @param attribute attribute to rank the glomeruli by.
+     * @param k maximum number of glomeruli to return.
+     * @return references to at most {@code k} glomeruli, from the largest value down. Ties are in no particular order.
+     */
+    public List<GlomerulusRef> top(Attribute attribute, int k) {
+        Preconditions.checkNotNull(attribute);
+        Preconditions.checkArgument(k >= 0);
+        final State state = mState;
+        final int a = attribute.ordinal();
+
+        // One cursor per segment, walking its sorted values backwards
+        PriorityQueue<int[]> cursors = new PriorityQueue<>(Math.max(1, state.mSegments.size()),
+                Comparator.comparingDouble((int[] cursor) ->
+                        -state.mSegments.get(cursor[0]).mSortedValues[a][cursor[1]]));
+        for (int i = 0; i < state.mSegments.size(); i++) {
+            cursors.add(new int[]{i, state.mSegments.get(i).mSize - 1});
+        }
+
+        List<GlomerulusRef> refs = new ArrayList<>(Math.min(k, 1024));
+        while (refs.size() < k && !cursors.isEmpty()) {
+            final int[] cursor = cursors.poll();
+            final Segment segment = state.mSegments.get(cursor[0]);
+            refs.add(segment.refOf(state, segment.mOrders[a][cursor[1]]));
+            if (--cursor[1] >= 0) {
+                cursors.add(cursor);
+            }
+        }
+        return refs;
+    }
+
+    public String toString() {
+        final State state = mState;
+        return MoreObjects.toStringHelper(GlomerulusRangeIndex.class)
+                .add("biopsyCount", state.mBiopsyCount)
+                .add("size", size())
+                .add("segmentCount", state.mSegments.size())
+                .toString();
+    }
+
+    /**
+     * Returns the index of the first value not lower than a key.
+     */
+    private static int lowerBound(double[] sortedValues, double key) {
+        int low = 0;
+        int high = sortedValues.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (sortedValues[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the first value greater than a key.
+     */
+    private static int upperBound(double[] sortedValues, double key) {
+        int low = 0;
+        int high = sortedValues.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (sortedValues[middle] <= key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Ranges of a query, unbounded by default. Instances are mutable and shouldn't be modified while in use.
+     */
+    public static final class Query {
+        private final boolean[] mConstrained = new boolean[ATTRIBUTES.length];
+        private final double[] mMins = new double[ATTRIBUTES.length];
+        private final double[] mMaxs = new double[ATTRIBUTES.length];
+
+        /**
+         * Restricts an attribute to a range, replacing any previous range of the attribute.
+         * @param attribute attribute of the range.
+         * @param min minimum value, inclusive.
+         * @param max maximum value, inclusive.
+         * @return this query
+         */
+        public Query range(Attribute attribute, double min, double max) {
+            Preconditions.checkNotNull(attribute);
+            Preconditions.checkArgument(min <= max);
+            mConstrained[attribute.ordinal()] = true;
+            mMins[attribute.ordinal()] = min;
+            mMaxs[attribute.ordinal()] = max;
+            return this;
+        }
+
+        private boolean matches(Segment segment, int entry) {
+            for (int i = 0; i < ATTRIBUTES.length; i++) {
+                if (mConstrained[i]) {
+                    final double value = segment.mValues[i][entry];
+                    if (value < mMins[i] || value > mMaxs[i]) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Reference to an indexed glomerulus.
+     */
+    public static final class GlomerulusRef {
+        private final String mBiopsyId;
+        private final int mImageId;
+        private final int mNumber;
+
+        public GlomerulusRef(String biopsyId, int imageId, int number) {
+            mBiopsyId = Preconditions.checkNotNull(biopsyId);
+            mImageId = imageId;
+            mNumber = number;
+        }
+
+        public String getBiopsyId() {
+            return mBiopsyId;
+        }
+
+        public int getImageId() {
+            return mImageId;
+        }
+
+        public int getNumber() {
+            return mNumber;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof GlomerulusRef)) {
+                return false;
+            }
+            GlomerulusRef other = (GlomerulusRef) object;
+            return mImageId == other.mImageId && mNumber == other.mNumber && mBiopsyId.equals(other.mBiopsyId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mBiopsyId, mImageId, mNumber);
+        }
+
+        public String toString() {
+            return MoreObjects.toStringHelper(GlomerulusRef.class)
+                    .add("biopsyId", mBiopsyId)
+                    .add("imageId", mImageId)
+                    .add("number", mNumber)
+                    .toString();
+        }
+    }
+
+    /**
+     * Biopsy ids and segments, replaced as a whole when a biopsy is added. The biopsy id array is shared with the
+     * following states, which append to it, so only its first {@code mBiopsyCount} ids belong to this state.
+     */
+    private static final class State {
+        private final String[] mBiopsyIds;
+        private final int mBiopsyCount;
+        private final ImmutableList<Segment> mSegments;
+
+        private State(String[] biopsyIds, int biopsyCount, ImmutableList<Segment> segments) {
+            mBiopsyIds = biopsyIds;
+            mBiopsyCount = biopsyCount;
+            mSegments = segments;
+        }
+    }
+
+    /**
+     * Immutable set of glomeruli, stored by column, with their order by every attribute.
+     */
+    private static final class Segment {
+        private final int mSize;
+        private final int[] mBiopsyIndexes;
+        private final int[] mImageIds;
+        private final int[] mNumbers;
+
+        /**
+         * Values of every attribute, by entry.
+         */
+        private final double[][] mValues;
+
+        /**
+         * Entries sorted by every attribute.
+         */
+        private final int[][] mOrders;
+
+        /**
+         * Values of every attribute, sorted.
+         */
+        private final double[][] mSortedValues;
+
+        private Segment(int[] biopsyIndexes, int[] imageIds, int[] numbers, double[][] values, int[][] orders) {
+            mSize = biopsyIndexes.length;
+            mBiopsyIndexes = biopsyIndexes;
+            mImageIds = imageIds;
+            mNumbers = numbers;
+            mValues = values;
+            mOrders = orders;
+            mSortedValues = new double[ATTRIBUTES.length][mSize];
+            for (int a = 0; a < ATTRIBUTES.length; a++) {
+                for (int i = 0; i < mSize; i++) {
+                    mSortedValues[a][i] = values[a][orders[a][i]];
+                }
+            }
+        }
+
+        private static Segment of(int biopsyIndex, List<GlomerulusData> glomerulusData) {
+            final int size = glomerulusData.size();
+            int[] biopsyIndexes = new int[size];
+            int[] imageIds = new int[size];
+            int[] numbers = new int[size];
+            double[][] values = new double[ATTRIBUTES.length][size];
+            for (int i = 0; i < size; i++) {
+                final GlomerulusData glomerulus = glomerulusData.get(i);
+                biopsyIndexes[i] = biopsyIndex;
+                imageIds[i] = glomerulus.getImageId();
+                numbers[i] = glomerulus.getNumber();
+                for (Attribute attribute : ATTRIBUTES) {
+                    values[attribute.ordinal()][i] = attribute.valueOf(glomerulus);
+                }
+            }
+
+            int[][] orders = new int[ATTRIBUTES.length][];
+            for (int a = 0; a < ATTRIBUTES.length; a++) {
+                final double[] attributeValues = values[a];
+                Integer[] order = new Integer[size];
+                for (int i = 0; i < size; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, Comparator.comparingDouble((Integer i) -> attributeValues[i]));
+                orders[a] = new int[size];
+                for (int i = 0; i < size; i++) {
+                    orders[a][i] = order[i];
+                }
+            }
+
+            return new Segment(biopsyIndexes, imageIds, numbers, values, orders);
+        }
+
+        /**
+         * Merges two segments in linear time, the entries of the second one going after those of the first one.
+         */
+        private static Segment merge(Segment first, Segment second) {
+            final int size = first.mSize + second.mSize;
+            double[][] values = new double[ATTRIBUTES.length][];
+            int[][] orders = new int[ATTRIBUTES.length][size];
+            for (int a = 0; a < ATTRIBUTES.length; a++) {
+                values[a] = concat(first.mValues[a], second.mValues[a]);
+
+                final double[] firstValues = first.mSortedValues[a];
+                final double[] secondValues = second.mSortedValues[a];
+                int i = 0;
+                int j = 0;
+                for (int k = 0; k < size; k++) {
+                    if (j == second.mSize || (i < first.mSize && firstValues[i] <= secondValues[j])) {
+                        orders[a][k] = first.mOrders[a][i++];
+                    } else {
+                        orders[a][k] = first.mSize + second.mOrders[a][j++];
+                    }
+                }
+            }
+
+            return new Segment(concat(first.mBiopsyIndexes, second.mBiopsyIndexes),
+                    concat(first.mImageIds, second.mImageIds), concat(first.mNumbers, second.mNumbers), values, orders);
+        }
+
+        private GlomerulusRef refOf(State state, int entry) {
+            return new GlomerulusRef(state.mBiopsyIds[mBiopsyIndexes[entry]], mImageIds[entry], mNumbers[entry]);
+        }
+
+        private static int[] concat(int[] first, int[] second) {
+            int[] result = Arrays.copyOf(first, first.length + second.length);
+            System.arraycopy(second, 0, result, first.length, second.length);
+            return result;
+        }
+
+        private static double[] concat(double[] first, double[] second) {
+            double[] result = Arrays.copyOf(first, first.length + second.length);
+            System.arraycopy(second, 0, result, first.length, second.length);
+            return result;
+        }
+    }
+}
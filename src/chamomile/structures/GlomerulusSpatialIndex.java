@@ -0,0 +1,146 @@
+package chamomile.structures;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Two dimensional k-d tree over the positions of the glomeruli of an image, answering nearest glomerulus queries in
+ * O(log n) on average.
+ *
+ * The position of a structure is the starting point of its feret diameter, ({@link GeometryInfo#getFeretX()},
+ * {@link GeometryInfo#getFeretY()}), the only location exported to the image data files.
+ *
+ * The tree is stored implicitly: the median of every range of the node arrays is the root of the subtree of that
+ * range, split alternately by x and y.
+ *
+ * Instances are immutable and thread safe.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class GlomerulusSpatialIndex {
+    private final ImmutableList<GlomerulusData> mGlomeruli;
+    private final int[] mNodeGlomeruli;
+    private final double[] mNodeXs;
+    private final double[] mNodeYs;
+
+    /**
+     * Builds the index.
+     * @param glomeruli glomeruli with a known position.
+     */
+    public GlomerulusSpatialIndex(List<GlomerulusData> glomeruli) {
+        mGlomeruli = ImmutableList.copyOf(glomeruli);
+        final int size = mGlomeruli.size();
+
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            Preconditions.checkArgument(mGlomeruli.get(i).getGeometryInfo().hasPosition(),
+                    "Glomerulus %s without position", mGlomeruli.get(i).getNumber());
+            order[i] = i;
+        }
+        build(order, 0, size, true);
+
+        mNodeGlomeruli = new int[size];
+        mNodeXs = new double[size];
+        mNodeYs = new double[size];
+        for (int i = 0; i < size; i++) {
+            final GeometryInfo geometryInfo = mGlomeruli.get(order[i]).getGeometryInfo();
+            mNodeGlomeruli[i] = order[i];
+            mNodeXs[i] = geometryInfo.getFeretX();
+            mNodeYs[i] = geometryInfo.getFeretY();
+        }
+    }
+
+    public int size() {
+        return mGlomeruli.size();
+    }
+
+    /**
+     * Finds the glomerulus nearest to a point.
+     * @param x x coordinate of the point.
+     * @param y y coordinate of the point.
+     * @return index in the list given at construction of the nearest glomerulus, -1 if the index is empty.
+     */
+    public int findNearestIndex(double x, double y) {
+        Search search = new Search(x, y);
+        search(search, 0, mNodeGlomeruli.length, true);
+        return search.mBestNode < 0 ? -1 : mNodeGlomeruli[search.mBestNode];
+    }
+
+    /**
+     * Finds the glomerulus nearest to a point.
+     * @param x x coordinate of the point.
+     * @param y y coordinate of the point.
+     * @return the nearest glomerulus, {@code null} if the index is empty.
+     */
+    public GlomerulusData findNearest(double x, double y) {
+        final int index = findNearestIndex(x, y);
+        return index < 0 ? null : mGlomeruli.get(index);
+    }
+
+    private void build(Integer[] order, int from, int to, boolean splitByX) {
+        if (to - from <= 1) {
+            return;
+        }
+
+        Comparator<Integer> comparator = splitByX
+                ? Comparator.comparingDouble((Integer i) -> mGlomeruli.get(i).getGeometryInfo().getFeretX())
+                : Comparator.comparingDouble((Integer i) -> mGlomeruli.get(i).getGeometryInfo().getFeretY());
+        Arrays.sort(order, from, to, comparator);
+
+        final int middle = (from + to) >>> 1;
+        build(order, from, middle, !splitByX);
+        build(order, middle + 1, to, !splitByX);
+    }
+
+    private void search(Search search, int from, int to, boolean splitByX) {
+        if (from >= to) {
+            return;
+        }
+
+        final int middle = (from + to) >>> 1;
+        final double dx = search.mX - mNodeXs[middle];
+        final double dy = search.mY - mNodeYs[middle];
+        final double distance = dx * dx + dy * dy;
+        if (distance < search.mBestDistance) {
+            search.mBestDistance = distance;
+            search.mBestNode = middle;
+        }
+
+        // Visit the side of the point first, and the other side only if it may hold a nearer glomerulus
+        final double delta = splitByX ? dx : dy;
+        if (delta < 0) {
+            search(search, from, middle, !splitByX);
+            if (delta * delta < search.mBestDistance) {
+                search(search, middle + 1, to, !splitByX);
+            }
+        } else {
+            search(search, middle + 1, to, !splitByX);
+            if (delta * delta < search.mBestDistance) {
+                search(search, from, middle, !splitByX);
+            }
+        }
+    }
+
+    public String toString() {
+        return MoreObjects.toStringHelper(GlomerulusSpatialIndex.class)
+                .add("size", size())
+                .toString();
+    }
+
+    private static final class Search {
+        private final double mX;
+        private final double mY;
+        private double mBestDistance = Double.POSITIVE_INFINITY;
+        private int mBestNode = -1;
+
+        private Search(double x, double y) {
+            mX = x;
+            mY = y;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package chamomile.structures;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import java.io.File;
+
+/**
+ * Diagnostic of an image data file, or part of it, that was left out of a {@link BiopsyResult} because it was not
+ * valid.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class IngestionError {
+    private final File mFile;
+    private final int mLineNumber;
+    private final String mReason;
+
+    /**
+     * Creates a diagnostic.
+     * @param file image data file.
+     * @param lineNumber number of the offending line, starting from 1, or 0 if no single line is at fault.
+     * @param reason why the file or line is not valid.
+     */
+    public IngestionError(File file, int lineNumber, String reason) {
+        Preconditions.checkArgument(lineNumber >= 0);
+        mFile = Preconditions.checkNotNull(file);
+        mLineNumber = lineNumber;
+        mReason = String.valueOf(reason);
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Returns the number of the offending line.
+     * @return line number starting from 1, or 0 if no single line is at fault, e.g. the whole file is unreadable.
+     */
+    public int getLineNumber() {
+        return mLineNumber;
+    }
+
+    public String getReason() {
+        return mReason;
+    }
+
+    public String toString() {
+        return MoreObjects.toStringHelper(IngestionError.class)
+                .add("file", mFile)
+                .add("lineNumber", mLineNumber)
+                .add("reason", mReason)
+                .toString();
+    }
+}
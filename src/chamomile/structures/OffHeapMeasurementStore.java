@@ -0,0 +1,799 @@
+package chamomile.structures;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Off-heap store of the glomerulus and podocyte measurements of a whole cohort of biopsies.
+ *
+ * Measurements are kept in fixed size records inside direct or memory mapped buffers, so the garbage collector sees a
+ * few dozen buffers instead of one {@link GlomerulusData}, {@link PodocyteData} and {@link GeometryInfo} object per
+ * measurement. The views returned by {@link #getGlomerulus(int)} and {@link #getBiopsy(int)} offer the same getters
+ * as the object model and read straight from the records.
+ *
+ * Records are split into chunks of a power of two records, so a store isn't limited to the 2 GB of a single buffer
+ * and a record never straddles two chunks. The podocytes of glomerulus {@code i} are stored at indexes
+ * {@code getFirstPodocyteIndex(i)} to {@code getFirstPodocyteIndex(i) + getPodocyteCount(i) - 1}, and the glomeruli of
+ * every biopsy are stored contiguously.
+ *
+ * A store is written to a file with {@link #writeTo(Path)} and mapped back with {@link #open(Path)}, which only reads
+ * the biopsy ids, so reopening a cohort doesn't depend on its size. File layout (little endian):
+ *
+ * <pre>
+ * header, 64 bytes:
+ *         int magic, int format version, int biopsy count, int glomerulus count, long podocyte count,
+ *         long glomerulus section offset, long podocyte section offset, long biopsy section offset, 16 bytes padding
+ * glomerulus section, 64 bytes per glomerulus:
+ *         int image id, int number, double area, double feret, double feret x, double feret y,
+ *         long first podocyte index, int podocyte count, int biopsy index, 8 bytes padding
+ * podocyte section, 32 bytes per podocyte:
+ *         double area, double feret, double feret x, double feret y
+ * biopsy section, for every biopsy:
+ *         int id length, followed by the UTF-8 bytes of the id, int first glomerulus index, int glomerulus count
+ * </pre>
+ *
+ * Records have the same layout in memory as in the file. Instances are immutable and thread safe. The memory of a
+ * store is released when it's garbage collected.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class OffHeapMeasurementStore {
+
+    /**
+     * Magic number at the beginning of every store file.
+     */
+    private static final int MAGIC = 0x43484f53;
+
+    /**
+     * Version of the store file format ({@value}).
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    /**
+     * Default number of records per chunk, as a power of two ({@value}).
+     */
+    public static final int DEFAULT_CHUNK_SHIFT = 20;
+
+    /**
+     * Maximum number of records per chunk as a power of two ({@value}), keeping chunks of glomeruli under 2 GB.
+     */
+    public static final int MAX_CHUNK_SHIFT = 24;
+
+    private static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+    private static final int HEADER_SIZE = 64;
+
+    private static final int GLOMERULUS_RECORD_SIZE = 64;
+    private static final int IMAGE_ID_OFFSET = 0;
+    private static final int NUMBER_OFFSET = 4;
+    private static final int GLOMERULUS_GEOMETRY_OFFSET = 8;
+    private static final int FIRST_PODOCYTE_OFFSET = 40;
+    private static final int PODOCYTE_COUNT_OFFSET = 48;
+    private static final int BIOPSY_INDEX_OFFSET = 52;
+
+    private static final int PODOCYTE_RECORD_SIZE = 32;
+    private static final int PODOCYTE_GEOMETRY_OFFSET = 0;
+
+    /**
+     * Size of the record of a biopsy, without its id.
+     */
+    private static final int BIOPSY_RECORD_SIZE = 12;
+
+    private static final int AREA_OFFSET = 0;
+    private static final int FERET_OFFSET = 8;
+    private static final int FERET_X_OFFSET = 16;
+    private static final int FERET_Y_OFFSET = 24;
+
+    private final ImmutableList<String> mBiopsyIds;
+    private final int[] mBiopsyOffsets;
+    private final int mGlomerulusCount;
+    private final long mPodocyteCount;
+    private final RecordChunks mGlomeruli;
+    private final RecordChunks mPodocytes;
+
+    private OffHeapMeasurementStore(List<String> biopsyIds, int[] biopsyOffsets, RecordChunks glomeruli,
+                                    RecordChunks podocytes) {
+        mBiopsyIds = ImmutableList.copyOf(biopsyIds);
+        mBiopsyOffsets = biopsyOffsets;
+        mGlomerulusCount = (int) glomeruli.mCount;
+        mPodocyteCount = podocytes.mCount;
+        mGlomeruli = glomeruli;
+        mPodocytes = podocytes;
+    }
+
+    /**
+     * Creates a store holding the measurements of some biopsy results. To fill a store while a cohort is parsed,
+     * without building its biopsy results first, stream the cohort into a {@code chamomile.io.MeasurementStoreSink}.
+     * @param biopsyResults biopsy results with their glomerulus data set.
+     * @return store with the same biopsies, glomeruli and podocytes, in the same order.
+     */
+    public static OffHeapMeasurementStore of(List<? extends BiopsyResult> biopsyResults) {
+        Builder builder = new Builder();
+        for (BiopsyResult biopsyResult : biopsyResults) {
+            builder.addBiopsy(biopsyResult);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Maps a store written with {@link #writeTo(Path)}. Only the biopsy ids are read, the records are paged in by the
+     * operating system as they're accessed.
+     * @param file store file.
+     * @return read only store backed by the file.
+     * @throws IOException if the file can't be read or isn't a valid store file.
+     */
+    public static OffHeapMeasurementStore open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("Not a measurement store: " + file);
+            }
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(BYTE_ORDER);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a measurement store: " + file);
+            }
+            final int formatVersion = header.getInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException(String.format("Unsupported measurement store version %d: %s", formatVersion,
+                        file));
+            }
+            final int biopsyCount = header.getInt();
+            final int glomerulusCount = header.getInt();
+            final long podocyteCount = header.getLong();
+            final long glomerulusSectionOffset = header.getLong();
+            final long podocyteSectionOffset = header.getLong();
+            final long biopsySectionOffset = header.getLong();
+            final long glomerulusSectionSize = (long) glomerulusCount * GLOMERULUS_RECORD_SIZE;
+            if (glomerulusCount < 0 || podocyteCount < 0 || podocyteCount > size / PODOCYTE_RECORD_SIZE
+                    || glomerulusSectionOffset != HEADER_SIZE
+                    || podocyteSectionOffset != glomerulusSectionOffset + glomerulusSectionSize
+                    || biopsySectionOffset != podocyteSectionOffset + podocyteCount * PODOCYTE_RECORD_SIZE
+                    || biopsySectionOffset > size
+                    || biopsyCount < 0 || biopsyCount > (size - biopsySectionOffset) / BIOPSY_RECORD_SIZE) {
+                throw new IOException("Corrupted measurement store: " + file);
+            }
+
+            List<String> biopsyIds = new ArrayList<>(biopsyCount);
+            int[] biopsyOffsets = new int[biopsyCount + 1];
+            try {
+                ByteBuffer biopsySection = channel.map(FileChannel.MapMode.READ_ONLY, biopsySectionOffset,
+                        size - biopsySectionOffset).order(BYTE_ORDER);
+                for (int i = 0; i < biopsyCount; i++) {
+                    byte[] idBytes = new byte[biopsySection.getInt()];
+                    biopsySection.get(idBytes);
+                    biopsyIds.add(new String(idBytes, StandardCharsets.UTF_8));
+                    // The glomeruli of every biopsy follow those of the previous one
+                    final int firstGlomerulus = biopsySection.getInt();
+                    final int biopsyGlomerulusCount = biopsySection.getInt();
+                    if (firstGlomerulus != biopsyOffsets[i] || biopsyGlomerulusCount < 0
+                            || biopsyGlomerulusCount > glomerulusCount - firstGlomerulus) {
+                        throw new IOException("Corrupted measurement store: " + file);
+                    }
+                    biopsyOffsets[i + 1] = firstGlomerulus + biopsyGlomerulusCount;
+                }
+            } catch (BufferUnderflowException | NegativeArraySizeException e) {
+                throw new IOException("Corrupted measurement store: " + file, e);
+            }
+            if (biopsyOffsets[biopsyCount] != glomerulusCount) {
+                throw new IOException("Corrupted measurement store: " + file);
+            }
+
+            return new OffHeapMeasurementStore(biopsyIds, biopsyOffsets,
+                    RecordChunks.map(channel, glomerulusSectionOffset, glomerulusCount, GLOMERULUS_RECORD_SIZE),
+                    RecordChunks.map(channel, podocyteSectionOffset, podocyteCount, PODOCYTE_RECORD_SIZE));
+        }
+    }
+
+    /**
+     * Writes the store to a file, which is replaced atomically once complete.
+     * @param file store file.
+     */
+    public void writeTo(Path file) throws IOException {
+        final long glomerulusSectionOffset = HEADER_SIZE;
+        final long podocyteSectionOffset = glomerulusSectionOffset + (long) mGlomerulusCount * GLOMERULUS_RECORD_SIZE;
+        final long biopsySectionOffset = podocyteSectionOffset + mPodocyteCount * PODOCYTE_RECORD_SIZE;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(BYTE_ORDER);
+        header.putInt(MAGIC)
+                .putInt(FORMAT_VERSION)
+                .putInt(mBiopsyIds.size())
+                .putInt(mGlomerulusCount)
+                .putLong(mPodocyteCount)
+                .putLong(glomerulusSectionOffset)
+                .putLong(podocyteSectionOffset)
+                .putLong(biopsySectionOffset);
+        header.clear();
+
+        int biopsySectionSize = 0;
+        List<byte[]> idBytes = new ArrayList<>(mBiopsyIds.size());
+        for (String biopsyId : mBiopsyIds) {
+            idBytes.add(biopsyId.getBytes(StandardCharsets.UTF_8));
+            biopsySectionSize += BIOPSY_RECORD_SIZE + idBytes.get(idBytes.size() - 1).length;
+        }
+        ByteBuffer biopsySection = ByteBuffer.allocate(biopsySectionSize).order(BYTE_ORDER);
+        for (int i = 0; i < idBytes.size(); i++) {
+            biopsySection.putInt(idBytes.get(i).length)
+                    .put(idBytes.get(i))
+                    .putInt(mBiopsyOffsets[i])
+                    .putInt(mBiopsyOffsets[i + 1] - mBiopsyOffsets[i]);
+        }
+        biopsySection.flip();
+
+        Path directory = file.toAbsolutePath().getParent();
+        Path temporaryFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+                writeFully(channel, header);
+                mGlomeruli.writeTo(channel);
+                mPodocytes.writeTo(channel);
+                writeFully(channel, biopsySection);
+                channel.force(false);
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    public int getBiopsyCount() {
+        return mBiopsyIds.size();
+    }
+
+    public ImmutableList<String> getBiopsyIds() {
+        return mBiopsyIds;
+    }
+
+    /**
+     * Returns a view of a biopsy backed by the records.
+     * @param biopsyIndex index of the biopsy, in the order they were added.
+     * @return biopsy view
+     */
+    public BiopsyView getBiopsy(int biopsyIndex) {
+        Preconditions.checkElementIndex(biopsyIndex, mBiopsyIds.size());
+        return new BiopsyView(biopsyIndex);
+    }
+
+    public int getGlomerulusCount() {
+        return mGlomerulusCount;
+    }
+
+    /**
+     * Returns the number of podocytes of all glomeruli.
+     * @return long total podocyte count.
+     */
+    public long getTotalPodocyteCount() {
+        return mPodocyteCount;
+    }
+
+    /**
+     * Returns the size of the records held by the store.
+     * @return long record bytes.
+     */
+    public long getRecordBytes() {
+        return (long) mGlomerulusCount * GLOMERULUS_RECORD_SIZE + mPodocyteCount * PODOCYTE_RECORD_SIZE;
+    }
+
+    public int getBiopsyIndex(int glomerulusIndex) {
+        Preconditions.checkElementIndex(glomerulusIndex, mGlomerulusCount);
+        return mGlomeruli.getInt(glomerulusIndex, BIOPSY_INDEX_OFFSET);
+    }
+
+    public int getImageId(int glomerulusIndex) {
+        Preconditions.checkElementIndex(glomerulusIndex, mGlomerulusCount);
+        return mGlomeruli.getInt(glomerulusIndex, IMAGE_ID_OFFSET);
+    }
+
+    public int getGlomerulusNumber(int glomerulusIndex) {
+        Preconditions.checkElementIndex(glomerulusIndex, mGlomerulusCount);
+        return mGlomeruli.getInt(glomerulusIndex, NUMBER_OFFSET);
+    }
+
+    public double getGlomerulusArea(int glomerulusIndex) {
+        Preconditions.checkElementIndex(glomerulusIndex, mGlomerulusCount);
+        return mGlomeruli.getDouble(glomerulusIndex, GLOMERULUS_GEOMETRY_OFFSET + AREA_OFFSET);
+    }
+
+    public double getGlomerulusFeret(int glomerulusIndex) {
+        Preconditions.checkElementIndex(glomerulusIndex, mGlomerulusCount);
+        return mGlomeruli.getDouble(glomerulusIndex, GLOMERULUS_GEOMETRY_OFFSET + FERET_OFFSET);
+    }
+
+    public double getGlomerulusFeretX(int glomerulusIndex) {
+        Preconditions.checkElementIndex(glomerulusIndex, mGlomerulusCount);
+        return mGlomeruli.getDouble(glomerulusIndex, GLOMERULUS_GEOMETRY_OFFSET + FERET_X_OFFSET);
+    }
+
+    public double getGlomerulusFeretY(int glomerulusIndex) {
+        Preconditions.checkElementIndex(glomerulusIndex, mGlomerulusCount);
+        return mGlomeruli.getDouble(glomerulusIndex, GLOMERULUS_GEOMETRY_OFFSET + FERET_Y_OFFSET);
+    }
+
+    /**
+     * Returns the index in the podocyte records of the first podocyte of a glomerulus.
+     * @param glomerulusIndex index of the glomerulus.
+     * @return long podocyte index.
+     */
+    public long getFirstPodocyteIndex(int glomerulusIndex) {
+        Preconditions.checkElementIndex(glomerulusIndex, mGlomerulusCount);
+        return mGlomeruli.getLong(glomerulusIndex, FIRST_PODOCYTE_OFFSET);
+    }
+
+    public int getPodocyteCount(int glomerulusIndex) {
+        Preconditions.checkElementIndex(glomerulusIndex, mGlomerulusCount);
+        return mGlomeruli.getInt(glomerulusIndex, PODOCYTE_COUNT_OFFSET);
+    }
+
+    public double getPodocyteArea(long podocyteIndex) {
+        checkPodocyteIndex(podocyteIndex);
+        return mPodocytes.getDouble(podocyteIndex, PODOCYTE_GEOMETRY_OFFSET + AREA_OFFSET);
+    }
+
+    public double getPodocyteFeret(long podocyteIndex) {
+        checkPodocyteIndex(podocyteIndex);
+        return mPodocytes.getDouble(podocyteIndex, PODOCYTE_GEOMETRY_OFFSET + FERET_OFFSET);
+    }
+
+    public double getPodocyteFeretX(long podocyteIndex) {
+        checkPodocyteIndex(podocyteIndex);
+        return mPodocytes.getDouble(podocyteIndex, PODOCYTE_GEOMETRY_OFFSET + FERET_X_OFFSET);
+    }
+
+    public double getPodocyteFeretY(long podocyteIndex) {
+        checkPodocyteIndex(podocyteIndex);
+        return mPodocytes.getDouble(podocyteIndex, PODOCYTE_GEOMETRY_OFFSET + FERET_Y_OFFSET);
+    }
+
+    /**
+     * Returns a view of a glomerulus backed by the records.
+     * @param glomerulusIndex index of the glomerulus.
+     * @return glomerulus view
+     */
+    public GlomerulusView getGlomerulus(int glomerulusIndex) {
+        Preconditions.checkElementIndex(glomerulusIndex, mGlomerulusCount);
+        return new GlomerulusView(glomerulusIndex);
+    }
+
+    public String toString() {
+        return MoreObjects.toStringHelper(OffHeapMeasurementStore.class)
+                .add("biopsyCount", mBiopsyIds.size())
+                .add("glomerulusCount", mGlomerulusCount)
+                .add("podocyteCount", mPodocyteCount)
+                .toString();
+    }
+
+    private void checkPodocyteIndex(long podocyteIndex) {
+        if (podocyteIndex < 0 || podocyteIndex >= mPodocyteCount) {
+            throw new IndexOutOfBoundsException(String.format("Podocyte index %d out of bounds for %d podocytes",
+                    podocyteIndex, mPodocyteCount));
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Flyweight view of a biopsy, offering the same getters as {@link BiopsyResult}.
+     */
+    public final class BiopsyView {
+        private final int mIndex;
+
+        private BiopsyView(int index) {
+            mIndex = index;
+        }
+
+        public String getId() {
+            return mBiopsyIds.get(mIndex);
+        }
+
+        public int getGlomerulusCount() {
+            return mBiopsyOffsets[mIndex + 1] - mBiopsyOffsets[mIndex];
+        }
+
+        /**
+         * Returns the index in the store of the first glomerulus of the biopsy.
+         * @return int glomerulus index.
+         */
+        public int getFirstGlomerulusIndex() {
+            return mBiopsyOffsets[mIndex];
+        }
+
+        /**
+         * Returns a view of one of the glomeruli of the biopsy.
+         * @param glomerulusIndex index of the glomerulus inside this biopsy.
+         * @return glomerulus view
+         */
+        public GlomerulusView getGlomerulus(int glomerulusIndex) {
+            Preconditions.checkElementIndex(glomerulusIndex, getGlomerulusCount());
+            return new GlomerulusView(mBiopsyOffsets[mIndex] + glomerulusIndex);
+        }
+
+        /**
+         * Returns a list view of the glomeruli of the biopsy. Every call to {@link List#get(int)} materializes a new
+         * {@link GlomerulusData}, which is not retained.
+         * @return an unmodifiable list of glomerulus data.
+         */
+        public List<GlomerulusData> asGlomerulusDataList() {
+            return new GlomerulusDataList(mBiopsyOffsets[mIndex], getGlomerulusCount());
+        }
+
+        /**
+         * Materializes this biopsy as a {@link BiopsyResult}.
+         * @return a new biopsy result with all its glomeruli.
+         */
+        public BiopsyResult toBiopsyResult() {
+            BiopsyResult biopsyResult = new BiopsyResult(getId());
+            biopsyResult.setGlomerulusData(asGlomerulusDataList());
+            return biopsyResult;
+        }
+    }
+
+    /**
+     * Flyweight view of a glomerulus, offering the same getters as {@link GlomerulusData}.
+     */
+    public final class GlomerulusView {
+        private final int mIndex;
+
+        private GlomerulusView(int index) {
+            mIndex = index;
+        }
+
+        public int getImageId() {
+            return mGlomeruli.getInt(mIndex, IMAGE_ID_OFFSET);
+        }
+
+        public int getNumber() {
+            return mGlomeruli.getInt(mIndex, NUMBER_OFFSET);
+        }
+
+        public double getArea() {
+            return mGlomeruli.getDouble(mIndex, GLOMERULUS_GEOMETRY_OFFSET + AREA_OFFSET);
+        }
+
+        public double getFeret() {
+            return mGlomeruli.getDouble(mIndex, GLOMERULUS_GEOMETRY_OFFSET + FERET_OFFSET);
+        }
+
+        public double getFeretX() {
+            return mGlomeruli.getDouble(mIndex, GLOMERULUS_GEOMETRY_OFFSET + FERET_X_OFFSET);
+        }
+
+        public double getFeretY() {
+            return mGlomeruli.getDouble(mIndex, GLOMERULUS_GEOMETRY_OFFSET + FERET_Y_OFFSET);
+        }
+
+        /**
+         * Returns the geometric info of the glomerulus. A new object is created on every call, prefer
+         * {@link #getArea()} and {@link #getFeret()} on hot paths.
+         * @return geometric info
+         */
+        public GeometryInfo getGeometryInfo() {
+            return new GeometryInfo(getArea(), getFeret(), getFeretX(), getFeretY());
+        }
+
+        public int getPodocyteCount() {
+            return mGlomeruli.getInt(mIndex, PODOCYTE_COUNT_OFFSET);
+        }
+
+        /**
+         * Returns a view of one of the podocytes of the glomerulus.
+         * @param podocyteIndex index of the podocyte inside this glomerulus.
+         * @return podocyte view
+         */
+        public PodocyteView getPodocyte(int podocyteIndex) {
+            Preconditions.checkElementIndex(podocyteIndex, getPodocyteCount());
+            return new PodocyteView(mGlomeruli.getLong(mIndex, FIRST_PODOCYTE_OFFSET) + podocyteIndex);
+        }
+
+        /**
+         * Materializes this glomerulus as a {@link GlomerulusData}.
+         * @return a new glomerulus data object with its podocytes.
+         */
+        public GlomerulusData toGlomerulusData() {
+            final int podocyteCount = getPodocyteCount();
+            List<PodocyteData> podocytesData = new ArrayList<>(podocyteCount);
+            for (int i = 0; i < podocyteCount; i++) {
+                podocytesData.add(getPodocyte(i).toPodocyteData());
+            }
+
+            GlomerulusData glomerulusData = new GlomerulusData(getGeometryInfo(), getImageId(), getNumber());
+            glomerulusData.setPodocytesData(podocytesData);
+            return glomerulusData;
+        }
+    }
+
+    /**
+     * Flyweight view of a podocyte, offering the same getters as {@link PodocyteData}.
+     */
+    public final class PodocyteView {
+        private final long mIndex;
+
+        private PodocyteView(long index) {
+            mIndex = index;
+        }
+
+        public double getArea() {
+            return mPodocytes.getDouble(mIndex, PODOCYTE_GEOMETRY_OFFSET + AREA_OFFSET);
+        }
+
+        public double getFeret() {
+            return mPodocytes.getDouble(mIndex, PODOCYTE_GEOMETRY_OFFSET + FERET_OFFSET);
+        }
+
+        public double getFeretX() {
+            return mPodocytes.getDouble(mIndex, PODOCYTE_GEOMETRY_OFFSET + FERET_X_OFFSET);
+        }
+
+        public double getFeretY() {
+            return mPodocytes.getDouble(mIndex, PODOCYTE_GEOMETRY_OFFSET + FERET_Y_OFFSET);
+        }
+
+        /**
+         * Returns the geometric info of the podocyte. A new object is created on every call, prefer
+         * {@link #getArea()} and {@link #getFeret()} on hot paths.
+         * @return geometric info
+         */
+        public GeometryInfo getGeometryInfo() {
+            return new GeometryInfo(getArea(), getFeret(), getFeretX(), getFeretY());
+        }
+
+        public PodocyteData toPodocyteData() {
+            return new PodocyteData(getGeometryInfo());
+        }
+    }
+
+    private final class GlomerulusDataList extends AbstractList<GlomerulusData> implements RandomAccess {
+        private final int mFromIndex;
+        private final int mSize;
+
+        private GlomerulusDataList(int fromIndex, int size) {
+            mFromIndex = fromIndex;
+            mSize = size;
+        }
+
+        @Override
+        public GlomerulusData get(int index) {
+            Preconditions.checkElementIndex(index, mSize);
+            return getGlomerulus(mFromIndex + index).toGlomerulusData();
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+    }
+
+    /**
+     * Fixed size records split into buffers of a power of two records each.
+     */
+    private static final class RecordChunks {
+        private final int mRecordSize;
+        private final int mShift;
+        private final long mMask;
+        private ByteBuffer[] mChunks;
+        private long mCount;
+
+        private RecordChunks(int recordSize, int shift, ByteBuffer[] chunks, long count) {
+            mRecordSize = recordSize;
+            mShift = shift;
+            mMask = (1L << shift) - 1;
+            mChunks = chunks;
+            mCount = count;
+        }
+
+        /**
+         * Maps a section of a store file.
+         */
+        private static RecordChunks map(FileChannel channel, long offset, long count, int recordSize)
+                throws IOException {
+            final long chunkRecords = 1L << DEFAULT_CHUNK_SHIFT;
+            ByteBuffer[] chunks = new ByteBuffer[(int) ((count + chunkRecords - 1) >>> DEFAULT_CHUNK_SHIFT)];
+            for (int i = 0; i < chunks.length; i++) {
+                final long records = Math.min(chunkRecords, count - i * chunkRecords);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + i * chunkRecords * recordSize,
+                        records * recordSize).order(BYTE_ORDER);
+            }
+            return new RecordChunks(recordSize, DEFAULT_CHUNK_SHIFT, chunks, count);
+        }
+
+        private int getInt(long index, int fieldOffset) {
+            return chunk(index).getInt(position(index) + fieldOffset);
+        }
+
+        private long getLong(long index, int fieldOffset) {
+            return chunk(index).getLong(position(index) + fieldOffset);
+        }
+
+        private double getDouble(long index, int fieldOffset) {
+            return chunk(index).getDouble(position(index) + fieldOffset);
+        }
+
+        private ByteBuffer chunk(long index) {
+            return mChunks[(int) (index >>> mShift)];
+        }
+
+        private int position(long index) {
+            return (int) (index & mMask) * mRecordSize;
+        }
+
+        /**
+         * Appends a zeroed record, growing the last chunk or adding a new one if needed.
+         * @return index of the record.
+         */
+        private long add() {
+            final int chunkIndex = (int) (mCount >>> mShift);
+            if (chunkIndex == mChunks.length) {
+                mChunks = Arrays.copyOf(mChunks, Math.max(4, mChunks.length * 2));
+            }
+            ByteBuffer chunk = mChunks[chunkIndex];
+            final int position = position(mCount);
+            if (chunk == null || position == chunk.capacity()) {
+                // Chunks start small and double up to their full size, so small stores stay small
+                final int fullCapacity = (1 << mShift) * mRecordSize;
+                final int capacity = chunk == null ? Math.min(fullCapacity, 64 * mRecordSize) : chunk.capacity() * 2;
+                ByteBuffer grownChunk = ByteBuffer.allocateDirect(capacity).order(BYTE_ORDER);
+                if (chunk != null) {
+                    chunk.clear();
+                    grownChunk.put(chunk).clear();
+                }
+                mChunks[chunkIndex] = grownChunk;
+            }
+            return mCount++;
+        }
+
+        private void putInt(long index, int fieldOffset, int value) {
+            chunk(index).putInt(position(index) + fieldOffset, value);
+        }
+
+        private void putLong(long index, int fieldOffset, long value) {
+            chunk(index).putLong(position(index) + fieldOffset, value);
+        }
+
+        private void putDouble(long index, int fieldOffset, double value) {
+            chunk(index).putDouble(position(index) + fieldOffset, value);
+        }
+
+        private void writeTo(FileChannel channel) throws IOException {
+            long remaining = mCount * mRecordSize;
+            for (int i = 0; remaining > 0; i++) {
+                ByteBuffer chunk = mChunks[i].duplicate();
+                chunk.clear().limit((int) Math.min(chunk.capacity(), remaining));
+                remaining -= chunk.limit();
+                writeFully(channel, chunk);
+            }
+        }
+    }
+
+    /**
+     * Appends biopsies, glomeruli and podocytes to growing off-heap records.
+     *
+     * Glomeruli added with {@link #addGlomerulus(int, int, double, double, double, double)} belong to the last biopsy
+     * added, and podocytes added with {@link #addPodocyte(double, double, double, double)} to the last glomerulus
+     * added. A builder can't be used anymore once the store is built.
+     */
+    public static final class Builder {
+        private final List<String> mBiopsyIds = new ArrayList<>();
+        private int[] mBiopsyOffsets = new int[16];
+        private RecordChunks mGlomeruli;
+        private RecordChunks mPodocytes;
+        private long mLastGlomerulus = -1;
+
+        public Builder() {
+            this(DEFAULT_CHUNK_SHIFT);
+        }
+
+        /**
+         * Creates a builder.
+         * @param chunkShift number of records per chunk as a power of two, at most {@link #MAX_CHUNK_SHIFT}.
+         */
+        public Builder(int chunkShift) {
+            Preconditions.checkArgument(chunkShift > 0 && chunkShift <= MAX_CHUNK_SHIFT);
+            mGlomeruli = new RecordChunks(GLOMERULUS_RECORD_SIZE, chunkShift, new ByteBuffer[0], 0);
+            mPodocytes = new RecordChunks(PODOCYTE_RECORD_SIZE, chunkShift, new ByteBuffer[0], 0);
+        }
+
+        public Builder addBiopsy(String id) {
+            Preconditions.checkNotNull(id);
+            checkNotBuilt();
+
+            if (mBiopsyIds.size() + 1 == mBiopsyOffsets.length) {
+                mBiopsyOffsets = Arrays.copyOf(mBiopsyOffsets, mBiopsyOffsets.length * 2);
+            }
+            mBiopsyOffsets[mBiopsyIds.size()] = (int) mGlomeruli.mCount;
+            mBiopsyIds.add(id);
+            return this;
+        }
+
+        /**
+         * Adds a biopsy with all its glomeruli and podocytes.
+         * @param biopsyResult biopsy result with its glomerulus data set.
+         * @return this builder
+         */
+        public Builder addBiopsy(BiopsyResult biopsyResult) {
+            List<GlomerulusData> glomerulusData = Preconditions.checkNotNull(biopsyResult.getGlomerulusData());
+
+            addBiopsy(biopsyResult.getId());
+            for (GlomerulusData glomerulus : glomerulusData) {
+                GeometryInfo geometryInfo = glomerulus.getGeometryInfo();
+                addGlomerulus(glomerulus.getImageId(), glomerulus.getNumber(), geometryInfo.getArea(),
+                        geometryInfo.getFeret(), geometryInfo.getFeretX(), geometryInfo.getFeretY());
+                for (PodocyteData podocyte : glomerulus.getPodocytesData()) {
+                    geometryInfo = podocyte.getGeometryInfo();
+                    addPodocyte(geometryInfo.getArea(), geometryInfo.getFeret(), geometryInfo.getFeretX(),
+                            geometryInfo.getFeretY());
+                }
+            }
+            return this;
+        }
+
+        public Builder addGlomerulus(int imageId, int number, double area, double feret, double feretX,
+                                     double feretY) {
+            checkNotBuilt();
+            Preconditions.checkState(!mBiopsyIds.isEmpty(), "Glomerulus added before any biopsy");
+            Preconditions.checkState(mGlomeruli.mCount < Integer.MAX_VALUE, "Too many glomeruli");
+
+            final long index = mGlomeruli.add();
+            mGlomeruli.putInt(index, IMAGE_ID_OFFSET, imageId);
+            mGlomeruli.putInt(index, NUMBER_OFFSET, number);
+            mGlomeruli.putDouble(index, GLOMERULUS_GEOMETRY_OFFSET + AREA_OFFSET, area);
+            mGlomeruli.putDouble(index, GLOMERULUS_GEOMETRY_OFFSET + FERET_OFFSET, feret);
+            mGlomeruli.putDouble(index, GLOMERULUS_GEOMETRY_OFFSET + FERET_X_OFFSET, feretX);
+            mGlomeruli.putDouble(index, GLOMERULUS_GEOMETRY_OFFSET + FERET_Y_OFFSET, feretY);
+            mGlomeruli.putLong(index, FIRST_PODOCYTE_OFFSET, mPodocytes.mCount);
+            mGlomeruli.putInt(index, PODOCYTE_COUNT_OFFSET, 0);
+            mGlomeruli.putInt(index, BIOPSY_INDEX_OFFSET, mBiopsyIds.size() - 1);
+            mLastGlomerulus = index;
+            return this;
+        }
+
+        public Builder addPodocyte(double area, double feret, double feretX, double feretY) {
+            checkNotBuilt();
+            Preconditions.checkState(mLastGlomerulus >= 0, "Podocyte added before any glomerulus");
+
+            final long index = mPodocytes.add();
+            mPodocytes.putDouble(index, PODOCYTE_GEOMETRY_OFFSET + AREA_OFFSET, area);
+            mPodocytes.putDouble(index, PODOCYTE_GEOMETRY_OFFSET + FERET_OFFSET, feret);
+            mPodocytes.putDouble(index, PODOCYTE_GEOMETRY_OFFSET + FERET_X_OFFSET, feretX);
+            mPodocytes.putDouble(index, PODOCYTE_GEOMETRY_OFFSET + FERET_Y_OFFSET, feretY);
+            mGlomeruli.putInt(mLastGlomerulus, PODOCYTE_COUNT_OFFSET,
+                    mGlomeruli.getInt(mLastGlomerulus, PODOCYTE_COUNT_OFFSET) + 1);
+            return this;
+        }
+
+        public OffHeapMeasurementStore build() {
+            checkNotBuilt();
+
+            final int biopsyCount = mBiopsyIds.size();
+            int[] biopsyOffsets = Arrays.copyOf(mBiopsyOffsets, biopsyCount + 1);
+            biopsyOffsets[biopsyCount] = (int) mGlomeruli.mCount;
+            OffHeapMeasurementStore store = new OffHeapMeasurementStore(mBiopsyIds, biopsyOffsets, mGlomeruli,
+                    mPodocytes);
+            mGlomeruli = null;
+            mPodocytes = null;
+            return store;
+        }
+
+        private void checkNotBuilt() {
+            Preconditions.checkState(mGlomeruli != null, "Store already built");
+        }
+    }
+}
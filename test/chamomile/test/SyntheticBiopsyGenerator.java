@@ -0,0 +1,454 @@
+package chamomile.test;
+
+import chamomile.io.BiopsyDataProcessor;
+import chamomile.io.PodocyteAssignment;
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.PodocyteData;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Generates cohorts of synthetic biopsies in the layout read by {@link BiopsyDataProcessor}: a directory per biopsy,
+ * holding image data files named {@code 1.xls} onwards, each with a header line followed by glomerulus lines and
+ * their runs of podocyte lines.
+ *
+ * Generators are immutable and tuned through the {@code with} methods. Every biopsy is generated from its own random
+ * generator seeded with the seed of the cohort and the index of the biopsy, so a biopsy is the same byte for byte
+ * whether it's generated alone or with the rest of the cohort, in any order. Glomerulus and podocyte areas fall within
+ * the valid ranges of {@link GlomerulusData} and {@link PodocyteData}, ferets match the areas, and podocytes lie
+ * around their glomerulus, so generated cohorts can also be parsed with {@link PodocyteAssignment#NEAREST_GLOMERULUS}.
+ *
+ * The sizes are averages: the number of glomeruli per image and of podocytes per glomerulus vary uniformly between 1
+ * and twice the average. The skew spreads the images unevenly across biopsies, the biopsy of rank {@code r} (in a
+ * random order) having {@code imagesPerBiopsy / r^skew} images, at least one. A skew of 0 gives every biopsy the
+ * same number of images, a skew of 1 a Zipf distribution.
+ *
+ * Lines are formatted into a reusable buffer, so that generating 100M lines is bound by the disk. The tests and
+ * benchmarks format their own measurement lines with {@link #formatMeasurement}, so all synthetic files share the
+ * same header and number format.
+ *
+ * @author Gomez-Avila, Rodrigo
+ */
+public final class SyntheticBiopsyGenerator {
+
+    /**
+     * Header line of the generated image data files.
+     */
+    public static final String HEADER = "Area\tFeret\tFeretX\tFeretY\tFeretAngle\tMinFeret";
+
+    /**
+     * Size of the square images, in µm ({@value}), the range of the feret coordinates.
+     */
+    private static final double IMAGE_SIZE = 2000.0;
+
+    /**
+     * Margin kept between the areas of the generated structures and the valid range, so that rounding to 3 decimals
+     * never leaves it.
+     */
+    private static final double AREA_MARGIN = 0.01;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long mSeed;
+    private final int mBiopsyCount;
+    private final int mImagesPerBiopsy;
+    private final int mGlomeruliPerImage;
+    private final int mPodocytesPerGlomerulus;
+    private final double mSkew;
+
+    /**
+     * Creates a generator of a cohort of 10 biopsies of 10 images, with 10 glomeruli per image and 10 podocytes per
+     * glomerulus on average.
+     * @param seed seed of the cohort.
+     */
+    public SyntheticBiopsyGenerator(long seed) {
+        this(seed, 10, 10, 10, 10, 0.0);
+    }
+
+    private SyntheticBiopsyGenerator(long seed, int biopsyCount, int imagesPerBiopsy, int glomeruliPerImage,
+                                     int podocytesPerGlomerulus, double skew) {
+        mSeed = seed;
+        mBiopsyCount = biopsyCount;
+        mImagesPerBiopsy = imagesPerBiopsy;
+        mGlomeruliPerImage = glomeruliPerImage;
+        mPodocytesPerGlomerulus = podocytesPerGlomerulus;
+        mSkew = skew;
+    }
+
+    /**
+     * Sets the number of biopsies of the cohort.
+     * @param biopsyCount number of biopsies.
+     * @return a new generator
+     */
+    public SyntheticBiopsyGenerator withBiopsyCount(int biopsyCount) {
+        Preconditions.checkArgument(biopsyCount > 0);
+        return new SyntheticBiopsyGenerator(mSeed, biopsyCount, mImagesPerBiopsy, mGlomeruliPerImage,
+                mPodocytesPerGlomerulus, mSkew);
+    }
+
+    /**
+     * Sets the number of images of the biggest biopsies, which is the number of images of every biopsy without skew.
+     * @param imagesPerBiopsy number of images.
+     * @return a new generator
+     */
+    public SyntheticBiopsyGenerator withImagesPerBiopsy(int imagesPerBiopsy) {
+        Preconditions.checkArgument(imagesPerBiopsy > 0);
+        return new SyntheticBiopsyGenerator(mSeed, mBiopsyCount, imagesPerBiopsy, mGlomeruliPerImage,
+                mPodocytesPerGlomerulus, mSkew);
+    }
+
+    /**
+     * Sets the average number of glomeruli per image.
+     * @param glomeruliPerImage number of glomeruli.
+     * @return a new generator
+     */
+    public SyntheticBiopsyGenerator withGlomeruliPerImage(int glomeruliPerImage) {
+        Preconditions.checkArgument(glomeruliPerImage > 0);
+        return new SyntheticBiopsyGenerator(mSeed, mBiopsyCount, mImagesPerBiopsy, glomeruliPerImage,
+                mPodocytesPerGlomerulus, mSkew);
+    }
+
+    /**
+     * Sets the average number of podocytes per glomerulus.
+     * @param podocytesPerGlomerulus number of podocytes.
+     * @return a new generator
+     */
+    public SyntheticBiopsyGenerator withPodocytesPerGlomerulus(int podocytesPerGlomerulus) {
+        Preconditions.checkArgument(podocytesPerGlomerulus > 0);
+        return new SyntheticBiopsyGenerator(mSeed, mBiopsyCount, mImagesPerBiopsy, mGlomeruliPerImage,
+                podocytesPerGlomerulus, mSkew);
+    }
+
+    /**
+     * Sets the skew of the number of images per biopsy.
+     * @param skew exponent of the power law of the biopsy sizes, 0 for biopsies of the same size.
+     * @return a new generator
+     */
+    public SyntheticBiopsyGenerator withSkew(double skew) {
+        Preconditions.checkArgument(skew >= 0.0 && !Double.isInfinite(skew));
+        return new SyntheticBiopsyGenerator(mSeed, mBiopsyCount, mImagesPerBiopsy, mGlomeruliPerImage,
+                mPodocytesPerGlomerulus, skew);
+    }
+
+    public int getBiopsyCount() {
+        return mBiopsyCount;
+    }
+
+    /**
+     * Returns the number of images of a biopsy.
+     * @param biopsyIndex index of the biopsy, from 0.
+     * @return number of images, at least 1.
+     */
+    public int getImageCount(int biopsyIndex) {
+        Preconditions.checkElementIndex(biopsyIndex, mBiopsyCount);
+        if (mSkew == 0.0) {
+            return mImagesPerBiopsy;
+        }
+        final int rank = 1 + rankOf(biopsyIndex);
+        return Math.max(1, (int) Math.round(mImagesPerBiopsy / Math.pow(rank, mSkew)));
+    }
+
+    /**
+     * Returns the id of a biopsy, which is the name of its directory. Ids are zero padded so that they sort in index
+     * order.
+     * @param biopsyIndex index of the biopsy, from 0.
+     * @return biopsy id
+     */
+    public String getBiopsyId(int biopsyIndex) {
+        Preconditions.checkElementIndex(biopsyIndex, mBiopsyCount);
+        final int width = Integer.toString(mBiopsyCount - 1).length();
+        StringBuilder id = new StringBuilder("B");
+        for (int i = Integer.toString(biopsyIndex).length(); i < width; i++) {
+            id.append('0');
+        }
+        return id.append(biopsyIndex).toString();
+    }
+
+    /**
+     * Writes the whole cohort, one directory per biopsy.
+     * @param rootDirectory directory receiving the biopsy directories, created if needed.
+     * @return size of the generated cohort.
+     */
+    public Corpus generate(File rootDirectory) throws IOException {
+        Corpus corpus = new Corpus();
+        for (int biopsyIndex = 0; biopsyIndex < mBiopsyCount; biopsyIndex++) {
+            corpus.add(generateBiopsy(rootDirectory, biopsyIndex));
+        }
+        return corpus;
+    }
+
+    /**
+     * Writes a single biopsy of the cohort, e.g. to generate a big cohort in parallel.
+     * @param rootDirectory directory receiving the biopsy directory, created if needed.
+     * @param biopsyIndex index of the biopsy, from 0.
+     * @return size of the generated biopsy.
+     */
+    public Corpus generateBiopsy(File rootDirectory, int biopsyIndex) throws IOException {
+        Preconditions.checkElementIndex(biopsyIndex, mBiopsyCount);
+        File biopsyDirectory = new File(rootDirectory, getBiopsyId(biopsyIndex));
+        Files.createDirectories(biopsyDirectory.toPath());
+
+        Random random = new Random(mSeed * 31 + biopsyIndex);
+        Corpus corpus = new Corpus();
+        corpus.mBiopsyCount = 1;
+        LineFormatter formatter = new LineFormatter();
+        final int imageCount = getImageCount(biopsyIndex);
+        for (int imageId = 1; imageId <= imageCount; imageId++) {
+            File file = new File(biopsyDirectory, imageId + ".xls");
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                    StandardCharsets.US_ASCII), BUFFER_SIZE)) {
+                writeImage(writer, random, formatter, corpus);
+            }
+            corpus.mImageCount++;
+            corpus.mByteCount += file.length();
+        }
+        return corpus;
+    }
+
+    /**
+     * Formats a measurement line of the generated image data files, without line terminator.
+     * @param number index of the measurement.
+     * @return line with the index and every value with 3 decimals, separated by tabs.
+     */
+    public static String formatMeasurement(int number, double area, double feret, double feretX, double feretY,
+                                           double feretAngle, double minFeret) {
+        LineFormatter formatter = new LineFormatter();
+        formatter.format(number, area, feret, feretX, feretY, feretAngle, minFeret);
+        return new String(formatter.mLine, 0, formatter.mLength);
+    }
+
+    public String toString() {
+        return MoreObjects.toStringHelper(SyntheticBiopsyGenerator.class)
+                .add("seed", mSeed)
+                .add("biopsyCount", mBiopsyCount)
+                .add("imagesPerBiopsy", mImagesPerBiopsy)
+                .add("glomeruliPerImage", mGlomeruliPerImage)
+                .add("podocytesPerGlomerulus", mPodocytesPerGlomerulus)
+                .add("skew", mSkew)
+                .toString();
+    }
+
+    /**
+     * Generates a cohort from the command line.
+     * @param args root directory, followed optionally by the biopsy count, images per biopsy, glomeruli per image,
+     *             podocytes per glomerulus, skew and seed.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 7) {
+            System.err.println("Usage: SyntheticBiopsyGenerator <root directory> [biopsies] [images per biopsy]"
+                    + " [glomeruli per image] [podocytes per glomerulus] [skew] [seed]");
+            System.exit(2);
+        }
+
+        final long seed = args.length > 6 ? Long.parseLong(args[6]) : 42;
+        SyntheticBiopsyGenerator generator = new SyntheticBiopsyGenerator(seed);
+        if (args.length > 1) {
+            generator = generator.withBiopsyCount(Integer.parseInt(args[1]));
+        }
+        if (args.length > 2) {
+            generator = generator.withImagesPerBiopsy(Integer.parseInt(args[2]));
+        }
+        if (args.length > 3) {
+            generator = generator.withGlomeruliPerImage(Integer.parseInt(args[3]));
+        }
+        if (args.length > 4) {
+            generator = generator.withPodocytesPerGlomerulus(Integer.parseInt(args[4]));
+        }
+        if (args.length > 5) {
+            generator = generator.withSkew(Double.parseDouble(args[5]));
+        }
+
+        final long start = System.nanoTime();
+        Corpus corpus = generator.generate(new File(args[0]));
+        System.out.println(generator + " " + corpus + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    private void writeImage(Writer writer, Random random, LineFormatter formatter, Corpus corpus)
+            throws IOException {
+        writer.write(HEADER);
+        writer.write("\r\n");
+
+        int number = 1;
+        final int glomerulusCount = 1 + random.nextInt(2 * mGlomeruliPerImage - 1);
+        for (int i = 0; i < glomerulusCount; i++) {
+            final double area = uniform(random, GlomerulusData.MIN_GLOMERULOUS_AREA,
+                    GlomerulusData.MAX_GLOMERULOUS_AREA);
+            final double radius = Math.sqrt(area / Math.PI);
+            final double x = radius + random.nextDouble() * (IMAGE_SIZE - 2 * radius);
+            final double y = radius + random.nextDouble() * (IMAGE_SIZE - 2 * radius);
+            formatter.writeMeasurement(writer, random, number++, area, x, y);
+
+            final int podocyteCount = 1 + random.nextInt(2 * mPodocytesPerGlomerulus - 1);
+            for (int j = 0; j < podocyteCount; j++) {
+                // Podocytes lie on the capillary tuft, within the glomerulus
+                final double angle = random.nextDouble() * 2 * Math.PI;
+                final double distance = Math.sqrt(random.nextDouble()) * radius;
+                formatter.writeMeasurement(writer, random, number++,
+                        uniform(random, PodocyteData.MIN_PODOCYTE_AREA, PodocyteData.MAX_PODOCYTE_AREA),
+                        x + distance * Math.cos(angle), y + distance * Math.sin(angle));
+            }
+            corpus.mPodocyteCount += podocyteCount;
+        }
+        corpus.mGlomerulusCount += glomerulusCount;
+    }
+
+    /**
+     * Returns the rank of a biopsy in the random order used to skew the biopsy sizes. The order is a bijection over
+     * the biopsy indexes, so it doesn't need any state to be kept.
+     */
+    private int rankOf(int biopsyIndex) {
+        // An affine permutation modulo the biopsy count, with a multiplier coprime to it
+        final long n = mBiopsyCount;
+        long multiplier = 1 + Math.floorMod(mSeed * 0x9E3779B97F4A7C15L >>> 1, n);
+        while (gcd(multiplier, n) != 1) {
+            multiplier++;
+        }
+        return (int) ((multiplier * biopsyIndex + Math.floorMod(mSeed, n)) % n);
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private static double uniform(Random random, double min, double max) {
+        return min + AREA_MARGIN + random.nextDouble() * (max - min - 2 * AREA_MARGIN);
+    }
+
+    /**
+     * Size of a generated cohort or biopsy.
+     */
+    public static final class Corpus {
+        private int mBiopsyCount;
+        private int mImageCount;
+        private long mGlomerulusCount;
+        private long mPodocyteCount;
+        private long mByteCount;
+
+        public int getBiopsyCount() {
+            return mBiopsyCount;
+        }
+
+        public int getImageCount() {
+            return mImageCount;
+        }
+
+        public long getGlomerulusCount() {
+            return mGlomerulusCount;
+        }
+
+        public long getPodocyteCount() {
+            return mPodocyteCount;
+        }
+
+        /**
+         * Returns the number of measurement lines, i.e. glomeruli and podocytes, header lines excluded.
+         * @return row count
+         */
+        public long getRowCount() {
+            return mGlomerulusCount + mPodocyteCount;
+        }
+
+        public long getByteCount() {
+            return mByteCount;
+        }
+
+        /**
+         * Adds the size of another cohort or biopsy.
+         * @param other size to add.
+         */
+        public void add(Corpus other) {
+            mBiopsyCount += other.mBiopsyCount;
+            mImageCount += other.mImageCount;
+            mGlomerulusCount += other.mGlomerulusCount;
+            mPodocyteCount += other.mPodocyteCount;
+            mByteCount += other.mByteCount;
+        }
+
+        public String toString() {
+            return MoreObjects.toStringHelper(Corpus.class)
+                    .add("biopsyCount", mBiopsyCount)
+                    .add("imageCount", mImageCount)
+                    .add("glomerulusCount", mGlomerulusCount)
+                    .add("podocyteCount", mPodocyteCount)
+                    .add("byteCount", mByteCount)
+                    .toString();
+        }
+    }
+
+    /**
+     * Formats measurement lines with 3 decimals into a reusable buffer, without {@link String#format}.
+     */
+    private static final class LineFormatter {
+        private final char[] mLine = new char[256];
+        private int mLength;
+
+        void writeMeasurement(Writer writer, Random random, int number, double area, double feretX, double feretY)
+                throws IOException {
+            // A circle of the same area has a diameter of 2 sqrt(area / pi), real shapes are a bit elongated
+            final double diameter = 2 * Math.sqrt(area / Math.PI);
+            final double feret = diameter * (1.0 + 0.3 * random.nextDouble());
+            final double minFeret = diameter * (0.7 + 0.3 * random.nextDouble());
+
+            format(number, area, feret, feretX, feretY, random.nextDouble() * 180.0, minFeret);
+            mLine[mLength++] = '\r';
+            mLine[mLength++] = '\n';
+            writer.write(mLine, 0, mLength);
+        }
+
+        void format(int number, double area, double feret, double feretX, double feretY, double feretAngle,
+                    double minFeret) {
+            mLength = 0;
+            appendLong(number);
+            appendDecimal(area);
+            appendDecimal(feret);
+            appendDecimal(feretX);
+            appendDecimal(feretY);
+            appendDecimal(feretAngle);
+            appendDecimal(minFeret);
+        }
+
+        private void appendDecimal(double value) {
+            mLine[mLength++] = '\t';
+            long thousandths = Math.round(value * 1000.0);
+            if (thousandths < 0) {
+                mLine[mLength++] = '-';
+                thousandths = -thousandths;
+            }
+            appendLong(thousandths / 1000);
+            mLine[mLength++] = '.';
+            final int fraction = (int) (thousandths % 1000);
+            mLine[mLength++] = (char) ('0' + fraction / 100);
+            mLine[mLength++] = (char) ('0' + fraction / 10 % 10);
+            mLine[mLength++] = (char) ('0' + fraction % 10);
+        }
+
+        private void appendLong(long value) {
+            final int start = mLength;
+            do {
+                mLine[mLength++] = (char) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            // Digits were written from the least significant one
+            for (int i = start, j = mLength - 1; i < j; i++, j--) {
+                char c = mLine[i];
+                mLine[i] = mLine[j];
+                mLine[j] = c;
+            }
+        }
+    }
+}
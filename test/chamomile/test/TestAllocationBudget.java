@@ -0,0 +1,189 @@
+package chamomile.test;
+
+import chamomile.io.BiopsyDataProcessor;
+import chamomile.io.GlomerulusSink;
+import chamomile.io.ImageDataFile;
+import chamomile.io.ImageDataLineProcessor;
+import chamomile.io.MappedImageDataFileReader;
+import chamomile.io.MeasurementLineParser;
+import chamomile.structures.GlomerulusData;
+import com.sun.management.HotSpotDiagnosticMXBean;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static chamomile.test.TestDataUtils.randomLines;
+import static chamomile.test.TestDataUtils.writeImageDataFile;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Guards the parse path against allocation regressions, e.g. a {@link java.util.Scanner} or a
+ * {@link String#format(String, Object...)} per line, by measuring the bytes allocated by the parsing thread.
+ *
+ * The measurement line parser must not allocate at all, so even a single boxed value per line exceeds its budget. The
+ * budgets of the line processor and readers cover the glomerulus and podocyte objects that parsing has to create, plus
+ * some slack for the JVM, and can be overridden with the {@code chamomile.allocation.*} system properties. Those
+ * objects are sized for compressed oops, so their tests are skipped on JVMs without them.
+ */
+public class TestAllocationBudget {
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    /**
+     * Bytes allocated per parsed line, including its share of the glomerulus and podocyte objects.
+     */
+    private static final long LINE_BUDGET = Long.getLong("chamomile.allocation.bytesPerLine", 320);
+
+    /**
+     * Bytes allocated by the measurement line parser for a whole file, left for the JVM itself.
+     */
+    private static final long PARSER_BUDGET = Long.getLong("chamomile.allocation.bytesPerParse", 1024);
+
+    /**
+     * Bytes allocated per parsed file besides its lines, for the file handle, mapping and parser.
+     */
+    private static final long FILE_BUDGET = Long.getLong("chamomile.allocation.bytesPerFile", 16 * 1024);
+
+    private static final int WARMUP_ROUNDS = 10;
+    private static final int MEASURED_ROUNDS = 5;
+
+    private static final GlomerulusSink DISCARDING_SINK = (GlomerulusData glomerulusData) -> {
+        // Discarded
+    };
+
+    private static com.sun.management.ThreadMXBean sThreadMXBean;
+    private static boolean sCompressedOops;
+
+    @BeforeClass
+    public static void setUpClass() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        sThreadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(sThreadMXBean.isThreadAllocatedMemorySupported());
+        sThreadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        HotSpotDiagnosticMXBean diagnosticMXBean = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+        sCompressedOops = diagnosticMXBean != null
+                && Boolean.parseBoolean(diagnosticMXBean.getVMOption("UseCompressedOops").getValue());
+    }
+
+    @Test
+    public void TestCharParserAllocation() {
+        List<String> lines = randomLines(new Random(83), 175, 1, 20);
+        List<String> measurementLines = lines.subList(1, lines.size());
+        MeasurementLineParser parser = new MeasurementLineParser();
+        long bytes = measure(() -> {
+            for (String line : measurementLines) {
+                parser.parse(line);
+            }
+        });
+        assertWithinBudget("char parser", bytes, PARSER_BUDGET);
+    }
+
+    @Test
+    public void TestByteParserAllocation() {
+        List<String> lines = randomLines(new Random(87), 175, 1, 20);
+        List<String> measurementLines = lines.subList(1, lines.size());
+        int[] ends = new int[measurementLines.size()];
+        ByteBuffer buffer = ByteBuffer.allocateDirect(measurementLines.size() * 128);
+        for (int i = 0; i < measurementLines.size(); i++) {
+            buffer.put(measurementLines.get(i).getBytes(StandardCharsets.US_ASCII));
+            ends[i] = buffer.position();
+        }
+        MeasurementLineParser parser = new MeasurementLineParser();
+        long bytes = measure(() -> {
+            int start = 0;
+            for (int end : ends) {
+                parser.parse(buffer, start, end);
+                start = end;
+            }
+        });
+        assertWithinBudget("byte parser", bytes, PARSER_BUDGET);
+    }
+
+    @Test
+    public void TestLineAllocation() {
+        assumeTrue("Budget sized for compressed oops", sCompressedOops);
+        List<String> lines = randomLines(new Random(89), 175, 1, 20);
+        long bytes = measure(() -> {
+            ImageDataLineProcessor processor = new ImageDataLineProcessor(1, DISCARDING_SINK);
+            for (String line : lines) {
+                processor.processLine(line);
+            }
+            processor.getResult();
+        });
+        assertWithinBudget("line processor", bytes, FILE_BUDGET + LINE_BUDGET * lines.size());
+    }
+
+    @Test
+    public void TestFileAllocation() throws IOException {
+        assumeTrue("Budget sized for compressed oops", sCompressedOops);
+        File file = mTemporaryFolder.newFile("1.xls");
+        List<String> lines = randomLines(new Random(97), 175, 1, 20);
+        writeImageDataFile(file, lines.toArray(new String[0]));
+        ImageDataFile imageDataFile = new ImageDataFile(file, 1);
+        MappedImageDataFileReader reader = new MappedImageDataFileReader();
+
+        long bytes = measure(() -> reader.read(imageDataFile, DISCARDING_SINK));
+        assertWithinBudget("mapped reader", bytes, FILE_BUDGET + LINE_BUDGET * lines.size());
+    }
+
+    @Test
+    public void TestBiopsyAllocation() throws IOException {
+        assumeTrue("Budget sized for compressed oops", sCompressedOops);
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        Random random = new Random(101);
+        final int fileCount = 8;
+        long lineCount = 0;
+        for (int imageId = 1; imageId <= fileCount; imageId++) {
+            List<String> lines = randomLines(random, 45, 1, 20);
+            writeImageDataFile(new File(biopsyDir, imageId + ".xls"), lines.toArray(new String[0]));
+            lineCount += lines.size();
+        }
+        MappedImageDataFileReader reader = new MappedImageDataFileReader();
+
+        long bytes = measure(() -> BiopsyDataProcessor.streamAllDataFilesForBiopsy(biopsyDir, reader,
+                DISCARDING_SINK));
+        assertWithinBudget("streamed biopsy", bytes, (fileCount + 1) * FILE_BUDGET + LINE_BUDGET * lineCount);
+    }
+
+    /**
+     * Runs a workload until it's compiled, then returns the fewest bytes it allocated in a run, to leave out one-off
+     * allocations such as class loading.
+     */
+    private static long measure(Workload workload) {
+        try {
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                workload.run();
+            }
+            long minBytes = Long.MAX_VALUE;
+            final long threadId = Thread.currentThread().getId();
+            for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                long start = sThreadMXBean.getThreadAllocatedBytes(threadId);
+                workload.run();
+                minBytes = Math.min(minBytes, sThreadMXBean.getThreadAllocatedBytes(threadId) - start);
+            }
+            return minBytes;
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void assertWithinBudget(String what, long bytes, long budget) {
+        assertTrue(what + " allocated " + bytes + " bytes, over its budget of " + budget, bytes <= budget);
+    }
+
+    @FunctionalInterface
+    private interface Workload {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,83 @@
+package chamomile.test;
+
+import chamomile.io.AreaClassifier;
+import chamomile.io.ImageDataLineProcessor;
+import chamomile.io.PodocyteAssignment;
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.PodocyteData;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestAreaClassifier {
+
+    @Test
+    public void TestDefaultRanges() {
+        AreaClassifier classifier = AreaClassifier.DEFAULT;
+
+        assertEquals(AreaClassifier.ILLEGAL, classifier.classify(4.999));
+        assertEquals(AreaClassifier.PODOCYTE, classifier.classify(PodocyteData.MIN_PODOCYTE_AREA));
+        assertEquals(AreaClassifier.PODOCYTE, classifier.classify(PodocyteData.MAX_PODOCYTE_AREA));
+        assertEquals(AreaClassifier.ILLEGAL, classifier.classify(1000.0));
+        assertEquals(AreaClassifier.GLOMERULUS, classifier.classify(GlomerulusData.MIN_GLOMERULOUS_AREA));
+        assertEquals(AreaClassifier.GLOMERULUS, classifier.classify(GlomerulusData.MAX_GLOMERULOUS_AREA));
+        assertEquals(AreaClassifier.ILLEGAL, classifier.classify(15000.001));
+        assertEquals(AreaClassifier.ILLEGAL, classifier.classify(Double.NaN));
+    }
+
+    @Test
+    public void TestBulkMatchesSingle() {
+        Random random = new Random(31);
+        double[] areas = new double[1000];
+        for (int i = 0; i < areas.length; i++) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    areas[i] = new double[]{5.0, 150.0, 4000.0, 15000.0, Double.NaN, -1.0}[random.nextInt(6)];
+                    break;
+                case 1:
+                    areas[i] = 5.0 + random.nextDouble() * 145.0;
+                    break;
+                case 2:
+                    areas[i] = 4000.0 + random.nextDouble() * 11000.0;
+                    break;
+                default:
+                    areas[i] = random.nextDouble() * 20000.0;
+                    break;
+            }
+        }
+
+        AreaClassifier[] classifiers = {AreaClassifier.DEFAULT, new AreaClassifier(10.0, 5000.0, 4000.0, 9000.0)};
+        for (AreaClassifier classifier : classifiers) {
+            byte[] classes = new byte[areas.length];
+            classifier.classify(areas, 700, classes);
+            for (int i = 0; i < areas.length; i++) {
+                assertEquals(i < 700 ? classifier.classify(areas[i]) : 0, classes[i]);
+            }
+        }
+    }
+
+    @Test
+    public void TestCustomRangesInProcessor() {
+        List<GlomerulusData> glomeruliReceived = new ArrayList<>();
+        ImageDataLineProcessor processor = new ImageDataLineProcessor(42, glomeruliReceived::add,
+                PodocyteAssignment.FILE_ORDER, new AreaClassifier(1.0, 200.0, 1000.0, 20000.0));
+
+        processor.processLine("Area\tFeret\tFeretX\tFeretY\tFeretAngle\tMinFeret");
+        processor.processLine("1\t18914.940\t128.412\t226.768\t248.444\t117.031\t85.135");
+        processor.processLine("2\t2.243\t8.696\t214.429\t267.119\t57.529\t3.673");
+        processor.processLine("3\t180.369\t8.250\t214.762\t277.457\t104.036\t7.003");
+        processor.getResult();
+
+        assertEquals(1, glomeruliReceived.size());
+        assertEquals(2, glomeruliReceived.get(0).getPodocytesData().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void TestEmptyRange() {
+        new AreaClassifier(150.0, 5.0, 4000.0, 15000.0);
+    }
+}
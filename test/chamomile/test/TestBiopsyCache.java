@@ -0,0 +1,175 @@
+package chamomile.test;
+
+import chamomile.io.BiopsyCache;
+import chamomile.io.BiopsyDataProcessor;
+import chamomile.io.IngestionMode;
+import chamomile.io.IngestionStatistics;
+import chamomile.io.InstrumentedImageDataFileReader;
+import chamomile.io.LineImageDataFileReader;
+import chamomile.structures.BiopsyResult;
+import chamomile.structures.GlomerulusData;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static chamomile.test.TestDataUtils.assertSameGlomeruli;
+import static chamomile.test.TestDataUtils.writeRandomBiopsy;
+import static chamomile.test.TestDataUtils.writeRandomImageDataFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestBiopsyCache {
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private final IngestionStatistics mIngestionStatistics = new IngestionStatistics();
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void TestCachedBiopsy() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeRandomBiopsy(biopsyDir, new Random(71), 5);
+        BiopsyCache cache = newCache(BiopsyCache.DEFAULT_MAXIMUM_MEASUREMENTS);
+
+        BiopsyResult biopsyResult = cache.get(biopsyDir);
+        assertEquals("B1", biopsyResult.getId());
+        assertSameGlomeruli(BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir).getGlomerulusData(),
+                biopsyResult.getGlomerulusData());
+        assertSame(biopsyResult, cache.get(biopsyDir));
+        assertSame(biopsyResult, cache.getIfPresent(biopsyDir));
+
+        assertEquals(5, mIngestionStatistics.getFilesParsed());
+        assertEquals(2, cache.getStats().hitCount());
+        assertEquals(1, cache.getStats().missCount());
+
+        cache.invalidate(biopsyDir);
+        assertNull(cache.getIfPresent(biopsyDir));
+    }
+
+    @Test
+    public void TestConcurrentLoadsCoalesced() throws Exception {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeRandomBiopsy(biopsyDir, new Random(73), 5);
+        BiopsyCache cache = newCache(BiopsyCache.DEFAULT_MAXIMUM_MEASUREMENTS);
+
+        List<Future<BiopsyResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(mExecutor.submit(() -> cache.get(biopsyDir)));
+        }
+        for (Future<BiopsyResult> future : futures) {
+            assertSame(futures.get(0).get(), future.get());
+        }
+
+        assertEquals(5, mIngestionStatistics.getFilesParsed());
+        assertEquals(1, cache.getStats().loadCount());
+    }
+
+    @Test
+    public void TestRefreshedWhenFilesChange() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeRandomBiopsy(biopsyDir, new Random(79), 3);
+        BiopsyCache cache = newCache(BiopsyCache.DEFAULT_MAXIMUM_MEASUREMENTS);
+        BiopsyResult biopsyResult = cache.get(biopsyDir);
+
+        writeRandomImageDataFile(new File(biopsyDir, "100.xls"), new Random(83), 10, 5);
+        BiopsyResult refreshedBiopsyResult = cache.get(biopsyDir);
+
+        assertEquals(biopsyResult.getGlomerulusData().size() + 10, refreshedBiopsyResult.getGlomerulusData().size());
+        assertEquals(1, cache.getRefreshCount());
+        assertSame(refreshedBiopsyResult, cache.get(biopsyDir));
+    }
+
+    @Test
+    public void TestEvictedByMeasurementCount() throws IOException {
+        BiopsyCache cache = newCache(1000);
+        Random random = new Random(89);
+        List<File> biopsyDirs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            File biopsyDir = mTemporaryFolder.newFolder("B" + i);
+            writeRandomImageDataFile(new File(biopsyDir, "1.xls"), random, 50, 5);
+            biopsyDirs.add(biopsyDir);
+        }
+
+        for (File biopsyDir : biopsyDirs) {
+            cache.get(biopsyDir);
+        }
+
+        // Every biopsy holds between 50 and 300 measurements
+        assertTrue(cache.size() < biopsyDirs.size());
+        assertTrue(cache.getStats().evictionCount() > 0);
+    }
+
+    @Test
+    public void TestBiopsyHeavierThanSegmentKept() throws IOException {
+        BiopsyCache cache = newCache(1000);
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeRandomImageDataFile(new File(biopsyDir, "1.xls"), new Random(97), 200, 5);
+
+        BiopsyResult biopsyResult = cache.get(biopsyDir);
+        long measurementCount = 0;
+        for (GlomerulusData glomerulusData : biopsyResult.getGlomerulusData()) {
+            measurementCount += 1 + glomerulusData.getPodocytesData().size();
+        }
+
+        // Heavier than a quarter of the bound, which a cache split in four segments would evict right away
+        assertTrue(measurementCount > 250 && measurementCount <= 1000);
+        assertSame(biopsyResult, cache.getIfPresent(biopsyDir));
+        assertEquals(0, cache.getStats().evictionCount());
+    }
+
+    @Test
+    public void TestCachedBiopsyUnmodifiable() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeRandomBiopsy(biopsyDir, new Random(101), 3);
+        BiopsyCache cache = newCache(BiopsyCache.DEFAULT_MAXIMUM_MEASUREMENTS);
+        BiopsyResult biopsyResult = cache.get(biopsyDir);
+        List<GlomerulusData> glomerulusData = biopsyResult.getGlomerulusData();
+
+        assertUnsupported(() -> biopsyResult.setGlomerulusData(ImmutableList.of()));
+        assertUnsupported(() -> biopsyResult.setImageStatistics(ImmutableMap.of()));
+        assertUnsupported(() -> biopsyResult.setErrors(ImmutableList.of()));
+
+        assertSame(glomerulusData, cache.get(biopsyDir).getGlomerulusData());
+        assertEquals(3, biopsyResult.getImageStatistics().size());
+    }
+
+    private static void assertUnsupported(Runnable runnable) {
+        try {
+            runnable.run();
+            fail("Modified a cached biopsy");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+    }
+
+    private BiopsyCache newCache(long maximumMeasurements) {
+        return new BiopsyCache(new InstrumentedImageDataFileReader(new LineImageDataFileReader(), mIngestionStatistics),
+                IngestionMode.STRICT, maximumMeasurements);
+    }
+}
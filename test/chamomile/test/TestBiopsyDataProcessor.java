@@ -0,0 +1,451 @@
+package chamomile.test;
+
+import chamomile.io.BiopsyDataProcessor;
+import chamomile.io.CachingImageDataFileReader;
+import chamomile.io.ChunkedImageDataFileReader;
+import chamomile.io.CohortSink;
+import chamomile.io.GlomerulusSink;
+import chamomile.io.ImageDataFile;
+import chamomile.io.ImageDataFileReader;
+import chamomile.io.IngestionMode;
+import chamomile.io.IngestionStatistics;
+import chamomile.io.InstrumentedImageDataFileReader;
+import chamomile.io.LazyBiopsyResult;
+import chamomile.io.LineImageDataFileReader;
+import chamomile.io.MappedImageDataFileReader;
+import chamomile.structures.BiopsyResult;
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.IngestionError;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static chamomile.test.TestDataUtils.HEADER;
+import static chamomile.test.TestDataUtils.assertSameGlomeruli;
+import static chamomile.test.TestDataUtils.compressFile;
+import static chamomile.test.TestDataUtils.writeImageDataFile;
+import static chamomile.test.TestDataUtils.writeRandomBiopsy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestBiopsyDataProcessor {
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private ExecutorService mExecutor;
+    private final static double DEFAULT_DELTA = 0.0001;
+
+    @Before
+    public void setup() {
+        mExecutor = BiopsyDataProcessor.newIngestionExecutor(4);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void TestSingleBiopsy() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeImageDataFile(new File(biopsyDir, "2.xls"),
+                HEADER,
+                "1\t6584.420\t115.378\t929.414\t201.423\t94.310\t76.034",
+                "2\t18.238\t5.737\t928.747\t214.095\t54.462\t4.716");
+        writeImageDataFile(new File(biopsyDir, "1.xls"),
+                HEADER,
+                "1\t8914.940\t128.412\t226.768\t248.444\t117.031\t85.135",
+                "2\t23.243\t8.696\t214.429\t267.119\t57.529\t3.673",
+                "3\t40.369\t8.250\t214.762\t277.457\t104.036\t7.003");
+
+        BiopsyResult biopsyResult = BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir);
+
+        List<GlomerulusData> glomerulusData = biopsyResult.getGlomerulusData();
+        assertEquals(2, glomerulusData.size());
+        assertEquals(1, glomerulusData.get(0).getImageId());
+        assertEquals(8914.940, glomerulusData.get(0).getGeometryInfo().getArea(), DEFAULT_DELTA);
+        assertEquals(2, glomerulusData.get(0).getPodocytesData().size());
+        assertEquals(2, glomerulusData.get(1).getImageId());
+        assertEquals(6584.420, glomerulusData.get(1).getGeometryInfo().getArea(), DEFAULT_DELTA);
+        assertEquals(1, glomerulusData.get(1).getPodocytesData().size());
+    }
+
+    @Test
+    public void TestParallelBiopsyMatchesSequential() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeRandomBiopsy(biopsyDir, new Random(7), 40);
+
+        BiopsyResult expected = BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir);
+        BiopsyResult actual = BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir, mExecutor);
+
+        assertSameBiopsyResult(expected, actual);
+    }
+
+    @Test
+    public void TestParallelCohortMatchesSequential() throws IOException {
+        File rootDir = mTemporaryFolder.newFolder("cohort");
+        Random random = new Random(11);
+        String[] biopsyIds = {"B3", "B1", "B2", "B10"};
+        for (String biopsyId : biopsyIds) {
+            File biopsyDir = new File(rootDir, biopsyId);
+            biopsyDir.mkdir();
+            writeRandomBiopsy(biopsyDir, random, 1 + random.nextInt(10));
+        }
+
+        List<BiopsyResult> actual = BiopsyDataProcessor.parseAllBiopsies(rootDir, mExecutor);
+
+        assertEquals(biopsyIds.length, actual.size());
+        assertEquals("B1", actual.get(0).getId());
+        assertEquals("B10", actual.get(1).getId());
+        assertEquals("B2", actual.get(2).getId());
+        assertEquals("B3", actual.get(3).getId());
+        for (BiopsyResult biopsyResult : actual) {
+            File biopsyDir = new File(rootDir, biopsyResult.getId());
+            assertSameBiopsyResult(
+                    BiopsyDataProcessor.parseAllDataFilesForBiopsy(biopsyResult.getId(), biopsyDir), biopsyResult);
+        }
+    }
+
+    @Test
+    public void TestStreamCohortMatchesParse() throws IOException {
+        File rootDir = mTemporaryFolder.newFolder("cohort");
+        Random random = new Random(17);
+        // More files than are parsed ahead of the sink, and empty biopsies in between
+        for (String biopsyId : new String[]{"B1", "B2", "B3", "B4", "B5"}) {
+            File biopsyDir = new File(rootDir, biopsyId);
+            biopsyDir.mkdir();
+            if (!biopsyId.equals("B2") && !biopsyId.equals("B5")) {
+                writeRandomBiopsy(biopsyDir, random, 40);
+            }
+        }
+
+        List<String> biopsyIds = new ArrayList<>();
+        List<GlomerulusData> glomeruliReceived = new ArrayList<>();
+        CohortSink sink = new CohortSink() {
+            @Override
+            public void startBiopsy(String biopsyId) {
+                biopsyIds.add(biopsyId);
+            }
+
+            @Override
+            public void accept(GlomerulusData glomerulusData) {
+                glomeruliReceived.add(glomerulusData);
+            }
+        };
+        assertTrue(BiopsyDataProcessor.streamAllBiopsies(rootDir, new MappedImageDataFileReader(), mExecutor,
+                IngestionMode.STRICT, sink).isEmpty());
+
+        List<GlomerulusData> expected = new ArrayList<>();
+        for (BiopsyResult biopsyResult : BiopsyDataProcessor.parseAllBiopsies(rootDir, mExecutor)) {
+            expected.addAll(biopsyResult.getGlomerulusData());
+        }
+        assertEquals(Arrays.asList("B1", "B2", "B3", "B4", "B5"), biopsyIds);
+        assertSameGlomeruli(expected, glomeruliReceived);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void TestParallelFailure() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeRandomBiopsy(biopsyDir, new Random(3), 20);
+        writeImageDataFile(new File(biopsyDir, "21.xls"),
+                HEADER,
+                "1\t18914.940\t128.412\t226.768\t248.444\t117.031\t85.135");
+
+        BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir, mExecutor);
+    }
+
+    @Test
+    public void TestMappedReaderMatchesLineReader() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeRandomBiopsy(biopsyDir, new Random(5), 10);
+
+        BiopsyResult expected = BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir);
+        BiopsyResult actual = BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir,
+                new MappedImageDataFileReader(), mExecutor);
+
+        assertSameBiopsyResult(expected, actual);
+    }
+
+    @Test
+    public void TestStreamMatchesParse() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeRandomBiopsy(biopsyDir, new Random(13), 10);
+
+        for (ImageDataFileReader reader : new ImageDataFileReader[]{
+                new LineImageDataFileReader(), new MappedImageDataFileReader()}) {
+            List<GlomerulusData> glomeruliReceived = new ArrayList<>();
+            BiopsyDataProcessor.streamAllDataFilesForBiopsy(biopsyDir, reader, glomeruliReceived::add);
+
+            assertSameGlomeruli(BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir).getGlomerulusData(),
+                    glomeruliReceived);
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void TestIllegalFileName() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeImageDataFile(new File(biopsyDir, "image.xls"),
+                HEADER,
+                "1\t8914.940\t128.412\t226.768\t248.444\t117.031\t85.135",
+                "2\t23.243\t8.696\t214.429\t267.119\t57.529\t3.673");
+
+        BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir);
+    }
+
+    @Test
+    public void TestLenientBiopsy() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeImageDataFile(new File(biopsyDir, "1.xls"),
+                HEADER,
+                "1\t8914.940\t128.412\t226.768\t248.444\t117.031\t85.135",
+                "2\t23.243\t8.696\t214.429\t267.119\t57.529\t3.673");
+        writeImageDataFile(new File(biopsyDir, "2.xls"),
+                HEADER,
+                "1\t6584.420\t115.378\t929.414\t201.423\t94.310\t76.034",
+                "2\t8734.557\t112.589\t274.456\t424.522\t157.537\t103.920",
+                "3\t18.238\t5.737\t928.747\t214.095\t54.462\t4.716");
+        writeImageDataFile(new File(biopsyDir, "3.xls"),
+                "1\t8914.940\t128.412\t226.768\t248.444\t117.031\t85.135",
+                "2\t23.243\t8.696\t214.429\t267.119\t57.529\t3.673");
+        writeImageDataFile(new File(biopsyDir, "image.xls"), HEADER);
+
+        for (ImageDataFileReader reader : new ImageDataFileReader[]{new LineImageDataFileReader(),
+                new CachingImageDataFileReader(new MappedImageDataFileReader(), mTemporaryFolder.newFolder())}) {
+            BiopsyResult biopsyResult = BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir, reader,
+                    mExecutor, IngestionMode.LENIENT);
+
+            List<GlomerulusData> glomerulusData = biopsyResult.getGlomerulusData();
+            assertEquals(2, glomerulusData.size());
+            assertEquals(1, glomerulusData.get(0).getImageId());
+            assertEquals(2, glomerulusData.get(1).getImageId());
+            assertEquals(2, glomerulusData.get(1).getNumber());
+            assertEquals(2, biopsyResult.getImageStatistics().size());
+
+            List<IngestionError> errors = biopsyResult.getErrors();
+            assertEquals(3, errors.size());
+            assertEquals(new File(biopsyDir, "2.xls"), errors.get(0).getFile());
+            assertEquals(2, errors.get(0).getLineNumber());
+            assertEquals(new File(biopsyDir, "3.xls"), errors.get(1).getFile());
+            assertEquals(1, errors.get(1).getLineNumber());
+            assertEquals(new File(biopsyDir, "image.xls"), errors.get(2).getFile());
+            assertEquals(0, errors.get(2).getLineNumber());
+        }
+    }
+
+    @Test
+    public void TestLenientNegativeArea() throws IOException {
+        assertLenientInvalidMeasurement("3\t-20.000\t5.000\t214.429\t267.119\t57.529\t3.673");
+    }
+
+    @Test
+    public void TestLenientZeroFeret() throws IOException {
+        assertLenientInvalidMeasurement("3\t23.243\t0.000\t214.429\t267.119\t57.529\t3.673");
+    }
+
+    /**
+     * Checks that an invalid measurement in the third line of a file only quarantines the glomerulus before it.
+     */
+    private void assertLenientInvalidMeasurement(String invalidLine) throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeImageDataFile(new File(biopsyDir, "1.xls"),
+                HEADER,
+                "1\t8914.940\t128.412\t226.768\t248.444\t117.031\t85.135",
+                "2\t23.243\t8.696\t214.429\t267.119\t57.529\t3.673",
+                invalidLine,
+                "4\t8734.557\t112.589\t274.456\t424.522\t157.537\t103.920",
+                "5\t18.238\t5.737\t928.747\t214.095\t54.462\t4.716");
+
+        for (ImageDataFileReader reader : new ImageDataFileReader[]{new LineImageDataFileReader(),
+                new MappedImageDataFileReader()}) {
+            BiopsyResult biopsyResult = BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir, reader,
+                    IngestionMode.LENIENT);
+
+            List<GlomerulusData> glomerulusData = biopsyResult.getGlomerulusData();
+            assertEquals(1, glomerulusData.size());
+            assertEquals(2, glomerulusData.get(0).getNumber());
+            assertEquals(1, biopsyResult.getErrors().size());
+            assertEquals(4, biopsyResult.getErrors().get(0).getLineNumber());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void TestLenientDoesNotHideBugs() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeRandomBiopsy(biopsyDir, new Random(29), 2);
+
+        ImageDataFileReader reader = (ImageDataFile imageDataFile, GlomerulusSink sink) -> {
+            throw new IllegalStateException("Bug");
+        };
+        BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir, reader, IngestionMode.LENIENT);
+    }
+
+    @Test
+    public void TestLenientMatchesStrictForValidBiopsy() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeRandomBiopsy(biopsyDir, new Random(23), 10);
+
+        BiopsyResult expected = BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir);
+        BiopsyResult actual = BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir,
+                new LineImageDataFileReader(), IngestionMode.LENIENT);
+
+        assertSameBiopsyResult(expected, actual);
+        assertFalse(actual.hasErrors());
+    }
+
+    @Test
+    public void TestCompressedFiles() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeRandomBiopsy(biopsyDir, new Random(37), 6);
+        File compressedBiopsyDir = mTemporaryFolder.newFolder("B1.gz");
+        for (ImageDataFile imageDataFile : ImageDataFile.listImageDataFiles(biopsyDir)) {
+            // Mix compressed and uncompressed files
+            File file = imageDataFile.getFile();
+            if (imageDataFile.getImageId() % 2 == 0) {
+                compressFile(file, new File(compressedBiopsyDir, file.getName() + ".gz"));
+            } else {
+                Files.copy(file, new File(compressedBiopsyDir, file.getName()));
+            }
+        }
+
+        BiopsyResult expected = BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir);
+        for (ImageDataFileReader reader : new ImageDataFileReader[]{new LineImageDataFileReader(),
+                new MappedImageDataFileReader(), new MappedImageDataFileReader(64),
+                new ChunkedImageDataFileReader(mExecutor, 64)}) {
+            BiopsyResult actual = BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", compressedBiopsyDir, reader,
+                    mExecutor);
+            assertSameBiopsyResult(expected, actual);
+        }
+    }
+
+    @Test
+    public void TestCompressedFileNames() {
+        assertTrue(ImageDataFile.isImageDataFileName("12.xls.gz"));
+        assertFalse(ImageDataFile.isImageDataFileName("12.gz"));
+        assertEquals(12, ImageDataFile.forFile(new File("12.xls.gz")).getImageId());
+        assertTrue(ImageDataFile.forFile(new File("12.xls.gz")).isCompressed());
+        assertFalse(ImageDataFile.forFile(new File("12.xls")).isCompressed());
+        assertNull(ImageDataFile.tryForFile(new File("image.xls.gz")));
+    }
+
+    @Test
+    public void TestLazyBiopsyMatchesEager() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeRandomBiopsy(biopsyDir, new Random(59), 8);
+
+        BiopsyResult expected = BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir);
+        LazyBiopsyResult actual = BiopsyDataProcessor.openBiopsy("B1", biopsyDir, new LineImageDataFileReader(),
+                IngestionMode.STRICT);
+
+        assertEquals(expected.getImageStatistics().keySet(), actual.getImageIds());
+        for (int imageId : actual.getImageIds()) {
+            List<GlomerulusData> expectedImageData = new ArrayList<>();
+            for (GlomerulusData glomerulusData : expected.getGlomerulusData()) {
+                if (glomerulusData.getImageId() == imageId) {
+                    expectedImageData.add(glomerulusData);
+                }
+            }
+            assertSameGlomeruli(expectedImageData, actual.getGlomerulusData(imageId));
+        }
+        assertSameBiopsyResult(expected, actual);
+        assertEquals(expected.getStatistics().getPodocytesPerGlomerulus().getCount(),
+                actual.getStatistics().getPodocytesPerGlomerulus().getCount());
+    }
+
+    @Test
+    public void TestLazyBiopsyParsesOnAccess() throws IOException {
+        File rootDir = mTemporaryFolder.newFolder("root");
+        Random random = new Random(61);
+        for (String biopsyId : new String[]{"B1", "B2", "B3"}) {
+            writeRandomBiopsy(mTemporaryFolder.newFolder("root", biopsyId), random, 4);
+        }
+
+        IngestionStatistics ingestionStatistics = new IngestionStatistics();
+        List<LazyBiopsyResult> biopsyResults = BiopsyDataProcessor.openAllBiopsies(rootDir,
+                new InstrumentedImageDataFileReader(new LineImageDataFileReader(), ingestionStatistics),
+                IngestionMode.STRICT);
+        assertEquals(3, biopsyResults.size());
+        assertEquals(0, ingestionStatistics.getFilesParsed());
+
+        LazyBiopsyResult biopsyResult = biopsyResults.get(1);
+        assertEquals("B2", biopsyResult.getId());
+        final int imageId = biopsyResult.getImageIds().first();
+        biopsyResult.getGlomerulusData(imageId);
+        biopsyResult.getGlomerulusData(imageId);
+        assertEquals(1, ingestionStatistics.getFilesParsed());
+        assertEquals(1, biopsyResult.getParsedFileCount());
+
+        biopsyResult.getGlomerulusData();
+        assertEquals(biopsyResult.getImageDataFiles().size(), ingestionStatistics.getFilesParsed());
+        assertEquals(0, biopsyResults.get(0).getParsedFileCount());
+    }
+
+    @Test
+    public void TestLazyBiopsyParsesEachFileOnce() throws Exception {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeRandomBiopsy(biopsyDir, new Random(67), 6);
+
+        IngestionStatistics ingestionStatistics = new IngestionStatistics();
+        LazyBiopsyResult biopsyResult = BiopsyDataProcessor.openBiopsy("B1", biopsyDir,
+                new InstrumentedImageDataFileReader(new LineImageDataFileReader(), ingestionStatistics),
+                IngestionMode.STRICT);
+
+        // Every task accesses every image, in a different order
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final List<Integer> imageIds = new ArrayList<>(biopsyResult.getImageIds());
+            Collections.shuffle(imageIds, new Random(i));
+            futures.add(mExecutor.submit(() -> {
+                for (int imageId : imageIds) {
+                    biopsyResult.getGlomerulusData(imageId);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        assertEquals(biopsyResult.getImageDataFiles().size(), ingestionStatistics.getFilesParsed());
+    }
+
+    @Test
+    public void TestLenientLazyBiopsy() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeImageDataFile(new File(biopsyDir, "1.xls"),
+                HEADER,
+                "1\t8914.940\t128.412\t226.768\t248.444\t117.031\t85.135",
+                "2\t23.243\t8.696\t214.429\t267.119\t57.529\t3.673");
+        writeImageDataFile(new File(biopsyDir, "2.xls"),
+                "1\t8914.940\t128.412\t226.768\t248.444\t117.031\t85.135");
+        writeImageDataFile(new File(biopsyDir, "image.xls"), HEADER);
+
+        LazyBiopsyResult biopsyResult = BiopsyDataProcessor.openBiopsy("B1", biopsyDir, new LineImageDataFileReader(),
+                IngestionMode.LENIENT);
+        assertEquals(1, biopsyResult.getErrors().size());
+
+        assertEquals(1, biopsyResult.getGlomerulusData(1).size());
+        assertTrue(biopsyResult.getGlomerulusData(2).isEmpty());
+        assertEquals(2, biopsyResult.getErrors().size());
+        assertEquals(new File(biopsyDir, "2.xls"), biopsyResult.getErrors().get(0).getFile());
+        assertEquals(1, biopsyResult.getImageStatistics().size());
+    }
+
+    private static void assertSameBiopsyResult(BiopsyResult expected, BiopsyResult actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertSameGlomeruli(expected.getGlomerulusData(), actual.getGlomerulusData());
+    }
+}
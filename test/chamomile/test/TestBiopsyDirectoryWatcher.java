@@ -0,0 +1,141 @@
+package chamomile.test;
+
+import chamomile.io.BiopsyDataProcessor;
+import chamomile.io.BiopsyDirectoryWatcher;
+import chamomile.io.LineImageDataFileReader;
+import chamomile.structures.BiopsyResult;
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static chamomile.test.TestDataUtils.HEADER;
+import static chamomile.test.TestDataUtils.assertSameGlomeruli;
+import static chamomile.test.TestDataUtils.writeImageDataFile;
+import static chamomile.test.TestDataUtils.writeRandomImageDataFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestBiopsyDirectoryWatcher {
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mBiopsyDir;
+    private BiopsyDirectoryWatcher mWatcher;
+    private final Random mRandom = new Random(31);
+    private final static long TIMEOUT_MILLIS = 10000;
+
+    @Before
+    public void setup() throws IOException {
+        mBiopsyDir = mTemporaryFolder.newFolder("B1");
+        writeRandomImageDataFile(new File(mBiopsyDir, "1.xls"), mRandom, 3, 10);
+        writeRandomImageDataFile(new File(mBiopsyDir, "2.xls"), mRandom, 4, 10);
+        mWatcher = new BiopsyDirectoryWatcher("B1", mBiopsyDir, new LineImageDataFileReader());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mWatcher.close();
+    }
+
+    @Test
+    public void TestInitialSnapshot() throws IOException {
+        assertEquals("B1", mWatcher.getSnapshot().getId());
+        assertEquals(7, mWatcher.getSnapshot().getGlomerulusData().size());
+        assertSameAsFullParse(mWatcher.getSnapshot());
+    }
+
+    @Test
+    public void TestAddModifyDelete() throws Exception {
+        writeRandomImageDataFile(new File(mBiopsyDir, "3.xls"), mRandom, 5, 10);
+        awaitSnapshot((BiopsyResult result) -> result.getGlomerulusData().size() == 12);
+        assertSameAsFullParse(mWatcher.getSnapshot());
+
+        writeRandomImageDataFile(new File(mBiopsyDir, "1.xls"), mRandom, 1, 10);
+        awaitSnapshot((BiopsyResult result) -> result.getGlomerulusData().size() == 10);
+        assertSameAsFullParse(mWatcher.getSnapshot());
+
+        assertTrue(new File(mBiopsyDir, "2.xls").delete());
+        awaitSnapshot((BiopsyResult result) -> result.getGlomerulusData().size() == 6);
+        assertSameAsFullParse(mWatcher.getSnapshot());
+    }
+
+    @Test
+    public void TestUnchangedFilesShared() throws Exception {
+        BiopsyResult snapshot = mWatcher.getSnapshot();
+        writeRandomImageDataFile(new File(mBiopsyDir, "3.xls"), mRandom, 5, 10);
+        awaitSnapshot((BiopsyResult result) -> result.getGlomerulusData().size() == 12);
+
+        // The glomeruli of the files that didn't change are the same objects
+        BiopsyResult updatedSnapshot = mWatcher.getSnapshot();
+        for (int i = 0; i < snapshot.getGlomerulusData().size(); i++) {
+            assertSame(snapshot.getGlomerulusData().get(i), updatedSnapshot.getGlomerulusData().get(i));
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void TestSnapshotUnmodifiable() {
+        mWatcher.getSnapshot().setGlomerulusData(ImmutableList.of());
+    }
+
+    @Test
+    public void TestInvalidFileLeftOutOfSnapshot() throws Exception {
+        File invalidFile = new File(mBiopsyDir, "3.xls");
+        writeImageDataFile(invalidFile, HEADER, "1\t8914.940\t128.412\t226.768\t248.444\t117.031\t85.135");
+        awaitFailure(invalidFile, true);
+        assertEquals(7, mWatcher.getSnapshot().getGlomerulusData().size());
+
+        writeRandomImageDataFile(invalidFile, mRandom, 2, 10);
+        awaitFailure(invalidFile, false);
+        assertEquals(9, mWatcher.getSnapshot().getGlomerulusData().size());
+    }
+
+    @Test
+    public void TestBackgroundThread() throws Exception {
+        mWatcher.start();
+        writeRandomImageDataFile(new File(mBiopsyDir, "3.xls"), mRandom, 5, 10);
+
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (mWatcher.getSnapshot().getGlomerulusData().size() != 12 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(12, mWatcher.getSnapshot().getGlomerulusData().size());
+    }
+
+    private void awaitSnapshot(Predicate<BiopsyResult> condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.test(mWatcher.getSnapshot()) && System.currentTimeMillis() < deadline) {
+            mWatcher.processEvents(100, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(condition.test(mWatcher.getSnapshot()));
+    }
+
+    private void awaitFailure(File file, boolean failed) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (mWatcher.getFailures().containsKey(file) != failed && System.currentTimeMillis() < deadline) {
+            mWatcher.processEvents(100, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(failed, mWatcher.getFailures().containsKey(file));
+    }
+
+    private void assertSameAsFullParse(BiopsyResult snapshot) throws IOException {
+        BiopsyResult expected = BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", mBiopsyDir);
+        assertSameGlomeruli(expected.getGlomerulusData(), snapshot.getGlomerulusData());
+        assertEquals(expected.getImageStatistics().keySet(), snapshot.getImageStatistics().keySet());
+        assertEquals(expected.getStatistics().getGlomerulusStatistics().getCount(),
+                snapshot.getStatistics().getGlomerulusStatistics().getCount());
+        assertEquals(expected.getStatistics().getPodocyteStatistics().getCount(),
+                snapshot.getStatistics().getPodocyteStatistics().getCount());
+        assertEquals(expected.getStatistics().getGlomerulusStatistics().getAreaStatistics().getMean(),
+                snapshot.getStatistics().getGlomerulusStatistics().getAreaStatistics().getMean(), 1e-9);
+    }
+}
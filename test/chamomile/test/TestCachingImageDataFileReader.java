@@ -0,0 +1,179 @@
+package chamomile.test;
+
+import chamomile.io.CacheValidation;
+import chamomile.io.CachingImageDataFileReader;
+import chamomile.io.ImageDataFile;
+import chamomile.io.ImageDataFileCounters;
+import chamomile.io.LineImageDataFileReader;
+import chamomile.io.PodocyteAssignment;
+import chamomile.structures.GlomerulusData;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import static chamomile.test.TestDataUtils.assertSameGlomeruli;
+import static chamomile.test.TestDataUtils.writeRandomImageDataFile;
+import static org.junit.Assert.assertEquals;
+
+public class TestCachingImageDataFileReader {
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mCacheDir;
+    private ImageDataFile mImageDataFile;
+    private CachingImageDataFileReader mReader;
+
+    @Before
+    public void setup() throws IOException {
+        mCacheDir = new File(mTemporaryFolder.getRoot(), "cache");
+        File file = mTemporaryFolder.newFile("7.xls");
+        writeRandomImageDataFile(file, new Random(23), 30, 20);
+        mImageDataFile = ImageDataFile.forFile(file);
+        mReader = new CachingImageDataFileReader(new LineImageDataFileReader(), mCacheDir);
+    }
+
+    @Test
+    public void TestCacheHit() throws IOException {
+        List<GlomerulusData> expected = new LineImageDataFileReader().read(mImageDataFile);
+
+        assertSameGlomeruli(expected, mReader.read(mImageDataFile));
+        assertEquals(0, mReader.getHitCount());
+        assertEquals(1, mReader.getMissCount());
+
+        assertSameGlomeruli(expected, mReader.read(mImageDataFile));
+        assertEquals(1, mReader.getHitCount());
+        assertEquals(1, mReader.getMissCount());
+
+        // A new reader on the same directory reuses the persisted entries
+        CachingImageDataFileReader reader = new CachingImageDataFileReader(new LineImageDataFileReader(), mCacheDir);
+        assertSameGlomeruli(expected, reader.read(mImageDataFile));
+        assertEquals(1, reader.getHitCount());
+        assertEquals(0, reader.getMissCount());
+
+        assertEquals(1, mCacheDir.list().length);
+    }
+
+    @Test
+    public void TestModifiedFileIsParsedAgain() throws IOException {
+        mReader.read(mImageDataFile);
+
+        writeRandomImageDataFile(mImageDataFile.getFile(), new Random(29), 10, 20);
+        List<GlomerulusData> expected = new LineImageDataFileReader().read(mImageDataFile);
+
+        assertSameGlomeruli(expected, mReader.read(mImageDataFile));
+        assertEquals(0, mReader.getHitCount());
+        assertEquals(2, mReader.getMissCount());
+    }
+
+    @Test
+    public void TestSameSizeAndModificationTimeDetectedByContentHash() throws IOException {
+        mReader.read(mImageDataFile);
+        editKeepingSizeAndModificationTime();
+
+        List<GlomerulusData> expected = new LineImageDataFileReader().read(mImageDataFile);
+        assertSameGlomeruli(expected, mReader.read(mImageDataFile));
+        assertEquals(0, mReader.getHitCount());
+        assertEquals(2, mReader.getMissCount());
+    }
+
+    @Test
+    public void TestMetadataValidation() throws IOException {
+        List<GlomerulusData> expected = mReader.read(mImageDataFile);
+        editKeepingSizeAndModificationTime();
+
+        // The content isn't read, so the edit goes unnoticed
+        CachingImageDataFileReader reader = new CachingImageDataFileReader(new LineImageDataFileReader(), mCacheDir,
+                CacheValidation.METADATA);
+        assertSameGlomeruli(expected, reader.read(mImageDataFile));
+        assertEquals(1, reader.getHitCount());
+
+        mImageDataFile.getFile().setLastModified(mImageDataFile.getFile().lastModified() - 2000);
+        assertSameGlomeruli(new LineImageDataFileReader().read(mImageDataFile), reader.read(mImageDataFile));
+        assertEquals(1, reader.getMissCount());
+    }
+
+    @Test
+    public void TestMetadataValidationMissDoesNotHash() throws IOException {
+        CachingImageDataFileReader reader = new CachingImageDataFileReader(new LineImageDataFileReader(), mCacheDir,
+                CacheValidation.METADATA);
+        ImageDataFileCounters counters = new ImageDataFileCounters();
+        reader.read(mImageDataFile, (GlomerulusData glomerulusData) -> { }, counters);
+        assertEquals(1, reader.getMissCount());
+        assertEquals(mImageDataFile.getFile().length(), counters.getBytesRead());
+    }
+
+    @Test
+    public void TestEntryPerPodocyteAssignment() throws IOException {
+        // Synthetic podocytes lie around their glomerulus, so the file can be parsed by position too
+        File rootDir = mTemporaryFolder.newFolder("root");
+        SyntheticBiopsyGenerator generator = new SyntheticBiopsyGenerator(23).withBiopsyCount(1).withImagesPerBiopsy(1);
+        generator.generate(rootDir);
+        ImageDataFile imageDataFile = ImageDataFile.forFile(new File(new File(rootDir, generator.getBiopsyId(0)),
+                "1.xls"));
+        mReader.read(imageDataFile);
+
+        // The entry parsed in file order isn't used for a reader assigning podocytes by position
+        LineImageDataFileReader nearestReader = new LineImageDataFileReader(PodocyteAssignment.NEAREST_GLOMERULUS);
+        CachingImageDataFileReader reader = new CachingImageDataFileReader(nearestReader, mCacheDir);
+        assertSameGlomeruli(nearestReader.read(imageDataFile), reader.read(imageDataFile));
+        assertEquals(1, reader.getMissCount());
+        assertEquals(2, mCacheDir.list().length);
+
+        assertSameGlomeruli(nearestReader.read(imageDataFile), reader.read(imageDataFile));
+        assertEquals(1, reader.getHitCount());
+        mReader.read(imageDataFile);
+        assertEquals(1, mReader.getHitCount());
+    }
+
+    @Test
+    public void TestWriteFailureIsCounted() throws IOException {
+        Files.delete(mCacheDir.toPath());
+
+        List<GlomerulusData> expected = new LineImageDataFileReader().read(mImageDataFile);
+        assertSameGlomeruli(expected, mReader.read(mImageDataFile));
+        assertEquals(1, mReader.getMissCount());
+        assertEquals(1, mReader.getWriteFailureCount());
+    }
+
+    @Test
+    public void TestCorruptedEntryIsReplaced() throws IOException {
+        mReader.read(mImageDataFile);
+        File cacheFile = mCacheDir.listFiles()[0];
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(cacheFile, "rw")) {
+            randomAccessFile.setLength(randomAccessFile.length() / 2);
+        }
+
+        List<GlomerulusData> expected = new LineImageDataFileReader().read(mImageDataFile);
+        assertSameGlomeruli(expected, mReader.read(mImageDataFile));
+        assertEquals(2, mReader.getMissCount());
+
+        assertSameGlomeruli(expected, mReader.read(mImageDataFile));
+        assertEquals(1, mReader.getHitCount());
+    }
+
+    /**
+     * Changes the last digit of the first glomerulus area without changing the size or modification time.
+     */
+    private void editKeepingSizeAndModificationTime() throws IOException {
+        final long lastModified = mImageDataFile.getFile().lastModified();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(mImageDataFile.getFile(), "rw")) {
+            randomAccessFile.readLine();
+            final long lineStart = randomAccessFile.getFilePointer();
+            final String line = randomAccessFile.readLine();
+            final long digitPosition = lineStart + line.indexOf('\t', line.indexOf('\t') + 1) - 1;
+            randomAccessFile.seek(digitPosition);
+            final int digit = randomAccessFile.read();
+            randomAccessFile.seek(digitPosition);
+            randomAccessFile.write(digit == '9' ? '0' : digit + 1);
+        }
+        mImageDataFile.getFile().setLastModified(lastModified);
+    }
+}
@@ -0,0 +1,198 @@
+package chamomile.test;
+
+import chamomile.io.ChunkedImageDataFileReader;
+import chamomile.io.GlomerulusSink;
+import chamomile.io.ImageDataFile;
+import chamomile.io.ImageDataFileCounters;
+import chamomile.io.ImageDataFileReader;
+import chamomile.io.ImageDataFormatException;
+import chamomile.io.LineImageDataFileReader;
+import chamomile.structures.GlomerulusData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static chamomile.test.TestDataUtils.HEADER;
+import static chamomile.test.TestDataUtils.assertSameGlomeruli;
+import static chamomile.test.TestDataUtils.randomLines;
+import static chamomile.test.TestDataUtils.randomMeasurement;
+import static chamomile.test.TestDataUtils.randomPodocyteLine;
+import static chamomile.test.TestDataUtils.writeImageDataFile;
+import static chamomile.test.TestDataUtils.writeRandomImageDataFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class TestChunkedImageDataFileReader {
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setup() {
+        mExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void TestSameAsSequential() throws IOException {
+        File file = mTemporaryFolder.newFile("3.xls");
+        writeRandomImageDataFile(file, new Random(31), 200, 20);
+        ImageDataFile imageDataFile = ImageDataFile.forFile(file);
+        List<GlomerulusData> expected = new LineImageDataFileReader().read(imageDataFile);
+
+        // Small chunks put boundaries in the middle of many podocyte runs
+        for (int chunkSize : new int[]{1, 50, 333, 4096, 1 << 20}) {
+            List<GlomerulusData> actual = new ChunkedImageDataFileReader(mExecutor, chunkSize).read(imageDataFile);
+            assertSameGlomeruli(expected, actual);
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getPodocyteAreaStatistics().getMean(),
+                        actual.get(i).getPodocyteAreaStatistics().getMean(), 0.0001);
+            }
+        }
+    }
+
+    @Test
+    public void TestSameFailureAsSequential() throws IOException {
+        Random random = new Random(37);
+        List<String> lines = randomLines(random, 60, 1, 4);
+
+        File file = mTemporaryFolder.newFile("5.xls");
+        ImageDataFile imageDataFile = ImageDataFile.forFile(file);
+        for (int trial = 0; trial < 200; trial++) {
+            List<String> corruptedLines = new ArrayList<>(lines);
+            final int position = 1 + random.nextInt(lines.size() - 1);
+            switch (random.nextInt(5)) {
+                case 0:
+                    // Glomerulus right before another one or at the end of the file
+                    corruptedLines.add(position, randomMeasurement(random, 0, 5000.0));
+                    break;
+                case 1:
+                    corruptedLines.add(position, HEADER);
+                    break;
+                case 2:
+                    corruptedLines.set(position, "1\t2.3.4");
+                    break;
+                case 3:
+                    corruptedLines.set(position, randomMeasurement(random, 0, 1000.0));
+                    break;
+                default:
+                    // Podocytes before the first glomerulus
+                    for (int i = random.nextInt(3); i >= 0; i--) {
+                        corruptedLines.add(1, randomPodocyteLine(random, 0));
+                    }
+                    break;
+            }
+            writeImageDataFile(file, corruptedLines.toArray(new String[0]));
+
+            String expectedFailure = getFailure(new LineImageDataFileReader(), imageDataFile);
+            for (int chunkSize : new int[]{1, 40, 200}) {
+                String actualFailure = getFailure(new ChunkedImageDataFileReader(mExecutor, chunkSize),
+                        imageDataFile);
+                assertEquals(expectedFailure, actualFailure);
+            }
+        }
+    }
+
+    @Test
+    public void TestSameQuarantinesAsSequential() throws IOException {
+        Random random = new Random(41);
+        List<String> lines = randomLines(random, 60, 0, 3);
+
+        File file = mTemporaryFolder.newFile("6.xls");
+        ImageDataFile imageDataFile = ImageDataFile.forFile(file);
+        for (int trial = 0; trial < 200; trial++) {
+            // Several invalid lines, including glomeruli without podocytes and podocytes before the first glomerulus
+            List<String> corruptedLines = new ArrayList<>(lines);
+            for (int i = random.nextInt(4); i >= 0; i--) {
+                final int position = 1 + random.nextInt(corruptedLines.size() - 1);
+                switch (random.nextInt(4)) {
+                    case 0:
+                        corruptedLines.add(position, HEADER);
+                        break;
+                    case 1:
+                        corruptedLines.set(position, "1\t2.3.4");
+                        break;
+                    case 2:
+                        corruptedLines.set(position, randomMeasurement(random, 0, -20.0));
+                        break;
+                    default:
+                        corruptedLines.add(1, randomPodocyteLine(random, 0));
+                        break;
+                }
+            }
+            writeImageDataFile(file, corruptedLines.toArray(new String[0]));
+
+            QuarantiningSink expected = new QuarantiningSink();
+            ImageDataFileCounters expectedCounters = new ImageDataFileCounters();
+            new LineImageDataFileReader().read(imageDataFile, expected, expectedCounters);
+            for (int chunkSize : new int[]{1, 40, 200}) {
+                QuarantiningSink actual = new QuarantiningSink();
+                ImageDataFileCounters actualCounters = new ImageDataFileCounters();
+                new ChunkedImageDataFileReader(mExecutor, chunkSize).read(imageDataFile, actual, actualCounters);
+
+                assertSameGlomeruli(expected.mGlomerulusData, actual.mGlomerulusData);
+                assertEquals(expected.mQuarantines, actual.mQuarantines);
+                assertEquals(expectedCounters.getGlomerulusLines(), actualCounters.getGlomerulusLines());
+                assertEquals(expectedCounters.getPodocyteLines(), actualCounters.getPodocyteLines());
+                assertEquals(expectedCounters.getRejectedLines(), actualCounters.getRejectedLines());
+            }
+        }
+    }
+
+    @Test
+    public void TestSmallFileParsedSequentially() throws IOException {
+        File file = mTemporaryFolder.newFile("7.xls");
+        writeImageDataFile(file,
+                HEADER,
+                "1\t8914.940\t128.412\t226.768\t248.444\t117.031\t85.135",
+                "2\t23.243\t8.696\t214.429\t267.119\t57.529\t3.673");
+        ImageDataFile imageDataFile = ImageDataFile.forFile(file);
+
+        assertSameGlomeruli(new LineImageDataFileReader().read(imageDataFile),
+                new ChunkedImageDataFileReader(mExecutor).read(imageDataFile));
+    }
+
+    /**
+     * Sink collecting the glomeruli and the quarantined lines instead of failing.
+     */
+    private static final class QuarantiningSink implements GlomerulusSink {
+        private final List<GlomerulusData> mGlomerulusData = new ArrayList<>();
+        private final List<String> mQuarantines = new ArrayList<>();
+
+        @Override
+        public void accept(GlomerulusData glomerulusData) {
+            mGlomerulusData.add(glomerulusData);
+        }
+
+        @Override
+        public void quarantine(ImageDataFormatException exception) {
+            mQuarantines.add(exception.getMessage() + " at line " + exception.getLineNumber());
+        }
+    }
+
+    private static String getFailure(ImageDataFileReader reader, ImageDataFile imageDataFile)
+            throws IOException {
+        try {
+            reader.read(imageDataFile);
+            return null;
+        } catch (ImageDataFormatException e) {
+            assertNotNull(e.getMessage());
+            return e.getMessage() + " at line " + e.getLineNumber();
+        }
+    }
+}
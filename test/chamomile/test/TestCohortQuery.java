@@ -0,0 +1,156 @@
+package chamomile.test;
+
+import chamomile.statistics.Aggregator;
+import chamomile.statistics.CohortQuery;
+import chamomile.statistics.CohortSpliterator;
+import chamomile.statistics.GlomeruliStatistics;
+import chamomile.statistics.RunningStatistics;
+import chamomile.structures.BiopsyResult;
+import chamomile.structures.GlomerulusData;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.StreamSupport;
+
+import static chamomile.test.TestDataUtils.randomBiopsyResult;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestCohortQuery {
+    private final static double DEFAULT_DELTA = 0.0001;
+
+    private List<BiopsyResult> mBiopsyResults;
+    private int mGlomerulusCount;
+
+    @Before
+    public void setup() {
+        mBiopsyResults = new ArrayList<>();
+        Random random = new Random(101);
+        for (int i = 0; i < 40; i++) {
+            // Some biopsies have no glomeruli
+            final int imageCount = i % 7 == 3 ? 0 : 1 + random.nextInt(4);
+            BiopsyResult biopsyResult = randomBiopsyResult(random, "B" + i, imageCount, 200, 20);
+            mBiopsyResults.add(biopsyResult);
+            mGlomerulusCount += biopsyResult.getGlomerulusData().size();
+        }
+    }
+
+    @Test
+    public void TestSpliteratorCoversCohort() {
+        for (int splits = 0; splits < 12; splits++) {
+            List<CohortSpliterator> spliterators = new ArrayList<>();
+            spliterators.add(new CohortSpliterator(mBiopsyResults));
+            for (int i = 0; i < splits; i++) {
+                CohortSpliterator prefix = spliterators.get(spliterators.size() - 1).trySplit();
+                if (prefix != null) {
+                    spliterators.add(spliterators.size() - 1, prefix);
+                }
+            }
+
+            List<GlomerulusData> glomerulusData = new ArrayList<>();
+            List<String> biopsyIds = new ArrayList<>();
+            long estimatedSize = 0;
+            for (CohortSpliterator spliterator : spliterators) {
+                estimatedSize += spliterator.estimateSize();
+                spliterator.forEachRemaining((BiopsyResult biopsyResult, GlomerulusData glomerulus) -> {
+                    glomerulusData.add(glomerulus);
+                    biopsyIds.add(biopsyResult.getId());
+                });
+            }
+
+            assertEquals(mGlomerulusCount, estimatedSize);
+            int index = 0;
+            for (BiopsyResult biopsyResult : mBiopsyResults) {
+                for (GlomerulusData expected : biopsyResult.getGlomerulusData()) {
+                    assertTrue(expected == glomerulusData.get(index));
+                    assertEquals(biopsyResult.getId(), biopsyIds.get(index));
+                    index++;
+                }
+            }
+            assertEquals(mGlomerulusCount, glomerulusData.size());
+        }
+    }
+
+    @Test
+    public void TestParallelStream() {
+        assertEquals(mGlomerulusCount, StreamSupport.stream(new CohortSpliterator(mBiopsyResults), true).count());
+    }
+
+    @Test
+    public void TestAggregateMatchesSequential() {
+        GlomeruliStatistics expected = new GlomeruliStatistics();
+        for (BiopsyResult biopsyResult : mBiopsyResults) {
+            for (GlomerulusData glomerulusData : biopsyResult.getGlomerulusData()) {
+                expected.add(glomerulusData);
+            }
+        }
+
+        for (int parallelism : new int[]{1, 4}) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                GlomeruliStatistics actual = CohortQuery.of(mBiopsyResults).withPool(pool)
+                        .aggregate(Aggregator.glomeruli());
+                assertEquals(expected.getGlomerulusStatistics().getCount(),
+                        actual.getGlomerulusStatistics().getCount());
+                assertEquals(expected.getPodocyteStatistics().getCount(), actual.getPodocyteStatistics().getCount());
+                assertEquals(expected.getGlomerulusStatistics().getAreaStatistics().getMean(),
+                        actual.getGlomerulusStatistics().getAreaStatistics().getMean(), DEFAULT_DELTA);
+                assertEquals(expected.getPodocytesPerGlomerulus().getMean(),
+                        actual.getPodocytesPerGlomerulus().getMean(), DEFAULT_DELTA);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void TestFilteredGroupBy() {
+        Map<String, RunningStatistics> expected = new HashMap<>();
+        for (BiopsyResult biopsyResult : mBiopsyResults) {
+            for (GlomerulusData glomerulusData : biopsyResult.getGlomerulusData()) {
+                final double area = glomerulusData.getGeometryInfo().getArea();
+                if (area >= 5000.0 && area <= 10000.0 && glomerulusData.getGeometryInfo().getFeret() <= 50.0) {
+                    expected.computeIfAbsent(biopsyResult.getId(), (String id) -> new RunningStatistics())
+                            .add(glomerulusData.getPodocytesData().size() / area);
+                }
+            }
+        }
+
+        Map<String, RunningStatistics> actual = CohortQuery.of(mBiopsyResults)
+                .filter(CohortQuery.areaBetween(5000.0, 10000.0))
+                .filter(CohortQuery.feretBetween(0.0, 50.0))
+                .aggregate(CohortQuery.BY_BIOPSY, Aggregator.podocyteDensity());
+
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, RunningStatistics> entry : expected.entrySet()) {
+            assertEquals(entry.getValue().getCount(), actual.get(entry.getKey()).getCount());
+            assertEquals(entry.getValue().getMean(), actual.get(entry.getKey()).getMean(), 1e-12);
+        }
+    }
+
+    @Test
+    public void TestGroupByImage() {
+        Map<CohortQuery.ImageKey, RunningStatistics> actual = CohortQuery.of(mBiopsyResults)
+                .filterBiopsies((BiopsyResult biopsyResult) -> !biopsyResult.getId().equals("B0"))
+                .aggregate(CohortQuery.BY_IMAGE, Aggregator.podocytesPerGlomerulus());
+
+        int expectedImageCount = 0;
+        for (BiopsyResult biopsyResult : mBiopsyResults.subList(1, mBiopsyResults.size())) {
+            expectedImageCount += biopsyResult.getImageStatistics().size();
+            for (Map.Entry<Integer, GlomeruliStatistics> entry : biopsyResult.getImageStatistics().entrySet()) {
+                RunningStatistics statistics = actual.get(new CohortQuery.ImageKey(biopsyResult.getId(),
+                        entry.getKey()));
+                assertEquals(entry.getValue().getPodocytesPerGlomerulus().getCount(), statistics.getCount());
+                assertEquals(entry.getValue().getPodocytesPerGlomerulus().getMean(), statistics.getMean(),
+                        DEFAULT_DELTA);
+            }
+        }
+        assertEquals(expectedImageCount, actual.size());
+    }
+}
@@ -0,0 +1,149 @@
+package chamomile.test;
+
+import chamomile.io.BiopsyDataProcessor;
+import chamomile.io.ImageDataLineProcessor;
+import chamomile.io.IngestionMode;
+import chamomile.io.LineImageDataFileReader;
+import chamomile.structures.BiopsyResult;
+import chamomile.structures.ColumnarBiopsyData;
+import chamomile.structures.GlomerulusData;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import static chamomile.test.TestDataUtils.HEADER;
+import static chamomile.test.TestDataUtils.assertSameGlomeruli;
+import static chamomile.test.TestDataUtils.randomGlomeruli;
+import static chamomile.test.TestDataUtils.writeImageDataFile;
+import static chamomile.test.TestDataUtils.writeRandomBiopsy;
+import static org.junit.Assert.assertEquals;
+
+public class TestColumnarBiopsyData {
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private BiopsyResult mBiopsyResult;
+    private final static double DEFAULT_DELTA = 0.0001;
+
+    @Before
+    public void setup() {
+        List<GlomerulusData> glomerulusData = new ArrayList<>();
+
+        ImageDataLineProcessor processor = new ImageDataLineProcessor(1);
+        processor.processLine(HEADER);
+        processor.processLine("1\t8914.940\t128.412\t226.768\t248.444\t117.031\t85.135");
+        processor.processLine("2\t23.243\t8.696\t214.429\t267.119\t57.529\t3.673");
+        processor.processLine("3\t40.369\t8.250\t214.762\t277.457\t104.036\t7.003");
+        processor.processLine("4\t8734.557\t112.589\t274.456\t424.522\t157.537\t103.920");
+        processor.processLine("5\t55.939\t10.677\t304.469\t422.522\t141.340\t7.607");
+        glomerulusData.addAll(processor.getResult());
+
+        glomerulusData.addAll(randomGlomeruli(new Random(1), 2, 40, 30));
+
+        mBiopsyResult = new BiopsyResult("B1");
+        mBiopsyResult.setGlomerulusData(glomerulusData);
+    }
+
+    @Test
+    public void TestColumns() {
+        ColumnarBiopsyData columnarData = mBiopsyResult.toColumnar();
+
+        assertEquals("B1", columnarData.getId());
+        assertEquals(42, columnarData.getGlomerulusCount());
+
+        assertEquals(1, columnarData.getImageId(0));
+        assertEquals(1, columnarData.getGlomerulusNumber(0));
+        assertEquals(8914.940, columnarData.getGlomerulusArea(0), DEFAULT_DELTA);
+        assertEquals(128.412, columnarData.getGlomerulusFeret(0), DEFAULT_DELTA);
+        assertEquals(2, columnarData.getPodocyteCount(0));
+        assertEquals(0, columnarData.getFirstPodocyteIndex(0));
+        assertEquals(23.243, columnarData.getPodocyteArea(0), DEFAULT_DELTA);
+        assertEquals(8.250, columnarData.getPodocyteFeret(1), DEFAULT_DELTA);
+
+        assertEquals(1, columnarData.getImageId(1));
+        assertEquals(2, columnarData.getGlomerulusNumber(1));
+        assertEquals(1, columnarData.getPodocyteCount(1));
+        assertEquals(2, columnarData.getFirstPodocyteIndex(1));
+        assertEquals(55.939, columnarData.getPodocyteArea(2), DEFAULT_DELTA);
+
+        assertEquals(2, columnarData.getImageId(2));
+
+        int totalPodocyteCount = 0;
+        for (GlomerulusData glomerulus : mBiopsyResult.getGlomerulusData()) {
+            totalPodocyteCount += glomerulus.getPodocytesData().size();
+        }
+        assertEquals(totalPodocyteCount, columnarData.getTotalPodocyteCount());
+        assertEquals(totalPodocyteCount, columnarData.getFirstPodocyteIndex(columnarData.getGlomerulusCount()));
+    }
+
+    @Test
+    public void TestViews() {
+        ColumnarBiopsyData columnarData = mBiopsyResult.toColumnar();
+
+        for (int i = 0; i < columnarData.getGlomerulusCount(); i++) {
+            GlomerulusData expected = mBiopsyResult.getGlomerulusData().get(i);
+            ColumnarBiopsyData.GlomerulusView view = columnarData.getGlomerulus(i);
+
+            assertEquals(expected.getImageId(), view.getImageId());
+            assertEquals(expected.getNumber(), view.getNumber());
+            assertEquals(expected.getGeometryInfo().getArea(), view.getGeometryInfo().getArea(), 0.0);
+            assertEquals(expected.getGeometryInfo().getFeret(), view.getFeret(), 0.0);
+            assertEquals(expected.getPodocytesData().size(), view.getPodocyteCount());
+            for (int j = 0; j < view.getPodocyteCount(); j++) {
+                assertEquals(expected.getPodocytesData().get(j).getGeometryInfo().getArea(),
+                        view.getPodocyte(j).getArea(), 0.0);
+                assertEquals(expected.getPodocytesData().get(j).getGeometryInfo().getFeret(),
+                        view.getPodocyte(j).getGeometryInfo().getFeret(), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void TestGlomerulusDataListRoundTrip() {
+        ColumnarBiopsyData columnarData = mBiopsyResult.toColumnar();
+
+        assertSameGlomeruli(mBiopsyResult.getGlomerulusData(), columnarData.asGlomerulusDataList());
+    }
+
+    @Test
+    public void TestParsedColumnarBiopsy() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        // More files than are parsed ahead, and an invalid one
+        writeRandomBiopsy(biopsyDir, new Random(7), 80);
+        writeImageDataFile(new File(biopsyDir, "81.xls"), "1\t8914.940\t128.412\t226.768\t248.444\t117.031\t85.135");
+
+        ExecutorService executor = BiopsyDataProcessor.newIngestionExecutor(4);
+        try {
+            BiopsyResult expected = BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir,
+                    new LineImageDataFileReader(), executor, IngestionMode.LENIENT);
+            ColumnarBiopsyData actual = BiopsyDataProcessor.parseColumnarBiopsy("B1", biopsyDir,
+                    new LineImageDataFileReader(), executor, IngestionMode.LENIENT);
+
+            assertEquals("B1", actual.getId());
+            assertSameGlomeruli(expected.getGlomerulusData(), actual.asGlomerulusDataList());
+            assertEquals(1, actual.getErrors().size());
+            assertEquals(expected.getErrors().get(0).getFile(), actual.getErrors().get(0).getFile());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void TestPodocyteBeforeGlomerulus() {
+        new ColumnarBiopsyData.Builder("B1").addPodocyte(23.243, 8.696);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void TestPodocyteIndexOutOfBounds() {
+        ColumnarBiopsyData columnarData = mBiopsyResult.toColumnar();
+        columnarData.getGlomerulus(0).getPodocyte(2);
+    }
+}
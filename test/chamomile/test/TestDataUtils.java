@@ -0,0 +1,160 @@
+package chamomile.test;
+
+import chamomile.io.ImageDataLineProcessor;
+import chamomile.structures.BiopsyResult;
+import chamomile.structures.GeometryInfo;
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.PodocyteData;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Helpers to write image data files and compare parse results in tests, also used by the benchmarks to generate their
+ * data. Lines are formatted by {@link SyntheticBiopsyGenerator}, which writes the bigger cohorts.
+ */
+public final class TestDataUtils {
+    public static final String HEADER = SyntheticBiopsyGenerator.HEADER;
+
+    private TestDataUtils() {
+        // Disallow instantiation
+    }
+
+    static void writeImageDataFile(File file, String... lines) throws IOException {
+        writeImageDataFileWithTerminator(file, "\r\n", lines);
+    }
+
+    static void writeImageDataFileWithTerminator(File file, String lineTerminator, String... lines) throws IOException {
+        try (PrintWriter writer = new PrintWriter(file, "US-ASCII")) {
+            for (String line : lines) {
+                writer.print(line + lineTerminator);
+            }
+        }
+    }
+
+    static void compressFile(File file, File compressedFile) throws IOException {
+        try (OutputStream outputStream = new GZIPOutputStream(Files.asByteSink(compressedFile).openStream())) {
+            Files.copy(file, outputStream);
+        }
+    }
+
+    static void writeRandomBiopsy(File biopsyDir, Random random, int imageCount) throws IOException {
+        for (int imageId = 1; imageId <= imageCount; imageId++) {
+            writeRandomImageDataFile(new File(biopsyDir, imageId + ".xls"), random, 1 + random.nextInt(5), 20);
+        }
+    }
+
+    static void writeRandomImageDataFile(File file, Random random, int glomerulusCount, int maxPodocytes)
+            throws IOException {
+        writeImageDataFile(file, randomLines(random, glomerulusCount, 1, maxPodocytes).toArray(new String[0]));
+    }
+
+    /**
+     * Generates the lines of a valid image data file, header first, every glomerulus followed by its podocytes.
+     * @param minPodocytes minimum number of podocytes of a glomerulus.
+     * @param maxPodocytes maximum number of podocytes of a glomerulus, inclusive.
+     */
+    static List<String> randomLines(Random random, int glomerulusCount, int minPodocytes, int maxPodocytes) {
+        List<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        int number = 1;
+        for (int i = 0; i < glomerulusCount; i++) {
+            lines.add(randomGlomerulusLine(random, number++));
+            final int podocyteCount = minPodocytes + random.nextInt(maxPodocytes - minPodocytes + 1);
+            for (int j = 0; j < podocyteCount; j++) {
+                lines.add(randomPodocyteLine(random, number++));
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Parses the glomeruli of a random image, see {@link #randomLines(Random, int, int, int)}.
+     * @param maxPodocytes maximum number of podocytes of a glomerulus, which has at least one.
+     */
+    static List<GlomerulusData> randomGlomeruli(Random random, int imageId, int glomerulusCount, int maxPodocytes) {
+        ImageDataLineProcessor processor = new ImageDataLineProcessor(imageId);
+        for (String line : randomLines(random, glomerulusCount, 1, maxPodocytes)) {
+            processor.processLine(line);
+        }
+        return processor.getResult();
+    }
+
+    /**
+     * Builds a biopsy result with random images, each with between 1 and the given number of glomeruli.
+     */
+    static BiopsyResult randomBiopsyResult(Random random, String biopsyId, int imageCount, int maxGlomeruli,
+                                           int maxPodocytes) {
+        List<GlomerulusData> glomerulusData = new ArrayList<>();
+        for (int imageId = 1; imageId <= imageCount; imageId++) {
+            glomerulusData.addAll(randomGlomeruli(random, imageId, 1 + random.nextInt(maxGlomeruli), maxPodocytes));
+        }
+        BiopsyResult biopsyResult = new BiopsyResult(biopsyId);
+        biopsyResult.setGlomerulusData(glomerulusData);
+        return biopsyResult;
+    }
+
+    /**
+     * Builds biopsy results "B0", "B1"... with between 1 and the given number of random images each, see
+     * {@link #randomBiopsyResult(Random, String, int, int, int)}.
+     */
+    static List<BiopsyResult> randomBiopsyResults(Random random, int biopsyCount, int maxImages, int maxGlomeruli,
+                                                  int maxPodocytes) {
+        List<BiopsyResult> biopsyResults = new ArrayList<>(biopsyCount);
+        for (int i = 0; i < biopsyCount; i++) {
+            biopsyResults.add(randomBiopsyResult(random, "B" + i, 1 + random.nextInt(maxImages), maxGlomeruli,
+                    maxPodocytes));
+        }
+        return biopsyResults;
+    }
+
+    static String randomGlomerulusLine(Random random, int number) {
+        return randomMeasurement(random, number, 4000.0 + random.nextDouble() * 11000.0);
+    }
+
+    static String randomPodocyteLine(Random random, int number) {
+        return randomMeasurement(random, number, 5.0 + random.nextDouble() * 145.0);
+    }
+
+    public static String randomMeasurement(Random random, int number, double area) {
+        return SyntheticBiopsyGenerator.formatMeasurement(number, area, 1.0 + random.nextDouble() * 100.0,
+                random.nextDouble() * 1000.0, random.nextDouble() * 1000.0, random.nextDouble() * 180.0,
+                1.0 + random.nextDouble() * 50.0);
+    }
+
+    static void assertSameGlomeruli(List<GlomerulusData> expected, List<GlomerulusData> actual) {
+        assertEquals(expected.size(), actual.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            GlomerulusData expectedGlomerulus = expected.get(i);
+            GlomerulusData actualGlomerulus = actual.get(i);
+            assertEquals(expectedGlomerulus.getImageId(), actualGlomerulus.getImageId());
+            assertEquals(expectedGlomerulus.getNumber(), actualGlomerulus.getNumber());
+            assertSameGeometry(expectedGlomerulus.getGeometryInfo(), actualGlomerulus.getGeometryInfo());
+
+            List<PodocyteData> expectedPodocytes = expectedGlomerulus.getPodocytesData();
+            List<PodocyteData> actualPodocytes = actualGlomerulus.getPodocytesData();
+            assertEquals(expectedPodocytes.size(), actualPodocytes.size());
+            for (int j = 0; j < expectedPodocytes.size(); j++) {
+                assertSameGeometry(expectedPodocytes.get(j).getGeometryInfo(),
+                        actualPodocytes.get(j).getGeometryInfo());
+            }
+        }
+    }
+
+    static void assertSameGeometry(GeometryInfo expected, GeometryInfo actual) {
+        assertEquals(expected.getArea(), actual.getArea(), 0.0);
+        assertEquals(expected.getFeret(), actual.getFeret(), 0.0);
+        assertEquals(expected.getFeretX(), actual.getFeretX(), 0.0);
+        assertEquals(expected.getFeretY(), actual.getFeretY(), 0.0);
+    }
+}
@@ -0,0 +1,195 @@
+package chamomile.test;
+
+import chamomile.io.BinaryGlomerulusExporter;
+import chamomile.io.BiopsyDataProcessor;
+import chamomile.io.CsvGlomerulusExporter;
+import chamomile.io.GlomerulusExporter;
+import chamomile.io.IngestionMode;
+import chamomile.io.LineImageDataFileReader;
+import chamomile.structures.BiopsyResult;
+import chamomile.structures.GeometryInfo;
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.PodocyteData;
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import static chamomile.test.TestDataUtils.compressFile;
+import static chamomile.test.TestDataUtils.writeRandomBiopsy;
+import static chamomile.test.TestDataUtils.writeRandomImageDataFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestGlomerulusExporter {
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        mExecutor = BiopsyDataProcessor.newIngestionExecutor(2);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void TestCsvExport() throws IOException {
+        File rootDir = writeCohort();
+        File csvFile = mTemporaryFolder.newFile("measurements.csv");
+        List<BiopsyResult> biopsyResults;
+        try (GlomerulusExporter exporter = new CsvGlomerulusExporter(new FileOutputStream(csvFile), 256)) {
+            biopsyResults = BiopsyDataProcessor.parseAllBiopsies(rootDir, new LineImageDataFileReader(), mExecutor,
+                    IngestionMode.STRICT, exporter);
+        }
+
+        assertEquals(csvRows(biopsyResults), Files.readAllLines(csvFile.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void TestLenientCsvExport() throws IOException {
+        File rootDir = writeCohort();
+        // An empty biopsy, and a file rejected after some of its glomeruli were parsed
+        new File(rootDir, "B0").mkdir();
+        File file = mTemporaryFolder.newFile("5.xls");
+        writeRandomImageDataFile(file, new Random(89), 40, 20);
+        File truncatedFile = new File(new File(rootDir, "B2"), "5.xls.gz");
+        compressFile(file, truncatedFile);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(truncatedFile, "rw")) {
+            randomAccessFile.setLength(randomAccessFile.length() / 2);
+        }
+        File csvFile = mTemporaryFolder.newFile("measurements.csv");
+        List<BiopsyResult> biopsyResults;
+        try (GlomerulusExporter exporter = new CsvGlomerulusExporter(new FileOutputStream(csvFile))) {
+            biopsyResults = BiopsyDataProcessor.parseAllBiopsies(rootDir, new LineImageDataFileReader(), mExecutor,
+                    IngestionMode.LENIENT, exporter);
+        }
+
+        assertEquals(4, biopsyResults.size());
+        assertEquals(1, biopsyResults.get(2).getErrors().size());
+        assertEquals(csvRows(biopsyResults), Files.readAllLines(csvFile.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void TestCsvEscapesBiopsyId() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        GlomerulusData glomerulusData = new GlomerulusData(new GeometryInfo(5000.0, 80.0), 3, 1);
+        glomerulusData.setPodocytesData(ImmutableList.of(new PodocyteData(new GeometryInfo(20.5, 6.25))));
+        try (GlomerulusExporter exporter = new CsvGlomerulusExporter(outputStream)) {
+            exporter.startBiopsy("B\"1\",2");
+            exporter.accept(glomerulusData);
+            assertEquals(1, exporter.getGlomerulusCount());
+            assertEquals(1, exporter.getPodocyteCount());
+        }
+
+        assertEquals(CsvGlomerulusExporter.HEADER + "\n"
+                        + "glomerulus,\"B\"\"1\"\",2\",3,1,5000.0,80.0\n"
+                        + "podocyte,\"B\"\"1\"\",2\",3,1,20.5,6.25\n",
+                new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void TestBinaryExport() throws IOException {
+        File rootDir = writeCohort();
+        File binaryFile = mTemporaryFolder.newFile("measurements.bin");
+        // The smallest buffer, so that it's drained many times
+        try (GlomerulusExporter exporter = new BinaryGlomerulusExporter(new FileOutputStream(binaryFile),
+                BinaryGlomerulusExporter.MIN_BUFFER_SIZE)) {
+            assertTrue(BiopsyDataProcessor.streamAllBiopsies(rootDir, new LineImageDataFileReader(), mExecutor,
+                    IngestionMode.STRICT, exporter).isEmpty());
+        }
+
+        List<BiopsyResult> biopsyResults = BiopsyDataProcessor.parseAllBiopsies(rootDir, mExecutor);
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(binaryFile)))) {
+            assertEquals(BinaryGlomerulusExporter.MAGIC, input.readInt());
+            assertEquals(BinaryGlomerulusExporter.VERSION, input.readShort());
+            for (int biopsyIndex = 0; biopsyIndex < biopsyResults.size(); biopsyIndex++) {
+                BiopsyResult biopsyResult = biopsyResults.get(biopsyIndex);
+                byte[] id = biopsyResult.getId().getBytes(StandardCharsets.UTF_8);
+                assertEquals(1 + 4 + id.length, input.readInt());
+                assertEquals(BinaryGlomerulusExporter.BIOPSY_RECORD, input.readByte());
+                assertEquals(biopsyIndex, input.readInt());
+                byte[] actualId = new byte[id.length];
+                input.readFully(actualId);
+                assertEquals(biopsyResult.getId(), new String(actualId, StandardCharsets.UTF_8));
+
+                for (GlomerulusData glomerulusData : biopsyResult.getGlomerulusData()) {
+                    assertEquals(1 + 4 + 4 + 4 + 8 + 8 + 4, input.readInt());
+                    assertEquals(BinaryGlomerulusExporter.GLOMERULUS_RECORD, input.readByte());
+                    assertBinaryRow(input, biopsyIndex, glomerulusData, glomerulusData.getGeometryInfo());
+                    assertEquals(glomerulusData.getPodocytesData().size(), input.readInt());
+                    for (PodocyteData podocyteData : glomerulusData.getPodocytesData()) {
+                        assertEquals(1 + 4 + 4 + 4 + 8 + 8, input.readInt());
+                        assertEquals(BinaryGlomerulusExporter.PODOCYTE_RECORD, input.readByte());
+                        assertBinaryRow(input, biopsyIndex, glomerulusData, podocyteData.getGeometryInfo());
+                    }
+                }
+            }
+            assertEquals(-1, input.read());
+        } catch (EOFException e) {
+            throw new AssertionError("Truncated export", e);
+        }
+    }
+
+    private File writeCohort() throws IOException {
+        File rootDir = mTemporaryFolder.newFolder("root");
+        Random random = new Random(83);
+        for (String biopsyId : new String[]{"B1", "B2", "B3"}) {
+            File biopsyDir = new File(rootDir, biopsyId);
+            biopsyDir.mkdir();
+            writeRandomBiopsy(biopsyDir, random, 4);
+        }
+        return rootDir;
+    }
+
+    private static List<String> csvRows(List<BiopsyResult> biopsyResults) {
+        List<String> rows = new ArrayList<>();
+        rows.add(CsvGlomerulusExporter.HEADER);
+        for (BiopsyResult biopsyResult : biopsyResults) {
+            for (GlomerulusData glomerulusData : biopsyResult.getGlomerulusData()) {
+                rows.add(csvRow("glomerulus", biopsyResult.getId(), glomerulusData, glomerulusData.getGeometryInfo()));
+                for (PodocyteData podocyteData : glomerulusData.getPodocytesData()) {
+                    rows.add(csvRow("podocyte", biopsyResult.getId(), glomerulusData, podocyteData.getGeometryInfo()));
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static String csvRow(String structure, String biopsyId, GlomerulusData glomerulusData,
+                                 GeometryInfo geometryInfo) {
+        return structure + "," + biopsyId + "," + glomerulusData.getImageId() + "," + glomerulusData.getNumber()
+                + "," + geometryInfo.getArea() + "," + geometryInfo.getFeret();
+    }
+
+    private static void assertBinaryRow(DataInputStream input, int biopsyIndex, GlomerulusData glomerulusData,
+                                        GeometryInfo geometryInfo) throws IOException {
+        assertEquals(biopsyIndex, input.readInt());
+        assertEquals(glomerulusData.getImageId(), input.readInt());
+        assertEquals(glomerulusData.getNumber(), input.readInt());
+        assertEquals(geometryInfo.getArea(), input.readDouble(), 0.0);
+        assertEquals(geometryInfo.getFeret(), input.readDouble(), 0.0);
+    }
+}
@@ -0,0 +1,110 @@
+package chamomile.test;
+
+import chamomile.structures.BiopsyResult;
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.GlomerulusRangeIndex;
+import chamomile.structures.GlomerulusRangeIndex.Attribute;
+import chamomile.structures.GlomerulusRangeIndex.GlomerulusRef;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static chamomile.test.TestDataUtils.randomBiopsyResults;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestGlomerulusRangeIndex {
+    private List<BiopsyResult> mBiopsyResults;
+
+    @Before
+    public void setup() {
+        mBiopsyResults = randomBiopsyResults(new Random(103), 30, 3, 60, 12);
+    }
+
+    @Test
+    public void TestRangeQueriesMatchScan() {
+        GlomerulusRangeIndex index = new GlomerulusRangeIndex();
+        Random random = new Random(107);
+        for (int i = 0; i < mBiopsyResults.size(); i++) {
+            // Query after every biopsy added
+            index.add(mBiopsyResults.get(i));
+            assertEquals(i + 1, index.getBiopsyCount());
+            List<BiopsyResult> indexedBiopsyResults = mBiopsyResults.subList(0, i + 1);
+
+            final double minArea = 4000.0 + random.nextDouble() * 8000.0;
+            final double maxArea = minArea + random.nextDouble() * 3000.0;
+            final int minPodocytes = random.nextInt(8);
+            Set<GlomerulusRef> expected = new HashSet<>();
+            Set<GlomerulusRef> expectedByArea = new HashSet<>();
+            for (BiopsyResult biopsyResult : indexedBiopsyResults) {
+                for (GlomerulusData glomerulusData : biopsyResult.getGlomerulusData()) {
+                    final double area = glomerulusData.getGeometryInfo().getArea();
+                    if (area >= minArea && area <= maxArea) {
+                        GlomerulusRef ref = new GlomerulusRef(biopsyResult.getId(), glomerulusData.getImageId(),
+                                glomerulusData.getNumber());
+                        expectedByArea.add(ref);
+                        if (glomerulusData.getPodocytesData().size() >= minPodocytes) {
+                            expected.add(ref);
+                        }
+                    }
+                }
+            }
+
+            List<GlomerulusRef> actual = index.find(new GlomerulusRangeIndex.Query()
+                    .range(Attribute.AREA, minArea, maxArea)
+                    .range(Attribute.PODOCYTE_COUNT, minPodocytes, Integer.MAX_VALUE));
+            assertEquals(expected.size(), actual.size());
+            assertEquals(expected, new HashSet<>(actual));
+            assertEquals(expectedByArea, new HashSet<>(index.find(Attribute.AREA, minArea, maxArea)));
+            assertEquals(expectedByArea.size(), index.count(Attribute.AREA, minArea, maxArea));
+        }
+        assertEquals(mBiopsyResults.size(), index.getBiopsyCount());
+    }
+
+    @Test
+    public void TestTopK() {
+        GlomerulusRangeIndex index = GlomerulusRangeIndex.of(mBiopsyResults);
+
+        List<Double> ferets = new ArrayList<>();
+        for (BiopsyResult biopsyResult : mBiopsyResults) {
+            for (GlomerulusData glomerulusData : biopsyResult.getGlomerulusData()) {
+                ferets.add(glomerulusData.getGeometryInfo().getFeret());
+            }
+        }
+        ferets.sort((Double first, Double second) -> Double.compare(second, first));
+        assertEquals(ferets.size(), index.size());
+
+        List<GlomerulusRef> top = index.top(Attribute.FERET, 25);
+        assertEquals(25, top.size());
+        for (int i = 0; i < top.size(); i++) {
+            assertEquals(ferets.get(i), feretOf(top.get(i)), 0.0);
+        }
+        assertEquals(ferets.size(), index.top(Attribute.FERET, Integer.MAX_VALUE).size());
+    }
+
+    @Test
+    public void TestUnconstrainedQueryFindsAll() {
+        GlomerulusRangeIndex index = GlomerulusRangeIndex.of(mBiopsyResults);
+        assertEquals(index.size(), index.find(new GlomerulusRangeIndex.Query()).size());
+        assertTrue(index.find(Attribute.AREA, 0.0, 1.0).isEmpty());
+    }
+
+    private double feretOf(GlomerulusRef ref) {
+        for (BiopsyResult biopsyResult : mBiopsyResults) {
+            if (biopsyResult.getId().equals(ref.getBiopsyId())) {
+                for (GlomerulusData glomerulusData : biopsyResult.getGlomerulusData()) {
+                    if (glomerulusData.getImageId() == ref.getImageId()
+                            && glomerulusData.getNumber() == ref.getNumber()) {
+                        return glomerulusData.getGeometryInfo().getFeret();
+                    }
+                }
+            }
+        }
+        throw new AssertionError("Unknown glomerulus " + ref);
+    }
+}
@@ -0,0 +1,63 @@
+package chamomile.test;
+
+import chamomile.structures.GeometryInfo;
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.GlomerulusSpatialIndex;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestGlomerulusSpatialIndex {
+
+    @Test
+    public void TestNearestSameAsBruteForce() {
+        Random random = new Random(41);
+        List<GlomerulusData> glomeruli = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            // Repeated coordinates on purpose
+            glomeruli.add(new GlomerulusData(new GeometryInfo(5000.0, 100.0, random.nextInt(200) * 10.0,
+                    random.nextDouble() * 2000.0), 1, i + 1));
+        }
+        GlomerulusSpatialIndex spatialIndex = new GlomerulusSpatialIndex(glomeruli);
+        assertEquals(glomeruli.size(), spatialIndex.size());
+
+        for (int i = 0; i < 2000; i++) {
+            final double x = random.nextDouble() * 2400.0 - 200.0;
+            final double y = random.nextDouble() * 2400.0 - 200.0;
+
+            double expectedDistance = Double.POSITIVE_INFINITY;
+            for (GlomerulusData glomerulusData : glomeruli) {
+                expectedDistance = Math.min(expectedDistance, distance(glomerulusData, x, y));
+            }
+
+            final int index = spatialIndex.findNearestIndex(x, y);
+            assertEquals(expectedDistance, distance(glomeruli.get(index), x, y), 0.0);
+            assertEquals(glomeruli.get(index), spatialIndex.findNearest(x, y));
+        }
+    }
+
+    @Test
+    public void TestEmpty() {
+        GlomerulusSpatialIndex spatialIndex = new GlomerulusSpatialIndex(Collections.emptyList());
+        assertEquals(-1, spatialIndex.findNearestIndex(1.0, 2.0));
+        assertNull(spatialIndex.findNearest(1.0, 2.0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void TestGlomerulusWithoutPosition() {
+        GlomerulusData glomerulusData = new GlomerulusData(new GeometryInfo(5000.0, 100.0), 1, 1);
+        new GlomerulusSpatialIndex(Collections.singletonList(glomerulusData));
+    }
+
+    private static double distance(GlomerulusData glomerulusData, double x, double y) {
+        final double dx = glomerulusData.getGeometryInfo().getFeretX() - x;
+        final double dy = glomerulusData.getGeometryInfo().getFeretY() - y;
+        return dx * dx + dy * dy;
+    }
+}
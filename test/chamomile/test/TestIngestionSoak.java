@@ -0,0 +1,185 @@
+package chamomile.test;
+
+import chamomile.io.BiopsyDataProcessor;
+import chamomile.io.CohortSink;
+import chamomile.io.IngestionMode;
+import chamomile.io.IngestionStatistics;
+import chamomile.io.InstrumentedImageDataFileReader;
+import chamomile.io.MappedImageDataFileReader;
+import chamomile.structures.BiopsyResult;
+import chamomile.structures.GlomerulusData;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * End-to-end ingestion of a big synthetic cohort, reporting the wall time, peak heap and rows per second. Skipped
+ * unless run with {@code -Dchamomile.soak=true}, since the default cohort of 10k biopsies, 11M rows, takes
+ * about 550 MB of disk.
+ *
+ * The cohort is tuned with the {@code chamomile.soak.biopsies}, {@code .images}, {@code .glomeruli},
+ * {@code .podocytes}, {@code .skew} and {@code .seed} system properties, e.g. 10k biopsies of 100 images of 10
+ * glomeruli with 10 podocytes for 100M rows. With {@code -Dchamomile.soak.mode=parse} the biopsies are parsed into
+ * memory by {@link BiopsyDataProcessor#parseAllBiopsies} instead of being streamed, which needs a heap big enough for
+ * the whole cohort. The figures are logged through {@link java.util.logging}.
+ */
+public class TestIngestionSoak {
+    private static final Logger LOGGER = Logger.getLogger(TestIngestionSoak.class.getName());
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private final int mThreadCount = Runtime.getRuntime().availableProcessors();
+
+    @Before
+    public void setUp() {
+        assumeTrue("Soak test disabled, run with -Dchamomile.soak=true", Boolean.getBoolean("chamomile.soak"));
+    }
+
+    @Test
+    public void TestSoak() throws Exception {
+        SyntheticBiopsyGenerator generator = new SyntheticBiopsyGenerator(Long.getLong("chamomile.soak.seed", 42))
+                .withBiopsyCount(Integer.getInteger("chamomile.soak.biopsies", 10_000))
+                .withImagesPerBiopsy(Integer.getInteger("chamomile.soak.images", 10))
+                .withGlomeruliPerImage(Integer.getInteger("chamomile.soak.glomeruli", 10))
+                .withPodocytesPerGlomerulus(Integer.getInteger("chamomile.soak.podocytes", 10))
+                .withSkew(Double.parseDouble(System.getProperty("chamomile.soak.skew", "0")));
+        File rootDir = mTemporaryFolder.newFolder("cohort");
+
+        long start = System.nanoTime();
+        SyntheticBiopsyGenerator.Corpus corpus = generate(generator, rootDir);
+        report("Generated " + corpus, System.nanoTime() - start, corpus.getRowCount());
+
+        IngestionStatistics statistics = new IngestionStatistics();
+        InstrumentedImageDataFileReader reader = new InstrumentedImageDataFileReader(new MappedImageDataFileReader(),
+                statistics);
+        resetPeakHeap();
+        start = System.nanoTime();
+        long[] counts = "parse".equals(System.getProperty("chamomile.soak.mode"))
+                ? parse(rootDir, reader)
+                : stream(rootDir, generator, reader);
+        final long nanos = System.nanoTime() - start;
+        report("Ingested " + statistics + ", peak heap " + getPeakHeap() / (1024 * 1024) + " MB", nanos,
+                corpus.getRowCount());
+
+        assertEquals(corpus.getGlomerulusCount(), counts[0]);
+        assertEquals(corpus.getPodocyteCount(), counts[1]);
+        assertEquals(corpus.getImageCount(), statistics.getFilesParsed());
+    }
+
+    private SyntheticBiopsyGenerator.Corpus generate(SyntheticBiopsyGenerator generator, File rootDir)
+            throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(mThreadCount);
+        try {
+            List<Future<SyntheticBiopsyGenerator.Corpus>> futures = new ArrayList<>(generator.getBiopsyCount());
+            for (int i = 0; i < generator.getBiopsyCount(); i++) {
+                final int biopsyIndex = i;
+                futures.add(executor.submit(() -> generator.generateBiopsy(rootDir, biopsyIndex)));
+            }
+            SyntheticBiopsyGenerator.Corpus corpus = new SyntheticBiopsyGenerator.Corpus();
+            for (Future<SyntheticBiopsyGenerator.Corpus> future : futures) {
+                corpus.add(future.get());
+            }
+            return corpus;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Streams the whole cohort to a sink counting the glomeruli and podocytes, parsing the files concurrently.
+     */
+    private long[] stream(File rootDir, SyntheticBiopsyGenerator generator, InstrumentedImageDataFileReader reader)
+            throws IOException {
+        CountingSink sink = new CountingSink();
+        ExecutorService executor = BiopsyDataProcessor.newIngestionExecutor(mThreadCount);
+        try {
+            BiopsyDataProcessor.streamAllBiopsies(rootDir, reader, executor, IngestionMode.STRICT, sink);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(generator.getBiopsyCount(), sink.mBiopsyCount);
+        return new long[]{sink.mGlomerulusCount, sink.mPodocyteCount};
+    }
+
+    private long[] parse(File rootDir, InstrumentedImageDataFileReader reader) throws IOException {
+        ExecutorService executor = BiopsyDataProcessor.newIngestionExecutor(mThreadCount);
+        try {
+            long[] counts = {0, 0};
+            for (BiopsyResult biopsyResult : BiopsyDataProcessor.parseAllBiopsies(rootDir, reader, executor)) {
+                for (GlomerulusData glomerulusData : biopsyResult.getGlomerulusData()) {
+                    counts[0]++;
+                    counts[1] += glomerulusData.getPodocytesData().size();
+                }
+            }
+            return counts;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Cohort sink counting what it receives, always called from the same thread.
+     */
+    private static final class CountingSink implements CohortSink {
+        private long mBiopsyCount;
+        private long mGlomerulusCount;
+        private long mPodocyteCount;
+
+        @Override
+        public void startBiopsy(String biopsyId) {
+            mBiopsyCount++;
+        }
+
+        @Override
+        public void accept(GlomerulusData glomerulusData) {
+            mGlomerulusCount++;
+            mPodocyteCount += glomerulusData.getPodocytesData().size();
+        }
+    }
+
+    private static void report(String what, long nanos, long rowCount) {
+        LOGGER.info(String.format(Locale.ROOT, "%s in %.1f s, %.0f rows/s", what, nanos / 1e9,
+                rowCount / (nanos / 1e9)));
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of the peak usage of the heap pools, an upper bound of the peak heap usage since the pools don't
+     * peak at the same time.
+     */
+    private static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,208 @@
+package chamomile.test;
+
+import chamomile.io.BiopsyDataProcessor;
+import chamomile.io.CacheValidation;
+import chamomile.io.CachingImageDataFileReader;
+import chamomile.io.GlomerulusSink;
+import chamomile.io.ImageDataFile;
+import chamomile.io.ImageDataFileReader;
+import chamomile.io.ImageDataFormatException;
+import chamomile.io.IngestionStatistics;
+import chamomile.io.InstrumentedImageDataFileReader;
+import chamomile.io.LineImageDataFileReader;
+import chamomile.io.MappedImageDataFileReader;
+import chamomile.structures.BiopsyResult;
+import chamomile.structures.GlomerulusData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import static chamomile.test.TestDataUtils.HEADER;
+import static chamomile.test.TestDataUtils.compressFile;
+import static chamomile.test.TestDataUtils.writeImageDataFile;
+import static chamomile.test.TestDataUtils.writeRandomBiopsy;
+import static chamomile.test.TestDataUtils.writeRandomImageDataFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestIngestionStatistics {
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void TestCountsMatchResult() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeRandomBiopsy(biopsyDir, new Random(17), 8);
+
+        IngestionStatistics statistics = new IngestionStatistics();
+        BiopsyResult biopsyResult = BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir,
+                new InstrumentedImageDataFileReader(new MappedImageDataFileReader(), statistics));
+
+        long podocyteCount = 0;
+        for (GlomerulusData glomerulusData : biopsyResult.getGlomerulusData()) {
+            podocyteCount += glomerulusData.getPodocytesData().size();
+        }
+        long byteCount = 0;
+        for (ImageDataFile imageDataFile : ImageDataFile.listImageDataFiles(biopsyDir)) {
+            byteCount += imageDataFile.getFile().length();
+        }
+
+        assertEquals(1, statistics.getDirectoriesListed());
+        assertEquals(8, statistics.getFilesParsed());
+        assertEquals(0, statistics.getFilesRejected());
+        assertEquals(byteCount, statistics.getBytesRead());
+        assertEquals(8, statistics.getHeaderLines());
+        assertEquals(biopsyResult.getGlomerulusData().size(), statistics.getGlomerulusLines());
+        assertEquals(podocyteCount, statistics.getPodocyteLines());
+        assertEquals(8 + biopsyResult.getGlomerulusData().size() + podocyteCount, statistics.getLinesParsed());
+        assertTrue(statistics.getLinesPerSecond() > 0);
+        assertTrue(statistics.getMedianFileParseTimeMillis() <= statistics.getMaxFileParseTimeMillis());
+    }
+
+    @Test
+    public void TestRejectedFile() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeImageDataFile(new File(biopsyDir, "1.xls"),
+                HEADER,
+                "1\t8914.940\t128.412\t226.768\t248.444\t117.031\t85.135",
+                "2\t23.243\t8.696\t214.429\t267.119\t57.529\t3.673");
+        writeImageDataFile(new File(biopsyDir, "2.xls"),
+                HEADER,
+                "1\t23.243\t8.696\t214.429\t267.119\t57.529\t3.673");
+
+        IngestionStatistics statistics = new IngestionStatistics();
+        try {
+            BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir,
+                    new InstrumentedImageDataFileReader(new MappedImageDataFileReader(), statistics));
+            fail("Podocyte before glomerulus accepted");
+        } catch (RuntimeException e) {
+            // Expected
+        }
+
+        assertEquals(1, statistics.getFilesParsed());
+        assertEquals(1, statistics.getFilesRejected());
+        assertEquals(2, statistics.getHeaderLines());
+        assertEquals(1, statistics.getRejectedLines());
+        assertEquals(5, statistics.getLinesParsed());
+    }
+
+    @Test
+    public void TestQuarantinedLines() throws IOException {
+        File file = mTemporaryFolder.newFile("1.xls");
+        writeImageDataFile(file,
+                HEADER,
+                "1\t8914.940\t128.412\t226.768\t248.444\t117.031\t85.135",
+                "2\t23.243\t8.696\t214.429\t267.119\t57.529\t3.673",
+                "3\t15.236\t5.834\t249.444\t354.158\t149.036\t3.773",
+                "4\t2.3.4",
+                "5\t24.689\t6.939\t259.782\t270.454\t35.218\t5.182",
+                "6\t8734.557\t112.589\t274.456\t424.522\t157.537\t103.920",
+                "7\t55.939\t10.677\t304.469\t422.522\t141.340\t7.607");
+        GlomerulusSink lenientSink = new GlomerulusSink() {
+            @Override
+            public void accept(GlomerulusData glomerulusData) {
+                // Discarded
+            }
+
+            @Override
+            public void quarantine(ImageDataFormatException exception) {
+                // Left out
+            }
+        };
+
+        for (ImageDataFileReader reader : new ImageDataFileReader[]{new LineImageDataFileReader(),
+                new MappedImageDataFileReader()}) {
+            IngestionStatistics statistics = new IngestionStatistics();
+            new InstrumentedImageDataFileReader(reader, statistics).read(ImageDataFile.forFile(file), lenientSink);
+
+            assertEquals(1, statistics.getHeaderLines());
+            assertEquals(1, statistics.getGlomerulusLines());
+            assertEquals(1, statistics.getPodocyteLines());
+            // The first glomerulus, its podocytes, the malformed line and the podocyte after it
+            assertEquals(5, statistics.getRejectedLines());
+            assertEquals(8, statistics.getLinesParsed());
+        }
+    }
+
+    @Test
+    public void TestBytesConsumed() throws IOException {
+        File file = mTemporaryFolder.newFile("1.xls");
+        writeRandomImageDataFile(file, new Random(23), 20, 20);
+        File compressedFile = mTemporaryFolder.newFile("2.xls.gz");
+        compressFile(file, compressedFile);
+        File cacheDir = mTemporaryFolder.newFolder("cache");
+
+        IngestionStatistics statistics = new IngestionStatistics();
+        ImageDataFileReader reader = new InstrumentedImageDataFileReader(new CachingImageDataFileReader(
+                new LineImageDataFileReader(), cacheDir, CacheValidation.METADATA), statistics);
+        reader.read(ImageDataFile.forFile(file));
+        reader.read(ImageDataFile.forFile(compressedFile));
+        // Missed and parsed without hashing, the compressed file counts with its size on disk
+        final long fileBytes = file.length() + compressedFile.length();
+        assertEquals(fileBytes, statistics.getBytesRead());
+        assertEquals(2, statistics.getHeaderLines());
+
+        long cacheBytes = 0;
+        for (File cacheFile : cacheDir.listFiles()) {
+            cacheBytes += cacheFile.length();
+        }
+        reader.read(ImageDataFile.forFile(file));
+        reader.read(ImageDataFile.forFile(compressedFile));
+        // Read from the cache, only the cache files are read
+        assertEquals(fileBytes + cacheBytes, statistics.getBytesRead());
+        assertEquals(2, statistics.getHeaderLines());
+        assertEquals(4 * 20, statistics.getGlomerulusLines());
+    }
+
+    @Test
+    public void TestListingTime() throws IOException {
+        File rootDir = mTemporaryFolder.newFolder("root");
+        for (String biopsyId : new String[]{"B1", "B2"}) {
+            File biopsyDir = new File(rootDir, biopsyId);
+            biopsyDir.mkdir();
+            writeRandomBiopsy(biopsyDir, new Random(29), 2);
+        }
+
+        IngestionStatistics statistics = new IngestionStatistics();
+        ExecutorService executor = BiopsyDataProcessor.newIngestionExecutor(2);
+        try {
+            BiopsyDataProcessor.parseAllBiopsies(rootDir,
+                    new InstrumentedImageDataFileReader(new MappedImageDataFileReader(), statistics), executor);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // The root directory and both biopsy directories
+        assertEquals(3, statistics.getDirectoriesListed());
+        assertEquals(4, statistics.getFilesParsed());
+    }
+
+    @Test
+    public void TestMXBean() throws IOException, JMException {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeRandomBiopsy(biopsyDir, new Random(19), 3);
+
+        IngestionStatistics statistics = new IngestionStatistics();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = statistics.registerMBean();
+        try {
+            BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir,
+                    new InstrumentedImageDataFileReader(new MappedImageDataFileReader(), statistics));
+
+            assertEquals(3L, server.getAttribute(objectName, "FilesParsed"));
+            assertEquals(statistics.getLinesParsed(), server.getAttribute(objectName, "LinesParsed"));
+        } finally {
+            server.unregisterMBean(objectName);
+        }
+    }
+}
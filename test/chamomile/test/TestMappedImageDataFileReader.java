@@ -0,0 +1,180 @@
+package chamomile.test;
+
+import chamomile.io.GlomerulusSink;
+import chamomile.io.ImageDataFile;
+import chamomile.io.ImageDataFileReader;
+import chamomile.io.ImageDataFormatException;
+import chamomile.io.LineImageDataFileReader;
+import chamomile.io.MappedImageDataFileReader;
+import chamomile.structures.GlomerulusData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static chamomile.test.TestDataUtils.HEADER;
+import static chamomile.test.TestDataUtils.assertSameGlomeruli;
+import static chamomile.test.TestDataUtils.randomLines;
+import static chamomile.test.TestDataUtils.randomMeasurement;
+import static chamomile.test.TestDataUtils.writeImageDataFile;
+import static chamomile.test.TestDataUtils.writeImageDataFileWithTerminator;
+import static chamomile.test.TestDataUtils.writeRandomImageDataFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestMappedImageDataFileReader {
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private final ImageDataFileReader mLineReader = new LineImageDataFileReader();
+    private final ImageDataFileReader mMappedReader = new MappedImageDataFileReader();
+
+    private static final String[] VALID_LINES = {
+            HEADER,
+            "1\t8914.940\t128.412\t226.768\t248.444\t117.031\t85.135",
+            "2\t23.243\t8.696\t214.429\t267.119\t57.529\t3.673",
+            "3\t40.369\t8.250\t214.762\t277.457\t104.036\t7.003",
+            "4\t8734.557\t112.589\t274.456\t424.522\t157.537\t103.920",
+            "5\t55.939\t10.677\t304.469\t422.522\t141.340\t7.607",
+    };
+
+    @Test
+    public void TestLineTerminators() throws IOException {
+        for (String lineTerminator : new String[]{"\n", "\r", "\r\n"}) {
+            File file = mTemporaryFolder.newFile();
+            writeImageDataFileWithTerminator(file, lineTerminator, VALID_LINES);
+            assertSameResult(new ImageDataFile(file, 3));
+        }
+    }
+
+    @Test
+    public void TestNoTrailingLineTerminator() throws IOException {
+        File file = mTemporaryFolder.newFile();
+        writeImageDataFileWithTerminator(file, "\n", VALID_LINES);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(randomAccessFile.length() - 1);
+        }
+
+        List<GlomerulusData> glomerulusData = assertSameResult(new ImageDataFile(file, 3));
+        assertEquals(2, glomerulusData.size());
+        assertEquals(1, glomerulusData.get(1).getPodocytesData().size());
+    }
+
+    @Test
+    public void TestSmallMappingWindows() throws IOException {
+        File file = mTemporaryFolder.newFile();
+        writeRandomImageDataFile(file, new Random(17), 50, 30);
+        ImageDataFile imageDataFile = new ImageDataFile(file, 1);
+
+        for (int maxMappingSize : new int[]{64, 65, 127, 4096}) {
+            assertSameGlomeruli(mLineReader.read(imageDataFile),
+                    new MappedImageDataFileReader(maxMappingSize).read(imageDataFile));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void TestLineLongerThanMappingWindow() throws IOException {
+        File file = mTemporaryFolder.newFile();
+        writeImageDataFile(file, VALID_LINES);
+
+        new MappedImageDataFileReader(16).read(new ImageDataFile(file, 1));
+    }
+
+    @Test
+    public void TestInvalidFilesRejectedLikeLineReader() throws IOException {
+        String[][] invalidFiles = {
+                {},
+                {HEADER},
+                {HEADER, HEADER, VALID_LINES[1], VALID_LINES[2]},
+                {VALID_LINES[1], VALID_LINES[2]},
+                {HEADER, VALID_LINES[2], VALID_LINES[1]},
+                {HEADER, VALID_LINES[1], "", VALID_LINES[2]},
+                {HEADER, VALID_LINES[1], VALID_LINES[4], VALID_LINES[2]},
+                {HEADER, VALID_LINES[1], "2\t0.243\t8.696\t214.429\t267.119\t57.529\t3.673"},
+                {HEADER, VALID_LINES[1], "2\t23.243\t8.696\t214.429\t267.119\t57.529"},
+        };
+
+        for (String[] lines : invalidFiles) {
+            File file = mTemporaryFolder.newFile();
+            writeImageDataFile(file, lines);
+            ImageDataFile imageDataFile = new ImageDataFile(file, 1);
+
+            assertRejected(mLineReader, imageDataFile);
+            assertRejected(mMappedReader, imageDataFile);
+        }
+    }
+
+    @Test
+    public void TestQuarantineLikeLineReader() throws IOException {
+        Random random = new Random(29);
+        List<String> lines = randomLines(random, 200, 0, 5);
+        for (int i = 1; i < lines.size(); i++) {
+            // Some measurements are malformed or out of range
+            switch (random.nextInt(40)) {
+                case 0:
+                    lines.set(i, "1\t2.3.4");
+                    break;
+                case 1:
+                    lines.set(i, randomMeasurement(random, i, 1000.0));
+                    break;
+                default:
+                    break;
+            }
+        }
+        File file = mTemporaryFolder.newFile();
+        writeImageDataFile(file, lines.toArray(new String[0]));
+        ImageDataFile imageDataFile = new ImageDataFile(file, 1);
+
+        List<GlomerulusData> expectedGlomeruli = new ArrayList<>();
+        List<Integer> expectedLines = new ArrayList<>();
+        mLineReader.read(imageDataFile, new LenientSink(expectedGlomeruli, expectedLines));
+        List<GlomerulusData> actualGlomeruli = new ArrayList<>();
+        List<Integer> actualLines = new ArrayList<>();
+        mMappedReader.read(imageDataFile, new LenientSink(actualGlomeruli, actualLines));
+
+        assertSameGlomeruli(expectedGlomeruli, actualGlomeruli);
+        assertEquals(expectedLines, actualLines);
+    }
+
+    private List<GlomerulusData> assertSameResult(ImageDataFile imageDataFile) throws IOException {
+        List<GlomerulusData> expected = mLineReader.read(imageDataFile);
+        List<GlomerulusData> actual = mMappedReader.read(imageDataFile);
+        assertSameGlomeruli(expected, actual);
+        return actual;
+    }
+
+    private static void assertRejected(ImageDataFileReader reader, ImageDataFile imageDataFile) throws IOException {
+        try {
+            reader.read(imageDataFile);
+            fail("Expected " + imageDataFile + " to be rejected by " + reader);
+        } catch (RuntimeException e) {
+            // Expected
+        }
+    }
+
+    private static final class LenientSink implements GlomerulusSink {
+        private final List<GlomerulusData> mGlomeruli;
+        private final List<Integer> mQuarantinedLines;
+
+        private LenientSink(List<GlomerulusData> glomeruli, List<Integer> quarantinedLines) {
+            mGlomeruli = glomeruli;
+            mQuarantinedLines = quarantinedLines;
+        }
+
+        @Override
+        public void accept(GlomerulusData glomerulusData) {
+            mGlomeruli.add(glomerulusData);
+        }
+
+        @Override
+        public void quarantine(ImageDataFormatException exception) {
+            mQuarantinedLines.add(exception.getLineNumber());
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package chamomile.test;
+
+import chamomile.io.ImageDataColumn;
+import chamomile.io.ImageDataSchema;
+import chamomile.io.MeasurementLineParser;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Scanner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestMeasurementLineParser {
+    private MeasurementLineParser mParser;
+    private final static long SEED = 20170412L;
+    private final static int GENERATED_LINES = 5000;
+
+    @Before
+    public void setup() {
+        mParser = new MeasurementLineParser();
+    }
+
+    @Test
+    public void TestSingleLine() {
+        mParser.parse("1\t8914.940\t128.412\t226.768\t248.444\t117.031\t85.135");
+
+        assertEquals(1, mParser.getNumber());
+        assertEquals(8914.940, mParser.getArea(), 0.0);
+        assertEquals(128.412, mParser.getFeret(), 0.0);
+        assertEquals(226.768, mParser.getFeretX(), 0.0);
+        assertEquals(248.444, mParser.getFeretY(), 0.0);
+        assertEquals(117.031, mParser.getFeretAngle(), 0.0);
+        assertEquals(85.135, mParser.getMinFeret(), 0.0);
+    }
+
+    @Test
+    public void TestProjectedColumns() {
+        mParser = new MeasurementLineParser(EnumSet.of(ImageDataColumn.AREA, ImageDataColumn.FERET));
+        mParser.parse("1\t8914.940\t128.412\t226.768\t248.444\t117.031\t85.135");
+
+        assertEquals(1, mParser.getNumber());
+        assertEquals(8914.940, mParser.getArea(), 0.0);
+        assertEquals(128.412, mParser.getFeret(), 0.0);
+        assertTrue(Double.isNaN(mParser.getFeretX()));
+        assertTrue(Double.isNaN(mParser.getMinFeret()));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void TestProjectedColumnsStillValidated() {
+        mParser = new MeasurementLineParser(EnumSet.of(ImageDataColumn.AREA, ImageDataColumn.FERET));
+        mParser.parse("2\t23.243\t8.696\t214.429\t267.1.19\t57.529\t3.673");
+    }
+
+    @Test
+    public void TestReorderedAndExtraColumns() {
+        mParser = new MeasurementLineParser(EnumSet.of(ImageDataColumn.AREA, ImageDataColumn.FERET));
+        mParser.setSchema(ImageDataSchema.parseHeader(" \tMean\tFeret\tArea\tIntDen"));
+        mParser.parse("7\t120.5\t8.696\t23.243\t1e5");
+
+        assertEquals(7, mParser.getNumber());
+        assertEquals(23.243, mParser.getArea(), 0.0);
+        assertEquals(8.696, mParser.getFeret(), 0.0);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void TestRequiredColumnMissing() {
+        mParser = new MeasurementLineParser(EnumSet.of(ImageDataColumn.AREA, ImageDataColumn.FERET));
+        mParser.setSchema(ImageDataSchema.parseHeader("Area\tPerimeter"));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void TestDuplicatedColumn() {
+        ImageDataSchema.parseHeader("Area\tFeret\tArea");
+    }
+
+    @Test
+    public void TestHeaderLine() {
+        assertTrue(ImageDataSchema.isHeaderLine("Area\tFeret\tFeretX\tFeretY\tFeretAngle\tMinFeret"));
+        assertTrue(ImageDataSchema.isHeaderLine(" \tArea\tFeret"));
+        assertFalse(ImageDataSchema.isHeaderLine("1\t8914.940\t128.412\t226.768\t248.444\t117.031\t85.135"));
+        assertFalse(ImageDataSchema.isHeaderLine(""));
+
+        ImageDataSchema schema = ImageDataSchema.parseHeader(" \tMean\tFeret\tArea");
+        assertEquals(4, schema.getFieldCount());
+        assertEquals(3, schema.getFieldIndex(ImageDataColumn.AREA));
+        assertFalse(schema.hasColumn(ImageDataColumn.MIN_FERET));
+    }
+
+    @Test
+    public void TestDifferentialAgainstScanner_FixedPrecision() {
+        Random random = new Random(SEED);
+
+        for (int i = 0; i < GENERATED_LINES; i++) {
+            String line = String.format(Locale.ROOT, "%d\t%.3f\t%.3f\t%.3f\t%.3f\t%.3f\t%.3f",
+                    i + 1,
+                    random.nextDouble() * 15000.0,
+                    random.nextDouble() * 150.0,
+                    random.nextDouble() * 1000.0,
+                    random.nextDouble() * 1000.0,
+                    random.nextDouble() * 180.0,
+                    random.nextDouble() * 120.0);
+            assertSameAsScanner(line);
+        }
+    }
+
+    @Test
+    public void TestDifferentialAgainstScanner_FullPrecision() {
+        Random random = new Random(SEED);
+
+        for (int i = 0; i < GENERATED_LINES; i++) {
+            StringBuilder line = new StringBuilder().append(random.nextInt(Integer.MAX_VALUE));
+            for (int field = 1; field < MeasurementLineParser.FIELD_COUNT; field++) {
+                line.append(random.nextBoolean() ? '\t' : ' ').append(randomNumber(random));
+            }
+            assertSameAsScanner(line.toString());
+        }
+    }
+
+    @Test
+    public void TestTrailingWhitespace() {
+        mParser.parse("2\t23.243\t8.696\t214.429\t267.119\t57.529\t3.673\t\r");
+        assertEquals(3.673, mParser.getMinFeret(), 0.0);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void TestMissingField() {
+        mParser.parse("2\t23.243\t8.696\t214.429\t267.119\t57.529");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void TestExtraField() {
+        mParser.parse("2\t23.243\t8.696\t214.429\t267.119\t57.529\t3.673\t1.0");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void TestNonIntegerIndex() {
+        mParser.parse("2.0\t23.243\t8.696\t214.429\t267.119\t57.529\t3.673");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void TestIndexOverflow() {
+        mParser.parse("2147483648\t23.243\t8.696\t214.429\t267.119\t57.529\t3.673");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void TestNonNumericField() {
+        mParser.parse("2\t23.243\t8.696\tabc\t267.119\t57.529\t3.673");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void TestMalformedNumber() {
+        mParser.parse("2\t23.2.43\t8.696\t214.429\t267.119\t57.529\t3.673");
+    }
+
+    @Test
+    public void TestMalformedLinesRejectedLikeScanner() {
+        String[] malformedLines = {
+                "",
+                "\t",
+                "x\t23.243\t8.696\t214.429\t267.119\t57.529\t3.673",
+                "2\t.\t8.696\t214.429\t267.119\t57.529\t3.673",
+                "2\t23.243e\t8.696\t214.429\t267.119\t57.529\t3.673",
+                "2\t-\t8.696\t214.429\t267.119\t57.529\t3.673",
+                "2\t23.243\t8.696\t214.429\t267.119\t57.529\t3.673x",
+        };
+
+        for (String line : malformedLines) {
+            boolean scannerFailed = false;
+            try {
+                parseWithScanner(line);
+            } catch (RuntimeException e) {
+                scannerFailed = true;
+            }
+            assertEquals("Scanner should reject: " + line, true, scannerFailed);
+
+            try {
+                mParser.parse(line);
+                fail("Parser should reject: " + line);
+            } catch (RuntimeException e) {
+                // Expected
+            }
+        }
+    }
+
+    private void assertSameAsScanner(String line) {
+        double[] expected = parseWithScanner(line);
+        mParser.parse(line);
+
+        assertEquals(line, (int) expected[0], mParser.getNumber());
+        assertBitwiseEquals(line, expected[1], mParser.getArea());
+        assertBitwiseEquals(line, expected[2], mParser.getFeret());
+        assertBitwiseEquals(line, expected[3], mParser.getFeretX());
+        assertBitwiseEquals(line, expected[4], mParser.getFeretY());
+        assertBitwiseEquals(line, expected[5], mParser.getFeretAngle());
+        assertBitwiseEquals(line, expected[6], mParser.getMinFeret());
+    }
+
+    private static void assertBitwiseEquals(String line, double expected, double actual) {
+        assertEquals(line, Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+    }
+
+    /**
+     * Reference implementation, equivalent to the original {@link Scanner} based parsing.
+     */
+    private static double[] parseWithScanner(String line) {
+        Scanner scanner = new Scanner(line).useLocale(Locale.ROOT);
+        double[] values = new double[MeasurementLineParser.FIELD_COUNT];
+
+        values[0] = scanner.nextInt();
+        for (int i = 1; i < MeasurementLineParser.FIELD_COUNT; i++) {
+            values[i] = scanner.nextDouble();
+        }
+
+        return values;
+    }
+
+    private static String randomNumber(Random random) {
+        switch (random.nextInt(5)) {
+            case 0:
+                return Double.toString(random.nextDouble() * 10000.0);
+            case 1:
+                return String.format(Locale.ROOT, "%.6f", random.nextDouble());
+            case 2:
+                return String.format(Locale.ROOT, "%.3e", random.nextDouble() * 1e6);
+            case 3:
+                return String.format(Locale.ROOT, "%.20f", random.nextDouble() * 100.0);
+            default:
+                return Integer.toString(random.nextInt(100000));
+        }
+    }
+}
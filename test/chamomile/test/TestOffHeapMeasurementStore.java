@@ -0,0 +1,162 @@
+package chamomile.test;
+
+import chamomile.io.BiopsyDataProcessor;
+import chamomile.io.IngestionMode;
+import chamomile.io.LineImageDataFileReader;
+import chamomile.io.MeasurementStoreSink;
+import chamomile.structures.BiopsyResult;
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.OffHeapMeasurementStore;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import static chamomile.test.TestDataUtils.assertSameGlomeruli;
+import static chamomile.test.TestDataUtils.randomBiopsyResult;
+import static chamomile.test.TestDataUtils.writeRandomBiopsy;
+import static org.junit.Assert.assertEquals;
+
+public class TestOffHeapMeasurementStore {
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private List<BiopsyResult> mBiopsyResults;
+
+    @Before
+    public void setup() {
+        mBiopsyResults = new ArrayList<>();
+        Random random = new Random(97);
+        for (int i = 0; i < 5; i++) {
+            mBiopsyResults.add(randomBiopsyResult(random, "B" + i, 3, 20, 30));
+        }
+        // A biopsy without glomeruli
+        BiopsyResult emptyBiopsyResult = new BiopsyResult("B5");
+        emptyBiopsyResult.setGlomerulusData(new ArrayList<>());
+        mBiopsyResults.add(emptyBiopsyResult);
+    }
+
+    @Test
+    public void TestRecords() {
+        OffHeapMeasurementStore store = OffHeapMeasurementStore.of(mBiopsyResults);
+
+        assertEquals(mBiopsyResults.size(), store.getBiopsyCount());
+        int glomerulusIndex = 0;
+        long podocyteIndex = 0;
+        for (int i = 0; i < mBiopsyResults.size(); i++) {
+            for (GlomerulusData expected : mBiopsyResults.get(i).getGlomerulusData()) {
+                assertEquals(i, store.getBiopsyIndex(glomerulusIndex));
+                assertEquals(expected.getImageId(), store.getImageId(glomerulusIndex));
+                assertEquals(expected.getNumber(), store.getGlomerulusNumber(glomerulusIndex));
+                assertEquals(expected.getGeometryInfo().getArea(), store.getGlomerulusArea(glomerulusIndex), 0.0);
+                assertEquals(expected.getGeometryInfo().getFeretY(), store.getGlomerulusFeretY(glomerulusIndex), 0.0);
+                assertEquals(podocyteIndex, store.getFirstPodocyteIndex(glomerulusIndex));
+                assertEquals(expected.getPodocytesData().size(), store.getPodocyteCount(glomerulusIndex));
+                assertEquals(expected.getPodocytesData().get(0).getGeometryInfo().getFeret(),
+                        store.getPodocyteFeret(podocyteIndex), 0.0);
+
+                glomerulusIndex++;
+                podocyteIndex += expected.getPodocytesData().size();
+            }
+        }
+        assertEquals(glomerulusIndex, store.getGlomerulusCount());
+        assertEquals(podocyteIndex, store.getTotalPodocyteCount());
+    }
+
+    @Test
+    public void TestViews() {
+        // Chunks of 8 records, so that most biopsies span several chunks
+        OffHeapMeasurementStore.Builder builder = new OffHeapMeasurementStore.Builder(3);
+        for (BiopsyResult biopsyResult : mBiopsyResults) {
+            builder.addBiopsy(biopsyResult);
+        }
+        assertSameStore(builder.build());
+    }
+
+    @Test
+    public void TestPersistedStore() throws IOException {
+        Path file = mTemporaryFolder.getRoot().toPath().resolve("cohort.store");
+        OffHeapMeasurementStore.of(mBiopsyResults).writeTo(file);
+
+        OffHeapMeasurementStore store = OffHeapMeasurementStore.open(file);
+        assertSameStore(store);
+
+        // Reopened stores can be written again
+        Path copy = mTemporaryFolder.getRoot().toPath().resolve("copy.store");
+        store.writeTo(copy);
+        assertSameStore(OffHeapMeasurementStore.open(copy));
+    }
+
+    @Test
+    public void TestStreamedStore() throws IOException {
+        File rootDir = mTemporaryFolder.newFolder("cohort");
+        Random random = new Random(101);
+        for (String biopsyId : new String[]{"B1", "B2", "B3"}) {
+            writeRandomBiopsy(mTemporaryFolder.newFolder("cohort", biopsyId), random, 4);
+        }
+        mTemporaryFolder.newFolder("cohort", "B4");
+
+        ExecutorService executor = BiopsyDataProcessor.newIngestionExecutor(2);
+        try {
+            MeasurementStoreSink sink = new MeasurementStoreSink(new OffHeapMeasurementStore.Builder(3));
+            BiopsyDataProcessor.streamAllBiopsies(rootDir, new LineImageDataFileReader(), executor,
+                    IngestionMode.STRICT, sink);
+            mBiopsyResults = BiopsyDataProcessor.parseAllBiopsies(rootDir, executor);
+            assertSameStore(sink.build());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void TestTruncatedStore() throws IOException {
+        Path file = mTemporaryFolder.getRoot().toPath().resolve("cohort.store");
+        OffHeapMeasurementStore.of(mBiopsyResults).writeTo(file);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "rw")) {
+            randomAccessFile.setLength(randomAccessFile.length() - 5);
+        }
+
+        OffHeapMeasurementStore.open(file);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void TestGlomerulusBeforeBiopsy() {
+        new OffHeapMeasurementStore.Builder().addGlomerulus(1, 1, 8914.940, 128.412, 226.768, 248.444);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void TestPodocyteIndexOutOfBounds() {
+        OffHeapMeasurementStore store = OffHeapMeasurementStore.of(mBiopsyResults);
+        store.getPodocyteArea(store.getTotalPodocyteCount());
+    }
+
+    private void assertSameStore(OffHeapMeasurementStore store) {
+        assertEquals(mBiopsyResults.size(), store.getBiopsyCount());
+        for (int i = 0; i < mBiopsyResults.size(); i++) {
+            BiopsyResult expected = mBiopsyResults.get(i);
+            OffHeapMeasurementStore.BiopsyView view = store.getBiopsy(i);
+
+            assertEquals(expected.getId(), view.getId());
+            assertEquals(expected.getGlomerulusData().size(), view.getGlomerulusCount());
+            assertSameGlomeruli(expected.getGlomerulusData(), view.asGlomerulusDataList());
+            for (int j = 0; j < view.getGlomerulusCount(); j++) {
+                GlomerulusData expectedGlomerulus = expected.getGlomerulusData().get(j);
+                OffHeapMeasurementStore.GlomerulusView glomerulusView = view.getGlomerulus(j);
+                assertEquals(expectedGlomerulus.getGeometryInfo().getFeretX(), glomerulusView.getFeretX(), 0.0);
+                for (int k = 0; k < glomerulusView.getPodocyteCount(); k++) {
+                    assertEquals(expectedGlomerulus.getPodocytesData().get(k).getGeometryInfo().getArea(),
+                            glomerulusView.getPodocyte(k).getArea(), 0.0);
+                }
+            }
+        }
+    }
+}
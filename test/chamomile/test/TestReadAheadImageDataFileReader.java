@@ -0,0 +1,156 @@
+package chamomile.test;
+
+import chamomile.io.BiopsyDataProcessor;
+import chamomile.io.ImageDataFile;
+import chamomile.io.ImageDataFileReader;
+import chamomile.io.LineImageDataFileReader;
+import chamomile.io.PodocyteAssignment;
+import chamomile.io.ReadAheadImageDataFileReader;
+import chamomile.structures.BiopsyResult;
+import chamomile.structures.GlomerulusData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static chamomile.test.TestDataUtils.HEADER;
+import static chamomile.test.TestDataUtils.assertSameGlomeruli;
+import static chamomile.test.TestDataUtils.compressFile;
+import static chamomile.test.TestDataUtils.writeImageDataFile;
+import static chamomile.test.TestDataUtils.writeRandomBiopsy;
+import static chamomile.test.TestDataUtils.writeRandomImageDataFile;
+import static org.junit.Assert.assertEquals;
+
+public class TestReadAheadImageDataFileReader {
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private final ImageDataFileReader mLineReader = new LineImageDataFileReader();
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void TestSameResultAsLineReader() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeRandomBiopsy(biopsyDir, new Random(41), 12);
+        BiopsyResult expected = BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir, mLineReader);
+
+        // Read-ahead deeper and shallower than the number of files and the number of parsing threads
+        for (int readAheadDepth : new int[]{1, 3, 32}) {
+            try (ReadAheadImageDataFileReader reader = new ReadAheadImageDataFileReader(2, readAheadDepth,
+                    ReadAheadImageDataFileReader.DEFAULT_BUFFER_SIZE)) {
+                assertSameGlomeruli(expected.getGlomerulusData(),
+                        BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir, reader).getGlomerulusData());
+                assertSameGlomeruli(expected.getGlomerulusData(), BiopsyDataProcessor
+                        .parseAllDataFilesForBiopsy("B1", biopsyDir, reader, mExecutor).getGlomerulusData());
+            }
+        }
+    }
+
+    @Test
+    public void TestCompressedFiles() throws IOException {
+        File file = mTemporaryFolder.newFile("1.xls");
+        writeRandomImageDataFile(file, new Random(43), 40, 20);
+        File compressedFile = new File(mTemporaryFolder.getRoot(), "2.xls.gz");
+        compressFile(file, compressedFile);
+        ImageDataFile imageDataFile = ImageDataFile.forFile(file);
+        ImageDataFile compressedImageDataFile = ImageDataFile.forFile(compressedFile);
+
+        try (ReadAheadImageDataFileReader reader = new ReadAheadImageDataFileReader()) {
+            List<ImageDataFile> imageDataFiles = new ArrayList<>();
+            imageDataFiles.add(imageDataFile);
+            imageDataFiles.add(compressedImageDataFile);
+            Closeable prefetch = reader.prefetch(imageDataFiles);
+            try {
+                assertSameGlomeruli(mLineReader.read(imageDataFile), reader.read(imageDataFile));
+                assertSameGlomeruli(mLineReader.read(compressedImageDataFile), reader.read(compressedImageDataFile));
+            } finally {
+                prefetch.close();
+            }
+        }
+    }
+
+    @Test
+    public void TestFilesBiggerThanBuffersReadDirectly() throws IOException {
+        File file = mTemporaryFolder.newFile("1.xls");
+        writeRandomImageDataFile(file, new Random(47), 40, 20);
+        ImageDataFile imageDataFile = ImageDataFile.forFile(file);
+
+        try (ReadAheadImageDataFileReader reader = new ReadAheadImageDataFileReader(1, 1, 256)) {
+            Closeable prefetch = reader.prefetch(Collections.singletonList(imageDataFile));
+            try {
+                assertSameGlomeruli(mLineReader.read(imageDataFile), reader.read(imageDataFile));
+            } finally {
+                prefetch.close();
+            }
+        }
+    }
+
+    @Test
+    public void TestNearestGlomerulusAssignment() throws IOException {
+        File file = mTemporaryFolder.newFile("1.xls");
+        // The first podocyte comes before any glomerulus, which is only valid when assigned by position
+        writeImageDataFile(file, HEADER,
+                "1\t23.243\t8.696\t905.000\t910.000\t57.529\t3.673",
+                "2\t8914.940\t128.412\t100.000\t100.000\t117.031\t85.135",
+                "3\t40.369\t8.250\t110.000\t95.000\t104.036\t7.003",
+                "4\t8734.557\t112.589\t900.000\t900.000\t157.537\t103.920",
+                "5\t55.939\t10.677\t120.000\t130.000\t141.340\t7.607");
+        ImageDataFile imageDataFile = ImageDataFile.forFile(file);
+        List<GlomerulusData> expected =
+                new LineImageDataFileReader(PodocyteAssignment.NEAREST_GLOMERULUS).read(imageDataFile);
+        assertEquals(2, expected.get(0).getPodocytesData().size());
+
+        // Loaded ahead into a buffer, and read directly since it doesn't fit in one
+        for (int bufferSize : new int[]{ReadAheadImageDataFileReader.DEFAULT_BUFFER_SIZE, 64}) {
+            try (ReadAheadImageDataFileReader reader = new ReadAheadImageDataFileReader(1, 1, bufferSize,
+                    PodocyteAssignment.NEAREST_GLOMERULUS)) {
+                Closeable prefetch = reader.prefetch(Collections.singletonList(imageDataFile));
+                try {
+                    assertSameGlomeruli(expected, reader.read(imageDataFile));
+                } finally {
+                    prefetch.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void TestUnreadPrefetchesReleased() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("B1");
+        writeRandomBiopsy(biopsyDir, new Random(53), 6);
+        List<ImageDataFile> imageDataFiles = ImageDataFile.listImageDataFiles(biopsyDir);
+
+        try (ReadAheadImageDataFileReader reader = new ReadAheadImageDataFileReader(2, 2,
+                ReadAheadImageDataFileReader.DEFAULT_BUFFER_SIZE)) {
+            // Abandon prefetches holding every buffer, later reads still complete
+            for (int i = 0; i < 3; i++) {
+                reader.prefetch(imageDataFiles).close();
+            }
+
+            BiopsyResult expected = BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir, mLineReader);
+            BiopsyResult actual = BiopsyDataProcessor.parseAllDataFilesForBiopsy("B1", biopsyDir, reader, mExecutor);
+            assertSameGlomeruli(expected.getGlomerulusData(), actual.getGlomerulusData());
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package chamomile.test;
+
+import chamomile.io.BiopsyDataProcessor;
+import chamomile.statistics.GlomeruliStatistics;
+import chamomile.statistics.MorphometryStatistics;
+import chamomile.statistics.QuantileSketch;
+import chamomile.statistics.RunningStatistics;
+import chamomile.structures.BiopsyResult;
+import chamomile.structures.GlomerulusData;
+import chamomile.structures.PodocyteData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import static chamomile.test.TestDataUtils.writeRandomBiopsy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestStatistics {
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private final static double DEFAULT_DELTA = 0.0001;
+
+    @Test
+    public void TestRunningStatistics() {
+        Random random = new Random(3);
+        double[] values = new double[1000];
+        RunningStatistics statistics = new RunningStatistics();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 5.0 + random.nextDouble() * 145.0;
+            statistics.add(values[i]);
+        }
+
+        double mean = Arrays.stream(values).average().getAsDouble();
+        double variance = Arrays.stream(values).map((double value) -> (value - mean) * (value - mean)).sum()
+                / (values.length - 1);
+
+        assertEquals(values.length, statistics.getCount());
+        assertEquals(mean, statistics.getMean(), DEFAULT_DELTA);
+        assertEquals(variance, statistics.getVariance(), DEFAULT_DELTA);
+        assertEquals(Arrays.stream(values).min().getAsDouble(), statistics.getMin(), 0.0);
+        assertEquals(Arrays.stream(values).max().getAsDouble(), statistics.getMax(), 0.0);
+    }
+
+    @Test
+    public void TestRunningStatisticsMerge() {
+        Random random = new Random(5);
+        RunningStatistics all = new RunningStatistics();
+        RunningStatistics first = new RunningStatistics();
+        RunningStatistics second = new RunningStatistics();
+        for (int i = 0; i < 500; i++) {
+            double value = random.nextGaussian() * 10.0 + 100.0;
+            all.add(value);
+            (i % 3 == 0 ? first : second).add(value);
+        }
+
+        first.merge(second);
+        first.merge(new RunningStatistics());
+        assertEquals(all.getCount(), first.getCount());
+        assertEquals(all.getMean(), first.getMean(), DEFAULT_DELTA);
+        assertEquals(all.getVariance(), first.getVariance(), DEFAULT_DELTA);
+        assertEquals(all.getMin(), first.getMin(), 0.0);
+        assertEquals(all.getMax(), first.getMax(), 0.0);
+
+        RunningStatistics empty = new RunningStatistics();
+        assertTrue(Double.isNaN(empty.getMean()));
+        empty.merge(all);
+        assertEquals(all.getVariance(), empty.getVariance(), 0.0);
+    }
+
+    @Test
+    public void TestQuantileSketchAccuracy() {
+        Random random = new Random(7);
+        double[] values = new double[10000];
+        QuantileSketch sketch = new QuantileSketch();
+        QuantileSketch first = new QuantileSketch();
+        QuantileSketch second = new QuantileSketch();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.exp(random.nextGaussian() * 2.0 + 3.0);
+            sketch.add(values[i]);
+            (i % 2 == 0 ? first : second).add(values[i]);
+        }
+        first.merge(second);
+        Arrays.sort(values);
+
+        for (double quantile : new double[]{0.0, 0.01, 0.25, 0.5, 0.75, 0.99, 1.0}) {
+            double expected = values[(int) (quantile * (values.length - 1))];
+            assertEquals(expected, sketch.getQuantile(quantile), expected * QuantileSketch.DEFAULT_RELATIVE_ACCURACY);
+            assertEquals(sketch.getQuantile(quantile), first.getQuantile(quantile), 0.0);
+        }
+        assertEquals(values.length, first.getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void TestQuantileSketchDifferentAccuracy() {
+        new QuantileSketch(0.01).merge(new QuantileSketch(0.02));
+    }
+
+    @Test
+    public void TestBiopsyStatistics() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("biopsy");
+        writeRandomBiopsy(biopsyDir, new Random(11), 12);
+
+        BiopsyResult biopsyResult = BiopsyDataProcessor.parseAllDataFilesForBiopsy("biopsy", biopsyDir);
+        assertEquals(12, biopsyResult.getImageStatistics().size());
+
+        // Compare the online statistics with a second pass over the parsed data
+        RunningStatistics glomerulusAreas = new RunningStatistics();
+        RunningStatistics podocyteAreas = new RunningStatistics();
+        for (GlomerulusData glomerulusData : biopsyResult.getGlomerulusData()) {
+            glomerulusAreas.add(glomerulusData.getGeometryInfo().getArea());
+            RunningStatistics glomerulusPodocyteAreas = new RunningStatistics();
+            for (PodocyteData podocyteData : glomerulusData.getPodocytesData()) {
+                podocyteAreas.add(podocyteData.getGeometryInfo().getArea());
+                glomerulusPodocyteAreas.add(podocyteData.getGeometryInfo().getArea());
+            }
+            assertSameStatistics(glomerulusPodocyteAreas, glomerulusData.getPodocyteAreaStatistics());
+            assertSameStatistics(glomerulusPodocyteAreas,
+                    glomerulusData.getPodocyteStatistics().getAreaStatistics());
+        }
+
+        GlomeruliStatistics statistics = biopsyResult.getStatistics();
+        assertSameStatistics(glomerulusAreas, statistics.getGlomerulusStatistics().getAreaStatistics());
+        assertSameStatistics(podocyteAreas, statistics.getPodocyteStatistics().getAreaStatistics());
+        assertEquals((double) podocyteAreas.getCount() / glomerulusAreas.getCount(),
+                statistics.getPodocytesPerGlomerulus().getMean(), DEFAULT_DELTA);
+
+        // Statistics computed from the glomerulus data alone are the same
+        BiopsyResult recomputed = new BiopsyResult("biopsy");
+        recomputed.setGlomerulusData(biopsyResult.getGlomerulusData());
+        assertSameStatistics(recomputed.getStatistics().getPodocyteStatistics(),
+                statistics.getPodocyteStatistics());
+    }
+
+    @Test
+    public void TestStatisticsAreCopies() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("biopsy");
+        writeRandomBiopsy(biopsyDir, new Random(17), 3);
+        BiopsyResult biopsyResult = BiopsyDataProcessor.parseAllDataFilesForBiopsy("biopsy", biopsyDir);
+        final long glomerulusCount = biopsyResult.getGlomerulusData().size();
+
+        biopsyResult.getStatistics().merge(biopsyResult.getStatistics());
+        biopsyResult.getImageStatistics().get(1).merge(biopsyResult.getStatistics());
+        biopsyResult.getGlomerulusData().get(0).getPodocyteStatistics().add(1.0, 1.0);
+        biopsyResult.getGlomerulusData().get(0).getPodocyteAreaStatistics().add(1.0);
+
+        assertEquals(glomerulusCount, biopsyResult.getStatistics().getGlomerulusStatistics().getCount());
+        long imageGlomerulusCount = 0;
+        for (GlomeruliStatistics imageStatistics : biopsyResult.getImageStatistics().values()) {
+            imageGlomerulusCount += imageStatistics.getGlomerulusStatistics().getCount();
+        }
+        assertEquals(glomerulusCount, imageGlomerulusCount);
+        GlomerulusData glomerulusData = biopsyResult.getGlomerulusData().get(0);
+        assertEquals(glomerulusData.getPodocytesData().size(), glomerulusData.getPodocyteStatistics().getCount());
+        assertEquals(glomerulusData.getPodocytesData().size(), glomerulusData.getPodocyteAreaStatistics().getCount());
+    }
+
+    @Test
+    public void TestParallelStatisticsSameAsSequential() throws IOException {
+        File biopsyDir = mTemporaryFolder.newFolder("biopsy");
+        writeRandomBiopsy(biopsyDir, new Random(13), 20);
+
+        BiopsyResult expected = BiopsyDataProcessor.parseAllDataFilesForBiopsy("biopsy", biopsyDir);
+        ExecutorService executor = BiopsyDataProcessor.newIngestionExecutor(4);
+        try {
+            BiopsyResult actual = BiopsyDataProcessor.parseAllDataFilesForBiopsy("biopsy", biopsyDir, executor);
+            assertEquals(expected.getImageStatistics().keySet(), actual.getImageStatistics().keySet());
+            assertSameStatistics(expected.getStatistics().getGlomerulusStatistics(),
+                    actual.getStatistics().getGlomerulusStatistics());
+            assertSameStatistics(expected.getStatistics().getPodocyteStatistics(),
+                    actual.getStatistics().getPodocyteStatistics());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void assertSameStatistics(MorphometryStatistics expected, MorphometryStatistics actual) {
+        assertSameStatistics(expected.getAreaStatistics(), actual.getAreaStatistics());
+        assertSameStatistics(expected.getFeretStatistics(), actual.getFeretStatistics());
+        for (double quantile : new double[]{0.1, 0.5, 0.9}) {
+            assertEquals(expected.getAreaQuantile(quantile), actual.getAreaQuantile(quantile), 0.0);
+            assertEquals(expected.getFeretQuantile(quantile), actual.getFeretQuantile(quantile), 0.0);
+        }
+    }
+
+    private static void assertSameStatistics(RunningStatistics expected, RunningStatistics actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getMean(), actual.getMean(), DEFAULT_DELTA);
+        assertEquals(expected.getVariance(), actual.getVariance(), DEFAULT_DELTA);
+        assertEquals(expected.getMin(), actual.getMin(), 0.0);
+        assertEquals(expected.getMax(), actual.getMax(), 0.0);
+    }
+}
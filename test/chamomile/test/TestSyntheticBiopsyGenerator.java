@@ -0,0 +1,108 @@
+package chamomile.test;
+
+import chamomile.io.BiopsyDataProcessor;
+import chamomile.structures.BiopsyResult;
+import chamomile.structures.GlomerulusData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TestSyntheticBiopsyGenerator {
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private final SyntheticBiopsyGenerator mGenerator = new SyntheticBiopsyGenerator(7)
+            .withBiopsyCount(12)
+            .withImagesPerBiopsy(4)
+            .withGlomeruliPerImage(3)
+            .withPodocytesPerGlomerulus(6)
+            .withSkew(1.0);
+
+    @Test
+    public void TestGeneratedCohortParses() throws IOException {
+        File rootDir = mTemporaryFolder.newFolder("root");
+        SyntheticBiopsyGenerator.Corpus corpus = mGenerator.generate(rootDir);
+
+        List<BiopsyResult> biopsyResults;
+        ExecutorService executor = BiopsyDataProcessor.newIngestionExecutor(4);
+        try {
+            biopsyResults = BiopsyDataProcessor.parseAllBiopsies(rootDir, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(12, corpus.getBiopsyCount());
+        assertEquals(12, biopsyResults.size());
+        long glomerulusCount = 0;
+        long podocyteCount = 0;
+        int imageCount = 0;
+        for (int i = 0; i < biopsyResults.size(); i++) {
+            BiopsyResult biopsyResult = biopsyResults.get(i);
+            assertEquals(mGenerator.getBiopsyId(i), biopsyResult.getId());
+            assertEquals(mGenerator.getImageCount(i), biopsyResult.getImageStatistics().size());
+            imageCount += mGenerator.getImageCount(i);
+            for (GlomerulusData glomerulusData : biopsyResult.getGlomerulusData()) {
+                glomerulusCount++;
+                podocyteCount += glomerulusData.getPodocytesData().size();
+            }
+        }
+        assertEquals(imageCount, corpus.getImageCount());
+        assertEquals(glomerulusCount, corpus.getGlomerulusCount());
+        assertEquals(podocyteCount, corpus.getPodocyteCount());
+    }
+
+    @Test
+    public void TestDeterministic() throws IOException {
+        File rootDir = mTemporaryFolder.newFolder("root");
+        File otherRootDir = mTemporaryFolder.newFolder("other");
+        File singleRootDir = mTemporaryFolder.newFolder("single");
+        mGenerator.generate(rootDir);
+        mGenerator.generate(otherRootDir);
+        // A biopsy generated on its own is the same as in the whole cohort
+        mGenerator.generateBiopsy(singleRootDir, 5);
+
+        for (int i = 0; i < 12; i++) {
+            String biopsyId = mGenerator.getBiopsyId(i);
+            for (int imageId = 1; imageId <= mGenerator.getImageCount(i); imageId++) {
+                byte[] expected = Files.readAllBytes(new File(new File(rootDir, biopsyId), imageId + ".xls").toPath());
+                assertArrayEquals(expected, Files.readAllBytes(
+                        new File(new File(otherRootDir, biopsyId), imageId + ".xls").toPath()));
+                if (i == 5) {
+                    assertArrayEquals(expected, Files.readAllBytes(
+                            new File(new File(singleRootDir, biopsyId), imageId + ".xls").toPath()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void TestSkew() {
+        List<Integer> imageCounts = new ArrayList<>();
+        SyntheticBiopsyGenerator generator = new SyntheticBiopsyGenerator(3)
+                .withBiopsyCount(10)
+                .withImagesPerBiopsy(10)
+                .withSkew(1.0);
+        for (int i = 0; i < 10; i++) {
+            imageCounts.add(generator.getImageCount(i));
+        }
+        imageCounts.sort(Collections.reverseOrder());
+        assertEquals(Arrays.asList(10, 5, 3, 3, 2, 2, 1, 1, 1, 1), imageCounts);
+
+        SyntheticBiopsyGenerator uniform = generator.withSkew(0.0);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(10, uniform.getImageCount(i));
+        }
+    }
+}